@@ -0,0 +1,48 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+/**
+ * One operation to be timed by {@link BenchmarkRunner}.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public abstract class Benchmark {
+
+    private final String name;
+
+    protected Benchmark(String name)  {
+        this.name = name;
+    }
+
+    public String getName()  {
+        return name;
+    }
+
+    /**
+     * Runs operation once. The result is kept so the operation cannot be optimised away.
+     *
+     * @param   i   number of times operation has been run, for choosing inputs
+     * @return  result of operation
+     * @throws  Exception   if operation failed
+     */
+    public abstract Object run(int i) throws Exception;
+
+}
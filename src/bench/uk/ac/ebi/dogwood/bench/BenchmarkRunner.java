@@ -0,0 +1,134 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+import java.util.regex.Pattern;
+
+/**
+ * Times {@link Benchmark}s: each is run for a warm-up period, then for a number of
+ * measurement periods, and the average time per operation in each period is reported.
+ * Settings are read from system properties:
+ * <pre>
+ * bench.include        regular expression for names of benchmarks to run (default .*)
+ * bench.warmup         seconds of warm-up (default 1)
+ * bench.time           seconds per measurement period (default 1)
+ * bench.iterations     number of measurement periods (default 5)
+ * </pre>
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class BenchmarkRunner {
+
+    private static final String FORMAT = "%-30s %10s %10s %12s %12s %12s %12s%n";
+
+    private final Pattern include;
+    private final long warmup;          // Nanoseconds
+    private final long time;            // Nanoseconds
+    private final int iterations;
+
+    private long nulls = 0;             // Keeps results alive
+
+    public BenchmarkRunner()  {
+        this.include    = Pattern.compile(System.getProperty("bench.include", ".*"));
+        this.warmup     = toNanos(System.getProperty("bench.warmup", "1"));
+        this.time       = toNanos(System.getProperty("bench.time", "1"));
+        this.iterations = Integer.parseInt(System.getProperty("bench.iterations", "5"));
+    }
+
+    /**
+     * Returns <code>true</code> if benchmark should be run
+     *
+     * @param   name    benchmark name
+     * @return  <code>true</code> if benchmark should be run
+     */
+    public boolean isIncluded(String name)  {
+        return include.matcher(name).matches();
+    }
+
+    /**
+     * Prints column headings
+     */
+    public void printHeader()  {
+        System.out.printf(FORMAT, "Benchmark", "features", "terms", "ns/op", "min", "max", "ops");
+    }
+
+    /**
+     * Runs benchmark (if included) and prints results
+     *
+     * @param   benchmark   benchmark
+     * @param   features    number of features (for report)
+     * @param   terms       number of terms (for report)
+     * @throws  Exception   if benchmark failed
+     */
+    public void run(Benchmark benchmark, int features, int terms) throws Exception {
+        if (!isIncluded(benchmark.getName()))   {
+            return;
+        }
+        measure(benchmark, warmup);
+        double sum = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        long ops = 0;
+        for (int i = 0; i < iterations; i++) {
+            long[] result = measure(benchmark, time);
+            double nsPerOp = (double) result[1] / result[0];
+            sum += nsPerOp;
+            min = Math.min(min, nsPerOp);
+            max = Math.max(max, nsPerOp);
+            ops += result[0];
+        }
+        System.out.printf(FORMAT, benchmark.getName(), String.valueOf(features), String.valueOf(terms),
+                          format(sum / iterations), format(min), format(max), String.valueOf(ops));
+    }
+
+    // Private methods
+
+    // Runs benchmark for at least the given time, returning number of operations and nanoseconds taken.
+    // The clock is read after batches of operations so that reading it does not swamp fast operations.
+    private long[] measure(Benchmark benchmark, long nanos) throws Exception  {
+        long ops = 0;
+        int batch = 1;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < batch; i++) {
+                if (benchmark.run((int) ((ops + i) & Integer.MAX_VALUE)) == null)  {
+                    nulls++;
+                }
+            }
+            ops += batch;
+            elapsed = System.nanoTime() - start;
+            if (elapsed < nanos / 100 && batch < (1 << 20))   {
+                batch <<= 1;
+            }
+        }
+        while (elapsed < nanos);
+        return new long[] {ops, elapsed};
+    }
+
+    private static long toNanos(String seconds)  {
+        return (long) (Double.parseDouble(seconds) * 1000000000L);
+    }
+
+    private static String format(double nanos)  {
+        return String.format("%.1f", new Object[] {Double.valueOf(nanos)});
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.servlets.dazzle.datasource.DazzleDataSource;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.util.*;
+
+import uk.ac.ebi.dogwood.datasource.GFFOntologyReferenceSource;
+import uk.ac.ebi.dogwood.holder.OntologySnapshot;
+import uk.ac.ebi.dogwood.holder.impl.OntologyMapHolderImpl;
+
+/**
+ * Benchmarks for the hot paths of {@link GFFOntologyReferenceSource}, run against synthetic
+ * GFF files and ontologies of several sizes (see {@link SyntheticData}).
+ * Run with <code>ant bench</code>. Sizes are read from system properties, along with the
+ * settings described in {@link BenchmarkRunner}:
+ * <pre>
+ * bench.features       comma-separated numbers of features (default 1000,100000)
+ * bench.terms          comma-separated numbers of GO terms (default 1000,100000)
+ * bench.data.dir       where synthetic files are written (default build/bench/data)
+ * </pre>
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class DataSourceBenchmarks {
+
+    private static final String HOLDER_ID   = "ontologies";
+
+    /** Maximum number of segments to take sample features from */
+    private static final int SAMPLE_SEGMENTS = 500;
+
+    /** Number of segments per getFeatures(refs) call */
+    private static final int BATCH_SIZE = 20;
+
+    private final SyntheticData data;
+    private final ServletContext context;
+    private GFFOntologyReferenceSource source;
+    private GFFOntologyReferenceSource subsumingSource;     // With typeSubsumption set
+    private Feature[] features;     // Sample features, from segments that stay cached
+    private String[] featureIDs;    // IDs of sample features
+    private String[] refs;          // All segment names
+    private String[] termIDs;       // GO IDs in random order
+    private String[] ancestors;     // GO IDs two levels below the root, each above about 1/16 of all terms
+
+    public DataSourceBenchmarks(SyntheticData data) throws Exception {
+        this.data    = data;
+        this.context = LocalServletContext.create(data.getDirectory());
+        OntologyMapHolderImpl holder = new OntologyMapHolderImpl();
+        holder.setOntologyMapHolderID(HOLDER_ID);
+        holder.setPropertiesFile("/" + SyntheticData.PROPERTIES_FILE);
+        context.setAttribute(HOLDER_ID, holder);
+    }
+
+    /**
+     * Loads data source and picks inputs
+     *
+     * @throws  Exception   if data source could not be loaded
+     */
+    public void setUp() throws Exception  {
+        source = createSource(false);
+        subsumingSource = createSource(true);
+        refs = new String[data.getSegmentCount()];
+        for (int i = 0; i < refs.length; i++) {
+            refs[i] = SyntheticData.getSegmentName(i);
+        }
+        List list = new ArrayList();
+        for (int i = 0; i < Math.min(SAMPLE_SEGMENTS, refs.length); i++) {
+            FeatureHolder holder = source.getFeatures(refs[i]);
+            for (Iterator j = holder.features(); j.hasNext(); ) {
+                list.add(j.next());
+            }
+        }
+        features = (Feature[]) list.toArray(new Feature[list.size()]);
+        featureIDs = new String[features.length];
+        for (int i = 0; i < features.length; i++) {
+            featureIDs[i] = source.getFeatureID(features[i]);
+        }
+        int children = SyntheticData.TERM_CHILDREN;
+        ancestors = new String[children * children];
+        for (int i = 0; i < ancestors.length; i++) {
+            ancestors[i] = SyntheticData.getTermID(1 + children + i);
+        }
+        Random random = new Random(data.getTermCount());
+        termIDs = new String[Math.min(data.getTermCount(), 100000)];
+        for (int i = 0; i < termIDs.length; i++) {
+            termIDs[i] = SyntheticData.getTermID(random.nextInt(data.getTermCount()));
+        }
+    }
+
+    /**
+     * Returns benchmarks
+     *
+     * @return  benchmarks
+     */
+    public Benchmark[] getBenchmarks()  {
+        return new Benchmark[]  {
+            new Benchmark("getFeatureID")   {
+                public Object run(int i) {
+                    return source.getFeatureID(features[i % features.length]);
+                }
+            },
+            new Benchmark("getFeatureLabel")   {
+                public Object run(int i) {
+                    return source.getFeatureLabel(features[i % features.length]);
+                }
+            },
+            new Benchmark("getLinkouts")   {
+                public Object run(int i) {
+                    return source.getLinkouts(features[i % features.length]);
+                }
+            },
+            new Benchmark("getFeatureTargets")   {
+                public Object run(int i) {
+                    return source.getFeatureTargets(features[i % features.length]);
+                }
+            },
+            new Benchmark("getFeatures(ref)")   {
+                public Object run(int i) throws Exception {
+                    return source.getFeatures(refs[i % refs.length]);
+                }
+            },
+            new Benchmark("getFeatures(ref,skewed)")   {
+                // A few segments asked for often and a long tail asked for rarely (roughly Zipf),
+                // with more segments than the feature cache holds
+                private final Random random = new Random(refs.length);
+                public Object run(int i) throws Exception {
+                    double r = random.nextDouble();
+                    return source.getFeatures(refs[(int) (refs.length * r * r * r)]);
+                }
+            },
+            new Benchmark("getFeatures(ref,start,stop)")   {
+                public Object run(int i) throws Exception {
+                    return source.getFeatures(refs[i % Math.min(SAMPLE_SEGMENTS, refs.length)], 1, 100);
+                }
+            },
+            new Benchmark("getFeatures(refs)")   {
+                public Object run(int i) throws Exception {
+                    List batch = new ArrayList(BATCH_SIZE);
+                    for (int j = 0; j < BATCH_SIZE; j++) {
+                        batch.add(refs[(i * BATCH_SIZE + j) % refs.length]);
+                    }
+                    return source.getFeatures(batch);
+                }
+            },
+            new Benchmark("getFeaturesByID")   {
+                public Object run(int i) throws Exception {
+                    return source.getFeaturesByID(featureIDs[i % featureIDs.length], DazzleDataSource.MATCH_EXACT);
+                }
+            },
+            new Benchmark("getFeaturesByID(partial)")   {
+                public Object run(int i) throws Exception {
+                    // Segment name prefix, eg. P000001_ matches every feature on P000001
+                    String id = featureIDs[i % featureIDs.length];
+                    return source.getFeaturesByID(id.substring(0, id.indexOf('_') + 1), DazzleDataSource.MATCH_PARTIAL);
+                }
+            },
+            new Benchmark("filter(type)")   {
+                public Object run(int i) throws Exception {
+                    Feature feature = features[i % features.length];
+                    FeatureHolder holder = source.getFeatures(source.getSegment(feature));
+                    return holder.filter(new FeatureFilter.ByType(feature.getType()));
+                }
+            },
+            new Benchmark("countFeatures(ref,type)")   {
+                public Object run(int i) throws Exception {
+                    Feature feature = features[i % features.length];
+                    return Integer.valueOf(source.countFeatures(source.getSegment(feature), feature.getType()));
+                }
+            },
+            new Benchmark("filter(ancestor)")   {
+                public Object run(int i) throws Exception {
+                    Feature feature = features[i % features.length];
+                    FeatureHolder holder = subsumingSource.getFeatures(subsumingSource.getSegment(feature));
+                    return holder.filter(new FeatureFilter.ByType(ancestors[i % ancestors.length]));
+                }
+            },
+            new Benchmark("countFeatures(ref,ancestor)")   {
+                public Object run(int i) throws Exception {
+                    Feature feature = features[i % features.length];
+                    return Integer.valueOf(subsumingSource.countFeatures(subsumingSource.getSegment(feature),
+                                                                     ancestors[i % ancestors.length]));
+                }
+            },
+            new Benchmark("isA")   {
+                private final OntologySnapshot snapshot = getSnapshot();
+                public Object run(int i) {
+                    return Boolean.valueOf(snapshot.isA(termIDs[i % termIDs.length], ancestors[i % ancestors.length]));
+                }
+            },
+            new Benchmark("getOntologyTerm")   {
+                private final OntologySnapshot snapshot = getSnapshot();
+                public Object run(int i) {
+                    return snapshot.getTerm(termIDs[i % termIDs.length]);
+                }
+            },
+            new Benchmark("getTypeDescription")   {
+                public Object run(int i) {
+                    return source.getTypeDescription(termIDs[i % termIDs.length]);
+                }
+            },
+            new Benchmark("init")   {
+                public Object run(int i) throws Exception {
+                    return createSource(false);
+                }
+            }
+        };
+    }
+
+    /**
+     * Runs benchmarks for every combination of sizes
+     *
+     * @param   args    not used
+     * @throws  Exception   if a benchmark failed
+     */
+    public static void main(String[] args) throws Exception {
+        int[] featureCounts = parseSizes(System.getProperty("bench.features", "1000,100000"));
+        int[] termCounts    = parseSizes(System.getProperty("bench.terms", "1000,100000"));
+        File dir = new File(System.getProperty("bench.data.dir", "build/bench/data"));
+        BenchmarkRunner runner = new BenchmarkRunner();
+        runner.printHeader();
+        for (int i = 0; i < featureCounts.length; i++) {
+            for (int j = 0; j < termCounts.length; j++) {
+                int features = featureCounts[i];
+                int terms    = termCounts[j];
+                SyntheticData data = new SyntheticData(new File(dir, features + "-" + terms), features, terms);
+                data.write();
+                DataSourceBenchmarks benchmarks = new DataSourceBenchmarks(data);
+                benchmarks.setUp();
+                Benchmark[] list = benchmarks.getBenchmarks();
+                for (int k = 0; k < list.length; k++) {
+                    runner.run(list[k], features, terms);
+                }
+            }
+        }
+    }
+
+    // Private methods
+
+    private GFFOntologyReferenceSource createSource(boolean typeSubsumption) throws Exception  {
+        GFFOntologyReferenceSource s = new GFFOntologyReferenceSource();
+        s.setTypeSubsumption(typeSubsumption);
+        s.setUrl("/" + SyntheticData.GFF_FILE);
+        s.setOntologyMapHolderID(HOLDER_ID);
+        s.setRefreshInterval(86400);
+        s.setMaxCachedFeatures(1000);
+        s.setMinLocation(0);
+        s.setAutoLink(true);
+        s.setAutoLinkUrl("http://www.example.com/res?id=${id}");
+        s.init(context);
+        return s;
+    }
+
+    private OntologySnapshot getSnapshot()  {
+        OntologyMapHolderImpl holder = (OntologyMapHolderImpl) context.getAttribute(HOLDER_ID);
+        return holder.getOntologySnapshot();
+    }
+
+    private static int[] parseSizes(String s)  {
+        StringTokenizer tokens = new StringTokenizer(s, ", ");
+        int[] sizes = new int[tokens.countTokens()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Integer.parseInt(tokens.nextToken());
+        }
+        return sizes;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+/**
+ * Histogram of latencies in nanoseconds with log-linear buckets, so percentiles are accurate
+ * to about 3% whatever the range of values. Values below 64 have a bucket each; above that
+ * each power of two is split into 32 buckets.
+ * <p>
+ * Not thread-safe: give each thread its own histogram and {@link #add} them together at the end.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS  = 64;
+    private static final int SUB_BITS        = 5;
+    private static final int SUB_BUCKETS     = 1 << SUB_BITS;
+    private static final int BUCKETS         = LINEAR_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count = 0;
+    private long total = 0;
+    private long max   = 0;
+
+    /**
+     * Records value
+     *
+     * @param   nanos   latency in nanoseconds
+     */
+    public void record(long nanos)  {
+        if (nanos < 0)   {
+            nanos = 0;
+        }
+        counts[getIndex(nanos)]++;
+        count++;
+        total += nanos;
+        if (nanos > max)    {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Adds counts from another histogram to this one
+     *
+     * @param   other   histogram to add
+     */
+    public void add(LatencyHistogram other)  {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount()  {
+        return count;
+    }
+
+    public long getMax()  {
+        return max;
+    }
+
+    public double getMean()  {
+        return (count == 0 ? 0 : (double) total / count);
+    }
+
+    /**
+     * Returns value at percentile
+     *
+     * @param   percentile  0 to 100, for example 99.9
+     * @return  latency in nanoseconds, or 0 if no values recorded
+     */
+    public long getPercentile(double percentile)  {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank)   {
+                return Math.min(max, getValue(i));
+            }
+        }
+        return max;
+    }
+
+    public String toString()    {
+        return "count=" + count + ", mean=" + (long) getMean() + ", p50=" + getPercentile(50) +
+               ", p99=" + getPercentile(99) + ", max=" + max;
+    }
+
+    // Private methods
+
+    private static int getIndex(long value)  {
+        if (value < LINEAR_BUCKETS)    {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;     // >= 1
+        int sub   = (int) (value >>> shift) - SUB_BUCKETS;                  // 0 to SUB_BUCKETS - 1
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    // Returns middle of bucket
+    private static long getValue(int index)  {
+        if (index < LINEAR_BUCKETS)    {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long sub  = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << (shift - 1));
+    }
+
+}
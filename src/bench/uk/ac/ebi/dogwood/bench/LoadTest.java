@@ -0,0 +1,450 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+import com.meterware.httpunit.GetMethodWebRequest;
+import com.meterware.httpunit.WebRequest;
+import com.meterware.servletunit.InvocationContext;
+import com.meterware.servletunit.ServletRunner;
+import com.meterware.servletunit.ServletUnitClient;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import uk.ac.ebi.dogwood.sequence.DummySequenceProvider;
+
+/**
+ * Load test for the data sources behind the Dazzle servlet. The web application is booted in
+ * ServletUnit's embedded container from <code>src/web</code>, with the GFF files and ontologies
+ * replaced by {@link SyntheticData} and the map master replaced by {@link DummySequenceProvider},
+ * so no network access is needed. Worker threads then send a random mix of DAS commands and the
+ * throughput and latency percentiles of each command are reported.
+ * <p>
+ * Run with <code>ant loadtest</code>. Settings are read from system properties:
+ * <pre>
+ * load.features        number of features in synthetic GFF file (default 100000)
+ * load.terms           number of GO terms (default 10000)
+ * load.threads         number of client threads (default 4)
+ * load.warmup          seconds of warm-up (default 5)
+ * load.time            seconds of measurement (default 30)
+ * load.mix             command:weight pairs (default features:60,types:10,sequence:20,entry_points:10)
+ * load.sources         data sources to send commands to (default ontology-reference,annotation)
+ * load.web.dir         web application to copy web.xml and dazzlecfg.xml from (default src/web)
+ * load.data.dir        where the web application is built (default build/load)
+ * </pre>
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class LoadTest {
+
+    private static final String URL_ROOT    = "http://localhost/";
+    private static final String WEB_XML     = "WEB-INF/web.xml";
+    private static final String CONFIG_FILE = "dazzlecfg.xml";
+    private static final String FORMAT      = "%-32s %9s %9s %8s %10s %10s %10s %10s%n";
+
+    private final SyntheticData data;
+    private final String[] sources;
+    private final String[] commands;
+    private final int[] weights;
+    private final int[][] mix;              // Cumulative weights of commands supported by each source
+    private final int threads;
+    private final long warmup;              // Nanoseconds
+    private final long time;                // Nanoseconds
+
+    private ServletRunner runner;
+
+    public LoadTest(SyntheticData data, String[] sources, String mix, int threads,
+                    double warmupSeconds, double timeSeconds)  {
+        this.data    = data;
+        this.sources = sources;
+        this.threads = threads;
+        this.warmup  = (long) (warmupSeconds * 1000000000L);
+        this.time    = (long) (timeSeconds * 1000000000L);
+        StringTokenizer tokens = new StringTokenizer(mix, ", ");
+        this.commands = new String[tokens.countTokens()];
+        this.weights  = new int[commands.length];
+        this.mix      = new int[sources.length][commands.length];
+        for (int i = 0; i < commands.length; i++) {
+            String token = tokens.nextToken();
+            int colon = token.indexOf(':');
+            commands[i] = (colon < 0 ? token : token.substring(0, colon));
+            weights[i]  = (colon < 0 ? 1 : Integer.parseInt(token.substring(colon + 1)));
+        }
+    }
+
+    /**
+     * Writes synthetic data and web application files to the data directory, then starts the
+     * embedded servlet container. Each command is sent to each data source once, so that the time
+     * taken to load the data sources is not counted as latency, and commands a data source does not
+     * implement (for example <code>entry_points</code> on annotation sources) are left out of its mix.
+     *
+     * @param   webDir  web application to copy web.xml and dazzlecfg.xml from
+     * @throws  Exception   if the web application could not be started
+     */
+    public void setUp(File webDir) throws Exception  {
+        File dir = data.getDirectory();
+        data.write();
+        new File(dir, "WEB-INF").mkdirs();
+        copy(new File(webDir, WEB_XML), new File(dir, WEB_XML));
+        writeConfig(new File(webDir, CONFIG_FILE), new File(dir, CONFIG_FILE));
+        runner = new ServletRunner(new File(dir, WEB_XML), "");
+        long start = System.nanoTime();
+        ServletUnitClient client = newClient();
+        Random random = new Random();
+        for (int i = 0; i < sources.length; i++) {
+            int sum = 0;
+            for (int j = 0; j < commands.length; j++) {
+                String status = invoke(client, newRequest(sources[i], commands[j], random));
+                if (status != null && status.startsWith("501"))   {
+                    System.out.println("Skipping " + sources[i] + "/" + commands[j] + ": not implemented");
+                }
+                else if (!isOK(status))    {
+                    throw new IllegalStateException(sources[i] + "/" + commands[j] + " failed: " + status);
+                }
+                else    {
+                    sum += weights[j];
+                }
+                mix[i][j] = sum;
+            }
+            if (sum == 0)   {
+                throw new IllegalStateException(sources[i] + " does not implement any of the commands");
+            }
+        }
+        System.out.println("Started " + data + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    /**
+     * Runs the load test and prints results
+     *
+     * @throws  Exception   if a client thread failed
+     */
+    public void run() throws Exception  {
+        Worker[] workers = new Worker[threads];
+        long now = System.nanoTime();
+        long measureStart = now + warmup;
+        long measureEnd   = measureStart + time;
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker(i, measureStart, measureEnd);
+            workers[i].start();
+        }
+        Map histograms = new TreeMap();
+        Map errors = new TreeMap();
+        for (int i = 0; i < workers.length; i++) {
+            workers[i].join();
+            if (workers[i].failure != null) {
+                throw workers[i].failure;
+            }
+            for (Iterator j = workers[i].histograms.entrySet().iterator(); j.hasNext();) {
+                Map.Entry entry = (Map.Entry) j.next();
+                LatencyHistogram h = (LatencyHistogram) histograms.get(entry.getKey());
+                if (h == null)  {
+                    h = new LatencyHistogram();
+                    histograms.put(entry.getKey(), h);
+                }
+                h.add((LatencyHistogram) entry.getValue());
+            }
+            for (Iterator j = workers[i].errors.entrySet().iterator(); j.hasNext();) {
+                Map.Entry entry = (Map.Entry) j.next();
+                Long count = (Long) errors.get(entry.getKey());
+                long n = ((Long) entry.getValue()).longValue() + (count == null ? 0 : count.longValue());
+                errors.put(entry.getKey(), Long.valueOf(n));
+            }
+        }
+        printResults(histograms, errors);
+    }
+
+    /**
+     * Shuts down the servlet container
+     */
+    public void tearDown()  {
+        if (runner != null) {
+            runner.shutDown();
+        }
+    }
+
+    /**
+     * Runs load test with settings from system properties
+     *
+     * @param   args    not used
+     * @throws  Exception   if load test failed
+     */
+    public static void main(String[] args) throws Exception {
+        int features = Integer.parseInt(System.getProperty("load.features", "100000"));
+        int terms    = Integer.parseInt(System.getProperty("load.terms", "10000"));
+        File dir     = new File(System.getProperty("load.data.dir", "build/load"));
+        File webDir  = new File(System.getProperty("load.web.dir", "src/web"));
+        String[] sources = split(System.getProperty("load.sources", "ontology-reference,annotation"));
+        LoadTest test = new LoadTest(new SyntheticData(new File(dir, features + "-" + terms), features, terms),
+                                     sources,
+                                     System.getProperty("load.mix", "features:60,types:10,sequence:20,entry_points:10"),
+                                     Integer.parseInt(System.getProperty("load.threads", "4")),
+                                     Double.parseDouble(System.getProperty("load.warmup", "5")),
+                                     Double.parseDouble(System.getProperty("load.time", "30")));
+        try {
+            test.setUp(webDir);
+            test.run();
+        }
+        finally {
+            test.tearDown();
+        }
+    }
+
+    // Private methods
+
+    private ServletUnitClient newClient()  {
+        ServletUnitClient client = runner.newClient();
+        client.setExceptionsThrownOnErrorStatus(false);
+        return client;
+    }
+
+    // Calls the filters and servlet directly rather than through ServletUnitClient.getResponse,
+    // which polls the response body with sleeps, and returns the DAS status
+    private static String invoke(ServletUnitClient client, WebRequest request) throws Exception  {
+        InvocationContext context = client.newInvocation(request);
+        StatusResponse response = new StatusResponse(context.getResponse());
+        if (context.isFilterActive())   {
+            context.getFilter().doFilter(context.getRequest(), response, context.getFilterChain());
+        }
+        else    {
+            context.getServlet().service(context.getRequest(), response);
+        }
+        return response.status;
+    }
+
+    private String nextCommand(int source, Random random)  {
+        int[] cumulative = mix[source];
+        int n = random.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (n < cumulative[i]) {
+                return commands[i];
+            }
+        }
+        return commands[commands.length - 1];
+    }
+
+    private WebRequest newRequest(String source, String command, Random random)  {
+        WebRequest request = new GetMethodWebRequest(URL_ROOT + source + "/" + command);
+        if (command.equals("features") || command.equals("sequence"))   {
+            request.setParameter("segment", SyntheticData.getSegmentName(random.nextInt(data.getSegmentCount())));
+        }
+        return request;
+    }
+
+    // Adapts dazzlecfg.xml to run without network access: GFF URLs point to the synthetic file,
+    // the annotation source uses dummy sequences instead of the map master, and the reference
+    // source takes sequence lengths from the GFF file instead of the sequence resource.
+    private static void writeConfig(File in, File out) throws IOException   {
+        String config = read(in);
+        config = replaceAll(config, "(<string\\s+name=\"url\"\\s+value=\")/[^\"]*\\.gff\"",
+                            "$1/" + SyntheticData.GFF_FILE + "\"");
+        config = replaceAll(config, "\\s*<string\\s+name=\"sequenceHolderID\"[^>]*/>", "");
+        config = replaceAll(config, "(<string\\s+name=\"mapMaster\"[^>]*/>)",
+                            "$1\n        <string name=\"sequenceProvider\" value=\"" +
+                            DummySequenceProvider.class.getName() + "\" />");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(out), "UTF-8");
+        try {
+            writer.write(config);
+        }
+        finally {
+            writer.close();
+        }
+    }
+
+    private void printResults(Map histograms, Map errors)  {
+        double seconds = time / 1e9;
+        System.out.printf(FORMAT, "Command", "requests", "req/s", "errors", "mean ms", "p50 ms", "p99 ms", "p999 ms");
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for (Iterator i = histograms.entrySet().iterator(); i.hasNext();) {
+            Map.Entry entry = (Map.Entry) i.next();
+            LatencyHistogram h = (LatencyHistogram) entry.getValue();
+            Long e = (Long) errors.get(entry.getKey());
+            long n = (e == null ? 0 : e.longValue());
+            printRow((String) entry.getKey(), h, n, seconds);
+            all.add(h);
+            allErrors += n;
+        }
+        printRow("total", all, allErrors, seconds);
+    }
+
+    private static void printRow(String name, LatencyHistogram h, long errors, double seconds)  {
+        System.out.printf(FORMAT, name, String.valueOf(h.getCount()), format(h.getCount() / seconds),
+                          String.valueOf(errors), toMillis(h.getMean()), toMillis(h.getPercentile(50)),
+                          toMillis(h.getPercentile(99)), toMillis(h.getPercentile(99.9)));
+    }
+
+    private static boolean isOK(String status)  {
+        return (status == null || status.startsWith("200"));
+    }
+
+    private static String toMillis(double nanos)  {
+        return String.format("%.3f", new Object[] {Double.valueOf(nanos / 1e6)});
+    }
+
+    private static String format(double value)  {
+        return String.format("%.1f", new Object[] {Double.valueOf(value)});
+    }
+
+    private static String replaceAll(String s, String regex, String replacement)  {
+        Matcher m = Pattern.compile(regex).matcher(s);
+        return m.replaceAll(replacement);
+    }
+
+    private static String read(File file) throws IOException  {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            StringBuffer buf = new StringBuffer();
+            char[] chars = new char[4096];
+            int n;
+            while ((n = reader.read(chars)) != -1)  {
+                buf.append(chars, 0, n);
+            }
+            return buf.toString();
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private static void copy(File from, File to) throws IOException   {
+        InputStream in = new FileInputStream(from);
+        try {
+            OutputStream out = new FileOutputStream(to);
+            try {
+                byte[] bytes = new byte[4096];
+                int n;
+                while ((n = in.read(bytes)) != -1)  {
+                    out.write(bytes, 0, n);
+                }
+            }
+            finally {
+                out.close();
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private static String[] split(String s)  {
+        StringTokenizer tokens = new StringTokenizer(s, ", ");
+        String[] list = new String[tokens.countTokens()];
+        for (int i = 0; i < list.length; i++) {
+            list[i] = tokens.nextToken();
+        }
+        return list;
+    }
+
+    /**
+     * Keeps the X-DAS-Status header.
+     */
+    private static final class StatusResponse extends HttpServletResponseWrapper {
+
+        private String status = null;
+
+        StatusResponse(HttpServletResponse response)  {
+            super(response);
+        }
+
+        public void setHeader(String name, String value)    {
+            keepStatus(name, value);
+            super.setHeader(name, value);
+        }
+
+        public void addHeader(String name, String value)    {
+            keepStatus(name, value);
+            super.addHeader(name, value);
+        }
+
+        public void setIntHeader(String name, int value)    {
+            keepStatus(name, String.valueOf(value));
+            super.setIntHeader(name, value);
+        }
+
+        public void addIntHeader(String name, int value)    {
+            keepStatus(name, String.valueOf(value));
+            super.addIntHeader(name, value);
+        }
+
+        private void keepStatus(String name, String value)  {
+            if (name.equalsIgnoreCase("X-DAS-Status"))  {
+                status = value;
+            }
+        }
+
+    }
+
+    /**
+     * Client thread: sends random commands until the end of the measurement period, recording
+     * latencies of requests started after the warm-up period.
+     */
+    private final class Worker extends Thread {
+
+        private final long measureStart;
+        private final long measureEnd;
+        private final Random random;
+        private final Map histograms = new HashMap();   // source/command -> LatencyHistogram
+        private final Map errors     = new HashMap();   // source/command -> Long
+        private Exception failure;
+
+        Worker(int index, long measureStart, long measureEnd)  {
+            super("load-" + index);
+            this.measureStart = measureStart;
+            this.measureEnd   = measureEnd;
+            this.random       = new Random(index);
+        }
+
+        public void run()   {
+            try {
+                ServletUnitClient client = newClient();
+                long start;
+                while ((start = System.nanoTime()) < measureEnd)  {
+                    int s = random.nextInt(sources.length);
+                    String source  = sources[s];
+                    String command = nextCommand(s, random);
+                    String status  = invoke(client, newRequest(source, command, random));
+                    long elapsed = System.nanoTime() - start;
+                    if (start >= measureStart)  {
+                        String key = source + "/" + command;
+                        LatencyHistogram h = (LatencyHistogram) histograms.get(key);
+                        if (h == null)  {
+                            h = new LatencyHistogram();
+                            histograms.put(key, h);
+                        }
+                        h.record(elapsed);
+                        if (!isOK(status))    {
+                            Long n = (Long) errors.get(key);
+                            errors.put(key, Long.valueOf(n == null ? 1 : n.longValue() + 1));
+                        }
+                    }
+                }
+            }
+            catch (Exception e) {
+                failure = e;
+            }
+        }
+
+    }
+
+}
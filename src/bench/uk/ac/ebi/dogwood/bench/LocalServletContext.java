@@ -0,0 +1,104 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+import javax.servlet.ServletContext;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Minimal servlet context for running data sources outside a servlet container.
+ * Resources are read from a directory, attributes are kept in a map and log messages
+ * go to standard error. Other methods return <code>null</code>.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class LocalServletContext implements InvocationHandler {
+
+    private final File dir;
+    private final Map attributes = Collections.synchronizedMap(new HashMap());
+
+    private LocalServletContext(File dir)  {
+        this.dir = dir;
+    }
+
+    /**
+     * Creates servlet context
+     *
+     * @param   dir     directory that resource paths are relative to
+     * @return  servlet context
+     */
+    public static ServletContext create(File dir)  {
+        return (ServletContext) Proxy.newProxyInstance(LocalServletContext.class.getClassLoader(),
+                                                       new Class[] {ServletContext.class},
+                                                       new LocalServletContext(dir));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.equals("getResourceAsStream"))   {
+            try {
+                return new FileInputStream(new File(dir, (String) args[0]));
+            }
+            catch (FileNotFoundException e) {
+                return null;
+            }
+        }
+        if (name.equals("getRealPath"))   {
+            return new File(dir, (String) args[0]).getPath();
+        }
+        if (name.equals("getAttribute"))   {
+            return attributes.get(args[0]);
+        }
+        if (name.equals("setAttribute"))   {
+            attributes.put(args[0], args[1]);
+            return null;
+        }
+        if (name.equals("removeAttribute"))   {
+            attributes.remove(args[0]);
+            return null;
+        }
+        if (name.equals("log"))   {
+            System.err.println(args[0]);
+            if (args.length > 1 && args[1] instanceof Throwable)   {
+                ((Throwable) args[1]).printStackTrace();
+            }
+            return null;
+        }
+        if (name.equals("equals"))   {
+            return Boolean.valueOf(proxy == args[0]);
+        }
+        if (name.equals("hashCode"))   {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        if (name.equals("toString"))   {
+            return "LocalServletContext:" + dir;
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.bench;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Writes a synthetic GFF file and ontologies for benchmarking.
+ * The same sizes always give the same files, so existing files are reused.
+ * <p>
+ * Files written to the output directory:
+ * <pre>
+ * features.gff             GFF file (types are GO IDs, methods are ECO IDs)
+ * go.obo                   GO terms and links (OBO, for OboOntology)
+ * eco.txt                  ECO terms (tab-delimited, for TabOntology)
+ * ontologies.properties    ontology map properties for the above
+ * </pre>
+ * GO terms form a tree with four children per term (GO:0000001 is the root), and every fifth
+ * term is also part_of a random earlier term.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class SyntheticData {
+
+    public static final String GFF_FILE         = "features.gff";
+    public static final String PROPERTIES_FILE  = "ontologies.properties";
+
+    /** Number of features on each segment */
+    public static final int FEATURES_PER_SEGMENT = 50;
+
+    /** Number of ECO terms */
+    public static final int METHOD_COUNT = 20;
+
+    /** Number of children of each GO term */
+    public static final int TERM_CHILDREN = 4;
+
+    private static final long SEED = 20061018L;
+    private static final int DATA_VERSION = 2;      // Change when the files written change
+
+    private final File dir;
+    private final int featureCount;
+    private final int termCount;
+
+    /**
+     * Creates data set
+     *
+     * @param   dir             output directory
+     * @param   featureCount    number of features in GFF file
+     * @param   termCount       number of GO terms
+     */
+    public SyntheticData(File dir, int featureCount, int termCount)  {
+        this.dir          = dir;
+        this.featureCount = featureCount;
+        this.termCount    = termCount;
+    }
+
+    public File getDirectory()  {
+        return dir;
+    }
+
+    public int getFeatureCount()  {
+        return featureCount;
+    }
+
+    public int getTermCount()  {
+        return termCount;
+    }
+
+    public int getSegmentCount()  {
+        return (featureCount + FEATURES_PER_SEGMENT - 1) / FEATURES_PER_SEGMENT;
+    }
+
+    /**
+     * Returns name of segment
+     *
+     * @param   index   0 to <code>getSegmentCount() - 1</code>
+     * @return  segment name, for example P000001
+     */
+    public static String getSegmentName(int index)  {
+        return "P" + pad(index, 6);
+    }
+
+    /**
+     * Returns GO ID
+     *
+     * @param   index   0 to <code>getTermCount() - 1</code>
+     * @return  GO ID, for example GO:0000001
+     */
+    public static String getTermID(int index)  {
+        return "GO:" + pad(index + 1, 7);
+    }
+
+    /**
+     * Returns index of parent of GO term in the tree
+     *
+     * @param   index   1 to <code>getTermCount() - 1</code>
+     * @return  index of parent
+     */
+    public static int getParentIndex(int index)  {
+        return (index - 1) / TERM_CHILDREN;
+    }
+
+    /**
+     * Writes files unless they have already been written
+     *
+     * @throws  IOException if files could not be written
+     */
+    public void write() throws IOException  {
+        File done = new File(dir, ".complete-" + DATA_VERSION);
+        if (done.exists())  {
+            return;
+        }
+        dir.mkdirs();
+        writeObo(new File(dir, "go.obo"), termCount);
+        writeTerms(new File(dir, "eco.txt"), "ECO", METHOD_COUNT, "evidence");
+        writeProperties(new File(dir, PROPERTIES_FILE), new File(dir, "go.obo"));
+        writeGFF(new File(dir, GFF_FILE));
+        new FileOutputStream(done).close();
+    }
+
+    public String toString()    {
+        return featureCount + " features, " + termCount + " terms in " + dir;
+    }
+
+    /**
+     * Writes data set
+     *
+     * @param   args    output directory, number of features, number of terms
+     * @throws  IOException if files could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3)   {
+            System.err.println("Usage: SyntheticData <dir> <features> <terms>");
+            System.exit(1);
+        }
+        SyntheticData data = new SyntheticData(new File(args[0]), Integer.parseInt(args[1]),
+                                               Integer.parseInt(args[2]));
+        data.write();
+        System.out.println(data);
+    }
+
+    // Private methods
+
+    private void writeGFF(File file) throws IOException   {
+        Random random = new Random(SEED);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+        try {
+            out.print("##gff-version 2\n");
+            int segments = getSegmentCount();
+            for (int s = 0; s < segments; s++) {
+                String segment = getSegmentName(s);
+                int length = 200 + random.nextInt(2000);
+                out.print("##sequence-region " + segment + " 1 " + length + "\n");
+                int n = Math.min(FEATURES_PER_SEGMENT, featureCount - s * FEATURES_PER_SEGMENT);
+                for (int f = 0; f < n; f++) {
+                    int start = 1 + random.nextInt(length - 1);
+                    int stop  = Math.min(length, start + random.nextInt(200));
+                    String type   = getTermID(random.nextInt(termCount));
+                    String method = "ECO:" + pad(1 + random.nextInt(METHOD_COUNT), 7);
+                    String id     = segment + "_" + f;
+                    out.print(segment + "\t" + method + "\t" + type + "\t" + start + "\t" + stop + "\t.\t.\t.\t");
+                    out.print("ID \"" + id + "\" ; Name \"Feature " + f + "\" ; Note \"Synthetic feature\"");
+                    if (f % 10 == 0)  {
+                        out.print(" ; Target \"" + getSegmentName(random.nextInt(segments)) + "\"");
+                    }
+                    if (f % 5 == 0)  {
+                        out.print(" ; Link \"http://www.example.com/" + id + "\"");
+                    }
+                    out.print("\n");
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void writeObo(File file, int count) throws IOException   {
+        Random random = new Random(SEED);
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+        try {
+            out.print("format-version: 1.0\n");
+            for (int i = 0; i < count; i++) {
+                out.print("\n[Term]\nid: " + getTermID(i) + "\nname: GO term " + (i + 1) + "\n");
+                if (i > 0)  {
+                    out.print("is_a: " + getTermID(getParentIndex(i)) + "\n");
+                    if (i % 5 == 0) {
+                        out.print("relationship: part_of " + getTermID(random.nextInt(i)) + "\n");
+                    }
+                }
+            }
+            out.print("\n[Typedef]\nid: part_of\nname: part of\nis_transitive: true\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static void writeTerms(File file, String prefix, int count, String word) throws IOException   {
+        PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(file), 1 << 16));
+        try {
+            for (int i = 0; i < count; i++) {
+                out.print(prefix + ":" + pad(i + 1, 7) + "\t" + prefix + " " + word + " " + (i + 1) + "\n");
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // OboOntology opens its URI itself rather than through the servlet context, so use a file path
+    private static void writeProperties(File file, File obo) throws IOException   {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.print("GO.uri=" + obo.getAbsolutePath() + "\n");
+            out.print("GO.refresh-interval=86400\n");
+            out.print("GO.class=uk.ac.ebi.hawthorn.OboOntology\n");
+            out.print("ECO.uri=/eco.txt\n");
+            out.print("ECO.refresh-interval=86400\n");
+            out.print("ECO.class=uk.ac.ebi.hawthorn.TabOntology\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String pad(int number, int width)   {
+        StringBuffer buf = new StringBuffer(width);
+        String s = String.valueOf(number);
+        for (int i = s.length(); i < width; i++) {
+            buf.append('0');
+        }
+        return buf.append(s).toString();
+    }
+
+}
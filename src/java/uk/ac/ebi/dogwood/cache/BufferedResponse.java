@@ -0,0 +1,194 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.cache;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Response that keeps the body, content type and headers written by a servlet instead of
+ * sending them, so they can be turned into a {@link Fragment}. Errors sent with
+ * <code>sendError</code> are recorded and left to the caller to send.
+ * <code>Content-Encoding</code> and <code>Content-Length</code> are ignored because the
+ * caller works them out when it sends the fragment.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class BufferedResponse extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+    private final List headers          = new ArrayList();      // String[] {name, value}
+    private String contentType          = null;
+    private int error                   = 0;                    // Status passed to sendError
+    private String errorMessage         = null;
+    private ServletOutputStream outputStream = null;
+    private PrintWriter writer          = null;
+
+    BufferedResponse(HttpServletResponse response)  {
+        super(response);
+    }
+
+    /**
+     * Returns what the servlet wrote
+     *
+     * @return  content type, headers and body
+     */
+    Fragment toFragment()  {
+        if (writer != null) {
+            writer.flush();
+        }
+        String[][] array = (String[][]) headers.toArray(new String[headers.size()][]);
+        return new Fragment(contentType, array, buffer.toByteArray());
+    }
+
+    /**
+     * Returns status passed to <code>sendError</code>
+     *
+     * @return  HTTP status, or 0 if <code>sendError</code> was not called
+     */
+    int getError()  {
+        return error;
+    }
+
+    String getErrorMessage()  {
+        return errorMessage;
+    }
+
+    /* HttpServletResponse implementation */
+
+    public void setContentType(String type)  {
+        this.contentType = type;
+        super.setContentType(type);     // So getCharacterEncoding matches the content type
+    }
+
+    public void setContentLength(int length)  {
+        // Worked out when the fragment is sent
+    }
+
+    public boolean containsHeader(String name)  {
+        return (indexOf(name) >= 0);
+    }
+
+    public void setHeader(String name, String value)  {
+        int i;
+        while ((i = indexOf(name)) >= 0)  {
+            headers.remove(i);
+        }
+        addHeader(name, value);
+    }
+
+    public void addHeader(String name, String value)  {
+        if (!"Content-Encoding".equalsIgnoreCase(name) && !"Content-Length".equalsIgnoreCase(name))    {
+            headers.add(new String[]{name, value});
+        }
+    }
+
+    public void setIntHeader(String name, int value)  {
+        setHeader(name, String.valueOf(value));
+    }
+
+    public void addIntHeader(String name, int value)  {
+        addHeader(name, String.valueOf(value));
+    }
+
+    public void sendError(int status) throws IOException  {
+        sendError(status, null);
+    }
+
+    public void sendError(int status, String message) throws IOException  {
+        this.error        = status;
+        this.errorMessage = message;
+    }
+
+    public ServletOutputStream getOutputStream() throws IOException  {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (outputStream == null)   {
+            outputStream = new ServletOutputStream()   {
+                public void write(int b)    {
+                    buffer.write(b);
+                }
+                public void write(byte[] b, int off, int len)    {
+                    buffer.write(b, off, len);
+                }
+            };
+        }
+        return outputStream;
+    }
+
+    public PrintWriter getWriter() throws IOException  {
+        if (outputStream != null)   {
+            throw new IllegalStateException("getOutputStream() has already been called");
+        }
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(buffer, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    public void flushBuffer() throws IOException  {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    public boolean isCommitted()  {
+        return false;
+    }
+
+    public void resetBuffer()  {
+        if (writer != null) {
+            writer.flush();
+        }
+        buffer.reset();
+    }
+
+    public void reset()  {
+        resetBuffer();
+        headers.clear();
+        contentType = null;
+        error = 0;
+        errorMessage = null;
+    }
+
+    // Private methods
+
+    // Returns index of header, or -1 if not set
+    private int indexOf(String name)  {
+        int n = 0;
+        for (Iterator i = headers.iterator(); i.hasNext(); n++) {
+            String[] header = (String[]) i.next();
+            if (header[0].equalsIgnoreCase(name))   {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.cache;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Rendered DAS response: content type, headers and body, plus the body compressed with gzip.
+ * Fragments are immutable once created so can be served to many requests at the same time.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class Fragment {
+
+    private static final String DAS_STATUS  = "X-DAS-Status";
+    private static final String DAS_OK      = "200";
+
+    private final String contentType;
+    private final String[][] headers;       // {name, value}
+    private final byte[] body;
+    private volatile byte[] gzippedBody     = null;     // Compressed on first use
+
+    /**
+     * Creates fragment.
+     *
+     * @param   contentType     content type, or <code>null</code> if not set
+     * @param   headers         header names and values (<code>{name, value}</code>)
+     * @param   body            uncompressed body
+     */
+    Fragment(String contentType, String[][] headers, byte[] body)  {
+        this.contentType = contentType;
+        this.headers     = headers;
+        this.body        = body;
+    }
+
+    /**
+     * Returns <code>true</code> if Dazzle reported success (<code>X-DAS-Status: 200</code>).
+     * Only successful responses are cached and given validators.
+     *
+     * @return  <code>true</code> if DAS status is 200
+     */
+    boolean isOk()  {
+        for (int i = 0; i < headers.length; i++) {
+            if (DAS_STATUS.equalsIgnoreCase(headers[i][0]))   {
+                return DAS_OK.equals(headers[i][1]);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets content type and headers on <code>response</code>
+     *
+     * @param   response    HTTP response
+     */
+    void writeHeaders(HttpServletResponse response)  {
+        if (contentType != null)    {
+            response.setContentType(contentType);
+        }
+        for (int i = 0; i < headers.length; i++) {
+            response.setHeader(headers[i][0], headers[i][1]);
+        }
+    }
+
+    byte[] getBody()  {
+        return body;
+    }
+
+    /**
+     * Returns body compressed with gzip, compressing it if this has not been done yet
+     *
+     * @return  compressed body
+     * @throws  IOException if body could not be compressed
+     */
+    byte[] getGzippedBody() throws IOException  {
+        byte[] gzipped = gzippedBody;
+        if (gzipped == null)    {
+            // Two threads may both compress the body, but they get the same result
+            ByteArrayOutputStream out = new ByteArrayOutputStream(body.length / 4 + 64);
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            gzip.write(body);
+            gzip.close();
+            gzipped = out.toByteArray();
+            gzippedBody = gzipped;
+        }
+        return gzipped;
+    }
+
+    /**
+     * Returns number of bytes held (uncompressed and, if created, compressed body)
+     *
+     * @return  number of bytes held
+     */
+    int size()  {
+        byte[] gzipped = gzippedBody;
+        return body.length + (gzipped == null ? 0 : gzipped.length);
+    }
+
+}
@@ -0,0 +1,335 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.cache;
+
+import org.biojava.utils.cache.CacheMap;
+import org.biojava.utils.cache.FixedSizeMap;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+
+import uk.ac.ebi.dogwood.datasource.VersionedSource;
+import uk.ac.ebi.dogwood.metrics.Metrics;
+import uk.ac.ebi.dogwood.metrics.MetricsRegistry;
+
+/**
+ * Caches the XML that Dazzle renders for DAS commands, so repeated requests for the same
+ * segments and type filters are answered without walking the features again.
+ * <p>
+ * Responses are keyed by request URI and query string, and belong to the current data version:
+ * the sum of the data generations of every {@link VersionedSource} in the servlet context.
+ * When any GFF file or the ontologies are refreshed the version changes and all cached responses
+ * are dropped. The version is also sent as an <code>ETag</code>, with a <code>Last-Modified</code>
+ * date, so clients can revalidate with <code>If-None-Match</code> or <code>If-Modified-Since</code>
+ * and get <code>304 Not Modified</code> without any XML being rendered or sent.
+ * Bodies are kept uncompressed and gzipped, and the gzipped copy is sent to clients that accept it.
+ * Only responses with <code>X-DAS-Status: 200</code> are cached.
+ * <p>
+ * Init parameters (all optional):
+ * <ul>
+ * <li><code>commands</code>: DAS commands to cache (default <code>features,types,entry_points</code>)
+ * <li><code>maxEntries</code>: maximum number of responses to keep (default 1000)
+ * <li><code>maxEntrySize</code>: largest body in bytes to keep (default 1048576)
+ * <li><code>gzip</code>: <code>false</code> to never compress (default <code>true</code>)
+ * </ul>
+ * Hits, misses and <code>304</code> responses are counted in the metrics group "Fragment cache".
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class FragmentCacheFilter implements Filter {
+
+    private static final String DEFAULT_COMMANDS    = "features,types,entry_points";
+    private static final String ACCEPT_ENCODING     = "Accept-Encoding";
+    private static final String GZIP                = "gzip";
+
+    private ServletContext servletContext   = null;
+    private Set commands                    = new HashSet();
+    private int maxEntries                  = 1000;
+    private int maxEntrySize                = 1048576;
+    private boolean gzip                    = true;
+    private Metrics metrics                 = null;
+
+    // Responses for the current data version (guarded by this)
+    private String cacheVersion             = null;
+    private CacheMap fragments              = null;     // Request URI and query -> Fragment
+
+    public void init(FilterConfig config) throws ServletException {
+        this.servletContext = config.getServletContext();
+        String value = config.getInitParameter("commands");
+        StringTokenizer tokens = new StringTokenizer(value == null ? DEFAULT_COMMANDS : value, ", ");
+        while (tokens.hasMoreTokens()) {
+            commands.add(tokens.nextToken());
+        }
+        value = config.getInitParameter("maxEntries");
+        if (value != null)  {
+            this.maxEntries = Integer.parseInt(value);
+        }
+        value = config.getInitParameter("maxEntrySize");
+        if (value != null)  {
+            this.maxEntrySize = Integer.parseInt(value);
+        }
+        value = config.getInitParameter("gzip");
+        if (value != null)  {
+            this.gzip = Boolean.valueOf(value).booleanValue();
+        }
+        this.metrics = MetricsRegistry.getInstance().getMetrics("Fragment cache");
+    }
+
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        if (!(req instanceof HttpServletRequest) || !isCacheable((HttpServletRequest) req)) {
+            chain.doFilter(req, res);
+            return;
+        }
+        HttpServletRequest request   = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        // Read version before rendering, so a response is never cached under a later version
+        Version version = getVersion();
+        if (version == null)    {
+            // No data sources initialised yet
+            chain.doFilter(req, res);
+            return;
+        }
+        boolean compress = acceptsGzip(request);
+        String etag = version.getETag(compress);
+        if (isNotModified(request, version, etag)) {
+            metrics.increment("notModified");
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            setValidators(response, version, etag);
+            return;
+        }
+        String key = getKey(request);
+        Fragment fragment = get(version, key);
+        if (fragment == null)   {
+            metrics.increment("misses");
+            // Ask for an uncompressed response: we compress it ourselves
+            BufferedResponse buffered = new BufferedResponse(response);
+            chain.doFilter(new PlainRequest(request), buffered);
+            if (buffered.getError() != 0)  {
+                if (buffered.getErrorMessage() == null) {
+                    response.sendError(buffered.getError());
+                }
+                else    {
+                    response.sendError(buffered.getError(), buffered.getErrorMessage());
+                }
+                return;
+            }
+            fragment = buffered.toFragment();
+            if (fragment.isOk() && fragment.getBody().length <= maxEntrySize)  {
+                if (gzip)   {
+                    fragment.getGzippedBody();
+                }
+                put(version, key, fragment);
+            }
+        }
+        else    {
+            metrics.increment("hits");
+        }
+        write(response, fragment, version, etag, compress);
+    }
+
+    public void destroy() {
+        synchronized (this) {
+            this.cacheVersion = null;
+            this.fragments    = null;
+        }
+        MetricsRegistry.getInstance().removeMetrics(metrics.getName());
+    }
+
+    // Private methods
+
+    // Returns true if request is a GET for one of the cached commands
+    private boolean isCacheable(HttpServletRequest request) {
+        if (!"GET".equals(request.getMethod()))    {
+            return false;
+        }
+        String path = request.getPathInfo();
+        if (path == null)   {
+            return false;
+        }
+        String command = path.substring(path.lastIndexOf('/') + 1);
+        return commands.contains(command);
+    }
+
+    private boolean acceptsGzip(HttpServletRequest request) {
+        String encoding = request.getHeader(ACCEPT_ENCODING);
+        return (gzip && encoding != null && encoding.indexOf(GZIP) >= 0);
+    }
+
+    // Returns request URI and query string, or parameters if there is no query string (eg. forwarded request)
+    private String getKey(HttpServletRequest request) {
+        StringBuffer key = new StringBuffer(request.getRequestURI());
+        String query = request.getQueryString();
+        if (query != null)  {
+            key.append('?').append(query);
+            return key.toString();
+        }
+        Map parameters = new TreeMap(request.getParameterMap());
+        char separator = '?';
+        for (Iterator i = parameters.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            String[] values = (String[]) entry.getValue();
+            for (int j = 0; j < values.length; j++) {
+                key.append(separator).append(entry.getKey()).append('=').append(values[j]);
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    // Returns current data version, or null if there are no versioned sources
+    private Version getVersion()  {
+        List sources = (List) servletContext.getAttribute(VersionedSource.CONTEXT_ATTRIBUTE);
+        if (sources == null || sources.isEmpty())   {
+            return null;
+        }
+        long generation   = 0;
+        long lastModified = 0;
+        for (Iterator i = sources.iterator(); i.hasNext(); ) {
+            VersionedSource source = (VersionedSource) i.next();
+            // Read date before generation: if the data changes in between, the date is
+            // earlier than it should be, so clients revalidate rather than keep old data
+            lastModified = Math.max(lastModified, source.getLastModified());
+            generation  += source.getDataGeneration();
+        }
+        return new Version(generation, lastModified);
+    }
+
+    // Returns true if client already has the current version
+    private boolean isNotModified(HttpServletRequest request, Version version, String etag) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null)    {
+            return (ifNoneMatch.trim().equals("*") || ifNoneMatch.indexOf(etag) >= 0);
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader("If-Modified-Since");
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates are in whole seconds
+        return (ifModifiedSince >= 0 && version.getLastModified() / 1000 <= ifModifiedSince / 1000);
+    }
+
+    private void setValidators(HttpServletResponse response, Version version, String etag)  {
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", version.getLastModified());
+        response.setHeader("Vary", ACCEPT_ENCODING);
+    }
+
+    // Returns cached response, or null if not cached for this version
+    private synchronized Fragment get(Version version, String key)  {
+        if (fragments == null || !version.getETag(false).equals(cacheVersion))   {
+            return null;
+        }
+        return (Fragment) fragments.get(key);
+    }
+
+    // Caches response, dropping responses for other versions
+    private synchronized void put(Version version, String key, Fragment fragment)  {
+        String v = version.getETag(false);
+        if (fragments == null || !v.equals(cacheVersion))    {
+            if (fragments != null)  {
+                metrics.increment("flushes");
+            }
+            this.cacheVersion = v;
+            this.fragments    = new FixedSizeMap(maxEntries);
+        }
+        fragments.put(key, fragment);
+    }
+
+    private void write(HttpServletResponse response, Fragment fragment, Version version, String etag,
+                       boolean compress) throws IOException  {
+        fragment.writeHeaders(response);
+        if (fragment.isOk())    {
+            setValidators(response, version, etag);
+        }
+        byte[] body;
+        if (compress)   {
+            response.setHeader("Content-Encoding", GZIP);
+            body = fragment.getGzippedBody();
+        }
+        else    {
+            body = fragment.getBody();
+        }
+        response.setContentLength(body.length);
+        OutputStream out = response.getOutputStream();
+        out.write(body);
+        out.flush();
+    }
+
+    // Data version that responses were rendered from
+    private static final class Version {
+
+        private final long generation;
+        private final long lastModified;
+
+        Version(long generation, long lastModified)  {
+            this.generation   = generation;
+            this.lastModified = lastModified;
+        }
+
+        long getLastModified()  {
+            return lastModified;
+        }
+
+        // Compressed and uncompressed bodies are different representations so get different tags
+        String getETag(boolean gzipped)  {
+            return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(generation) +
+                   (gzipped ? "-gz\"" : "\"");
+        }
+
+    }
+
+    // Hides Accept-Encoding so Dazzle does not compress the response
+    private static final class PlainRequest extends HttpServletRequestWrapper {
+
+        PlainRequest(HttpServletRequest request)  {
+            super(request);
+        }
+
+        public String getHeader(String name)  {
+            return (ACCEPT_ENCODING.equalsIgnoreCase(name) ? null : super.getHeader(name));
+        }
+
+        public Enumeration getHeaders(String name)  {
+            if (ACCEPT_ENCODING.equalsIgnoreCase(name)) {
+                return Collections.enumeration(Collections.EMPTY_LIST);
+            }
+            return super.getHeaders(name);
+        }
+
+    }
+
+}
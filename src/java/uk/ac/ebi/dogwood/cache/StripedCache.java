@@ -0,0 +1,543 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.cache;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import uk.ac.ebi.dogwood.metrics.StripedCounter;
+
+/**
+ * Concurrent cache bounded by the total weight of its entries (for example a number of entries,
+ * features or bytes), which keeps entries that are used often in preference to entries that
+ * are used once.
+ * <p>
+ * Lookups read a <code>ConcurrentHashMap</code> without locking. Entries are split into stripes by
+ * key, and each stripe has its own lock, least recently used order and frequency sketch
+ * (a count-min sketch of recent lookups, halved as it fills so old popularity fades).
+ * A lookup (hit or miss) that finds its stripe busy does not wait: it skips updating the order and sketch.
+ * <p>
+ * New entries go into a small window (about 1% of the capacity), so something just loaded is
+ * still there for the rest of the request. Entries leaving the window only replace the least
+ * recently used entries of the main part if they have been looked up at least as often
+ * (W-TinyLFU admission); otherwise they are rejected and the entries they would have replaced
+ * stay. A burst of one-off lookups, such as a crawler walking every segment, therefore cannot
+ * flush the entries that are in steady use.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class StripedCache {
+
+    /**
+     * Works out how much of the cache's capacity an entry uses
+     */
+    public interface Weigher {
+
+        /**
+         * Returns weight of entry
+         *
+         * @param   key     key
+         * @param   value   value
+         * @return  weight (at least 1)
+         */
+        int weigh(Object key, Object value);
+
+    }
+
+    /** Every entry weighs 1, so capacity is a number of entries */
+    public static final Weigher ENTRIES = new Weigher() {
+        public int weigh(Object key, Object value) {
+            return 1;
+        }
+    };
+
+    private static final int SKETCH_ROWS        = 4;
+    private static final int MIN_SKETCH_WIDTH   = 256;
+    private static final int MAX_FREQUENCY      = 15;
+    private static final int[] SEEDS            = {0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xC2B2AE35};
+    private static final int MAX_STRIPES        = 64;
+    private static final int WINDOW_PERCENT     = 1;
+
+    private final long capacity;
+    private final long windowCapacity;              // Per stripe
+    private final Weigher weigher;
+    private final Stripe[] stripes;
+    private final Map entries           = new ConcurrentHashMap();     // Key -> Node
+    private final AtomicLong weight     = new AtomicLong();
+    private final AtomicInteger nextVictimStripe = new AtomicInteger();
+
+    private final StripedCounter hits       = new StripedCounter();
+    private final StripedCounter misses     = new StripedCounter();
+    private final StripedCounter evictions  = new StripedCounter();
+    private final StripedCounter rejections = new StripedCounter();
+
+    /**
+     * Creates cache with two stripes per processor (rounded up to a power of two).
+     *
+     * @param   capacity    maximum total weight of entries
+     * @param   weigher     works out the weight of each entry (use {@link #ENTRIES} to count entries)
+     */
+    public StripedCache(long capacity, Weigher weigher)  {
+        this(capacity, weigher, 2 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates cache.
+     *
+     * @param   capacity    maximum total weight of entries
+     * @param   weigher     works out the weight of each entry (use {@link #ENTRIES} to count entries)
+     * @param   stripes     number of stripes (rounded up to a power of two, but no more than capacity)
+     */
+    public StripedCache(long capacity, Weigher weigher, int stripes)  {
+        if (capacity < 1)   {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        this.capacity = capacity;
+        this.weigher  = weigher;
+        int n = 1;
+        while (n < stripes && n < MAX_STRIPES && n * 2 <= capacity)  {
+            n <<= 1;
+        }
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.windowCapacity = capacity * WINDOW_PERCENT / 100 / n;
+    }
+
+    /**
+     * Returns value and records the lookup, or returns <code>null</code> if not cached
+     *
+     * @param   key     key
+     * @return  value, or <code>null</code> if not cached
+     */
+    public Object get(Object key)  {
+        int hash = spread(key.hashCode());
+        Stripe stripe = getStripe(hash);
+        Node node = (Node) entries.get(key);
+        if (node == null)   {
+            misses.increment();
+            // The caller is about to load the key and put it, which locks the stripe anyway,
+            // so don't queue behind it here: a lost count only makes admission slightly stricter
+            if (stripe.lock.tryLock())    {
+                try {
+                    stripe.increment(hash);
+                }
+                finally {
+                    stripe.lock.unlock();
+                }
+            }
+            return null;
+        }
+        hits.increment();
+        if (stripe.lock.tryLock())    {
+            try {
+                stripe.increment(hash);
+                stripe.touch(node);
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns value without recording the lookup, or returns <code>null</code> if not cached.
+     * Use for lookups that follow a {@link #get(Object)} for the same request.
+     *
+     * @param   key     key
+     * @return  value, or <code>null</code> if not cached
+     */
+    public Object peek(Object key)  {
+        Node node = (Node) entries.get(key);
+        return (node == null ? null : node.value);
+    }
+
+    /**
+     * Adds or replaces entry. New entries are always added, but may be rejected later
+     * (see {@link #getRejectionCount()}).
+     *
+     * @param   key     key
+     * @param   value   value
+     * @return  <code>false</code> if entry is heavier than the whole cache, otherwise <code>true</code>
+     */
+    public boolean put(Object key, Object value)  {
+        int w = Math.max(1, weigher.weigh(key, value));
+        if (w > capacity)   {
+            rejections.increment();
+            remove(key);
+            return false;
+        }
+        int hash = spread(key.hashCode());
+        Stripe stripe = getStripe(hash);
+        stripe.lock.lock();
+        try {
+            Node node = new Node(key, value, w);
+            Node old  = (Node) stripe.window.get(key);
+            if (old != null)    {
+                node.windowed = true;
+                stripe.window.put(key, node);
+                stripe.windowWeight += w - old.weight;
+            }
+            else    {
+                old = (Node) stripe.main.get(key);
+                if (old != null)    {
+                    stripe.main.put(key, node);
+                }
+                else    {
+                    node.windowed = true;
+                    stripe.window.put(key, node);
+                    stripe.windowWeight += w;
+                }
+            }
+            entries.put(key, node);
+            weight.addAndGet(w - (old == null ? 0 : old.weight));
+            drainWindow(stripe);
+            stripe.grow();
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+        if (weight.get() > capacity)    {
+            evictFromOtherStripes();
+        }
+        return true;
+    }
+
+    /**
+     * Removes entry
+     *
+     * @param   key     key
+     */
+    public void remove(Object key)  {
+        Stripe stripe = getStripe(spread(key.hashCode()));
+        stripe.lock.lock();
+        try {
+            Node node = (Node) stripe.window.remove(key);
+            if (node != null)   {
+                stripe.windowWeight -= node.weight;
+            }
+            else    {
+                node = (Node) stripe.main.remove(key);
+            }
+            if (node != null)   {
+                remove(node);
+            }
+        }
+        finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries. Statistics and lookup frequencies are kept.
+     */
+    public void clear()  {
+        for (int i = 0; i < stripes.length; i++) {
+            Stripe stripe = stripes[i];
+            stripe.lock.lock();
+            try {
+                removeAll(stripe.window);
+                removeAll(stripe.main);
+                stripe.windowWeight = 0;
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns keys of all entries, without recording lookups
+     *
+     * @return  copy of keys (in no particular order)
+     */
+    public List getKeys()  {
+        return new ArrayList(entries.keySet());
+    }
+
+    /**
+     * Returns number of entries
+     *
+     * @return  number of entries
+     */
+    public int size()  {
+        return entries.size();
+    }
+
+    /**
+     * Returns total weight of entries
+     *
+     * @return  total weight of entries
+     */
+    public long getWeight()  {
+        return weight.get();
+    }
+
+    /**
+     * Returns maximum total weight of entries
+     *
+     * @return  maximum total weight of entries
+     */
+    public long getCapacity()  {
+        return capacity;
+    }
+
+    /**
+     * Returns number of lookups that found a value
+     *
+     * @return  number of hits
+     */
+    public long getHitCount()  {
+        return hits.get();
+    }
+
+    /**
+     * Returns number of lookups that found nothing
+     *
+     * @return  number of misses
+     */
+    public long getMissCount()  {
+        return misses.get();
+    }
+
+    /**
+     * Returns number of entries removed to make room for others
+     *
+     * @return  number of evictions
+     */
+    public long getEvictionCount()  {
+        return evictions.get();
+    }
+
+    /**
+     * Returns number of entries dropped when they left the window, because they were used less
+     * often than the entries they would have replaced, or because they were heavier than the whole cache
+     *
+     * @return  number of rejections
+     */
+    public long getRejectionCount()  {
+        return rejections.get();
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer();
+        buf.append("Entries:\t" + size() + "\n");
+        buf.append("Weight:\t" + getWeight() + " of " + capacity + "\n");
+        buf.append("Stripes:\t" + stripes.length + "\n");
+        buf.append("Hits:\t" + hits + "\n");
+        buf.append("Misses:\t" + misses + "\n");
+        buf.append("Evictions:\t" + evictions + "\n");
+        buf.append("Rejections:\t" + rejections + "\n");
+        return buf.toString();
+    }
+
+    // Private methods
+
+    // Moves least recently used entries out of the window (keeping at least one) and admits them
+    // to the main part if they are used at least as often as the entries they replace
+    // (stripe must be locked)
+    private void drainWindow(Stripe stripe)  {
+        while (stripe.windowWeight > windowCapacity && stripe.window.size() > 1) {
+            Iterator i = stripe.window.values().iterator();
+            Node candidate = (Node) i.next();
+            i.remove();
+            stripe.windowWeight -= candidate.weight;
+            if (admit(stripe, candidate))   {
+                candidate.windowed = false;
+                stripe.main.put(candidate.key, candidate);
+            }
+            else    {
+                remove(candidate);
+                rejections.increment();
+            }
+        }
+    }
+
+    // Removes least recently used entries of stripe's main part until candidate fits, unless one
+    // of them has been used more often than candidate, in which case none are removed (stripe must be locked)
+    private boolean admit(Stripe stripe, Node candidate)  {
+        int frequency = stripe.frequency(spread(candidate.key.hashCode()));
+        long excess = weight.get() - capacity;
+        List victims = new ArrayList();
+        for (Iterator i = stripe.main.values().iterator(); excess > 0 && i.hasNext(); ) {
+            Node victim = (Node) i.next();
+            if (stripe.frequency(spread(victim.key.hashCode())) > frequency)  {
+                return false;
+            }
+            victims.add(victim);
+            excess -= victim.weight;
+        }
+        for (Iterator i = victims.iterator(); i.hasNext(); ) {
+            Node victim = (Node) i.next();
+            stripe.main.remove(victim.key);
+            remove(victim);
+            evictions.increment();
+        }
+        return true;
+    }
+
+    // Removes least recently used entries from other stripes while the cache is over capacity,
+    // for example when the new entry's stripe was empty. Skips stripes that are busy.
+    private void evictFromOtherStripes()  {
+        for (int tries = 0; tries < stripes.length && weight.get() > capacity; tries++) {
+            Stripe stripe = stripes[(nextVictimStripe.getAndIncrement() & Integer.MAX_VALUE) % stripes.length];
+            if (!stripe.lock.tryLock())   {
+                continue;
+            }
+            try {
+                evict(stripe.main.values().iterator());
+                for (Iterator i = stripe.window.values().iterator(); weight.get() > capacity && i.hasNext(); ) {
+                    Node victim = (Node) i.next();
+                    i.remove();
+                    stripe.windowWeight -= victim.weight;
+                    remove(victim);
+                    evictions.increment();
+                }
+            }
+            finally {
+                stripe.lock.unlock();
+            }
+        }
+    }
+
+    // Removes entries from iterator while the cache is over capacity (stripe must be locked)
+    private void evict(Iterator i)  {
+        while (weight.get() > capacity && i.hasNext())  {
+            Node victim = (Node) i.next();
+            i.remove();
+            remove(victim);
+            evictions.increment();
+        }
+    }
+
+    // Removes all entries in map (stripe must be locked)
+    private void removeAll(Map map)  {
+        for (Iterator i = map.values().iterator(); i.hasNext(); ) {
+            Node node = (Node) i.next();
+            i.remove();
+            remove(node);
+        }
+    }
+
+    // Removes node that has been removed from its stripe (stripe must be locked)
+    private void remove(Node node)  {
+        entries.remove(node.key);
+        weight.addAndGet(-node.weight);
+    }
+
+    private Stripe getStripe(int hash)  {
+        return stripes[(hash >>> 16) & (stripes.length - 1)];
+    }
+
+    private static int spread(int h)  {
+        h ^= (h >>> 16);
+        h *= 0x85EBCA6B;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private static final class Node {
+
+        final Object key;
+        final Object value;
+        final int weight;
+        boolean windowed = false;       // In window rather than main part (guarded by stripe lock)
+
+        Node(Object key, Object value, int weight)  {
+            this.key    = key;
+            this.value  = value;
+            this.weight = weight;
+        }
+
+    }
+
+    // Entries with the same stripe, in least recently used order, and their lookup frequencies
+    private static final class Stripe {
+
+        final ReentrantLock lock = new ReentrantLock();
+        final LinkedHashMap window = new LinkedHashMap(16, 0.75f, true);    // Key -> Node, new entries (guarded by lock)
+        final LinkedHashMap main   = new LinkedHashMap(16, 0.75f, true);    // Key -> Node, admitted entries (guarded by lock)
+        long windowWeight = 0;                                              // Guarded by lock
+        private byte[][] sketch = new byte[SKETCH_ROWS][MIN_SKETCH_WIDTH];  // Guarded by lock
+        private int additions = 0;                                          // Since sketch was last halved
+
+        // Records lookup of key
+        void increment(int hash)  {
+            boolean added = false;
+            for (int row = 0; row < SKETCH_ROWS; row++) {
+                int i = index(hash, row);
+                if (sketch[row][i] < MAX_FREQUENCY) {
+                    sketch[row][i]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sketch[0].length * 10)    {
+                halve();
+            }
+        }
+
+        // Returns estimated number of recent lookups of key
+        int frequency(int hash)  {
+            int min = MAX_FREQUENCY;
+            for (int row = 0; row < SKETCH_ROWS; row++) {
+                min = Math.min(min, sketch[row][index(hash, row)]);
+            }
+            return min;
+        }
+
+        // Moves entry to most recently used (does nothing if node has been replaced or removed)
+        void touch(Node node)  {
+            (node.windowed ? window : main).get(node.key);
+        }
+
+        // Widens sketch (losing counts) when there are more entries than counters per row
+        void grow()  {
+            if (window.size() + main.size() > sketch[0].length)   {
+                sketch = new byte[SKETCH_ROWS][sketch[0].length * 2];
+                additions = 0;
+            }
+        }
+
+        private void halve()  {
+            for (int row = 0; row < SKETCH_ROWS; row++) {
+                for (int i = 0; i < sketch[row].length; i++) {
+                    sketch[row][i] >>= 1;
+                }
+            }
+            additions /= 2;
+        }
+
+        private int index(int hash, int row)  {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 15)) & (sketch[row].length - 1);
+        }
+
+    }
+
+}
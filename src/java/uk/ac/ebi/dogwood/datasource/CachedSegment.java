@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import org.biojava.bio.seq.Feature;
+
+import java.util.List;
+import java.util.Map;
+
+import uk.ac.ebi.dogwood.gff.GFFSegment;
+import uk.ac.ebi.dogwood.gff.IndexedFeatureHolder;
+
+/**
+ * Features of one segment together with their resolved IDs, labels, links and targets,
+ * and the {@link Generation} they were created from.
+ * Entries are immutable: when the labels go out of date a new entry is created
+ * for the same features. The features' sequence points to the latest entry
+ * (see {@link SegmentSequence}), so it can be found from any of them.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class CachedSegment {
+
+    private final Generation generation;
+    private final SegmentSequence sequence;
+    private final IndexedFeatureHolder features;
+    private final LabelTable labelTable;
+    private final String[] ids;         // Indexed by ordinal
+    private final String[] labels;      // Indexed by ordinal
+    private final Map[] linkouts;       // Indexed by ordinal (unmodifiable)
+    private final List[] targets;       // Indexed by ordinal (unmodifiable, null if no targets)
+
+    /**
+     * Creates entry.
+     *
+     * @param   generation  generation the features were created from
+     * @param   sequence    sequence the features were created on
+     * @param   features    features of segment
+     * @param   labelTable  label table in force when labels were resolved
+     * @param   ids         feature IDs, indexed by ordinal
+     * @param   labels      feature labels, indexed by ordinal
+     * @param   linkouts    unmodifiable feature links, indexed by ordinal
+     * @param   targets     unmodifiable lists of target features, indexed by ordinal
+     */
+    CachedSegment(Generation generation, SegmentSequence sequence, IndexedFeatureHolder features,
+                  LabelTable labelTable, String[] ids, String[] labels, Map[] linkouts, List[] targets)    {
+        this.generation = generation;
+        this.sequence   = sequence;
+        this.features   = features;
+        this.labelTable = labelTable;
+        this.ids        = ids;
+        this.labels     = labels;
+        this.linkouts   = linkouts;
+        this.targets    = targets;
+    }
+
+    Generation getGeneration()  {
+        return generation;
+    }
+
+    SegmentSequence getSequence()  {
+        return sequence;
+    }
+
+    IndexedFeatureHolder getFeatures()  {
+        return features;
+    }
+
+    GFFSegment getSegment()  {
+        return features.getSegment();
+    }
+
+    LabelTable getLabelTable()  {
+        return labelTable;
+    }
+
+    /**
+     * Returns position of feature in segment, or -1 if feature is not in this segment
+     *
+     * @param   feature     feature
+     * @return  ordinal, or -1 if feature is not in this segment
+     */
+    int getOrdinal(Feature feature)  {
+        return features.getOrdinal(feature);
+    }
+
+    String getFeatureID(int ordinal)  {
+        return ids[ordinal];
+    }
+
+    String getFeatureLabel(int ordinal)  {
+        return labels[ordinal];
+    }
+
+    Map getLinkouts(int ordinal)  {
+        return linkouts[ordinal];
+    }
+
+    /**
+     * Returns target features, or <code>null</code> if the feature has no targets
+     *
+     * @param   ordinal     position of feature in segment
+     * @return  target features, or <code>null</code> if the feature has no targets
+     */
+    List getFeatureTargets(int ordinal)  {
+        return targets[ordinal];
+    }
+
+    // Returns links of all features (for reuse when labels are resolved again)
+    Map[] getLinkouts()  {
+        return linkouts;
+    }
+
+    // Returns targets of all features (for reuse when labels are resolved again)
+    List[] getFeatureTargets()  {
+        return targets;
+    }
+
+}
@@ -7,14 +7,24 @@ import org.biojava.servlets.dazzle.datasource.GFFSource;
 import org.biojava.bio.seq.Sequence;
 import org.biojava.bio.seq.FeatureHolder;
 import org.biojava.bio.seq.Feature;
-import org.biojava.bio.seq.db.SequenceDBLite;
 import org.biojava.bio.seq.db.IllegalIDException;
 import org.biojava.bio.BioException;
-import org.biojava.bio.program.das.DASSequenceDB;
 
 import javax.servlet.ServletContext;
+import java.lang.reflect.InvocationTargetException;
 import java.util.*;
-import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import uk.ac.ebi.dogwood.sequence.SequenceProvider;
+import uk.ac.ebi.dogwood.sequence.SequenceCache;
+import uk.ac.ebi.dogwood.sequence.DASSequenceProvider;
+import uk.ac.ebi.dogwood.metrics.Gauge;
+import uk.ac.ebi.dogwood.metrics.Metrics;
 
 /**
  * Annotation source backed by a GFF file serving ontology-based annotation.
@@ -27,33 +37,67 @@ import java.net.URL;
  */
 public class GFFOntologyAnnotationSource
        extends AbstractDataSource
-       implements DazzleDataSource, GFFSource, OntologyAwareSource {
+       implements DazzleDataSource, GFFSource, OntologyAwareSource, VersionedSource {
 
     private static final String DATA_SOURCE_TYPE        = "GFFOntologyAnnotationSource";
     private static final String DATA_SOURCE_VERSION     = "1.0";
 
     private String mapMaster              = "";
-    private SequenceDBLite referenceServer = null;
+    private String sequenceProvider       = DASSequenceProvider.class.getName();
+    private int maxCachedSequences        = 100;
+    private int sequenceCacheTimeout      = 3600;    // Seconds
+    private boolean prefetchSequences     = false;
+    private int prefetchThreads           = 4;
+    private int prefetchTimeout           = 300;     // Seconds
+    private SequenceCache sequenceCache   = null;
+    private Prefetch prefetch             = null;    // Stopped on destroy
     private GFFOntologyReferenceSource gffOntologyReferenceSource = new GFFOntologyReferenceSource();
 
     /**
      * Initialises annotation source.
+     * Reference sequences are fetched from the map master by default; set <code>sequenceProvider</code>
+     * to the name of another {@link SequenceProvider} to use a local stand-in, for example
+     * {@link uk.ac.ebi.dogwood.sequence.DummySequenceProvider} for testing.
+     * If <code>prefetchSequences</code> is set, sequences for the segments in the GFF file are
+     * fetched in the background (see {@link #setPrefetchSequences(boolean)}).
      *
      * @param   servletContext      Servlet context
-     * @throws  DataSourceException if GFF file could not be parsed
+     * @throws  DataSourceException if GFF file could not be parsed or sequence provider could not be created
      * @see     GFFOntologyReferenceSource#init(javax.servlet.ServletContext)
      */
     public void init(ServletContext servletContext) throws DataSourceException {
         super.init(servletContext);
         try {
+            // Metrics are kept under this data source's name
+            gffOntologyReferenceSource.setName(getName());
             gffOntologyReferenceSource.init(servletContext);
-            referenceServer = new DASSequenceDB(new URL(mapMaster)).allEntryPointsDB();
+            SequenceProvider provider = createSequenceProvider();
+            provider.init(mapMaster);
+            sequenceCache = new SequenceCache(provider, maxCachedSequences, sequenceCacheTimeout);
+            initMetrics(sequenceCache);
+            if (prefetchSequences)  {
+                startPrefetch();
+            }
         }
         catch (Exception ex) {
             throw new DataSourceException(ex, ex.getMessage());
         }
     }
 
+    /**
+     * Stops any sequence prefetch and destroys the reference source that this source delegates to.
+     *
+     * @see     GFFOntologyReferenceSource#destroy()
+     */
+    public void destroy() {
+        if (prefetch != null)   {
+            prefetch.stop();
+            prefetch = null;
+        }
+        gffOntologyReferenceSource.destroy();
+        super.destroy();
+    }
+
     /* OntologyAwareSource implemenation */
 
     public String getOntologyMapHolderID() {
@@ -82,6 +126,54 @@ public class GFFOntologyAnnotationSource
         gffOntologyReferenceSource.setMaxCachedFeatures(i);
     }
 
+    public String getFeatureCacheUnit() {
+        return gffOntologyReferenceSource.getFeatureCacheUnit();
+    }
+
+    public void setFeatureCacheUnit(String unit) {
+        gffOntologyReferenceSource.setFeatureCacheUnit(unit);
+    }
+
+    public int getMaxCachedTargets() {
+        return gffOntologyReferenceSource.getMaxCachedTargets();
+    }
+
+    public void setMaxCachedTargets(int i) {
+        gffOntologyReferenceSource.setMaxCachedTargets(i);
+    }
+
+    public int getMaxUnknownTerms() {
+        return gffOntologyReferenceSource.getMaxUnknownTerms();
+    }
+
+    public void setMaxUnknownTerms(int i) {
+        gffOntologyReferenceSource.setMaxUnknownTerms(i);
+    }
+
+    public int getParserThreads() {
+        return gffOntologyReferenceSource.getParserThreads();
+    }
+
+    public void setParserThreads(int i) {
+        gffOntologyReferenceSource.setParserThreads(i);
+    }
+
+    public int getRemoteTimeout() {
+        return gffOntologyReferenceSource.getRemoteTimeout();
+    }
+
+    public void setRemoteTimeout(int i) {
+        gffOntologyReferenceSource.setRemoteTimeout(i);
+    }
+
+    public boolean getTypeSubsumption() {
+        return gffOntologyReferenceSource.getTypeSubsumption();
+    }
+
+    public void setTypeSubsumption(boolean b) {
+        gffOntologyReferenceSource.setTypeSubsumption(b);
+    }
+
     public String getSequenceHolderID() {
         return null;
     }
@@ -94,6 +186,14 @@ public class GFFOntologyAnnotationSource
         return gffOntologyReferenceSource.getIDAttribute();
     }
 
+    public String getAttributesFile() {
+        return gffOntologyReferenceSource.getAttributesFile();
+    }
+
+    public void setAttributesFile(String path) {
+        gffOntologyReferenceSource.setAttributesFile(path);
+    }
+
     public String getPassword() {
         return gffOntologyReferenceSource.getPassword();
     }
@@ -169,10 +269,10 @@ public class GFFOntologyAnnotationSource
     }
 
     public Sequence getSequence(String id) throws DataSourceException, NoSuchElementException {
+        Metrics metrics = getMetrics();
+        long start = metrics.start();
         try {
-            Sequence sequence = referenceServer.getSequence(id);
-            sequence.length();  // ensure fetching...
-            return sequence;
+            return sequenceCache.getSequence(id);
         }
         catch (IllegalIDException ex) {
             throw new NoSuchElementException("Unknown reference sequence: " + id);
@@ -180,6 +280,9 @@ public class GFFOntologyAnnotationSource
         catch (BioException ex) {
             throw new NoSuchElementException("Unknown reference sequence: " + id);
         }
+        finally {
+            metrics.stop("getSequence", start);
+        }
     }
 
     public String getMapMaster() {
@@ -190,6 +293,121 @@ public class GFFOntologyAnnotationSource
         this.mapMaster = mapMaster;
     }
 
+    public String getSequenceProvider() {
+        return sequenceProvider;
+    }
+
+    public void setSequenceProvider(String className) {
+        this.sequenceProvider = className;
+    }
+
+    public int getMaxCachedSequences() {
+        return maxCachedSequences;
+    }
+
+    public void setMaxCachedSequences(int i) {
+        this.maxCachedSequences = i;
+    }
+
+    /**
+     * Returns number of seconds a reference sequence is cached for (0 = no time limit)
+     *
+     * @return  number of seconds a reference sequence is cached for
+     */
+    public int getSequenceCacheTimeout() {
+        return sequenceCacheTimeout;
+    }
+
+    public void setSequenceCacheTimeout(int seconds) {
+        this.sequenceCacheTimeout = seconds;
+    }
+
+    public boolean getPrefetchSequences() {
+        return prefetchSequences;
+    }
+
+    /**
+     * Sets whether to fetch reference sequences for the segments in the GFF file when the data
+     * source is initialised, instead of when each segment is first asked for.
+     * Sequences are fetched in the background, <code>prefetchThreads</code> at a time, for at most
+     * <code>maxCachedSequences</code> segments so the first ones are not removed to make room
+     * for the last. A request for a sequence that is being prefetched waits for that
+     * fetch rather than starting another. Prefetching stops after <code>prefetchTimeout</code>
+     * seconds: fetches not yet started are cancelled and those still running are interrupted
+     * (requests waiting for an interrupted fetch fail, and the next request fetches again).
+     *
+     * @param   prefetch    <code>true</code> to prefetch sequences (default is <code>false</code>)
+     * @since   1.0.5
+     */
+    public void setPrefetchSequences(boolean prefetch) {
+        this.prefetchSequences = prefetch;
+    }
+
+    public int getPrefetchThreads() {
+        return prefetchThreads;
+    }
+
+    /**
+     * Sets number of sequences to fetch at a time when prefetching
+     *
+     * @param   threads     number of concurrent fetches (default is 4)
+     * @since   1.0.5
+     */
+    public void setPrefetchThreads(int threads) {
+        this.prefetchThreads = threads;
+    }
+
+    public int getPrefetchTimeout() {
+        return prefetchTimeout;
+    }
+
+    /**
+     * Sets number of seconds after which prefetching is cancelled
+     *
+     * @param   seconds     time limit for prefetching (default is 300)
+     * @since   1.0.5
+     */
+    public void setPrefetchTimeout(int seconds) {
+        this.prefetchTimeout = seconds;
+    }
+
+    /**
+     * Returns reference sequence cache, for example to read hit and miss counts
+     *
+     * @return  reference sequence cache, or <code>null</code> if not initialised
+     */
+    public SequenceCache getSequenceCache() {
+        return sequenceCache;
+    }
+
+    /**
+     * Returns timings and counts for this data source
+     *
+     * @return  metrics, or <code>null</code> if not initialised
+     * @see     GFFOntologyReferenceSource#getMetrics()
+     */
+    public Metrics getMetrics() {
+        return gffOntologyReferenceSource.getMetrics();
+    }
+
+    /**
+     * Returns number that increases whenever the GFF file or the ontologies are refreshed
+     *
+     * @see     GFFOntologyReferenceSource#getDataGeneration()
+     */
+    public long getDataGeneration() {
+        return gffOntologyReferenceSource.getDataGeneration();
+    }
+
+    /**
+     * Returns time the GFF file or the ontologies were last found to have changed
+     *
+     * @see     GFFOntologyReferenceSource#getLastModified()
+     */
+    public long getLastModified() {
+        return gffOntologyReferenceSource.getLastModified();
+    }
+
     public String getLandmarkVersion(String s) throws DataSourceException, NoSuchElementException {
         return gffOntologyReferenceSource.getLandmarkVersion(s);
     }
@@ -202,6 +420,72 @@ public class GFFOntologyAnnotationSource
         return gffOntologyReferenceSource.getFeatures(ref);
     }
 
+    /**
+     * Returns features on segment <code>ref</code> that overlap <code>[start, stop]</code>
+     *
+     * @see     GFFOntologyReferenceSource#getFeatures(String, int, int)
+     */
+    public FeatureHolder getFeatures(String ref, int start, int stop)
+            throws NoSuchElementException, DataSourceException {
+        return gffOntologyReferenceSource.getFeatures(ref, start, stop);
+    }
+
+    /**
+     * Returns number of features of type <code>type</code> on segment <code>ref</code>
+     *
+     * @see     GFFOntologyReferenceSource#countFeatures(String, String)
+     */
+    public int countFeatures(String ref, String type) throws DataSourceException, NoSuchElementException {
+        return gffOntologyReferenceSource.countFeatures(ref, type);
+    }
+
+    /**
+     * Returns number of features of type <code>type</code> on segment <code>ref</code>
+     * that overlap <code>[start, stop]</code>
+     *
+     * @see     GFFOntologyReferenceSource#countFeatures(String, int, int, String)
+     */
+    public int countFeatures(String ref, int start, int stop, String type)
+            throws DataSourceException, NoSuchElementException {
+        return gffOntologyReferenceSource.countFeatures(ref, start, stop, type);
+    }
+
+    /**
+     * Returns number of features of each type in the GFF file
+     *
+     * @see     GFFOntologyReferenceSource#getTypeCounts()
+     */
+    public Map getTypeCounts() {
+        return gffOntologyReferenceSource.getTypeCounts();
+    }
+
+    /**
+     * Returns features on every segment in <code>refs</code>
+     *
+     * @see     GFFOntologyReferenceSource#getFeatures(Collection)
+     */
+    public Map getFeatures(Collection refs) throws DataSourceException {
+        return gffOntologyReferenceSource.getFeatures(refs);
+    }
+
+    /**
+     * Returns features whose ID is <code>id</code>
+     *
+     * @see     GFFOntologyReferenceSource#getFeaturesByID(String, MatchType)
+     */
+    public FeatureHolder getFeaturesByID(String id, MatchType match) throws DataSourceException {
+        return gffOntologyReferenceSource.getFeaturesByID(id, match);
+    }
+
+    /**
+     * Returns features whose Target is <code>id</code>
+     *
+     * @see     GFFOntologyReferenceSource#getFeaturesByGroup(String, MatchType)
+     */
+    public FeatureHolder getFeaturesByGroup(String id, MatchType match) throws DataSourceException {
+        return gffOntologyReferenceSource.getFeaturesByGroup(id, match);
+    }
+
     public String getFeatureID(Feature feature) {
         return gffOntologyReferenceSource.getFeatureID(feature);
     }
@@ -235,7 +519,168 @@ public class GFFOntologyAnnotationSource
     }
 
     public String toString()    {
-        return gffOntologyReferenceSource.toString();
+        StringBuffer buf = new StringBuffer(gffOntologyReferenceSource.toString());
+        buf.append("Map master:\t" + mapMaster + "\n");
+        buf.append("Sequence provider:\t" + sequenceProvider + "\n");
+        buf.append("Max. cached sequences:\t" + maxCachedSequences + "\n");
+        buf.append("Prefetch sequences:\t" + prefetchSequences +
+                   " (" + prefetchThreads + " threads, " + prefetchTimeout + "s)\n");
+        if (sequenceCache != null)  {
+            buf.append(sequenceCache);
+        }
+        return buf.toString();
+    }
+
+    // Private methods
+
+    // Creates sequence provider with its no-argument constructor
+    private SequenceProvider createSequenceProvider() throws DataSourceException  {
+        String msg = "Could not create sequence provider " + sequenceProvider;
+        try {
+            return (SequenceProvider) Class.forName(sequenceProvider).getDeclaredConstructor().newInstance();
+        }
+        catch (InvocationTargetException e) {
+            throw new DataSourceException(e.getCause(), msg + ": " + e.getCause());
+        }
+        catch (ClassNotFoundException e) {
+            throw new DataSourceException(e, msg + ": class not found");
+        }
+        catch (NoSuchMethodException e) {
+            throw new DataSourceException(e, msg + ": no constructor without arguments");
+        }
+        catch (InstantiationException e) {
+            throw new DataSourceException(e, msg + ": " + e);
+        }
+        catch (IllegalAccessException e) {
+            throw new DataSourceException(e, msg + ": " + e);
+        }
+    }
+
+    // Prefetches sequences for the segments in the GFF file in the background
+    private void startPrefetch()  {
+        List ids = new ArrayList(gffOntologyReferenceSource.getEntryPoints());
+        if (ids.size() > maxCachedSequences)    {
+            ids = ids.subList(0, maxCachedSequences);
+        }
+        prefetch = new Prefetch(ids);
+        prefetch.start();
+    }
+
+    // Adds sequence cache statistics to metrics
+    private void initMetrics(final SequenceCache cache)  {
+        Metrics metrics = getMetrics();
+        metrics.setGauge("sequenceCache.size", new Gauge() {
+            public long getValue() {
+                return cache.size();
+            }
+        });
+        metrics.setGauge("sequenceCache.hits", new Gauge() {
+            public long getValue() {
+                return cache.getHitCount();
+            }
+        });
+        metrics.setGauge("sequenceCache.misses", new Gauge() {
+            public long getValue() {
+                return cache.getMissCount();
+            }
+        });
+        metrics.setGauge("sequenceCache.fetches", new Gauge() {
+            public long getValue() {
+                return cache.getFetchCount();
+            }
+        });
+        metrics.setGauge("sequenceCache.failures", new Gauge() {
+            public long getValue() {
+                return cache.getFailureCount();
+            }
+        });
+    }
+
+    // Fetches sequences through the cache, so requests for a sequence being fetched wait for it
+    private class Prefetch implements Runnable  {
+
+        private final List ids;
+        private final ExecutorService executor;
+        private final Thread thread;
+        private final AtomicInteger fetched = new AtomicInteger();
+        private final AtomicInteger failed  = new AtomicInteger();
+        private volatile boolean expired    = false;
+
+        Prefetch(List ids)  {
+            this.ids      = ids;
+            this.executor = Executors.newFixedThreadPool(Math.max(1, prefetchThreads),
+                                                         new PrefetchThreadFactory());
+            this.thread   = new PrefetchThreadFactory().newThread(this);
+        }
+
+        void start()    {
+            thread.start();
+        }
+
+        // Cancels fetches not yet started and interrupts those running
+        void stop()    {
+            expired = true;
+            executor.shutdownNow();
+            thread.interrupt();
+        }
+
+        public void run()   {
+            long start = System.nanoTime();
+            for (Iterator i = ids.iterator(); i.hasNext(); ) {
+                final String id = (String) i.next();
+                try {
+                    executor.execute(new Runnable() {
+                        public void run()   {
+                            fetch(id);
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e)  {
+                    // Data source destroyed
+                    return;
+                }
+            }
+            executor.shutdown();
+            boolean timedOut = false;
+            try {
+                if (!executor.awaitTermination(prefetchTimeout, TimeUnit.SECONDS))  {
+                    timedOut = true;
+                    stop();
+                }
+            }
+            catch (InterruptedException e)  {
+                // Data source destroyed
+                stop();
+            }
+            getMetrics().record("prefetchSequences", start);
+            log("Prefetched " + fetched + " of " + ids.size() + " sequences (" + failed + " failed" +
+                (timedOut ? ", stopped after " + prefetchTimeout + "s" : (expired ? ", stopped" : "")) + ")");
+        }
+
+        private void fetch(String id)  {
+            if (expired)    {
+                return;
+            }
+            try {
+                sequenceCache.getSequence(id);
+                fetched.incrementAndGet();
+            }
+            catch (BioException e)  {
+                failed.incrementAndGet();
+            }
+            catch (RuntimeException e)  {
+                failed.incrementAndGet();
+            }
+        }
+
+    }
+
+    private static class PrefetchThreadFactory implements ThreadFactory  {
+        public Thread newThread(Runnable r)   {
+            Thread thread = new Thread(r, "Dogwood sequence prefetch");
+            thread.setDaemon(true);
+            return thread;
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -18,6 +18,8 @@
 package uk.ac.ebi.dogwood.datasource;
 
 import org.biojava.servlets.dazzle.datasource.*;
+import org.biojava.servlets.dazzle.holder.SequenceResourceHolder;
+import org.biojava.servlets.dazzle.resource.SequenceResource;
 import org.biojava.bio.seq.*;
 import org.biojava.bio.seq.impl.SimpleSequence;
 import org.biojava.bio.Annotation;
@@ -27,16 +29,44 @@ import org.biojava.bio.symbol.RangeLocation;
 import org.biojava.bio.symbol.DummySymbolList;
 import org.biojava.bio.symbol.SymbolList;
 import org.biojava.utils.ChangeVetoException;
+import org.biojava.utils.ParserException;
+import org.biojava.utils.cache.CacheMap;
+import org.biojava.utils.cache.FixedSizeMap;
+import org.biojava.utils.io.InputStreamMonitor;
+import org.biojava.utils.net.URLConnectionHelper;
 
 import javax.servlet.ServletContext;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.zip.GZIPInputStream;
 
+import uk.ac.ebi.dogwood.cache.StripedCache;
 import uk.ac.ebi.dogwood.holder.OntologyMapHolder;
-import uk.ac.ebi.hawthorn.OntologyMap;
+import uk.ac.ebi.dogwood.holder.OntologySnapshot;
+import uk.ac.ebi.dogwood.gff.AttributeNames;
+import uk.ac.ebi.dogwood.gff.FeatureIDIndex;
+import uk.ac.ebi.dogwood.gff.GFFStore;
+import uk.ac.ebi.dogwood.gff.GFFSegment;
+import uk.ac.ebi.dogwood.gff.IndexedFeatureHolder;
+import uk.ac.ebi.dogwood.gff.TypeHierarchy;
+import uk.ac.ebi.dogwood.metrics.Gauge;
+import uk.ac.ebi.dogwood.metrics.Metrics;
+import uk.ac.ebi.dogwood.metrics.MetricsRegistry;
 import uk.ac.ebi.hawthorn.InputStreamListener;
 
 /**
@@ -53,52 +83,159 @@ import uk.ac.ebi.hawthorn.InputStreamListener;
  * @author  Antony Quinn
  * @version $Id: GFFOntologyReferenceSource.java,v 1.3 2006/05/15 14:24:58 aquinn Exp $
  * @since   1.0
- * TODO:    Read GFF attribute column names from properties file (use GFF_ATTR_* constants as defaults)
  */
 public class GFFOntologyReferenceSource
        extends AbstractDataSource
-       implements DazzleReferenceSource, GFFSource, OntologyAwareSource {
+       implements DazzleReferenceSource, GFFSource, OntologyAwareSource, VersionedSource {
 
     private static final String DATA_SOURCE_TYPE        = "GFFOntologyReferenceSource";
     private static final String DATA_SOURCE_VERSION     = "1.0";
     private static final String LANDMARK_VERSION        = "default";
 
-    // Attributes in GFF file (compliant with GFF 3 - see http://song.sourceforge.net/gff3-jan04.shtml)
-    private static final String GFF_ATTR_ID             = "ID";             // Feature identifier
-    private static final String GFF_ATTR_NAME           = "Name";           // Feature label
-    private static final String GFF_ATTR_TARGET         = "Target";         // Protein interaction partner(s)
-    private static final String GFF_ATTR_NOTE           = "Note";
-    private static final String GFF_ATTR_LINK           = "Link";
+    // Attribute names in GFF file are in AttributeNames (compliant with GFF 3 by default)
     private static final String GFF_ATTR_SEP            = "|";              // Separates eg. LINK url from role and type, eg. Link "www.sample.com|Sample|text/xml"
+    private static final int UNKNOWN_TERM_LOG_INTERVAL  = 60;               // Seconds between "Could not get ontology terms" messages
+    private static final String DAZZLE_ID_PREFIX        = "__dazzle__";     // Starts IDs that Dazzle generates
+    private static final String GZIP_SUFFIX             = ".gz";            // Compressed GFF file (gzip or bgzip)
+    private static final String INDEX_SUFFIX            = ".tbi";           // Tabix index next to bgzip file
+    private static final String ONTOLOGY_PREFIX_SEP     = ":";              // Separates ontology prefix from ID, eg. GO:0005515
+
+    /** Maximum number of features returned by a partial feature_id or group_id match */
+    public static final int MAX_PARTIAL_MATCHES         = 1000;
+
+    /** Feature cache unit: <code>maxCachedFeatures</code> is a number of segments (default) */
+    public static final String CACHE_SEGMENTS           = "segments";
+    /** Feature cache unit: <code>maxCachedFeatures</code> is a number of features */
+    public static final String CACHE_FEATURES           = "features";
+    /** Feature cache unit: <code>maxCachedFeatures</code> is an estimated heap size in kilobytes */
+    public static final String CACHE_KILOBYTES          = "kilobytes";
+
+    // Heap used by a cached feature, including its biojava Feature, annotation, ID, label and links
+    // (about 530 bytes measured with the benchmark data, which has one short note per feature)
+    private static final int BYTES_PER_FEATURE          = 600;
 
     // Uses composition instead of inheritance
+    // Note: gffReferenceSource is not initialised - we parse the GFF file ourselves (see GFFStore)
+    // so only use it for its properties and for methods that work on features
     private GFFReferenceSource gffReferenceSource = new GFFReferenceSource();
 
+    // GFF
+    private volatile Generation generation      = null;     // GFF file, features and labels (replaced on reload)
+    private InputStreamMonitor inputStreamMonitor = null;
+    private RemoteFile remoteFile               = null;     // Set if url is an HTTP URL
+    private int remoteTimeout                   = 60;       // Seconds to wait for HTTP server (0 = for ever)
+    private volatile long nextRefreshCheck      = 0;        // Don't open GFF file to check for changes before this time
+    private ExecutorService reloader            = null;     // Checks for changes and reloads in the background
+    private ServletContext servletContext       = null;     // Holds list of versioned sources (set once registered)
+    private final ThreadLocal returnedSegments  = new ThreadLocal();    // Segment ID -> GFFSegment whose features were returned to thread
+    private final AtomicBoolean reloading       = new AtomicBoolean();
+    private SequenceResource sequenceResource   = null;
+    private String featureCacheUnit             = CACHE_SEGMENTS;
+    private int maxCachedTargets                = 10000;
+    private SymbolList targetSymbolList         = null;
+    private String attributesFile               = "";
+    private AttributeNames attributeNames       = AttributeNames.DEFAULT;
+    private int parserThreads                   = 0;        // 0 = one per processor
+
+    // Ontology terms for types and methods (rebuilt when GFF file or ontologies are refreshed)
+    private final AtomicLong dataGenerations    = new AtomicLong();     // Numbers label tables
+    private int maxUnknownTerms                 = 10000;
+    private UnknownTermCache unknownTerms       = null;     // IDs with no ontology term
+    private boolean typeSubsumption             = false;    // Match types by their ontology ancestors
+
     // Sequence
     private String ontologyMapHolderID = "";
-    private OntologyMap ontologyMap    = null;
+    private OntologyMapHolder ontologyMapHolder = null;
+    private boolean holderAcquired              = false;    // Released on destroy
+
+    // Timings and counts (see MetricsRegistry)
+    private Metrics metrics                     = null;
 
     /**
      * Parses and caches GFF file.
+     * Metrics are kept in the {@link Metrics} group named after this data source (or its URL if it has no name).
      *
      * @param   servletContext      Servlet context
      * @throws  DataSourceException if GFF file could not be parsed
      * @see     org.biojava.servlets.dazzle.datasource.GFFReferenceSource#init(javax.servlet.ServletContext)
      */
     public void init(ServletContext servletContext) throws DataSourceException {
+        long started = System.nanoTime();
         super.init(servletContext);
+        initMetrics();
+        this.unknownTerms = new UnknownTermCache(getMaxUnknownTerms(), UNKNOWN_TERM_LOG_INTERVAL);
+        createFeatureCache();   // Fails now if featureCacheUnit is not known
+        try {
+            // Sequences
+            if (!localSequence())  {
+                SequenceResourceHolder holder = (SequenceResourceHolder) servletContext.getAttribute(getSequenceHolderID());
+                this.sequenceResource = holder.getSequenceResource();
+            }
+            // Attribute names
+            String file = getAttributesFile();
+            if (file.length() > 0)  {
+                InputStream inputStream = servletContext.getResourceAsStream(file);
+                if (inputStream == null)    {
+                    inputStream = new FileInputStream(file);
+                }
+                this.attributeNames = AttributeNames.load(inputStream);
+            }
+            // Load GFF
+            this.targetSymbolList   = new DummySymbolList(DNATools.getDNA(), getMinLocation());
+            this.inputStreamMonitor = new InputStreamMonitor(getRefreshInterval());
+            if (RemoteFile.isRemote(getUrl()))   {
+                this.remoteFile = new RemoteFile(new URL(getUrl()), getUserName(), getPassword(),
+                                                 getRemoteTimeout() * 1000);
+            }
+            this.nextRefreshCheck   = System.currentTimeMillis() + getRefreshInterval() * 1000L;
+            this.reloader           = Executors.newSingleThreadExecutor(new ReloadThreadFactory());
+            loadGFF();
+        }
+        catch (DataSourceException ex) {
+            throw ex;
+        }
+        catch (Exception ex) {
+            log("Could not load GFF file.", ex);
+            throw new DataSourceException(ex, "Couldn't load GFF");
+        }
         try {
-            gffReferenceSource.init(servletContext);
-            //gffReferenceSource.setIDAttribute(GFF_ATTR_ID);
             // Load ontologies
             String id = getOntologyMapHolderID();
             OntologyMapHolder holder = (OntologyMapHolder) servletContext.getAttribute(id);
-            this.ontologyMap = holder.getOntologyMap(servletContext, new InputStreamListenerImpl());
-
+            holder.getOntologySnapshot(servletContext, new InputStreamListenerImpl());
+            holder.acquire();
+            this.ontologyMapHolder = holder;
+            this.holderAcquired    = true;
         }
         catch (Exception ex) {
             throw new DataSourceException(ex, ex.getMessage());
         }
+        if (typeSubsumption)    {
+            checkTypeSubsumption();
+        }
+        register(servletContext);
+        metrics.record("init", started);
+    }
+
+    /**
+     * Stops background reloads of the GFF file, releases the ontology map holder (which stops its
+     * background refreshes once no other data source is using it), and unregisters this source's
+     * metrics and its data version.
+     */
+    public void destroy() {
+        if (reloader != null)   {
+            reloader.shutdownNow();
+        }
+        unregister();
+        if (holderAcquired)  {
+            // Shared with other data sources, so only stops when the last one releases it
+            holderAcquired = false;
+            ontologyMapHolder.release();
+        }
+        if (metrics != null)    {
+            MetricsRegistry.getInstance().removeMetrics(metrics.getName());
+        }
+        super.destroy();
     }
 
     // Read-only properties
@@ -159,21 +296,180 @@ public class GFFOntologyReferenceSource
     }
 
     public String getIDAttribute() {
-        return GFF_ATTR_ID;
+        return attributeNames.getName(AttributeNames.ID);
+    }
+
+    /**
+     * Returns path to properties file containing GFF attribute names
+     *
+     * @return  path to properties file, or empty string if default names are used
+     * @see     AttributeNames
+     */
+    public String getAttributesFile() {
+        return attributesFile;
+    }
+
+    /**
+     * Sets path to properties file containing GFF attribute names (ID, Name, Note, Link and Target),
+     * for example <code>/gff-attributes.properties</code>
+     *
+     * @param   path    path to properties file (servlet context resource or file)
+     * @see     AttributeNames
+     */
+    public void setAttributesFile(String path) {
+        this.attributesFile = path;
     }
 
     public String getMapMaster() {
         return gffReferenceSource.getMapMaster();
     }
 
+    /**
+     * Returns size of feature cache, in the unit returned by {@link #getFeatureCacheUnit()}
+     *
+     * @return  size of feature cache
+     */
     public int getMaxCachedFeatures()   {
          return gffReferenceSource.getMaxCachedFeatures();
     }
 
+    /**
+     * Sets size of feature cache, in the unit set by {@link #setFeatureCacheUnit(String)}
+     * (by default the number of segments whose features are kept)
+     *
+     * @param   max     size of feature cache
+     */
     public void setMaxCachedFeatures(int max)   {
          gffReferenceSource.setMaxCachedFeatures(max);
     }
 
+    /**
+     * Returns unit of <code>maxCachedFeatures</code>
+     *
+     * @return  {@link #CACHE_SEGMENTS}, {@link #CACHE_FEATURES} or {@link #CACHE_KILOBYTES}
+     * @since   1.0.5
+     */
+    public String getFeatureCacheUnit()   {
+         return featureCacheUnit;
+    }
+
+    /**
+     * Sets unit of <code>maxCachedFeatures</code>: number of segments (the default),
+     * number of features, or estimated heap size in kilobytes. Counting features or kilobytes
+     * stops a few very large segments from filling the heap.
+     *
+     * @param   unit    {@link #CACHE_SEGMENTS}, {@link #CACHE_FEATURES} or {@link #CACHE_KILOBYTES}
+     * @since   1.0.5
+     */
+    public void setFeatureCacheUnit(String unit)   {
+         this.featureCacheUnit = unit;
+    }
+
+    /**
+     * Returns maximum number of target features (interaction partners) to keep
+     *
+     * @return  maximum number of target features to keep
+     */
+    public int getMaxCachedTargets()   {
+         return maxCachedTargets;
+    }
+
+    /**
+     * Sets maximum number of target features (interaction partners) to keep
+     *
+     * @param   max     maximum number of target features to keep
+     */
+    public void setMaxCachedTargets(int max)   {
+         this.maxCachedTargets = max;
+    }
+
+    /**
+     * Returns maximum number of IDs to remember as having no ontology term
+     *
+     * @return  maximum number of unknown ontology IDs to keep
+     */
+    public int getMaxUnknownTerms()   {
+         return maxUnknownTerms;
+    }
+
+    /**
+     * Sets maximum number of IDs to remember as having no ontology term.
+     * IDs such as UniProt:P12345 look like ontology IDs but are not in any ontology;
+     * remembering them saves looking them up (and logging them) every time.
+     * The IDs are forgotten when the ontologies are refreshed.
+     *
+     * @param   max     maximum number of unknown ontology IDs to keep
+     */
+    public void setMaxUnknownTerms(int max)   {
+         this.maxUnknownTerms = max;
+    }
+
+    /**
+     * Returns number of threads used to parse GFF file
+     *
+     * @return  number of threads (0 = one per processor)
+     */
+    public int getParserThreads()   {
+         return parserThreads;
+    }
+
+    /**
+     * Sets number of threads used to parse GFF file
+     *
+     * @param   threads     number of threads (1 = parse on calling thread, 0 = one per processor)
+     */
+    public void setParserThreads(int threads)   {
+         this.parserThreads = threads;
+    }
+
+    /**
+     * Returns number of seconds to wait for the HTTP server of a remote GFF file
+     *
+     * @return  timeout in seconds (0 = wait for ever)
+     * @since   1.0.5
+     */
+    public int getRemoteTimeout()   {
+         return remoteTimeout;
+    }
+
+    /**
+     * Sets number of seconds to wait for the HTTP server of a remote GFF file, both to connect
+     * and for each read of the download. A check for changes that times out is logged and
+     * counted (<code>gffTimeouts</code>), and the current GFF file is kept until the next check.
+     *
+     * @param   timeout     timeout in seconds (0 = wait for ever)
+     * @since   1.0.5
+     */
+    public void setRemoteTimeout(int timeout)   {
+         this.remoteTimeout = timeout;
+    }
+
+    /**
+     * Returns <code>true</code> if a type matches features annotated with its descendants
+     *
+     * @return  <code>true</code> if types are matched through the ontologies' is_a and part_of links
+     * @since   1.0.5
+     */
+    public boolean getTypeSubsumption()   {
+         return typeSubsumption;
+    }
+
+    /**
+     * Sets whether a type matches features annotated with its descendants, for example whether
+     * <code>features?type=GO:0008150</code> returns every feature annotated with a biological process.
+     * Counts in the types command then also include descendants.
+     * Off by default, since DAS clients expect types to match exactly.
+     * Links are only read from OBO and DAG-Edit ontologies: a warning is logged at startup
+     * for each ontology used by the GFF types that has none.
+     *
+     * @param   subsumption     <code>true</code> to match types through the ontologies' is_a and part_of links
+     * @see     uk.ac.ebi.dogwood.holder.TermClosure
+     * @since   1.0.5
+     */
+    public void setTypeSubsumption(boolean subsumption)   {
+         this.typeSubsumption = subsumption;
+    }
+
     public int getMinLocation() {
         return gffReferenceSource.getMinLocation();
     }
@@ -227,15 +523,307 @@ public class GFFOntologyReferenceSource
     }
 
     public Set getAllTypes() {
-        return gffReferenceSource.getAllTypes();
+        long start = metrics.start();
+        try {
+            refresh();
+            return generation.getStore().getTypes();
+        }
+        finally {
+            metrics.stop("getAllTypes", start);
+        }
     }
 
     public Set getEntryPoints() {
-        return gffReferenceSource.getEntryPoints();
+        long start = metrics.start();
+        try {
+            refresh();
+            return generation.getStore().getEntryPoints();
+        }
+        finally {
+            metrics.stop("getEntryPoints", start);
+        }
+    }
+
+    /**
+     * Returns number that increases whenever the GFF file or the ontologies are refreshed.
+     * Starts a check of the GFF file for changes if <code>refreshInterval</code> has passed;
+     * the check and any reload run in the background, so the number goes up once the new
+     * version of the file has been loaded.
+     *
+     * @return  data generation
+     * @since   1.0.5
+     */
+    public long getDataGeneration() {
+        refresh();
+        return getLabelTable(generation).getGeneration();
     }
 
+    /**
+     * Returns time the GFF file or the ontologies were last found to have changed
+     *
+     * @return  time data last changed (milliseconds since 1970)
+     * @since   1.0.5
+     */
+    public long getLastModified() {
+        refresh();
+        return getLabelTable(generation).getCreated();
+    }
+
+    /**
+     * Returns timings and counts for this data source
+     *
+     * @return  metrics, or <code>null</code> if not initialised
+     * @since   1.0.5
+     */
+    public Metrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns all features on segment <code>ref</code>, or <code>null</code> if there are none.
+     * The holder answers <code>OverlapsLocation</code> filters from an interval index.
+     *
+     * @param   ref     segment ID
+     * @return  all features on segment, or <code>null</code> if segment is not in GFF file
+     * @throws  DataSourceException if features could not be created
+     */
     public FeatureHolder getFeatures(String ref) throws NoSuchElementException, DataSourceException {
-        return gffReferenceSource.getFeatures(ref);
+        long start = metrics.start();
+        refresh();
+        Generation gen = acquire();
+        try {
+            CachedSegment cachedSegment = getCachedSegment(gen, ref);
+            if (cachedSegment == null)  {
+                return null;
+            }
+            returnSegment(ref, cachedSegment.getSegment());
+            return cachedSegment.getFeatures();
+        }
+        finally {
+            release(gen);
+            metrics.stop("getFeatures", start);
+        }
+    }
+
+    /**
+     * Returns features on segment <code>ref</code> that overlap <code>[start, stop]</code>,
+     * in file order, or <code>null</code> if there are no features on the segment.
+     *
+     * @param   ref     segment ID
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @return  features that overlap range, or <code>null</code> if segment is not in GFF file
+     * @throws  DataSourceException if features could not be created
+     */
+    public FeatureHolder getFeatures(String ref, int start, int stop)
+            throws NoSuchElementException, DataSourceException {
+        long started = metrics.start();
+        refresh();
+        Generation gen = acquire();
+        try {
+            CachedSegment cachedSegment = getCachedSegment(gen, ref);
+            if (cachedSegment == null)  {
+                return null;
+            }
+            returnSegment(ref, cachedSegment.getSegment());
+            return cachedSegment.getFeatures().getFeatures(start, stop);
+        }
+        finally {
+            release(gen);
+            metrics.stop("getFeaturesInRange", started);
+        }
+    }
+
+    /**
+     * Returns number of features of type <code>type</code> on segment <code>ref</code>, from the
+     * segment's type index (including descendants of <code>type</code> if
+     * {@link #getTypeSubsumption()} is set). Dazzle calls this for every type when answering the types command.
+     * Types that are not on the segment return {@link #COUNT_CALCULATE}, so Dazzle leaves them
+     * out of the response (it asks the indexed feature holder for them, which finds none)
+     * rather than listing them with a count of zero.
+     *
+     * @param   ref     segment ID
+     * @param   type    type ID
+     * @return  number of features, or {@link #COUNT_CALCULATE} if there are none
+     * @since   1.0.5
+     */
+    public int countFeatures(String ref, String type) throws DataSourceException, NoSuchElementException {
+        long start = metrics.start();
+        try {
+            refresh();
+            Generation gen = generation;
+            GFFStore store = gen.getStore();
+            GFFSegment segment = store.getSegment(store.mapName(ref));
+            int count;
+            if (segment == null)    {
+                count = 0;
+            }
+            else if (typeSubsumption)   {
+                count = segment.countFeatures(getLabelTable(gen).getSubsumedTypes(type));
+            }
+            else    {
+                count = segment.countFeatures(type);
+            }
+            return (count == 0 ? COUNT_CALCULATE : count);
+        }
+        finally {
+            metrics.stop("countFeatures", start);
+        }
+    }
+
+    /**
+     * Returns number of features of type <code>type</code> on segment <code>ref</code>
+     * that overlap <code>[start, stop]</code>
+     *
+     * @param   ref     segment ID
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @param   type    type ID
+     * @return  number of features, or {@link #COUNT_CALCULATE} if there are none
+     * @see     #countFeatures(String, String)
+     * @since   1.0.5
+     */
+    public int countFeatures(String ref, int start, int stop, String type)
+            throws DataSourceException, NoSuchElementException {
+        long started = metrics.start();
+        try {
+            refresh();
+            Generation gen = generation;
+            GFFStore store = gen.getStore();
+            GFFSegment segment = store.getSegment(store.mapName(ref));
+            int count;
+            if (segment == null)    {
+                count = 0;
+            }
+            else if (typeSubsumption)   {
+                count = segment.countFeatures(getLabelTable(gen).getSubsumedTypes(type), start, stop);
+            }
+            else    {
+                count = segment.countFeatures(type, start, stop);
+            }
+            return (count == 0 ? COUNT_CALCULATE : count);
+        }
+        finally {
+            metrics.stop("countFeaturesInRange", started);
+        }
+    }
+
+    /**
+     * Returns number of features of each type in the GFF file
+     *
+     * @return  type ID -> <code>Integer</code>
+     * @since   1.0.5
+     */
+    public Map getTypeCounts() {
+        refresh();
+        return generation.getStore().getTypeCounts();
+    }
+
+    /**
+     * Returns features on every segment in <code>refs</code>. The GFF file is checked for changes
+     * once, cached segments are looked up together, and segments that have to be loaded share
+     * identical links and resolve labels with the same ontology terms. Unlike the features command,
+     * which calls {@link #getFeatures(String)} for each segment, a request for dozens of segments
+     * pays the per-request costs once.
+     *
+     * @param   refs    segment IDs
+     * @return  segment ID -> features (or <code>null</code> if segment is not in GFF file),
+     *          in the order of <code>refs</code>
+     * @throws  DataSourceException if features could not be created
+     * @since   1.0.5
+     */
+    public Map getFeatures(Collection refs) throws DataSourceException {
+        long start = metrics.start();
+        refresh();
+        Generation gen = acquire();
+        try {
+            GFFStore store = gen.getStore();
+            GFFSegment[] segments   = new GFFSegment[refs.size()];
+            CachedSegment[] cached  = new CachedSegment[refs.size()];
+            int n = 0;
+            for (Iterator i = refs.iterator(); i.hasNext(); n++) {
+                segments[n] = store.getSegment(store.mapName((String) i.next()));
+            }
+            for (int i = 0; i < n; i++) {
+                if (segments[i] != null)    {
+                    cached[i] = (CachedSegment) gen.getFeatureSets().get(segments[i].getName());
+                }
+            }
+            Map features = new LinkedHashMap();
+            Map shared = new HashMap();
+            n = 0;
+            for (Iterator i = refs.iterator(); i.hasNext(); n++) {
+                String ref = (String) i.next();
+                if (segments[n] == null)    {
+                    features.put(ref, null);
+                }
+                else    {
+                    features.put(ref, getCachedSegment(gen, segments[n], cached[n], ref, shared).getFeatures());
+                    returnSegment(ref, segments[n]);
+                }
+            }
+            return features;
+        }
+        finally {
+            release(gen);
+            metrics.stop("getFeaturesBatch", start);
+        }
+    }
+
+    /**
+     * Returns features whose ID is <code>id</code> (answers <code>features?feature_id=...</code>),
+     * from the ID index built when the GFF file is loaded rather than by loading every segment.
+     * Exact matches are case-sensitive, falling back to a case-insensitive match if there is none;
+     * partial matches return IDs that start with <code>id</code>, ignoring case
+     * (at most {@link #MAX_PARTIAL_MATCHES} features).
+     * IDs generated by Dazzle (for features with no ID) are decoded as before.
+     * If the GFF file is indexed (see {@link #setUrl(String)}), only the segments with matching
+     * features are read from it.
+     *
+     * @param   id      feature ID
+     * @param   match   {@link #MATCH_EXACT} or {@link #MATCH_PARTIAL}
+     * @return  matching features, in segment name then file order
+     * @throws  DataSourceException if features could not be created
+     * @since   1.0.5
+     */
+    public FeatureHolder getFeaturesByID(String id, MatchType match) throws DataSourceException {
+        if (id.startsWith(DAZZLE_ID_PREFIX))    {
+            return super.getFeaturesByID(id, match);
+        }
+        long start = metrics.start();
+        refresh();
+        Generation gen = acquire();
+        try {
+            return getFeatures(gen, findIDs(gen.getStore().getIDIndex(), id, match));
+        }
+        finally {
+            release(gen);
+            metrics.stop("getFeaturesByID", start);
+        }
+    }
+
+    /**
+     * Returns features whose Target is <code>id</code> (answers <code>features?group_id=...</code>):
+     * the features that group interactions with the same partner.
+     * Matching follows the same rules as {@link #getFeaturesByID(String, MatchType)}.
+     *
+     * @param   id      target ID
+     * @param   match   {@link #MATCH_EXACT} or {@link #MATCH_PARTIAL}
+     * @return  matching features, in segment name then file order
+     * @throws  DataSourceException if features could not be created
+     * @since   1.0.5
+     */
+    public FeatureHolder getFeaturesByGroup(String id, MatchType match) throws DataSourceException {
+        long start = metrics.start();
+        refresh();
+        Generation gen = acquire();
+        try {
+            return getFeatures(gen, findIDs(gen.getStore().getTargetIndex(), id, match));
+        }
+        finally {
+            release(gen);
+            metrics.stop("getFeaturesByGroup", start);
+        }
     }
 
     /**
@@ -248,35 +836,47 @@ public class GFFOntologyReferenceSource
      * @return  Dbxref, Ontology_id or ID
      */
     public String getFeatureID(Feature feature) {
-        Annotation annotation = feature.getAnnotation();
-        // ID
-        if (hasProperty(annotation, GFF_ATTR_ID))   {
-           return getProperty(annotation, GFF_ATTR_ID);
+        long start = metrics.start();
+        try {
+            CachedSegment cachedSegment = lookupCachedSegment(feature);
+            if (cachedSegment != null)  {
+                int ordinal = cachedSegment.getOrdinal(feature);
+                if (ordinal >= 0) {
+                    return refreshLabels(cachedSegment).getFeatureID(ordinal);
+                }
+            }
+            return resolveFeatureID(feature, null, -1);
         }
-        else    {
-            return gffReferenceSource.getFeatureID(feature);
+        finally {
+            metrics.stop("getFeatureID", start);
         }
     }
 
     /**
-     * Returns explicit <code>Name</code> field or implicit ontology term
+     * Returns explicit <code>Name</code> field or implicit ontology term.
+     * Labels are resolved when features are first loaded and again when the ontologies
+     * are due to be refreshed, so this is normally a table lookup.
      *
      * @param   feature
      * @return  explicit <code>Name</code> field or implicit ontology term
      * @see     #getFeatureID(Feature)
      */
     public String getFeatureLabel(Feature feature) {
-        String id    = getFeatureID(feature);
-        String label = getOntologyTerm(id);
-        // Do not override ontology term unless the ID is not recognised
-        if (label.equals(id)) {
-            // Explicit name
-            Annotation annotation = feature.getAnnotation();
-            if (hasProperty(annotation, GFF_ATTR_NAME)) {
-                return (getProperty(annotation, GFF_ATTR_NAME));
+        long start = metrics.start();
+        try {
+            CachedSegment cachedSegment = lookupCachedSegment(feature);
+            if (cachedSegment != null)  {
+                int ordinal = cachedSegment.getOrdinal(feature);
+                if (ordinal >= 0) {
+                    return refreshLabels(cachedSegment).getFeatureLabel(ordinal);
+                }
             }
+            String id = resolveFeatureID(feature, null, -1);
+            return resolveFeatureLabel(feature, null, -1, id, getOntologySnapshot());
+        }
+        finally {
+            metrics.stop("getFeatureLabel", start);
         }
-        return label;
     }
 
     /**
@@ -286,9 +886,9 @@ public class GFFOntologyReferenceSource
      * @return  list of notes
      */
     public List getFeatureNotes(Feature feature) {
-        Annotation annotation = feature.getAnnotation();
-        if (hasProperty(annotation, GFF_ATTR_NOTE)) {
-            return Collections.unmodifiableList(getPropertyList(annotation, GFF_ATTR_NOTE));
+        List notes = getAttribute(feature, AttributeNames.NOTE);
+        if (notes != null) {
+            return notes;
         }
         else    {
             return super.getFeatureNotes(feature);
@@ -296,59 +896,147 @@ public class GFFOntologyReferenceSource
     }
 
     /**
-     * Returns contents of <code>TARGET</code> element(s)
+     * Returns contents of <code>TARGET</code> element(s).
+     * Target features are shared: there is only one feature per target ID.
      *
      * @param   feature
      * @return  list of <code>Features</code> containing IDs and start/stop coordinates
      */
     public List getFeatureTargets(Feature feature)  {
-        Annotation annotation = feature.getAnnotation();
-        if (hasProperty(annotation, GFF_ATTR_TARGET))   {
-            List targetList = new ArrayList();
-            SymbolList symbolList = new DummySymbolList(DNATools.getDNA(), getMinLocation());
-            List ids =  getPropertyList(annotation, GFF_ATTR_TARGET);
-            for (Iterator i = ids.iterator(); i.hasNext(); ) {
-                String id = (String) i.next();
-                Sequence sequence = new SimpleSequence(symbolList, id, id, Annotation.EMPTY_ANNOTATION);
-                Feature.Template template   = new Feature.Template();
-                template.location           = new RangeLocation(getMinLocation(), getMinLocation());
-                template.annotation         = new SmallAnnotation();
-                List idProperty = new ArrayList();
-                idProperty.add(id);
-                try {
-                    template.annotation.setProperty(GFF_ATTR_ID, idProperty);
-                    targetList.add(sequence.createFeature(template));
-                }
-                catch (ChangeVetoException e)    {
-                    log("Could not create target feature: " + id, e);
-                }
-                catch (BioException e)    {
-                    log("Could not create target feature: " + id, e);
-                }
+        long start = metrics.start();
+        try {
+            List targets;
+            CachedSegment cachedSegment = lookupCachedSegment(feature);
+            int ordinal = (cachedSegment == null ? -1 : cachedSegment.getOrdinal(feature));
+            if (ordinal >= 0) {
+                targets = cachedSegment.getFeatureTargets(ordinal);
+            }
+            else    {
+                targets = resolveFeatureTargets(generation, feature, null, -1);
             }
-            return Collections.unmodifiableList(targetList);
+            if (targets == null)   {
+                targets = super.getFeatureTargets(feature);
+            }
+            return targets;
         }
-        else
-            return super.getFeatureTargets(feature);
+        finally {
+            metrics.stop("getFeatureTargets", start);
+        }
+    }
+
+    // Returns target features, or null if feature has no Target attribute
+    private List resolveFeatureTargets(Generation gen, Feature feature, GFFSegment segment, int ordinal)  {
+        List ids = getAttribute(feature, segment, ordinal, AttributeNames.TARGET);
+        if (ids == null)   {
+            return null;
+        }
+        List targetList = new ArrayList(ids.size());
+        for (Iterator i = ids.iterator(); i.hasNext(); ) {
+            Feature target = getTargetFeature(gen, (String) i.next());
+            if (target != null) {
+                targetList.add(target);
+            }
+        }
+        return Collections.unmodifiableList(targetList);
     }
 
+    // Returns shared target feature, creating it if necessary
+    private Feature getTargetFeature(Generation gen, String id)  {
+        CacheMap cache = gen.getTargetFeatures();
+        Feature target;
+        synchronized (cache) {
+            target = (Feature) cache.get(id);
+        }
+        if (target != null) {
+            return target;
+        }
+        Sequence sequence = new SimpleSequence(targetSymbolList, id, id, Annotation.EMPTY_ANNOTATION);
+        Feature.Template template   = new Feature.Template();
+        template.location           = new RangeLocation(getMinLocation(), getMinLocation());
+        template.annotation         = new SmallAnnotation();
+        List idProperty = new ArrayList();
+        idProperty.add(id);
+        try {
+            template.annotation.setProperty(getIDAttribute(), idProperty);
+            target = sequence.createFeature(template);
+        }
+        catch (ChangeVetoException e)    {
+            log("Could not create target feature: " + id, e);
+            return null;
+        }
+        catch (BioException e)    {
+            log("Could not create target feature: " + id, e);
+            return null;
+        }
+        synchronized (cache) {
+            cache.put(id, target);
+        }
+        return target;
+    }
+
+    /**
+     * Returns hash of the records of segment <code>ref</code> (see {@link GFFSegment#getVersion()}),
+     * which only changes when they do, so clients can keep features for a segment until its
+     * version changes. Segments with no features in the GFF file are always version
+     * <code>default</code>.
+     * Dazzle asks for the version after it has the features, so if features for <code>ref</code>
+     * have just been returned to the calling thread the version is that of the file they came from,
+     * even if it has been reloaded since.
+     *
+     * @param   ref     segment ID
+     * @return  content hash of segment
+     */
     public String getLandmarkVersion(String ref) throws DataSourceException, NoSuchElementException {
-        return LANDMARK_VERSION;
+        long start = metrics.start();
+        GFFSegment returned = takeReturnedSegment(ref);
+        if (returned != null)   {
+            metrics.stop("getLandmarkVersion", start);
+            return returned.getVersion();
+        }
+        refresh();
+        Generation gen = acquire();
+        try {
+            GFFStore store = gen.getStore();
+            GFFSegment segment = store.getSegment(store.mapName(ref));
+            return (segment == null ? LANDMARK_VERSION : segment.getVersion());
+        }
+        finally {
+            release(gen);
+            metrics.stop("getLandmarkVersion", start);
+        }
     }
 
     /**
      * Returns contents of <code>LINK</code> element(s). Links should be of the form:
      * Link "&lt;url&gt;|&lt;role&gt;|&lt;type&gt;" (role and type are optional)
+     * Links (including automatic links) are worked out when features are loaded.
      *
      * @param   feature
      * @return  links with role as key and URL as value (key is URL if role is empty)
      */
     public Map getLinkouts(Feature feature) {
-        Annotation annotation = feature.getAnnotation();
+        long start = metrics.start();
+        try {
+            CachedSegment cachedSegment = lookupCachedSegment(feature);
+            if (cachedSegment != null)  {
+                int ordinal = cachedSegment.getOrdinal(feature);
+                if (ordinal >= 0) {
+                    return cachedSegment.getLinkouts(ordinal);
+                }
+            }
+            return resolveLinkouts(feature, null, -1);
+        }
+        finally {
+            metrics.stop("getLinkouts", start);
+        }
+    }
+
+    // Works out links from Link attribute, or from autoLinkUrl if there is no Link attribute
+    private Map resolveLinkouts(Feature feature, GFFSegment segment, int ordinal) {
         Map links = new HashMap();
         Map linkType = new HashMap();
-        if (hasProperty(annotation, GFF_ATTR_LINK)) {
-            List linkList = getPropertyList(annotation, GFF_ATTR_LINK);
+        List linkList = getAttribute(feature, segment, ordinal, AttributeNames.LINK);
+        if (linkList != null) {
             for (Iterator i = linkList.iterator(); i.hasNext(); ) {
                 String link = (String) i.next();
                 String url  = link;
@@ -382,7 +1070,30 @@ public class GFFOntologyReferenceSource
     }
 
     public Sequence getSequence(String ref) throws DataSourceException, NoSuchElementException {
-        return gffReferenceSource.getSequence(ref);
+        long start = metrics.start();
+        try {
+            return getSequence(generation, ref);
+        }
+        finally {
+            metrics.stop("getSequence", start);
+        }
+    }
+
+    // Returns sequence of segment, with the length given in the generation's GFF file if it is local
+    private Sequence getSequence(Generation gen, String ref) throws DataSourceException, NoSuchElementException {
+        if (localSequence())    {
+            GFFStore store = gen.getStore();
+            String name = store.mapName(ref);
+            int length = store.getSequenceLength(name);
+            if (length < 0) {
+                length = Integer.MAX_VALUE;
+            }
+            SymbolList symbolList = new DummySymbolList(DNATools.getDNA(), length);
+            return new SimpleSequence(symbolList, name, name, Annotation.EMPTY_ANNOTATION);
+        }
+        else    {
+            return sequenceResource.getSequence(ref);
+        }
     }
 
     public String getScore(Feature f) {
@@ -396,7 +1107,13 @@ public class GFFOntologyReferenceSource
      * @return  ontology term if found in ontology properties file, otherwise returns <code>type</code>
      */
     public String getTypeDescription(String type)   {
-        return getOntologyTerm(type);
+        long start = metrics.start();
+        try {
+            return getDescription(type);
+        }
+        finally {
+            metrics.stop("getTypeDescription", start);
+        }
     }
 
     /**
@@ -406,77 +1123,785 @@ public class GFFOntologyReferenceSource
      * @return  ontology term if found in ontology properties file, otherwise returns <code>source</code>
      */
     public String getSourceDescription(String source)   {
-        return getOntologyTerm(source);
+        long start = metrics.start();
+        try {
+            return getDescription(source);
+        }
+        finally {
+            metrics.stop("getSourceDescription", start);
+        }
     }
 
     public String getUrl() {
         return gffReferenceSource.getUrl();
     }
+
+    /**
+     * Sets location of GFF file: a servlet context resource, a file or a URL.
+     * A file ending in <code>.gz</code> is decompressed as it is read. If it was compressed with
+     * <code>bgzip</code> and a tabix index is next to it (<code>tabix -p gff</code>, creating
+     * <code>&lt;file&gt;.gz.tbi</code>) and it is a local file, segments are read from the file
+     * when they are asked for instead of being held in memory; only the index is checked
+     * for changes. Feature and group ID requests read only the segments with matching features.
+     *
+     * @param   url     location of GFF file
+     */
     public void setUrl(String url) {
         gffReferenceSource.setUrl(url);
     }
 
     /**
-     * Returns <code>OntologyMap.toString()</code> then <code>GFFReferenceSource.toString()</code>
+     * Returns ontology snapshot details then GFF file statistics and properties
      *
-     * @return  <code>OntologyMap.toString()</code> then <code>GFFReferenceSource.toString()</code>
-     * @see     GFFReferenceSource#toString
-     * @see     OntologyMap#toString
+     * @return  ontology snapshot details then GFF file statistics and properties
+     * @see     GFFStore#toString
+     * @see     OntologySnapshot#toString
      */
     public String toString()    {
+        Generation gen = generation;
         StringBuffer buf = new StringBuffer();
-        buf.append(ontologyMap.toString());
-        buf.append(gffReferenceSource.toString());
+        buf.append(getOntologySnapshot().toString());
+        buf.append(gen.getStore().toString());
+        buf.append(gen.toString());
+        if (remoteFile != null) {
+            buf.append(remoteFile.toString());
+        }
+        else    {
+            buf.append(inputStreamMonitor.toString() + "\n");
+        }
+        if (sequenceResource != null)   {
+            buf.append("Sequence resource:\n");
+            buf.append(sequenceResource.toString() + "\n");
+        }
+        buf.append(attributeNames.toString());
+        buf.append("Dot versions:\t" + getDotVersions() + "\n");
+        buf.append("Max cached features:\t" + getMaxCachedFeatures() + " " + getFeatureCacheUnit() + "\n");
+        buf.append("Feature cache:\n");
+        buf.append(gen.getFeatureSets().toString());
+        buf.append("Max cached targets:\t" + getMaxCachedTargets() + "\n");
+        buf.append("Max unknown terms:\t" + getMaxUnknownTerms() + "\n");
+        buf.append("Parser threads:\t" + getParserThreads() + "\n");
+        buf.append("Remote timeout:\t" + getRemoteTimeout() + "\n");
+        buf.append("Min location:\t" + getMinLocation() + "\n");
         buf.append(super.toString(true));
         return buf.toString();
     }
 
     // Private methods
 
-    // Return simple string property
-    private boolean hasProperty(Annotation annotation, String attribute)   {
-        return ((annotation.containsProperty(attribute)) || (annotation.containsProperty(normalise(attribute))));
+    // Creates metrics group and gauges for the current GFF file
+    private void initMetrics()  {
+        String name = getName();
+        if (name == null || name.length() == 0) {
+            name = getUrl();
+        }
+        this.metrics = MetricsRegistry.getInstance().getMetrics(name);
+        metrics.setGauge("features", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getStore().countFeatures());
+            }
+        });
+        metrics.setGauge("segments", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getStore().getSegmentNames().size());
+            }
+        });
+        metrics.setGauge("unknownTerms", new Gauge() {
+            public long getValue() {
+                UnknownTermCache cache = unknownTerms;
+                return (cache == null ? 0 : cache.size());
+            }
+        });
+        metrics.setGauge("types", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getStore().getTypes().size());
+            }
+        });
+        metrics.setGauge("featureIDs", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getStore().getIDIndex().size());
+            }
+        });
+        metrics.setGauge("sharedValues.savedBytes", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getStore().getSharedBytes());
+            }
+        });
+        metrics.setGauge("featureCache.size", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getFeatureSets().size());
+            }
+        });
+        metrics.setGauge("featureCache.weight", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getFeatureSets().getWeight());
+            }
+        });
+        metrics.setGauge("featureCache.evictions", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getFeatureSets().getEvictionCount());
+            }
+        });
+        metrics.setGauge("featureCache.rejections", new Gauge() {
+            public long getValue() {
+                Generation gen = generation;
+                return (gen == null ? 0 : gen.getFeatureSets().getRejectionCount());
+            }
+        });
+    }
+
+    // Creates feature cache sized in the configured unit
+    private StripedCache createFeatureCache() throws DataSourceException  {
+        StripedCache.Weigher weigher;
+        long capacity = Math.max(1, getMaxCachedFeatures());
+        if (CACHE_SEGMENTS.equals(featureCacheUnit))   {
+            weigher = StripedCache.ENTRIES;
+        }
+        else if (CACHE_FEATURES.equals(featureCacheUnit))   {
+            weigher = new FeatureCountWeigher(1);
+        }
+        else if (CACHE_KILOBYTES.equals(featureCacheUnit))   {
+            weigher  = new FeatureCountWeigher(BYTES_PER_FEATURE);
+            capacity = capacity * 1024;
+        }
+        else    {
+            throw new DataSourceException("Unknown featureCacheUnit: " + featureCacheUnit +
+                                          " (expected " + CACHE_SEGMENTS + ", " + CACHE_FEATURES +
+                                          " or " + CACHE_KILOBYTES + ")");
+        }
+        return new StripedCache(capacity, weigher);
+    }
+
+    // Adds this data source to the list of versioned sources in the servlet context
+    private void register(ServletContext servletContext)  {
+        synchronized (servletContext)   {
+            List sources = (List) servletContext.getAttribute(CONTEXT_ATTRIBUTE);
+            if (sources == null)    {
+                sources = new CopyOnWriteArrayList();
+                servletContext.setAttribute(CONTEXT_ATTRIBUTE, sources);
+            }
+            sources.add(this);
+            this.servletContext = servletContext;
+        }
+    }
+
+    // Removes this data source from the list of versioned sources, so its data generation
+    // no longer counts towards the data version
+    private void unregister()  {
+        if (servletContext == null) {
+            return;
+        }
+        synchronized (servletContext)   {
+            List sources = (List) servletContext.getAttribute(CONTEXT_ATTRIBUTE);
+            if (sources != null)    {
+                sources.remove(this);
+            }
+        }
+        servletContext = null;
+    }
+
+    // Remembers segment whose features are being returned to the calling thread, for getLandmarkVersion
+    private void returnSegment(String ref, GFFSegment segment)  {
+        Map segments = (Map) returnedSegments.get();
+        if (segments == null)   {
+            segments = new HashMap();
+            returnedSegments.set(segments);
+        }
+        segments.put(ref, segment);
+    }
+
+    // Returns segment whose features were last returned to the calling thread for ref, and forgets it,
+    // or null if there is none
+    private GFFSegment takeReturnedSegment(String ref)  {
+        Map segments = (Map) returnedSegments.get();
+        if (segments == null)   {
+            return null;
+        }
+        GFFSegment segment = (GFFSegment) segments.remove(ref);
+        if (segments.isEmpty()) {
+            returnedSegments.remove();
+        }
+        return segment;
+    }
+
+    private boolean localSequence() {
+        String id = getSequenceHolderID();
+        return (id == null || id.length() == 0);
     }
 
-    // Return simple string property
-    private String getProperty(Annotation annotation, String attribute)   {
-        List list = getPropertyList(annotation, attribute);
+    // Returns current generation, counting the calling request as one of its users until release
+    private Generation acquire()  {
+        while (true)    {
+            Generation gen = generation;
+            gen.acquire();
+            if (gen == generation)  {
+                return gen;
+            }
+            // Replaced in the meantime
+            release(gen);
+        }
+    }
+
+    private void release(Generation gen)  {
+        if (gen.release())  {
+            metrics.record("drainGeneration", gen.getRetired());
+        }
+    }
+
+    // Returns cached features for segment, creating them if necessary
+    private CachedSegment getCachedSegment(Generation gen, String ref) throws DataSourceException   {
+        GFFStore store = gen.getStore();
+        String name = store.mapName(ref);
+        GFFSegment segment = store.getSegment(name);
+        if (segment == null)    {
+            return null;
+        }
+        CachedSegment cachedSegment = (CachedSegment) gen.getFeatureSets().get(name);
+        return getCachedSegment(gen, segment, cachedSegment, ref, new HashMap());
+    }
+
+    // Returns cachedSegment if it holds features for segment, otherwise creates them.
+    // Identical links are shared between all segments created with the same shared map.
+    private CachedSegment getCachedSegment(Generation gen, GFFSegment segment, CachedSegment cachedSegment,
+                                           String ref, Map shared)
+            throws DataSourceException   {
+        // Ignore features of an indexed segment that has been read again
+        if (cachedSegment != null && cachedSegment.getSegment() == segment)  {
+            metrics.increment("segmentCacheHits");
+            return refreshLabels(cachedSegment);
+        }
+        metrics.increment("segmentCacheMisses");
+        String name = segment.getName();
+        SegmentSequence sequence;
+        IndexedFeatureHolder holder;
+        try {
+            sequence = new SegmentSequence(getSequence(gen, name));
+            sequence.setMinLocation(getMinLocation());
+            Feature[] features = segment.annotate(sequence);
+            holder = new IndexedFeatureHolder(segment, sequence.getAddedFeatures(), features,
+                                              typeSubsumption ? new OntologyTypeHierarchy(gen) : null);
+        }
+        catch (BioException ex) {
+            throw new DataSourceException(ex, "Error annotating sequence " + ref);
+        }
+        catch (ChangeVetoException ex) {
+            throw new DataSourceException("ViewSequence isn't accepting features :(");
+        }
+        // Links and targets do not depend on the ontologies so only need to be worked out once
+        Map[] linkouts = new Map[segment.countFeatures()];
+        List[] targets = new List[segment.countFeatures()];
+        // Share identical links, eg. autoLink with ${segment-id}
+        for (int i = 0; i < linkouts.length; i++) {
+            targets[i] = resolveFeatureTargets(gen, holder.getFeature(i), segment, i);
+            Map links = resolveLinkouts(holder.getFeature(i), segment, i);
+            Map existing = (Map) shared.get(links);
+            if (existing == null)   {
+                shared.put(links, links);
+                existing = links;
+            }
+            linkouts[i] = existing;
+        }
+        cachedSegment = resolveLabels(gen, sequence, holder, linkouts, targets);
+        gen.getFeatureSets().put(name, cachedSegment);
+        return cachedSegment;
+    }
+
+    // Looks up ID in index: exact (then ignoring case) or by prefix
+    private FeatureIDIndex.Hit[] findIDs(FeatureIDIndex index, String id, MatchType match)  {
+        if (match == MATCH_PARTIAL) {
+            return index.getByPrefix(id, MAX_PARTIAL_MATCHES);
+        }
+        FeatureIDIndex.Hit[] hits = index.get(id);
+        return (hits.length > 0 ? hits : index.getIgnoreCase(id));
+    }
+
+    // Returns features for hits, loading each segment at most once
+    private FeatureHolder getFeatures(Generation gen, FeatureIDIndex.Hit[] hits) throws DataSourceException  {
+        if (hits.length == 0)   {
+            return FeatureHolder.EMPTY_FEATURE_HOLDER;
+        }
+        SimpleFeatureHolder holder = new SimpleFeatureHolder();
+        Map loaded = new HashMap();     // Segment name -> CachedSegment
+        Map shared = new HashMap();
+        Map added  = new IdentityHashMap();     // Features already in holder (Feature.equals is slow)
+        try {
+            for (int i = 0; i < hits.length; i++) {
+                GFFSegment segment = hits[i].getSegment();
+                CachedSegment cachedSegment = (CachedSegment) loaded.get(segment.getName());
+                if (cachedSegment == null)  {
+                    cachedSegment = (CachedSegment) gen.getFeatureSets().get(segment.getName());
+                    cachedSegment = getCachedSegment(gen, segment, cachedSegment, segment.getName(), shared);
+                    loaded.put(segment.getName(), cachedSegment);
+                }
+                Feature feature = cachedSegment.getFeatures().getFeature(hits[i].getOrdinal());
+                if (added.put(feature, feature) == null)   {
+                    holder.addFeature(feature);
+                }
+            }
+        }
+        catch (ChangeVetoException e)   {
+            throw new DataSourceException(e, "Could not add feature to holder");
+        }
+        return holder;
+    }
+
+    // Returns cached segment that feature belongs to, found through the feature's sequence, or null if
+    // the feature was not created by this source. Does not look in the feature cache, so features from
+    // a generation that has since been replaced (and its cache emptied) still find their own segment.
+    private CachedSegment lookupCachedSegment(Feature feature)    {
+        Sequence sequence = feature.getSequence();
+        if (!(sequence instanceof SegmentSequence)) {
+            return null;
+        }
+        return ((SegmentSequence) sequence).getCachedSegment();
+    }
+
+    // Resolves labels again if they were resolved using an out-of-date label table of the segment's generation
+    private CachedSegment refreshLabels(CachedSegment cachedSegment)  {
+        Generation gen = cachedSegment.getGeneration();
+        if (cachedSegment.getLabelTable() == getLabelTable(gen))    {
+            return cachedSegment;
+        }
+        cachedSegment = resolveLabels(gen, cachedSegment.getSequence(), cachedSegment.getFeatures(),
+                                      cachedSegment.getLinkouts(), cachedSegment.getFeatureTargets());
+        if (gen.getRetired() == 0)  {
+            gen.getFeatureSets().put(cachedSegment.getSegment().getName(), cachedSegment);
+        }
+        return cachedSegment;
+    }
+
+    // Resolves ID and label of every feature in holder, and points their sequence at the new entry
+    private CachedSegment resolveLabels(Generation gen, SegmentSequence sequence, IndexedFeatureHolder holder,
+                                        Map[] linkouts, List[] targets)    {
+        LabelTable table   = getLabelTable(gen);
+        GFFSegment segment = holder.getSegment();
+        int count = segment.countFeatures();
+        String[] ids    = new String[count];
+        String[] labels = new String[count];
+        for (int i = 0; i < count; i++) {
+            Feature feature = holder.getFeature(i);
+            ids[i]    = resolveFeatureID(feature, segment, i);
+            labels[i] = resolveFeatureLabel(feature, segment, i, ids[i], table.getOntologySnapshot());
+        }
+        CachedSegment cachedSegment = new CachedSegment(gen, sequence, holder, table, ids, labels, linkouts, targets);
+        sequence.setCachedSegment(cachedSegment);
+        return cachedSegment;
+    }
+
+    // Works out feature ID from attributes
+    private String resolveFeatureID(Feature feature, GFFSegment segment, int ordinal) {
+        List ids = getAttribute(feature, segment, ordinal, AttributeNames.ID);
+        if (ids != null)   {
+           return getFirst(ids);
+        }
+        else    {
+            return gffReferenceSource.getFeatureID(feature);
+        }
+    }
+
+    // Works out feature label from attributes and ontologies
+    private String resolveFeatureLabel(Feature feature, GFFSegment segment, int ordinal, String id,
+                                       OntologySnapshot snapshot) {
+        String label = getOntologyTerm(snapshot, id);
+        // Do not override ontology term unless the ID is not recognised
+        if (label.equals(id)) {
+            // Explicit name
+            List names = getAttribute(feature, segment, ordinal, AttributeNames.NAME);
+            if (names != null) {
+                return getFirst(names);
+            }
+        }
+        return label;
+    }
+
+    // Returns ontology term for type or method. The current label table only saves looking the term up
+    // again, so features from a generation that has since been replaced get the same description.
+    private String getDescription(String id)    {
+        String description = getLabelTable(generation).getDescription(id);
+        return (description == null ? getOntologyTerm(getOntologySnapshot(), id) : description);
+    }
+
+    // Returns label table of generation, building a new one if it has none or the ontologies have changed.
+    // Never blocks: if two threads notice a change at the same time both build a table.
+    private LabelTable getLabelTable(Generation gen)  {
+        GFFStore store            = gen.getStore();
+        OntologySnapshot snapshot = getOntologySnapshot();
+        LabelTable table          = gen.getLabelTable();
+        if (table != null && table.isCurrent(store, snapshot))    {
+            return table;
+        }
+        Map descriptions = new HashMap();
+        for (Iterator i = store.getTypes().iterator(); i.hasNext(); ) {
+            String type = (String) i.next();
+            descriptions.put(type, getOntologyTerm(snapshot, type));
+        }
+        for (Iterator i = store.getSources().iterator(); i.hasNext(); ) {
+            String source = (String) i.next();
+            descriptions.put(source, getOntologyTerm(snapshot, source));
+        }
+        table = new LabelTable(store, snapshot, descriptions, dataGenerations.incrementAndGet());
+        gen.setLabelTable(table);
+        return table;
+    }
+
+    private OntologySnapshot getOntologySnapshot()  {
+        return ontologyMapHolder.getOntologySnapshot();
+    }
+
+    // Warns about ontologies that the GFF types use but that have no links (eg. GO read with TabOntology),
+    // since typeSubsumption then only matches their types exactly
+    private void checkTypeSubsumption()  {
+        OntologySnapshot snapshot = getOntologySnapshot();
+        Set prefixes = new TreeSet();
+        for (Iterator i = getTypeCounts().keySet().iterator(); i.hasNext(); ) {
+            String type = (String) i.next();
+            int index = type.indexOf(ONTOLOGY_PREFIX_SEP);
+            if (index > 0)  {
+                prefixes.add(type.substring(0, index));
+            }
+        }
+        for (Iterator i = prefixes.iterator(); i.hasNext(); ) {
+            String prefix = (String) i.next();
+            try {
+                if (snapshot.getClosure(prefix).countLinks() == 0)  {
+                    log("typeSubsumption is set but ontology " + prefix + " has no is_a or part_of links, " +
+                        "so its types will only match themselves (links are only read from OBO and " +
+                        "DAG-Edit files: use eg. the GO OBO file with uk.ac.ebi.hawthorn.OboOntology)");
+                }
+            }
+            catch (NoSuchElementException e)    {
+                // Not an ontology ID
+            }
+        }
+    }
+
+    // Checks GFF file for changes in the background once refreshInterval has passed.
+    // Requests carry on with the current generation until the reload publishes a new one.
+    private void refresh()  {
+        long now = System.currentTimeMillis();
+        if (now < nextRefreshCheck)    {
+            return;
+        }
+        nextRefreshCheck = now + getRefreshInterval() * 1000L;
+        // At most one check at a time
+        if (reloading.compareAndSet(false, true))    {
+            reloader.execute(new ReloadTask());
+        }
+    }
+
+    // Reloads GFF file if it has changed
+    private void reload()  {
+        String msg = "Could not reload GFF file: " + getUrl();
+        try {
+            if (remoteFile != null) {
+                // Server says whether file has changed, so there is no need to download it to check
+                if (loadGFF())  {
+                    metrics.getCounter("gffReloads").increment();
+                }
+                return;
+            }
+            boolean modified;
+            InputStream in = getMonitoredInputStream();
+            if (in == null) {
+                return;
+            }
+            try {
+                modified = inputStreamMonitor.isModified(in);
+            }
+            finally {
+                in.close();
+            }
+            if (modified) {
+                loadGFF();
+                metrics.getCounter("gffReloads").increment();
+            }
+        }
+        catch (IOException e)   {
+            log(msg, e);
+        }
+        catch (BioException e)   {
+            log(msg, e);
+        }
+        catch (ParserException e)   {
+            log(msg, e);
+        }
+        catch (RuntimeException e)   {
+            log(msg, e);
+        }
+    }
+
+    private InputStream getInputStream()    {
+        String url = getUrl();
+        if (url.indexOf("://") > 0) {
+            try {
+                return URLConnectionHelper.getInputStream(new URL(url), getUserName(), getPassword());
+            }
+            catch (MalformedURLException e) {
+                log("Malformed URL: " + url, e);
+            }
+            catch (IOException e) {
+                log("Could not get input stream for " + url, e);
+            }
+            return null;
+        }
+        else    {
+            return getServletContext().getResourceAsStream(url);
+        }
+    }
+
+    // Returns stream to check for changes: the tabix index of an indexed file
+    // (which changes whenever the file does and is much smaller), otherwise the GFF file
+    private InputStream getMonitoredInputStream() throws IOException   {
+        File file = getIndexedFile();
+        return (file == null ? getInputStream() : new FileInputStream(getIndexFile(file)));
+    }
+
+    // Returns GFF file if url is a local bgzip file with a tabix index next to it (url + .tbi),
+    // otherwise null
+    private File getIndexedFile()  {
+        String url = getUrl();
+        if (!url.endsWith(GZIP_SUFFIX))    {
+            return null;
+        }
+        String path = null;
+        if (url.startsWith("file:"))    {
+            try {
+                path = new URL(url).getPath();
+            }
+            catch (MalformedURLException e) {
+                log("Malformed URL: " + url, e);
+            }
+        }
+        else if (url.indexOf("://") < 0)   {
+            path = getServletContext().getRealPath(url);
+        }
+        if (path == null)   {
+            return null;
+        }
+        File file = new File(path);
+        return (file.isFile() && getIndexFile(file).isFile() ? file : null);
+    }
+
+    private static File getIndexFile(File file)  {
+        return new File(file.getPath() + INDEX_SUFFIX);
+    }
+
+    // Opens indexed GFF file, or parses GFF file, into a new generation then swaps it in.
+    // Returns false if the file is remote and has not changed since it was last loaded.
+    private boolean loadGFF() throws IOException, BioException, ParserException    {
+        long start = System.nanoTime();
+        GFFStore store;
+        File file = getIndexedFile();
+        if (file != null)   {
+            store = GFFStore.open(file, getIndexFile(file), getDotVersions(), attributeNames, getParserThreads());
+        }
+        else if (remoteFile != null)    {
+            store = loadRemoteGFF();
+            if (store == null)  {
+                return false;
+            }
+        }
+        else    {
+            store = parseGFF(getInputStream());
+        }
+        // Build everything requests need before publishing, so they never wait for it
+        Generation current = generation;
+        Generation next    = new Generation(store, createFeatureCache(), new FixedSizeMap(getMaxCachedTargets()));
+        if (current != null)    {
+            // Ontologies are loaded after the first generation (see init)
+            getLabelTable(next);
+            warm(current, next);
+        }
+        this.generation = next;
+        metrics.record("loadGFF", start);
+        if (current != null && current.retire())    {
+            metrics.record("drainGeneration", current.getRetired());
+        }
+        return true;
+    }
+
+    // Loads the segments cached by the current generation into the next one, so popular
+    // segments are ready when it is published
+    private void warm(Generation current, Generation next)  {
+        long start = System.nanoTime();
+        GFFStore store = next.getStore();
+        Map shared = new HashMap();
+        for (Iterator i = current.getFeatureSets().getKeys().iterator(); i.hasNext(); ) {
+            String name = (String) i.next();
+            GFFSegment segment = store.getSegment(name);
+            if (segment == null)    {
+                continue;
+            }
+            try {
+                getCachedSegment(next, segment, null, name, shared);
+            }
+            catch (DataSourceException e)   {
+                log("Could not load features for segment " + name, e);
+            }
+        }
+        metrics.record("warmGeneration", start);
+    }
+
+    // Downloads and parses remote GFF file, or returns null if it has not changed since it was last
+    // loaded. The file is parsed as it downloads; if it is the same as before the new store is dropped
+    // so cached features and labels stay valid.
+    private GFFStore loadRemoteGFF() throws IOException, BioException, ParserException    {
+        RemoteFile.Download download;
+        GFFStore store;
+        try {
+            download = remoteFile.open();
+            if (download == null)   {
+                metrics.getCounter("gffNotModified").increment();
+                return null;
+            }
+            store = parseGFF(download.getInputStream());
+        }
+        catch (SocketTimeoutException e)    {
+            metrics.getCounter("gffTimeouts").increment();
+            throw e;
+        }
+        boolean unchanged = (generation != null && download.isUnchanged());
+        download.commit();
+        if (unchanged)  {
+            metrics.getCounter("gffUnchanged").increment();
+            return null;
+        }
+        return store;
+    }
+
+    // Parses whole GFF file, decompressing it if its name ends in .gz
+    private GFFStore parseGFF(InputStream in) throws IOException, BioException, ParserException    {
+        if (in == null)  {
+            NullPointerException e = new NullPointerException("Input stream is null");
+            log("Could not load GFF file: " + getUrl(), e);
+            throw e;
+        }
+        try {
+            if (getUrl().endsWith(GZIP_SUFFIX)) {
+                in = new GZIPInputStream(in);
+            }
+            return GFFStore.parse(new BufferedReader(new InputStreamReader(in)), getDotVersions(),
+                                  attributeNames, getParserThreads());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // Returns attribute values, or null if feature does not have attribute
+    private List getAttribute(Feature feature, int slot)   {
+        CachedSegment cachedSegment = lookupCachedSegment(feature);
+        if (cachedSegment != null)  {
+            int ordinal = cachedSegment.getOrdinal(feature);
+            if (ordinal >= 0) {
+                return cachedSegment.getSegment().getAttribute(ordinal, slot);
+            }
+        }
+        return getAttribute(feature, null, -1, slot);
+    }
+
+    // Returns attribute values from segment if known, otherwise from feature annotation
+    private List getAttribute(Feature feature, GFFSegment segment, int ordinal, int slot)   {
+        if (segment != null)    {
+            return segment.getAttribute(ordinal, slot);
+        }
+        // Not one of our features (eg. a target) so look in the annotation
+        Annotation annotation = feature.getAnnotation();
+        String name = attributeNames.getName(slot);
+        List list = null;
+        if (annotation.containsProperty(name))  {
+            list = (List) annotation.getProperty(name);
+        }
+        if (list == null || list.isEmpty()) {
+            // Try case-insensitive version
+            String lowerCaseName = attributeNames.getLowerCaseName(slot);
+            if (annotation.containsProperty(lowerCaseName))  {
+                list = (List) annotation.getProperty(lowerCaseName);
+            }
+        }
+        return (list == null ? null : Collections.unmodifiableList(list));
+    }
+
+    // Returns first value in list, or empty string if list is empty
+    private String getFirst(List list)  {
         if (list.isEmpty())
             return "";
         else
             return (String) list.get(0);
     }
 
-    // Return property as List
-    private List getPropertyList(Annotation annotation, String attribute)   {
-        List list = null;
-        try {
-            list = (List) annotation.getProperty(attribute);
+    // Returns ontology term, or the ID itself if it is not an ontology ID or has no term.
+    // IDs with no term are remembered and logged in batches (see UnknownTermCache).
+    private String getOntologyTerm(OntologySnapshot snapshot, String id)   {
+        // TODO: get __dazzle__ prefix from dazzle.jar (means the ID is autogenerated)
+        if ((!id.startsWith(DAZZLE_ID_PREFIX)) && (snapshot.isValidID(id)))  {
+            if (unknownTerms.contains(snapshot, id))    {
+                metrics.increment("ontologyKnownMisses");
+                return id;
+            }
+            String term = snapshot.getTerm(id);
+            if (term != null)   {
+                metrics.increment("ontologyHits");
+                return term;
+            }
+            metrics.increment("ontologyMisses");
+            String msg = unknownTerms.add(snapshot, id);
+            if (msg != null)    {
+                log(msg);
+            }
         }
-        catch (NoSuchElementException e)  {
-            // Ignore - just means property is not found
+        // No ontology ID specified - no need to throw an exception
+        return id;
+    }
+
+    // Weighs cached segments by their number of features
+    private static class FeatureCountWeigher implements StripedCache.Weigher    {
+        private final int bytesPerFeature;
+        FeatureCountWeigher(int bytesPerFeature)  {
+            this.bytesPerFeature = bytesPerFeature;
         }
-        if (list == null || list.isEmpty()) {
-            // Try case-insensitive version
-            list = (List) annotation.getProperty(normalise(attribute));
+        public int weigh(Object key, Object value) {
+            long weight = (long) ((CachedSegment) value).getSegment().countFeatures() * bytesPerFeature;
+            return (int) Math.min(Integer.MAX_VALUE, weight);
         }
-        return list;
     }
 
-    private String getOntologyTerm(String id)   {
-        try {
-            // TODO: get __dazzle__ prefix from dazzle.jar (means the ID is autogenerated)
-            if ((!id.startsWith("__dazzle__")) && (ontologyMap.isValidID(id)))  {
-                return ontologyMap.getTerm(id);
+    // Looks up types in the generation's current label table, so refreshed ontologies are used straight away
+    private class OntologyTypeHierarchy implements TypeHierarchy    {
+        private final Generation gen;
+        OntologyTypeHierarchy(Generation gen)  {
+            this.gen = gen;
+        }
+        public Set getSubsumedTypes(String ancestor) {
+            return getLabelTable(gen).getSubsumedTypes(ancestor);
+        }
+    }
+
+    // Checks GFF file for changes, and reloads it, off the request threads
+    private class ReloadTask implements Runnable    {
+        public void run()   {
+            try {
+                reload();
             }
-            else    {
-                // No ontology ID specified - no need to throw an exception
-                return id;
+            finally {
+                reloading.set(false);
             }
         }
-        catch (Exception e)    {
-            log("Could not get ontology term for " + id, e);
-            return id;
+    }
+
+    private static class ReloadThreadFactory implements ThreadFactory  {
+        public Thread newThread(Runnable r)   {
+            Thread thread = new Thread(r, "Dogwood GFF reload");
+            thread.setDaemon(true);
+            return thread;
         }
     }
 
@@ -487,8 +1912,4 @@ public class GFFOntologyReferenceSource
         }
     }
 
-    private String normalise(String s)  {
-        return s.toLowerCase();
-    }
-
 }
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import uk.ac.ebi.dogwood.cache.StripedCache;
+import uk.ac.ebi.dogwood.gff.GFFStore;
+
+import org.biojava.utils.cache.CacheMap;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything a data source serves from one version of a GFF file: the parsed file and its
+ * indexes, the features created from it (with their labels, links and targets) and the
+ * ontology terms of its types and methods.
+ * <p>
+ * A reload builds a new generation while requests carry on with the current one, then
+ * publishes it with a single write. Each data source call that reads the file
+ * {@link #acquire() acquires} the generation it starts with and uses it throughout.
+ * Dazzle renders features after that call has returned, so features do not use the current
+ * generation: each one reaches its {@link CachedSegment}, and through it the generation it was
+ * created from, by way of its {@link SegmentSequence}. Its ID, label, links, targets and the
+ * landmark version sent with it therefore come from the same file, even if it has since been replaced.
+ * Once a generation has been {@link #retire() retired} and its last call has
+ * {@link #release() released} it, its feature cache is emptied; features that have already
+ * been returned keep their own entries until they are no longer used.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class Generation {
+
+    private final GFFStore store;
+    private final StripedCache featureSets;     // Segment name -> CachedSegment
+    private final CacheMap targetFeatures;      // Target ID -> Feature (guarded by itself)
+    private volatile LabelTable labelTable  = null;     // Replaced when the ontologies change
+    private volatile long retired           = 0;        // Time retired (nanoseconds), 0 if current
+
+    private final AtomicInteger users       = new AtomicInteger();     // Calls in progress
+    private final AtomicBoolean drained     = new AtomicBoolean();
+
+    /**
+     * Creates generation.
+     *
+     * @param   store           GFF file
+     * @param   featureSets     empty feature cache
+     * @param   targetFeatures  empty target cache
+     */
+    Generation(GFFStore store, StripedCache featureSets, CacheMap targetFeatures)  {
+        this.store          = store;
+        this.featureSets    = featureSets;
+        this.targetFeatures = targetFeatures;
+    }
+
+    GFFStore getStore() {
+        return store;
+    }
+
+    StripedCache getFeatureSets() {
+        return featureSets;
+    }
+
+    CacheMap getTargetFeatures() {
+        return targetFeatures;
+    }
+
+    LabelTable getLabelTable() {
+        return labelTable;
+    }
+
+    void setLabelTable(LabelTable labelTable) {
+        this.labelTable = labelTable;
+    }
+
+    /**
+     * Records that a call is using this generation
+     */
+    void acquire()  {
+        users.incrementAndGet();
+    }
+
+    /**
+     * Records that a call has finished with this generation
+     *
+     * @return  <code>true</code> if this generation has been retired and this was its last call
+     */
+    boolean release()  {
+        return (users.decrementAndGet() == 0 && drain());
+    }
+
+    /**
+     * Records that this generation has been replaced
+     *
+     * @return  <code>true</code> if no calls are using this generation
+     */
+    boolean retire()  {
+        retired = System.nanoTime();
+        return drain();
+    }
+
+    /**
+     * Returns time this generation was retired
+     *
+     * @return  time retired (as returned by <code>System.nanoTime()</code>), or 0 if still current
+     */
+    long getRetired()  {
+        return retired;
+    }
+
+    public String toString()    {
+        return "Data generation:\t" + (labelTable == null ? "-" : String.valueOf(labelTable.getGeneration())) +
+               " (" + users.get() + " calls)\n";
+    }
+
+    // Private methods
+
+    // Empties feature cache the first time there are no calls after retirement
+    private boolean drain()  {
+        if (retired == 0 || users.get() > 0 || !drained.compareAndSet(false, true))  {
+            return false;
+        }
+        featureSets.clear();
+        return true;
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import uk.ac.ebi.dogwood.gff.GFFStore;
+import uk.ac.ebi.dogwood.holder.OntologySnapshot;
+
+import java.util.Map;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ontology terms for every type and method in a GFF file, resolved in one go.
+ * A table belongs to one {@link GFFStore} and one {@link OntologySnapshot} and is replaced
+ * when either of them is, so each table is numbered with a new data generation.
+ * The table also remembers which types in the file each ancestor type subsumes, for
+ * type subsumption queries.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class LabelTable {
+
+    private static final int MAX_ANCESTORS  = 1000;     // Subsumed type sets to keep
+
+    private final GFFStore store;
+    private final OntologySnapshot snapshot;
+    private final Map descriptions;     // Type or method ID -> ontology term
+    private final long generation;
+    private final long created          = System.currentTimeMillis();
+    private final Map subsumed          = new ConcurrentHashMap();  // Ancestor ID -> Set of type IDs
+
+    /**
+     * Creates table.
+     *
+     * @param   store           GFF file the table was built from
+     * @param   snapshot        ontologies the table was built from
+     * @param   descriptions    type and method IDs mapped to ontology terms
+     * @param   generation      number that is greater than that of the table this one replaces
+     */
+    LabelTable(GFFStore store, OntologySnapshot snapshot, Map descriptions, long generation)    {
+        this.store        = store;
+        this.snapshot     = snapshot;
+        this.descriptions = Collections.unmodifiableMap(descriptions);
+        this.generation   = generation;
+    }
+
+    GFFStore getStore() {
+        return store;
+    }
+
+    OntologySnapshot getOntologySnapshot() {
+        return snapshot;
+    }
+
+    long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns time table was built
+     *
+     * @return  time table was built (milliseconds since 1970)
+     */
+    long getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns ontology term for type or method, or <code>null</code> if not in table
+     *
+     * @param   id  type or method ID
+     * @return  ontology term, or <code>null</code> if not in table
+     */
+    String getDescription(String id)    {
+        return (String) descriptions.get(id);
+    }
+
+    /**
+     * Returns <code>ancestor</code> and the types in the GFF file that are its descendants in the
+     * ontologies. Each ancestor's types are worked out once, testing every type in the file.
+     *
+     * @param   ancestor    type ID
+     * @return  type IDs (read-only)
+     */
+    Set getSubsumedTypes(String ancestor)  {
+        Set types = (Set) subsumed.get(ancestor);
+        if (types == null)  {
+            types = new HashSet();
+            types.add(ancestor);
+            for (Iterator i = store.getTypes().iterator(); i.hasNext(); ) {
+                String type = (String) i.next();
+                if (snapshot.isA(type, ancestor))  {
+                    types.add(type);
+                }
+            }
+            types = Collections.unmodifiableSet(types);
+            if (subsumed.size() >= MAX_ANCESTORS)   {
+                subsumed.clear();
+            }
+            subsumed.put(ancestor, types);
+        }
+        return types;
+    }
+
+    /**
+     * Returns <code>true</code> if table was built from <code>store</code> and <code>snapshot</code>
+     *
+     * @param   store       current GFF file
+     * @param   snapshot    current ontologies
+     * @return  <code>true</code> if table can still be used
+     */
+    boolean isCurrent(GFFStore store, OntologySnapshot snapshot)  {
+        return (this.store == store && this.snapshot == snapshot);
+    }
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * File on an HTTP server that is downloaded again only when it has changed.
+ * Requests after the first send <code>If-None-Match</code> and <code>If-Modified-Since</code>
+ * with the <code>ETag</code> and <code>Last-Modified</code> headers of the last download, so an
+ * unchanged file costs one <code>304 Not Modified</code> response. For servers that send neither
+ * header, each download is hashed as it is read so the caller can tell that it has not changed.
+ * <p>
+ * The response body is passed on as it arrives, so it can be parsed during the download.
+ * Validators are only remembered once the caller {@link Download#commit() commits} a download,
+ * so a download that could not be parsed is fetched again next time.
+ * <p>
+ * Connecting and each read of the response give up after a timeout, so a server that stops
+ * responding cannot hold up the thread that checks for changes.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class RemoteFile {
+
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private final URL url;
+    private final String authorization;     // Null if no user name
+    private final int timeout;              // Milliseconds (0 = none)
+
+    // Last committed download (guarded by this)
+    private String entityTag    = null;
+    private long lastModified   = 0;
+    private byte[] digest       = null;
+    private long downloads      = 0;
+    private long notModified    = 0;
+    private long unchanged      = 0;
+
+    /**
+     * Creates file.
+     *
+     * @param   url         HTTP or HTTPS URL
+     * @param   userName    user name for basic authentication (null or empty if none)
+     * @param   password    password for basic authentication
+     * @param   timeout     milliseconds to wait to connect and for each read (0 to wait for ever)
+     */
+    RemoteFile(URL url, String userName, String password, int timeout)  {
+        this.url     = url;
+        this.timeout = timeout;
+        if (userName == null || userName.length() == 0)  {
+            this.authorization = null;
+        }
+        else    {
+            String credentials = userName + ":" + (password == null ? "" : password);
+            this.authorization = "Basic " + encode(credentials.getBytes());
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if <code>url</code> can be fetched conditionally
+     *
+     * @param   url     URL
+     * @return  <code>true</code> if <code>url</code> is an HTTP or HTTPS URL
+     */
+    static boolean isRemote(String url)  {
+        return url.startsWith("http://") || url.startsWith("https://");
+    }
+
+    /**
+     * Starts download, unless the server says the file has not changed since the last
+     * committed download
+     *
+     * @return  download, or <code>null</code> if file has not been modified
+     * @throws  IOException if the server could not be reached or returned an error
+     * @throws  java.net.SocketTimeoutException if the server did not respond in time
+     *          (reading the download can also time out)
+     */
+    Download open() throws IOException  {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        connection.setAllowUserInteraction(false);
+        if (authorization != null)  {
+            connection.setRequestProperty("Authorization", authorization);
+        }
+        synchronized (this) {
+            if (entityTag != null)  {
+                connection.setRequestProperty("If-None-Match", entityTag);
+            }
+            if (lastModified > 0)   {
+                connection.setIfModifiedSince(lastModified);
+            }
+        }
+        int status = connection.getResponseCode();
+        if (status == HttpURLConnection.HTTP_NOT_MODIFIED)  {
+            // No body, so the connection is kept for the next request
+            synchronized (this) {
+                notModified++;
+            }
+            return null;
+        }
+        if (status != HttpURLConnection.HTTP_OK)    {
+            connection.disconnect();
+            throw new IOException("Could not get " + url + ": HTTP " + status + " " + connection.getResponseMessage());
+        }
+        return new Download(connection);
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer();
+        synchronized (this) {
+            buf.append("URL:\t" + url + "\n");
+            buf.append("Timeout:\t" + timeout + " ms\n");
+            buf.append("ETag:\t" + entityTag + "\n");
+            buf.append("Last modified:\t" + (lastModified > 0 ? new Date(lastModified).toString() : null) + "\n");
+            buf.append("Downloads:\t" + downloads + "\n");
+            buf.append("Not modified:\t" + notModified + "\n");
+            buf.append("Unchanged downloads:\t" + unchanged + "\n");
+        }
+        return buf.toString();
+    }
+
+    // Private methods
+
+    private static MessageDigest createDigest()  {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)  {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not available: " + e.getMessage());
+        }
+    }
+
+    // Base64 encoding for basic authentication (RFC 2045)
+    private static String encode(byte[] bytes)  {
+        StringBuffer buf = new StringBuffer((bytes.length + 2) / 3 * 4);
+        for (int i = 0; i < bytes.length; i += 3) {
+            int n = (bytes[i] & 0xFF) << 16;
+            if (i + 1 < bytes.length)   {
+                n |= (bytes[i + 1] & 0xFF) << 8;
+            }
+            if (i + 2 < bytes.length)   {
+                n |= (bytes[i + 2] & 0xFF);
+            }
+            buf.append(BASE64[(n >> 18) & 63]);
+            buf.append(BASE64[(n >> 12) & 63]);
+            buf.append(i + 1 < bytes.length ? BASE64[(n >> 6) & 63] : '=');
+            buf.append(i + 2 < bytes.length ? BASE64[n & 63] : '=');
+        }
+        return buf.toString();
+    }
+
+    /**
+     * Response body of a download, hashed as it is read
+     */
+    final class Download {
+
+        private final HttpURLConnection connection;
+        private final MessageDigest messageDigest = createDigest();
+        private final InputStream inputStream;
+
+        private Download(HttpURLConnection connection) throws IOException {
+            this.connection  = connection;
+            this.inputStream = new DigestInputStream(connection.getInputStream(), messageDigest);
+        }
+
+        /**
+         * Returns response body. Closing it ends the download.
+         *
+         * @return  response body
+         */
+        InputStream getInputStream()  {
+            return inputStream;
+        }
+
+        /**
+         * Returns <code>true</code> if the body read so far (normally all of it) is the same as
+         * the body of the last committed download
+         *
+         * @return  <code>true</code> if file has not changed
+         */
+        boolean isUnchanged()  {
+            byte[] hash = getDigest();
+            synchronized (RemoteFile.this) {
+                return Arrays.equals(hash, digest);
+            }
+        }
+
+        /**
+         * Remembers validators and hash of this download for the next {@link RemoteFile#open()}
+         */
+        void commit()  {
+            byte[] hash = getDigest();
+            synchronized (RemoteFile.this) {
+                if (Arrays.equals(hash, digest))    {
+                    unchanged++;
+                }
+                downloads++;
+                entityTag    = connection.getHeaderField("ETag");
+                lastModified = connection.getLastModified();
+                digest       = hash;
+            }
+        }
+
+        // Digest can only be completed once, so work it out from a copy
+        private byte[] getDigest()  {
+            try {
+                return ((MessageDigest) messageDigest.clone()).digest();
+            }
+            catch (CloneNotSupportedException e)    {
+                throw new IllegalStateException(DIGEST_ALGORITHM + " digest cannot be cloned");
+            }
+        }
+
+    }
+
+}
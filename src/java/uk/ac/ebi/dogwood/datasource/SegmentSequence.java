@@ -0,0 +1,59 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.impl.ViewSequence;
+
+/**
+ * Sequence that the features of one segment are created on. It points to the segment's latest
+ * {@link CachedSegment}, so the IDs, labels, links and targets of a feature can be found from
+ * the feature itself, from the {@link Generation} it was created from, even after that
+ * generation has been replaced and its feature cache emptied.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class SegmentSequence extends ViewSequence {
+
+    private volatile CachedSegment cachedSegment = null;
+
+    /**
+     * Creates view of sequence.
+     *
+     * @param   sequence    sequence of segment
+     */
+    SegmentSequence(Sequence sequence)  {
+        super(sequence);
+    }
+
+    /**
+     * Returns latest entry for the features on this sequence
+     *
+     * @return  cached segment, or <code>null</code> if features have not been resolved yet
+     */
+    CachedSegment getCachedSegment()  {
+        return cachedSegment;
+    }
+
+    void setCachedSegment(CachedSegment cachedSegment)  {
+        this.cachedSegment = cachedSegment;
+    }
+
+}
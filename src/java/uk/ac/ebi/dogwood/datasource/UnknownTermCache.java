@@ -0,0 +1,141 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+import uk.ac.ebi.dogwood.holder.OntologySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * IDs that look like ontology IDs but have no term, so they are not looked up again,
+ * and a summary of them for the log. The cache belongs to one {@link OntologySnapshot}
+ * and is emptied when the snapshot is replaced (the ontology may now have the terms).
+ * It is also emptied when it holds <code>maxSize</code> IDs.
+ * <p>
+ * Instead of logging every unknown ID, {@link #add} returns a message at most once per
+ * log interval, giving the number of unknown IDs found since the last message and a few examples.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class UnknownTermCache {
+
+    private static final int MAX_EXAMPLES = 5;
+
+    private final int maxSize;
+    private final long logInterval;                 // Milliseconds
+
+    private volatile Entries entries = new Entries(null);
+
+    // Summary for next log message (guarded by this)
+    private final List examples = new ArrayList(MAX_EXAMPLES);
+    private long unlogged       = 0;
+    private long lastLog        = System.currentTimeMillis();
+    private long nextLog        = 0;                // Log first unknown ID straight away
+
+    /**
+     * Creates cache.
+     *
+     * @param   maxSize         maximum number of IDs to keep
+     * @param   logInterval     minimum number of seconds between log messages
+     */
+    UnknownTermCache(int maxSize, int logInterval)  {
+        this.maxSize     = maxSize;
+        this.logInterval = logInterval * 1000L;
+    }
+
+    /**
+     * Returns <code>true</code> if ID is known to have no term in <code>snapshot</code>
+     *
+     * @param   snapshot    current ontologies
+     * @param   id          ontology ID
+     * @return  <code>true</code> if ID is known to have no term
+     */
+    boolean contains(OntologySnapshot snapshot, String id)  {
+        Entries e = entries;
+        return (e.snapshot == snapshot && e.ids.containsKey(id));
+    }
+
+    /**
+     * Records that ID has no term in <code>snapshot</code>
+     *
+     * @param   snapshot    current ontologies
+     * @param   id          ontology ID
+     * @return  message to log, or <code>null</code> if a message was logged less than
+     *          one log interval ago
+     */
+    String add(OntologySnapshot snapshot, String id)  {
+        Entries e = entries;
+        if (e.snapshot != snapshot)  {
+            // Ontologies refreshed: forget IDs that were unknown in the old ones
+            e = new Entries(snapshot);
+            entries = e;
+        }
+        if (e.ids.size() >= maxSize)    {
+            e.ids.clear();
+        }
+        if (e.ids.putIfAbsent(id, Boolean.TRUE) != null)    {
+            return null;    // Another thread got there first
+        }
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            unlogged++;
+            if (examples.size() < MAX_EXAMPLES)   {
+                examples.add(id);
+            }
+            if (now < nextLog)    {
+                return null;
+            }
+            StringBuffer msg = new StringBuffer("Could not get ontology terms for ");
+            msg.append(unlogged + " ID" + (unlogged == 1 ? "" : "s") + " since " + new Date(lastLog));
+            msg.append(", for example: " + examples);
+            unlogged = 0;
+            examples.clear();
+            lastLog = now;
+            nextLog = now + logInterval;
+            return msg.toString();
+        }
+    }
+
+    /**
+     * Returns number of IDs in cache
+     *
+     * @return  number of IDs in cache
+     */
+    int size()  {
+        return entries.ids.size();
+    }
+
+    // Unknown IDs for one snapshot
+    private static final class Entries {
+
+        final OntologySnapshot snapshot;
+        final ConcurrentMap ids = new ConcurrentHashMap();      // ID -> Boolean.TRUE
+
+        Entries(OntologySnapshot snapshot)  {
+            this.snapshot = snapshot;
+        }
+
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.datasource;
+
+/**
+ * Data source whose responses only change when its data is refreshed.
+ * Initialised sources add themselves to the <code>java.util.List</code> held in the servlet
+ * context attribute {@link #CONTEXT_ATTRIBUTE}, so that components outside Dazzle
+ * (for example <code>uk.ac.ebi.dogwood.cache.FragmentCacheFilter</code>) can tell whether
+ * a response they rendered earlier is still current.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public interface VersionedSource {
+
+    /**
+     * Name of servlet context attribute that holds the list of initialised sources
+     */
+    public static final String CONTEXT_ATTRIBUTE = "uk.ac.ebi.dogwood.datasource.VersionedSource";
+
+    /**
+     * Returns number that increases whenever the data changes, checking for changes first
+     * (for example if the GFF file or the ontologies have been refreshed)
+     *
+     * @return  data generation
+     */
+    public long getDataGeneration();
+
+    /**
+     * Returns time the current data generation started
+     *
+     * @return  time data last changed (milliseconds since 1970)
+     */
+    public long getLastModified();
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.io.InputStream;
+import java.io.IOException;
+
+/**
+ * Names of the GFF attributes (group column) that Dogwood understands, with the slot
+ * each one is stored in. Names match exactly or in lower case, for example
+ * <code>ID</code> or <code>id</code>.
+ * Defaults comply with GFF 3 (see http://song.sourceforge.net/gff3-jan04.shtml) and can be
+ * overridden with a properties file:
+ * <pre>
+ * ID=ID
+ * Name=Name
+ * Note=Note
+ * Link=Link
+ * Target=Target
+ * </pre>
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class AttributeNames {
+
+    /** Feature identifier */
+    public static final int ID      = 0;
+    /** Feature label */
+    public static final int NAME    = 1;
+    public static final int NOTE    = 2;
+    public static final int LINK    = 3;
+    /** Protein interaction partner(s) */
+    public static final int TARGET  = 4;
+
+    /** Number of slots */
+    public static final int SLOT_COUNT = 5;
+
+    /** Property keys and default attribute names, indexed by slot */
+    private static final String[] KEYS = {"ID", "Name", "Note", "Link", "Target"};
+
+    /** Default attribute names */
+    public static final AttributeNames DEFAULT = new AttributeNames(new Properties());
+
+    private final String[] names        = new String[SLOT_COUNT];
+    private final String[] lowerNames   = new String[SLOT_COUNT];
+
+    /**
+     * Creates attribute names from properties. Missing properties take default values.
+     *
+     * @param   properties  attribute names keyed by default name, for example <code>ID=Dbxref</code>
+     */
+    public AttributeNames(Properties properties)  {
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            String name = properties.getProperty(KEYS[i], KEYS[i]).trim();
+            names[i]      = name;
+            lowerNames[i] = name.toLowerCase();
+        }
+    }
+
+    /**
+     * Loads attribute names from properties file
+     *
+     * @param   inputStream     properties file
+     * @return  attribute names
+     * @throws  IOException     if file could not be read
+     */
+    public static AttributeNames load(InputStream inputStream) throws IOException {
+        Properties properties = new Properties();
+        try {
+            properties.load(inputStream);
+        }
+        finally {
+            inputStream.close();
+        }
+        return new AttributeNames(properties);
+    }
+
+    /**
+     * Returns attribute name for slot
+     *
+     * @param   slot    slot, for example {@link #ID}
+     * @return  attribute name
+     */
+    public String getName(int slot)  {
+        return names[slot];
+    }
+
+    /**
+     * Returns lower case attribute name for slot
+     *
+     * @param   slot    slot, for example {@link #ID}
+     * @return  lower case attribute name
+     */
+    public String getLowerCaseName(int slot)  {
+        return lowerNames[slot];
+    }
+
+    /**
+     * Returns values of GFF attributes, indexed by slot.
+     * Follows the same rules as looking up each name in a feature annotation:
+     * the exact name is used unless missing or empty, in which case the lower case name is used.
+     * Lists are wrapped so they can be handed out without copying.
+     *
+     * @param   attributes  GFF group attributes (name -> <code>List</code> of values)
+     * @return  values indexed by slot (<code>null</code> if attribute not present)
+     */
+    public List[] getSlots(Map attributes)  {
+        List[] slots = new List[SLOT_COUNT];
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            List list = (List) attributes.get(names[i]);
+            if (list == null || list.isEmpty()) {
+                List lower = (List) attributes.get(lowerNames[i]);
+                if (lower != null)  {
+                    list = lower;
+                }
+            }
+            slots[i] = (list == null ? null : Collections.unmodifiableList(list));
+        }
+        return slots;
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < SLOT_COUNT; i++) {
+            buf.append(KEYS[i] + " attribute:\t" + names[i] + "\n");
+        }
+        return buf.toString();
+    }
+
+}
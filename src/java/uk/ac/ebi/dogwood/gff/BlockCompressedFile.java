@@ -0,0 +1,180 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to a file compressed with <code>bgzip</code> (BGZF): a series of gzip members of
+ * at most 64 KB each, whose compressed size is recorded in a <code>BC</code> extra field.
+ * Positions are virtual offsets as used by tabix: the address of the block in the compressed
+ * file in the top 48 bits and the offset within the uncompressed block in the bottom 16 bits.
+ * <p>
+ * Each read opens the file, so one instance can be shared by several threads.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class BlockCompressedFile {
+
+    private static final int HEADER_SIZE    = 12;       // Bytes before the extra field
+    private static final int FOOTER_SIZE    = 8;        // CRC32 and uncompressed size
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    private final File file;
+
+    /**
+     * Creates reader.
+     *
+     * @param   file    BGZF file
+     */
+    public BlockCompressedFile(File file)  {
+        this.file = file;
+    }
+
+    public File getFile()  {
+        return file;
+    }
+
+    /**
+     * Returns uncompressed bytes from <code>begin</code> (inclusive) to <code>end</code> (exclusive)
+     *
+     * @param   begin   virtual offset of first byte
+     * @param   end     virtual offset after last byte
+     * @return  uncompressed bytes
+     * @throws  IOException if file could not be read or is not in BGZF format
+     */
+    public byte[] read(long begin, long end) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        Inflater inflater = new Inflater(true);
+        try {
+            long address    = getBlockAddress(begin);
+            long endAddress = getBlockAddress(end);
+            int offset      = getBlockOffset(begin);
+            byte[] compressed   = new byte[MAX_BLOCK_SIZE];
+            byte[] uncompressed = new byte[MAX_BLOCK_SIZE];
+            while (address <= endAddress && address < in.length()) {
+                in.seek(address);
+                int size   = readBlock(in, compressed);
+                int length = inflate(inflater, compressed, size, uncompressed);
+                int stop   = (address == endAddress ? Math.min(getBlockOffset(end), length) : length);
+                if (stop > offset)  {
+                    out.write(uncompressed, offset, stop - offset);
+                }
+                address += size;
+                offset = 0;
+            }
+        }
+        finally {
+            inflater.end();
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns address of block in compressed file
+     *
+     * @param   virtualOffset   virtual offset
+     * @return  address of block in compressed file
+     */
+    public static long getBlockAddress(long virtualOffset)  {
+        return virtualOffset >>> 16;
+    }
+
+    /**
+     * Returns offset in uncompressed block
+     *
+     * @param   virtualOffset   virtual offset
+     * @return  offset in uncompressed block
+     */
+    public static int getBlockOffset(long virtualOffset)  {
+        return (int) (virtualOffset & 0xFFFF);
+    }
+
+    public String toString()    {
+        return file.getPath();
+    }
+
+    // Private methods
+
+    // Reads whole block at current position into buffer and returns its size
+    private int readBlock(RandomAccessFile in, byte[] buffer) throws IOException  {
+        in.readFully(buffer, 0, HEADER_SIZE);
+        if ((buffer[0] & 0xFF) != 31 || (buffer[1] & 0xFF) != 139 || (buffer[3] & 4) == 0) {
+            throw new IOException("Not a BGZF file (bgzip): " + file);
+        }
+        int extraLength = readShort(buffer, 10);
+        in.readFully(buffer, HEADER_SIZE, extraLength);
+        int size = -1;
+        for (int i = HEADER_SIZE; i + 4 <= HEADER_SIZE + extraLength; ) {
+            int length = readShort(buffer, i + 2);
+            if (buffer[i] == 'B' && buffer[i + 1] == 'C' && length == 2)    {
+                size = readShort(buffer, i + 4) + 1;
+            }
+            i += 4 + length;
+        }
+        if (size < 0)   {
+            throw new IOException("Not a BGZF file (no block size): " + file);
+        }
+        int header = HEADER_SIZE + extraLength;
+        in.readFully(buffer, header, size - header);
+        return size;
+    }
+
+    // Decompresses block and returns number of bytes
+    private int inflate(Inflater inflater, byte[] block, int size, byte[] buffer) throws IOException  {
+        int header = HEADER_SIZE + readShort(block, 10);
+        int length = readInt(block, size - 4);
+        inflater.reset();
+        inflater.setInput(block, header, size - header - FOOTER_SIZE);
+        try {
+            int n = 0;
+            while (n < length)  {
+                int k = inflater.inflate(buffer, n, length - n);
+                if (k == 0 && (inflater.finished() || inflater.needsInput()))    {
+                    throw new EOFException("Truncated BGZF block in " + file);
+                }
+                n += k;
+            }
+            return n;
+        }
+        catch (DataFormatException e)   {
+            IOException ex = new IOException("Corrupt BGZF block in " + file);
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    private static int readShort(byte[] buffer, int i)  {
+        return (buffer[i] & 0xFF) | ((buffer[i + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] buffer, int i)  {
+        return readShort(buffer, i) | (readShort(buffer, i + 2) << 16);
+    }
+
+}
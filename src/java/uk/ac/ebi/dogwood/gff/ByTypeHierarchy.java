@@ -0,0 +1,80 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureFilter;
+
+import java.util.Set;
+
+/**
+ * Accepts features whose type is a given type or one of its descendants in a {@link TypeHierarchy}.
+ * {@link IndexedFeatureHolder} uses this in place of {@link FeatureFilter.ByType} when it has a hierarchy.
+ * The descendants are looked up once, when the filter is created.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class ByTypeHierarchy implements FeatureFilter {
+
+    private final String type;
+    private final Set types;        // type and its descendants
+
+    /**
+     * Creates filter.
+     *
+     * @param   type        ancestor type ID
+     * @param   hierarchy   links between types
+     */
+    public ByTypeHierarchy(String type, TypeHierarchy hierarchy)  {
+        this.type  = type;
+        this.types = hierarchy.getSubsumedTypes(type);
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns types accepted by this filter
+     *
+     * @return  type and its descendants (read-only)
+     */
+    public Set getTypes() {
+        return types;
+    }
+
+    public boolean accept(Feature feature) {
+        return types.contains(feature.getType());
+    }
+
+    public boolean equals(Object o) {
+        return (o instanceof ByTypeHierarchy && ((ByTypeHierarchy) o).type.equals(type) &&
+                ((ByTypeHierarchy) o).types.equals(types));
+    }
+
+    public int hashCode() {
+        return type.hashCode();
+    }
+
+    public String toString()    {
+        return "ByTypeHierarchy(" + type + ")";
+    }
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index from the values of one GFF attribute (for example the feature ID or Target) to the
+ * records in every segment that have them, so a feature can be found without loading each segment.
+ * Values are looked up exactly, ignoring case, or by prefix (ignoring case).
+ * All values of the attribute are indexed, not just the first.
+ * <p>
+ * Keys are held lower case in a hash table for exact lookups and in a sorted array for prefix
+ * lookups; the records for each key are in segment name then file order.
+ * <p>
+ * The index of an indexed file (see {@link GFFStore#open}) is built from the values collected
+ * while the file is first read, and holds segment names rather than segments: the segments
+ * that a lookup finds are read from the store.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class FeatureIDIndex {
+
+    private static final Hit[] NO_HITS = new Hit[0];
+
+    private final String[] segmentNames;    // Sorted
+    private final GFFSegment[] segments;    // By position in segmentNames (null if read from store)
+    private final GFFStore store;           // Reads segments of an indexed file (null if segments held)
+    private final String[] keys;            // Lower case values, sorted
+    private final Map positions;            // Lower case value -> Integer position in keys
+    private final int[] offsets;            // Key -> first entry (offsets[keys.length] is the number of entries)
+    private final String[] values;          // Entry -> value as it appears in the GFF file
+    private final int[] segmentIndexes;     // Entry -> position in segmentNames
+    private final int[] ordinals;           // Entry -> record ordinal
+
+    /**
+     * Builds index.
+     *
+     * @param   segments    segments to index
+     * @param   slot        attribute slot, for example {@link AttributeNames#ID}
+     */
+    public FeatureIDIndex(GFFSegment[] segments, int slot) {
+        this(collect(segments, slot), segments, null);
+    }
+
+    /**
+     * Builds index of an indexed file from values collected while it was read.
+     *
+     * @param   collector   values of the attribute in every record
+     * @param   store       reads the segments that lookups find
+     */
+    FeatureIDIndex(Collector collector, GFFStore store) {
+        this(collector, null, store);
+    }
+
+    private FeatureIDIndex(Collector collector, GFFSegment[] segments, GFFStore store) {
+        this.store = store;
+        // Number segments by name
+        int segmentCount = collector.segmentNames.size();
+        this.segmentNames = (String[]) collector.segmentNames.toArray(new String[segmentCount]);
+        Arrays.sort(segmentNames);
+        Map segmentPositions = new HashMap(segmentCount * 2);
+        for (int s = 0; s < segmentCount; s++) {
+            segmentPositions.put(segmentNames[s], Integer.valueOf(s));
+        }
+        if (segments == null)   {
+            this.segments = null;
+        }
+        else    {
+            this.segments = new GFFSegment[segmentCount];
+            for (int s = 0; s < segments.length; s++) {
+                Integer position = (Integer) segmentPositions.get(segments[s].getName());
+                if (position != null)   {
+                    this.segments[position.intValue()] = segments[s];
+                }
+            }
+        }
+        int[] rank = new int[segmentCount];     // Collector's segment number -> position in segmentNames
+        for (int s = 0; s < segmentCount; s++) {
+            String name = (String) collector.segmentNames.get(s);
+            rank[s] = ((Integer) segmentPositions.get(name)).intValue();
+        }
+        // Put entries in segment name order, keeping file order within each segment
+        int n = collector.size;
+        int[] starts = new int[segmentCount + 1];
+        for (int i = 0; i < n; i++) {
+            starts[rank[collector.segments[i]] + 1]++;
+        }
+        for (int s = 0; s < segmentCount; s++) {
+            starts[s + 1] += starts[s];
+        }
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[starts[rank[collector.segments[i]]]++] = i;
+        }
+        // Sort keys, then place each entry after the entries of the keys before it
+        Map counts = collector.counts;          // Lower case value -> int[] count
+        this.keys = (String[]) counts.keySet().toArray(new String[counts.size()]);
+        Arrays.sort(keys);
+        this.positions = new HashMap(keys.length * 2);
+        this.offsets   = new int[keys.length + 1];
+        for (int k = 0; k < keys.length; k++) {
+            int[] count = (int[]) counts.get(keys[k]);
+            positions.put(keys[k], Integer.valueOf(k));
+            offsets[k + 1] = offsets[k] + count[0];
+            count[0] = offsets[k];      // Now the next free entry for this key
+        }
+        this.values         = new String[n];
+        this.segmentIndexes = new int[n];
+        this.ordinals       = new int[n];
+        for (int j = 0; j < n; j++) {
+            int i = order[j];
+            int[] next = (int[]) counts.get(collector.keys.get(i));
+            int e = next[0]++;
+            values[e]         = (String) collector.values.get(i);
+            segmentIndexes[e] = rank[collector.segments[i]];
+            ordinals[e]       = collector.ordinals[i];
+        }
+    }
+
+    /**
+     * Returns records with value <code>id</code> (case-sensitive)
+     *
+     * @param   id  value, for example a feature ID
+     * @return  matching records (empty if none)
+     */
+    public Hit[] get(String id)  {
+        int k = indexOf(id.toLowerCase());
+        if (k < 0)  {
+            return NO_HITS;
+        }
+        List hits = new ArrayList();
+        for (int e = offsets[k]; e < offsets[k + 1]; e++) {
+            if (values[e].equals(id))   {
+                addHit(hits, e);
+            }
+        }
+        return (Hit[]) hits.toArray(new Hit[hits.size()]);
+    }
+
+    /**
+     * Returns records with value <code>id</code>, ignoring case
+     *
+     * @param   id  value, for example a feature ID
+     * @return  matching records (empty if none)
+     */
+    public Hit[] getIgnoreCase(String id)  {
+        int k = indexOf(id.toLowerCase());
+        if (k < 0)  {
+            return NO_HITS;
+        }
+        return getHits(offsets[k], offsets[k + 1]);
+    }
+
+    /**
+     * Returns records with values that start with <code>prefix</code>, ignoring case,
+     * in order of value
+     *
+     * @param   prefix  start of value, for example AG83
+     * @param   max     maximum number of records to return
+     * @return  matching records (empty if none)
+     */
+    public Hit[] getByPrefix(String prefix, int max)  {
+        String key = prefix.toLowerCase();
+        int from = Arrays.binarySearch(keys, key);
+        if (from < 0)   {
+            from = -from - 1;
+        }
+        int to = from;
+        while (to < keys.length && offsets[to] - offsets[from] < max && keys[to].startsWith(key))    {
+            to++;
+        }
+        int end = Math.min(offsets[to], offsets[from] + max);
+        return getHits(offsets[from], end);
+    }
+
+    /**
+     * Returns number of distinct values (ignoring case)
+     *
+     * @return  number of distinct values
+     */
+    public int size()  {
+        return keys.length;
+    }
+
+    /**
+     * Returns number of indexed values in all records
+     *
+     * @return  number of entries
+     */
+    public int countEntries()  {
+        return values.length;
+    }
+
+    public String toString()    {
+        return keys.length + " values, " + values.length + " entries";
+    }
+
+    // Private methods
+
+    private int indexOf(String key)  {
+        Integer position = (Integer) positions.get(key);
+        return (position == null ? -1 : position.intValue());
+    }
+
+    private Hit[] getHits(int from, int to)  {
+        List hits = new ArrayList(to - from);
+        for (int e = from; e < to; e++) {
+            addHit(hits, e);
+        }
+        return (Hit[]) hits.toArray(new Hit[hits.size()]);
+    }
+
+    // Adds hit for entry, reading its segment from the store if the segments are not held
+    // (hits keep the segment in memory, so the store reads each segment at most once per lookup)
+    private void addHit(List hits, int e)  {
+        GFFSegment segment;
+        if (segments != null)   {
+            segment = segments[segmentIndexes[e]];
+        }
+        else    {
+            segment = store.getSegment(segmentNames[segmentIndexes[e]]);
+            if (segment == null || ordinals[e] >= segment.countFeatures())  {
+                return;     // File no longer matches index
+            }
+        }
+        hits.add(new Hit(segment, ordinals[e], values[e]));
+    }
+
+    // Collects values of slot from segments
+    private static Collector collect(GFFSegment[] segments, int slot)  {
+        Collector collector = new Collector();
+        for (int s = 0; s < segments.length; s++) {
+            GFFSegment segment = segments[s];
+            for (int i = 0; i < segment.countFeatures(); i++) {
+                collector.add(segment.getName(), i, segment.getAttribute(i, slot));
+            }
+        }
+        return collector;
+    }
+
+    private static int[] grow(int[] array)  {
+        int[] copy = new int[array.length * 2];
+        System.arraycopy(array, 0, copy, 0, array.length);
+        return copy;
+    }
+
+    /**
+     * Values of one attribute, collected record by record in file order
+     * (each segment's records must be passed in order, starting from ordinal 0)
+     */
+    static final class Collector {
+
+        private final List segmentNames = new ArrayList();     // In order first seen
+        private final Map segmentNumbers = new HashMap();      // Segment name -> Integer position in segmentNames
+        private final Map counts = new HashMap();              // Lower case value -> int[] count
+        private final List values = new ArrayList();          // Entry -> value
+        private final List keys   = new ArrayList();          // Entry -> lower case value
+        private int[] segments    = new int[64];               // Entry -> position in segmentNames
+        private int[] ordinals    = new int[64];               // Entry -> record ordinal
+        private int size          = 0;
+
+        /**
+         * Adds values of record
+         *
+         * @param   segment     segment name
+         * @param   ordinal     position of record in segment
+         * @param   list        values of attribute (may be <code>null</code>)
+         */
+        void add(String segment, int ordinal, List list)  {
+            if (list == null)   {
+                return;
+            }
+            for (int j = 0; j < list.size(); j++) {
+                String value = String.valueOf(list.get(j));
+                if (value.length() == 0)    {
+                    continue;
+                }
+                String key = value.toLowerCase();
+                int[] count = (int[]) counts.get(key);
+                if (count == null)  {
+                    counts.put(key, new int[]{1});
+                }
+                else    {
+                    count[0]++;
+                }
+                Integer number = (Integer) segmentNumbers.get(segment);
+                if (number == null) {
+                    number = Integer.valueOf(segmentNames.size());
+                    segmentNumbers.put(segment, number);
+                    segmentNames.add(segment);
+                }
+                if (size == segments.length)  {
+                    segments = grow(segments);
+                    ordinals = grow(ordinals);
+                }
+                values.add(value);
+                keys.add(key);
+                segments[size] = number.intValue();
+                ordinals[size] = ordinal;
+                size++;
+            }
+        }
+
+    }
+
+    /**
+     * Record found in the index
+     */
+    public static final class Hit {
+
+        private final GFFSegment segment;
+        private final int ordinal;
+        private final String value;
+
+        Hit(GFFSegment segment, int ordinal, String value)  {
+            this.segment = segment;
+            this.ordinal = ordinal;
+            this.value   = value;
+        }
+
+        public GFFSegment getSegment()  {
+            return segment;
+        }
+
+        /**
+         * Returns position of record in segment
+         *
+         * @return  ordinal of record
+         * @see     GFFSegment#getRecord(int)
+         */
+        public int getOrdinal()  {
+            return ordinal;
+        }
+
+        /**
+         * Returns value that matched, as it appears in the GFF file
+         *
+         * @return  value that matched
+         */
+        public String getValue()  {
+            return value;
+        }
+
+        public String toString()    {
+            return segment.getName() + "[" + ordinal + "]:" + value;
+        }
+
+    }
+
+}
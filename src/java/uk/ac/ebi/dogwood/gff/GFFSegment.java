@@ -0,0 +1,363 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.StrandedFeature;
+import org.biojava.bio.program.gff.GFFRecord;
+import org.biojava.bio.program.gff.GFFTools;
+import org.biojava.bio.SmallAnnotation;
+import org.biojava.bio.BioException;
+import org.biojava.bio.symbol.RangeLocation;
+import org.biojava.utils.ChangeVetoException;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * GFF records for one segment (reference sequence), in file order, with an interval index
+ * over their start and end coordinates and inverted indexes over their types and methods.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class GFFSegment {
+
+    /** Annotation property holding segment name (same as GFFReferenceSource) */
+    public static final String PROPERTY_SEGMENT     = "SEGMENT";
+
+    /** Annotation property holding score (same as GFFReferenceSource) */
+    public static final String PROPERTY_SCORE       = "org.biojava.bio.program.gff.gff_feature_score";
+
+    private final String name;
+    private final GFFRecord[] records;
+    private final List[][] slots;           // Attribute values by record then slot (see AttributeNames)
+    private final IntervalIndex index;
+    private final TypeIndex types;
+    private final TypeIndex sources;        // Methods
+    private volatile String version = null; // Hash of records, worked out when first asked for
+
+    /**
+     * Creates segment and builds indexes.
+     *
+     * @param   name            segment name
+     * @param   records         list of {@link GFFRecord}s in file order
+     * @param   attributeNames  names of attributes to store in slots
+     */
+    GFFSegment(String name, List records, AttributeNames attributeNames)    {
+        this.name    = name;
+        this.records = (GFFRecord[]) records.toArray(new GFFRecord[records.size()]);
+        this.slots   = new List[this.records.length][];
+        int[] starts = new int[this.records.length];
+        int[] ends   = new int[this.records.length];
+        String[] typeIDs   = new String[this.records.length];
+        String[] sourceIDs = new String[this.records.length];
+        for (int i = 0; i < this.records.length; i++) {
+            starts[i]    = this.records[i].getStart();
+            ends[i]      = this.records[i].getEnd();
+            typeIDs[i]   = this.records[i].getFeature();
+            sourceIDs[i] = this.records[i].getSource();
+            slots[i]     = attributeNames.getSlots(this.records[i].getGroupAttributes());
+        }
+        this.index   = new IntervalIndex(starts, ends);
+        this.types   = new TypeIndex(typeIDs);
+        this.sources = new TypeIndex(sourceIDs);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns hash of the segment's records (MD5, in hexadecimal), which changes whenever
+     * any of its records do and is the same for the same records in any file or process.
+     * Worked out the first time it is asked for.
+     *
+     * @return  content hash
+     */
+    public String getVersion()  {
+        String v = version;
+        if (v == null)  {
+            v = hash();
+            version = v;
+        }
+        return v;
+    }
+
+    /**
+     * Returns number of records in segment
+     *
+     * @return  number of records in segment
+     */
+    public int countFeatures()  {
+        return records.length;
+    }
+
+    /**
+     * Returns record at given position in file order
+     *
+     * @param   ordinal     position of record in segment (0 is first)
+     * @return  record
+     */
+    public GFFRecord getRecord(int ordinal) {
+        return records[ordinal];
+    }
+
+    /**
+     * Returns values of attribute, or <code>null</code> if the record does not have the attribute
+     *
+     * @param   ordinal     position of record in segment (0 is first)
+     * @param   slot        attribute slot, for example {@link AttributeNames#ID}
+     * @return  list of values, or <code>null</code> if the record does not have the attribute
+     */
+    public List getAttribute(int ordinal, int slot) {
+        return slots[ordinal][slot];
+    }
+
+    /**
+     * Returns ordinals of records that overlap <code>[start, stop]</code>, in file order.
+     *
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @return  ordinals of overlapping records
+     */
+    public int[] getOverlapping(int start, int stop)  {
+        return index.getOverlapping(start, stop);
+    }
+
+    /**
+     * Returns ordinals of records of type <code>type</code>, in file order
+     *
+     * @param   type    type ID (GFF feature column)
+     * @return  ordinals of records (empty if none)
+     */
+    public int[] getByType(String type)  {
+        return types.get(type);
+    }
+
+    /**
+     * Returns ordinals of records whose type is in <code>types</code>, in file order
+     *
+     * @param   types   type IDs, for example a type and its descendants
+     * @return  ordinals of records (empty if none)
+     * @see     TypeHierarchy#getSubsumedTypes(String)
+     */
+    public int[] getByTypes(Set types)  {
+        return TypeIndex.union(getPostings(types), records.length);
+    }
+
+    /**
+     * Returns ordinals of records with method <code>source</code>, in file order
+     *
+     * @param   source  method ID (GFF source column)
+     * @return  ordinals of records (empty if none)
+     */
+    public int[] getBySource(String source)  {
+        return sources.get(source);
+    }
+
+    /**
+     * Returns types of records in segment
+     *
+     * @return  type IDs
+     */
+    public Set getTypes()  {
+        return types.getValues();
+    }
+
+    /**
+     * Returns number of records of type <code>type</code>
+     *
+     * @param   type    type ID
+     * @return  number of records
+     */
+    public int countFeatures(String type)  {
+        return types.count(type);
+    }
+
+    /**
+     * Returns number of records of type <code>type</code> that overlap <code>[start, stop]</code>
+     *
+     * @param   type    type ID
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @return  number of records
+     */
+    public int countFeatures(String type, int start, int stop)  {
+        int[] typed = types.get(type);
+        if (typed.length == 0)  {
+            return 0;
+        }
+        return TypeIndex.countIntersection(typed, index.getOverlapping(start, stop));
+    }
+
+    /**
+     * Returns number of records whose type is in <code>types</code>
+     *
+     * @param   types   type IDs
+     * @return  number of records
+     */
+    public int countFeatures(Set types)  {
+        int[][] postings = getPostings(types);
+        int count = 0;
+        for (int i = 0; i < postings.length; i++) {
+            count += postings[i].length;
+        }
+        return count;
+    }
+
+    /**
+     * Returns number of records whose type is in <code>types</code> that overlap <code>[start, stop]</code>
+     *
+     * @param   types   type IDs
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @return  number of records
+     */
+    public int countFeatures(Set types, int start, int stop)  {
+        int[] typed = getByTypes(types);
+        if (typed.length == 0)  {
+            return 0;
+        }
+        return TypeIndex.countIntersection(typed, index.getOverlapping(start, stop));
+    }
+
+    /**
+     * Creates one feature per record on <code>sequence</code>, exactly as
+     * <code>GFFReferenceSource.annotate</code> does.
+     *
+     * @param   sequence    sequence to annotate (normally a <code>ViewSequence</code>)
+     * @return  features in file order
+     * @throws  BioException        if a feature could not be created
+     * @throws  ChangeVetoException if the sequence does not accept features
+     */
+    public Feature[] annotate(Sequence sequence) throws BioException, ChangeVetoException {
+        Feature[] features = new Feature[records.length];
+        for (int i = 0; i < records.length; i++) {
+            GFFRecord record = records[i];
+            StrandedFeature.Template template = new StrandedFeature.Template();
+            template.strand     = record.getStrand();
+            template.location   = new RangeLocation(record.getStart(), record.getEnd());
+            template.type       = record.getFeature();
+            template.source     = record.getSource();
+            template.annotation = new SmallAnnotation();
+            template.annotation.setProperty(PROPERTY_SEGMENT, name);
+            Map attributes = record.getGroupAttributes();
+            for (Iterator j = attributes.entrySet().iterator(); j.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) j.next();
+                template.annotation.setProperty(entry.getKey(), entry.getValue());
+            }
+            if (record.getScore() != GFFTools.NO_SCORE)  {
+                template.annotation.setProperty(PROPERTY_SCORE, Double.valueOf(record.getScore()));
+            }
+            features[i] = sequence.createFeature(template);
+        }
+        return features;
+    }
+
+    // Private methods
+
+    // Hashes every field of every record, in file order
+    private String hash()  {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e)  {
+            throw new IllegalStateException("MD5 not available: " + e.getMessage());
+        }
+        StringBuffer buf = new StringBuffer();
+        try {
+            for (int i = 0; i < records.length; i++) {
+                GFFRecord record = records[i];
+                buf.setLength(0);
+                buf.append(record.getSource()).append('\t');
+                buf.append(record.getFeature()).append('\t');
+                buf.append(record.getStart()).append('\t');
+                buf.append(record.getEnd()).append('\t');
+                buf.append(record.getScore()).append('\t');
+                buf.append(record.getStrand().getValue()).append('\t');
+                buf.append(record.getFrame()).append('\t');
+                appendAttributes(buf, record.getGroupAttributes());
+                buf.append('\t');
+                buf.append(record.getComment()).append('\n');
+                digest.update(buf.toString().getBytes("UTF-8"));
+            }
+        }
+        catch (UnsupportedEncodingException e)  {
+            throw new IllegalStateException("UTF-8 not available: " + e.getMessage());
+        }
+        byte[] bytes = digest.digest();
+        buf.setLength(0);
+        for (int i = 0; i < bytes.length; i++) {
+            buf.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16));
+            buf.append(Character.forDigit(bytes[i] & 0xF, 16));
+        }
+        return buf.toString();
+    }
+
+    // Appends attributes in name order, since the order of a map's entries can differ between
+    // runs (values keep their order in the file)
+    private static void appendAttributes(StringBuffer buf, Map attributes)  {
+        if (attributes == null)  {
+            return;
+        }
+        Object[] names = attributes.keySet().toArray();
+        Arrays.sort(names);
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0)  {
+                buf.append(';');
+            }
+            buf.append(names[i]).append('=').append(attributes.get(names[i]));
+        }
+    }
+
+    // Returns posting lists of the types in this segment that are in the given set,
+    // looping over whichever of the two is smaller
+    private int[][] getPostings(Set wanted)  {
+        Set values = types.getValues();
+        List postings = new ArrayList();
+        if (values.size() <= wanted.size())   {
+            for (Iterator i = values.iterator(); i.hasNext(); ) {
+                String type = (String) i.next();
+                if (wanted.contains(type))  {
+                    postings.add(types.get(type));
+                }
+            }
+        }
+        else    {
+            for (Iterator i = wanted.iterator(); i.hasNext(); ) {
+                int[] ordinals = types.get((String) i.next());
+                if (ordinals.length > 0)    {
+                    postings.add(ordinals);
+                }
+            }
+        }
+        return (int[][]) postings.toArray(new int[postings.size()][]);
+    }
+
+}
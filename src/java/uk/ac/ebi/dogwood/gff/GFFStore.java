@@ -0,0 +1,419 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.program.gff.GFFParser;
+import org.biojava.bio.BioException;
+import org.biojava.utils.ParserException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Immutable in-memory copy of a GFF file, grouped by segment.
+ * Replaces the private tables of <code>GFFReferenceSource</code> so that indexes can be
+ * built while the file is loaded. A new store is created on every reload, so the feature and
+ * target ID indexes ({@link FeatureIDIndex}) are always swapped in together with the records.
+ * <p>
+ * A store opened from a <code>bgzip</code>-compressed file with a tabix index
+ * (see {@link #open(File, File, boolean, AttributeNames, int)}) keeps no records: each segment
+ * is read from the file when asked for, and kept only while something else (such as the data
+ * source's feature cache) holds on to it. Its feature and target ID indexes are built while the
+ * file is first read, and read the segments that a lookup finds.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class GFFStore {
+
+    private final Map segments;         // Segment name -> GFFSegment
+    private final Set types;
+    private final Set sources;
+    private final Set entryPoints;
+    private final Map sequenceLengths;  // Segment name -> Integer (from ##sequence-region)
+    private final Map aliases;          // Segment name without version -> segment name
+    private final int featureCount;
+    private final Map typeCounts;       // Type -> Integer (number of records in all segments)
+    private final FeatureIDIndex idIndex;
+    private final FeatureIDIndex targetIndex;
+    private final IndexedSegmentReader reader;      // Null unless segments are read from an indexed file
+    private final Map loadedSegments = new HashMap();   // Segment name -> WeakReference to GFFSegment (indexed file only)
+    private final String sharedValues;      // Summary of values shared while parsing (null if indexed file)
+    private final long sharedBytes;
+
+    GFFStore(Map segments, Set types, Set sources, Set entryPoints, Map sequenceLengths, Map aliases,
+             SymbolTable symbols) {
+        this.segments        = Collections.unmodifiableMap(segments);
+        this.types           = Collections.unmodifiableSet(types);
+        this.sources         = Collections.unmodifiableSet(sources);
+        this.entryPoints     = Collections.unmodifiableSet(entryPoints);
+        this.sequenceLengths = Collections.unmodifiableMap(sequenceLengths);
+        this.aliases         = Collections.unmodifiableMap(aliases);
+        int count = 0;
+        Map counts = new HashMap();
+        for (Iterator i = segments.values().iterator(); i.hasNext(); ) {
+            GFFSegment segment = (GFFSegment) i.next();
+            count += segment.countFeatures();
+            for (Iterator j = segment.getTypes().iterator(); j.hasNext(); ) {
+                String type = (String) j.next();
+                Integer n = (Integer) counts.get(type);
+                int total = (n == null ? 0 : n.intValue()) + segment.countFeatures(type);
+                counts.put(type, Integer.valueOf(total));
+            }
+        }
+        this.featureCount = count;
+        this.typeCounts   = Collections.unmodifiableMap(counts);
+        GFFSegment[] array = (GFFSegment[]) segments.values().toArray(new GFFSegment[segments.size()]);
+        this.idIndex      = new FeatureIDIndex(array, AttributeNames.ID);
+        this.targetIndex  = new FeatureIDIndex(array, AttributeNames.TARGET);
+        this.reader       = null;
+        // Keep the statistics but not the table, which is only needed while parsing
+        this.sharedValues = symbols.toString();
+        this.sharedBytes  = symbols.getSavedBytes();
+    }
+
+    GFFStore(IndexedSegmentReader reader, Set types, Set sources, Set entryPoints, Map sequenceLengths, Map aliases,
+             int featureCount, Map typeCounts, FeatureIDIndex.Collector ids, FeatureIDIndex.Collector targets) {
+        this.segments        = Collections.EMPTY_MAP;
+        this.types           = Collections.unmodifiableSet(types);
+        this.sources         = Collections.unmodifiableSet(sources);
+        this.entryPoints     = Collections.unmodifiableSet(entryPoints);
+        this.sequenceLengths = Collections.unmodifiableMap(sequenceLengths);
+        this.aliases         = Collections.unmodifiableMap(aliases);
+        this.featureCount    = featureCount;
+        this.typeCounts      = Collections.unmodifiableMap(typeCounts);
+        this.idIndex         = new FeatureIDIndex(ids, this);
+        this.targetIndex     = new FeatureIDIndex(targets, this);
+        this.reader          = reader;
+        this.sharedValues    = null;
+        this.sharedBytes     = 0;
+    }
+
+    /**
+     * Parses GFF file.
+     *
+     * @param   reader          GFF file
+     * @param   dotVersions     <code>true</code> if version numbers are appended to segment names,
+     *                          for example IPI00010349.3
+     * @param   attributeNames  names of attributes to store in slots
+     * @return  store containing contents of file
+     * @throws  IOException     if file could not be read
+     * @throws  BioException    if file could not be parsed
+     * @throws  ParserException if file could not be parsed
+     */
+    public static GFFStore parse(BufferedReader reader, boolean dotVersions, AttributeNames attributeNames)
+            throws IOException, BioException, ParserException {
+        GFFStoreBuilder builder = new GFFStoreBuilder(dotVersions, attributeNames);
+        builder.getSymbolTable().newParser().parse(reader, builder, "");
+        return builder.getStore();
+    }
+
+    /**
+     * Parses GFF file using several threads. The file is split into chunks at line boundaries
+     * and the chunks are parsed in parallel, then the segments are indexed in parallel.
+     * The store is the same as the one returned by {@link #parse(BufferedReader, boolean, AttributeNames)}.
+     *
+     * @param   reader          GFF file
+     * @param   dotVersions     <code>true</code> if version numbers are appended to segment names,
+     *                          for example IPI00010349.3
+     * @param   attributeNames  names of attributes to store in slots
+     * @param   threads         number of threads (1 to parse on the calling thread only,
+     *                          0 for one thread per processor)
+     * @return  store containing contents of file
+     * @throws  IOException     if file could not be read
+     * @throws  BioException    if file could not be parsed
+     * @throws  ParserException if file could not be parsed
+     */
+    public static GFFStore parse(BufferedReader reader, boolean dotVersions, AttributeNames attributeNames,
+                                 int threads)
+            throws IOException, BioException, ParserException {
+        if (threads == 0)   {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        if (threads < 2)    {
+            return parse(reader, dotVersions, attributeNames);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ParserThreadFactory());
+        try {
+            GFFStoreBuilder builder = new GFFStoreBuilder(dotVersions, attributeNames);
+            new ParallelGFFParser(executor, threads, builder.getSymbolTable()).parse(reader, builder, "");
+            return builder.getStore(executor);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Opens <code>bgzip</code>-compressed GFF file that has been indexed with <code>tabix -p gff</code>.
+     * The file is read once to find the types, methods, entry points, sequence lengths and
+     * feature and target IDs (counting records rather than keeping them); after that each segment
+     * is read from the compressed blocks that hold it when it is asked for.
+     *
+     * @param   file            GFF file compressed with <code>bgzip</code>
+     * @param   indexFile       tabix index (<code>.tbi</code>)
+     * @param   dotVersions     <code>true</code> if version numbers are appended to segment names,
+     *                          for example IPI00010349.3
+     * @param   attributeNames  names of attributes to store in slots
+     * @param   threads         number of threads (1 to parse on the calling thread only,
+     *                          0 for one thread per processor)
+     * @return  store that reads segments from file
+     * @throws  IOException     if file or index could not be read
+     * @throws  BioException    if file could not be parsed
+     * @throws  ParserException if file could not be parsed
+     */
+    public static GFFStore open(File file, File indexFile, boolean dotVersions, AttributeNames attributeNames,
+                                int threads)
+            throws IOException, BioException, ParserException {
+        TabixIndex index;
+        InputStream in = new FileInputStream(indexFile);
+        try {
+            index = TabixIndex.read(in);
+        }
+        finally {
+            in.close();
+        }
+        if (threads == 0)   {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        GFFStoreBuilder builder = new GFFStoreBuilder(dotVersions, attributeNames, false);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file))));
+        try {
+            if (threads < 2)    {
+                new GFFParser().parse(reader, builder, file.getPath());
+            }
+            else    {
+                ExecutorService executor = Executors.newFixedThreadPool(threads, new ParserThreadFactory());
+                try {
+                    new ParallelGFFParser(executor, threads).parse(reader, builder, file.getPath());
+                }
+                finally {
+                    executor.shutdownNow();
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return builder.getIndexedStore(new IndexedSegmentReader(new BlockCompressedFile(file), index, attributeNames));
+    }
+
+    /**
+     * Returns segment name with version if <code>dotVersions</code> was set and
+     * <code>ref</code> has no version, otherwise returns <code>ref</code>
+     *
+     * @param   ref     segment name
+     * @return  name of segment as it appears in the GFF file
+     */
+    public String mapName(String ref)  {
+        String name = (String) aliases.get(ref);
+        return (name == null ? ref : name);
+    }
+
+    /**
+     * Returns segment or <code>null</code> if there are no records for it.
+     * Segments of an indexed file are read from the file unless they are still in memory.
+     *
+     * @param   name    segment name as it appears in the GFF file
+     * @return  segment or <code>null</code> if there are no records for it
+     * @throws  IllegalStateException   if segment could not be read from indexed file
+     * @see     #mapName(String)
+     */
+    public GFFSegment getSegment(String name)  {
+        if (reader == null) {
+            return (GFFSegment) segments.get(name);
+        }
+        return getIndexedSegment(name);
+    }
+
+    /**
+     * Returns names of all segments
+     *
+     * @return  names of all segments
+     */
+    public Set getSegmentNames()  {
+        return (reader == null ? segments.keySet() : entryPoints);
+    }
+
+    /**
+     * Returns <code>true</code> if segments are read from an indexed file when asked for
+     *
+     * @return  <code>true</code> if store was opened from an indexed file
+     * @see     #open(File, File, boolean, AttributeNames, int)
+     */
+    public boolean isIndexed()  {
+        return (reader != null);
+    }
+
+    public Set getTypes()   {
+        return types;
+    }
+
+    /**
+     * Returns number of records of each type in all segments
+     *
+     * @return  type ID -> <code>Integer</code>
+     */
+    public Map getTypeCounts()   {
+        return typeCounts;
+    }
+
+    /**
+     * Returns all methods (GFF source column)
+     *
+     * @return  all methods (GFF source column)
+     */
+    public Set getSources()   {
+        return sources;
+    }
+
+    public Set getEntryPoints()   {
+        return entryPoints;
+    }
+
+    /**
+     * Returns sequence length from <code>##sequence-region</code> comment, or -1 if not known
+     *
+     * @param   name    segment name as it appears in the GFF file
+     * @return  sequence length or -1 if not known
+     */
+    public int getSequenceLength(String name)  {
+        Integer length = (Integer) sequenceLengths.get(name);
+        return (length == null ? -1 : length.intValue());
+    }
+
+    /**
+     * Returns total number of records in all segments
+     *
+     * @return  total number of records in all segments
+     */
+    public int countFeatures()  {
+        return featureCount;
+    }
+
+    /**
+     * Returns index of feature IDs (ID attribute) in all segments
+     *
+     * @return  index of feature IDs
+     */
+    public FeatureIDIndex getIDIndex()  {
+        return idIndex;
+    }
+
+    /**
+     * Returns index of target IDs (Target attribute) in all segments
+     *
+     * @return  index of target IDs
+     */
+    public FeatureIDIndex getTargetIndex()  {
+        return targetIndex;
+    }
+
+    /**
+     * Returns estimated heap saved by sharing one instance of each repeated value
+     * (segment names, methods, types and attributes) while the file was parsed.
+     * Segments of an indexed file share values when each is read, which is not counted here.
+     *
+     * @return  estimated bytes saved, or 0 if store was opened from an indexed file
+     */
+    public long getSharedBytes()  {
+        return sharedBytes;
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer();
+        if (reader != null) {
+            buf.append("Indexed file:\t" + reader + "\n");
+        }
+        buf.append("Segments:\t" + getSegmentNames().size() + "\n");
+        buf.append("Features:\t" + featureCount + "\n");
+        buf.append("Types:\t" + types.size() + "\n");
+        buf.append("Feature IDs:\t" + idIndex + "\n");
+        buf.append("Target IDs:\t" + targetIndex + "\n");
+        if (sharedValues != null)   {
+            buf.append("Shared values:\t" + sharedValues + "\n");
+        }
+        return buf.toString();
+    }
+
+    // Private methods
+
+    // Returns segment if it is still in memory, otherwise reads it from the indexed file
+    private GFFSegment getIndexedSegment(String name)  {
+        synchronized (loadedSegments)   {
+            GFFSegment segment = getLoadedSegment(name);
+            if (segment != null)    {
+                return segment;
+            }
+        }
+        if (!entryPoints.contains(name))    {
+            return null;
+        }
+        GFFSegment segment;
+        try {
+            segment = reader.read(name);
+        }
+        catch (IOException e)   {
+            throw new IllegalStateException("Could not read segment " + name + " from " + reader, e);
+        }
+        catch (BioException e)   {
+            throw new IllegalStateException("Could not parse segment " + name + " from " + reader, e);
+        }
+        catch (ParserException e)   {
+            throw new IllegalStateException("Could not parse segment " + name + " from " + reader, e);
+        }
+        if (segment == null)    {
+            return null;
+        }
+        synchronized (loadedSegments)   {
+            // Another thread may have read it first: use theirs so there is only one copy
+            GFFSegment loaded = getLoadedSegment(name);
+            if (loaded != null) {
+                return loaded;
+            }
+            loadedSegments.put(name, new WeakReference(segment));
+        }
+        return segment;
+    }
+
+    // Returns segment if it is still in memory (loadedSegments must be locked)
+    private GFFSegment getLoadedSegment(String name)  {
+        WeakReference reference = (WeakReference) loadedSegments.get(name);
+        return (reference == null ? null : (GFFSegment) reference.get());
+    }
+
+    private static class ParserThreadFactory implements ThreadFactory  {
+        public Thread newThread(Runnable r)   {
+            Thread thread = new Thread(r, "Dogwood GFF parser");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.program.gff.GFFDocumentHandler;
+import org.biojava.bio.program.gff.GFFRecord;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collects records from <code>GFFParser</code> and builds a {@link GFFStore}.
+ * Follows the rules of <code>GFFReferenceSource</code> for entry points, types,
+ * <code>##sequence-region</code> comments and dot versions.
+ * For an indexed file the records are only counted, since segments are read when needed,
+ * but their feature IDs and targets are still collected for the store's ID indexes.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class GFFStoreBuilder implements GFFDocumentHandler {
+
+    private static final Pattern REGION_PATTERN  = Pattern.compile("sequence-region ([^ ]+) ([0-9]+) ([0-9]+)");
+    private static final Pattern VERSION_PATTERN = Pattern.compile("(.+)\\.([0-9]+)");
+
+    private final boolean dotVersions;
+    private final AttributeNames attributeNames;
+    private final boolean keepRecords;
+
+    private final Map records           = new HashMap();    // Segment name -> List of GFFRecord
+    private final Set types             = new HashSet();
+    private final Set sources           = new HashSet();
+    private final Set entryPoints       = new HashSet();
+    private final Map sequenceLengths   = new HashMap();
+    private final Map aliases           = new HashMap();
+    private final Map typeCounts        = new HashMap();    // Type -> int[] count (if records not kept)
+    private final Map segmentCounts     = new HashMap();    // Segment name -> int[] count (if records not kept)
+    private final FeatureIDIndex.Collector ids     = new FeatureIDIndex.Collector();   // If records not kept
+    private final FeatureIDIndex.Collector targets = new FeatureIDIndex.Collector();   // If records not kept
+    private int featureCount            = 0;
+    private final SymbolTable symbols   = new SymbolTable();
+
+    GFFStoreBuilder(boolean dotVersions, AttributeNames attributeNames)    {
+        this(dotVersions, attributeNames, true);
+    }
+
+    /**
+     * Creates builder.
+     *
+     * @param   dotVersions     <code>true</code> if version numbers are appended to segment names
+     * @param   attributeNames  names of attributes to store in slots
+     * @param   keepRecords     <code>false</code> to count records instead of keeping them
+     *                          (see {@link #getIndexedStore(IndexedSegmentReader)})
+     */
+    GFFStoreBuilder(boolean dotVersions, AttributeNames attributeNames, boolean keepRecords)    {
+        this.dotVersions    = dotVersions;
+        this.attributeNames = attributeNames;
+        this.keepRecords    = keepRecords;
+    }
+
+    /**
+     * Returns table for sharing repeated values in the records passed to this builder
+     *
+     * @return  shared values
+     */
+    SymbolTable getSymbolTable()  {
+        return symbols;
+    }
+
+    public void startDocument(String locator) {
+    }
+
+    public void commentLine(String comment) {
+        if (comment.length() > 0 && comment.charAt(0) == '#') {
+            Matcher matcher = REGION_PATTERN.matcher(comment.substring(1));
+            if (matcher.matches())  {
+                String name = matcher.group(1);
+                try {
+                    int length = Integer.parseInt(matcher.group(3));
+                    registerSegment(name);
+                    if (!sequenceLengths.containsKey(name))  {
+                        sequenceLengths.put(name, Integer.valueOf(length));
+                    }
+                }
+                catch (NumberFormatException e) {
+                    // Ignore - length too large to be a sequence length
+                }
+            }
+        }
+    }
+
+    public void recordLine(GFFRecord record) {
+        types.add(record.getFeature());
+        sources.add(record.getSource());
+        String name = record.getSeqName();
+        registerSegment(name);
+        entryPoints.add(name);
+        if (!keepRecords)   {
+            int[] count = (int[]) typeCounts.get(record.getFeature());
+            if (count == null)  {
+                typeCounts.put(record.getFeature(), new int[]{1});
+            }
+            else    {
+                count[0]++;
+            }
+            // Records of a segment are read back in file order, so the count is the record's ordinal
+            int[] ordinal = (int[]) segmentCounts.get(name);
+            if (ordinal == null)    {
+                ordinal = new int[1];
+                segmentCounts.put(name, ordinal);
+            }
+            List[] slots = attributeNames.getSlots(record.getGroupAttributes());
+            ids.add(name, ordinal[0], slots[AttributeNames.ID]);
+            targets.add(name, ordinal[0], slots[AttributeNames.TARGET]);
+            ordinal[0]++;
+            featureCount++;
+            return;
+        }
+        List list = (List) records.get(name);
+        if (list == null)   {
+            list = new ArrayList();
+            records.put(name, list);
+        }
+        list.add(record);
+    }
+
+    public void endDocument() {
+    }
+
+    /**
+     * Returns store containing everything parsed so far
+     *
+     * @return  store containing everything parsed so far
+     */
+    GFFStore getStore() {
+        Map segments = new HashMap();
+        for (Iterator i = records.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            String name = (String) entry.getKey();
+            segments.put(name, new GFFSegment(name, (List) entry.getValue(), attributeNames));
+        }
+        return new GFFStore(segments, types, sources, entryPoints, sequenceLengths, aliases, symbols);
+    }
+
+    /**
+     * Returns store containing everything parsed so far, indexing segments in parallel
+     *
+     * @param   executor    runs indexing tasks
+     * @return  store containing everything parsed so far
+     */
+    GFFStore getStore(ExecutorService executor) {
+        Map futures = new HashMap();    // Segment name -> Future GFFSegment
+        for (Iterator i = records.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            final String name = (String) entry.getKey();
+            final List list   = (List) entry.getValue();
+            futures.put(name, executor.submit(new Callable()  {
+                public Object call() {
+                    return new GFFSegment(name, list, attributeNames);
+                }
+            }));
+        }
+        Map segments = new HashMap();
+        for (Iterator i = futures.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            segments.put(entry.getKey(), getResult((Future) entry.getValue()));
+        }
+        return new GFFStore(segments, types, sources, entryPoints, sequenceLengths, aliases, symbols);
+    }
+
+    /**
+     * Returns store that reads segments from an indexed file when they are asked for,
+     * with the types, counts, sequence lengths and IDs collected so far
+     *
+     * @param   reader  reads segments from indexed file
+     * @return  store for indexed file
+     */
+    GFFStore getIndexedStore(IndexedSegmentReader reader) {
+        Map counts = new HashMap();
+        for (Iterator i = typeCounts.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            counts.put(entry.getKey(), Integer.valueOf(((int[]) entry.getValue())[0]));
+        }
+        return new GFFStore(reader, types, sources, entryPoints, sequenceLengths, aliases, featureCount, counts,
+                            ids, targets);
+    }
+
+    // Private methods
+
+    private static Object getResult(Future future)  {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing GFF");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)   {
+                throw (RuntimeException) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    private void registerSegment(String name)   {
+        if (dotVersions)    {
+            Matcher matcher = VERSION_PATTERN.matcher(name);
+            if (matcher.matches())  {
+                aliases.put(matcher.group(1), name);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.seq.AbstractFeatureHolder;
+import org.biojava.bio.seq.Feature;
+import org.biojava.bio.seq.FeatureFilter;
+import org.biojava.bio.seq.FeatureHolder;
+import org.biojava.bio.seq.SimpleFeatureHolder;
+import org.biojava.bio.symbol.Location;
+import org.biojava.bio.BioError;
+import org.biojava.utils.ChangeVetoException;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.IdentityHashMap;
+
+/**
+ * Read-only view of the features of one segment that answers location queries from the
+ * segment's {@link IntervalIndex} and type and method queries from its {@link TypeIndex}es
+ * instead of scanning every feature.
+ * Filters containing {@link FeatureFilter.OverlapsLocation} (as built by Dazzle for
+ * <code>features?segment=ID:start,stop</code>) or {@link FeatureFilter.ByType} and
+ * {@link FeatureFilter.BySource} (<code>features?type=...</code>) are narrowed through the
+ * indexes first.
+ * <p>
+ * If the holder has a {@link TypeHierarchy}, type filters also match features whose type is a
+ * descendant of the type asked for: each <code>ByType</code> is replaced by a {@link ByTypeHierarchy}.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class IndexedFeatureHolder extends AbstractFeatureHolder {
+
+    private final GFFSegment segment;
+    private final FeatureHolder features;   // All features (as added to the sequence)
+    private final Feature[] byOrdinal;      // Same features in file order
+    private final Map ordinals;             // Feature -> Integer (identity map)
+    private final TypeHierarchy hierarchy;  // Null if types must match exactly
+
+    /**
+     * Creates holder whose type filters match types exactly.
+     *
+     * @param   segment     segment the features were created from
+     * @param   features    features as held by the annotated sequence
+     * @param   byOrdinal   the same features indexed by record ordinal
+     */
+    public IndexedFeatureHolder(GFFSegment segment, FeatureHolder features, Feature[] byOrdinal) {
+        this(segment, features, byOrdinal, null);
+    }
+
+    /**
+     * Creates holder.
+     *
+     * @param   segment     segment the features were created from
+     * @param   features    features as held by the annotated sequence
+     * @param   byOrdinal   the same features indexed by record ordinal
+     * @param   hierarchy   used to match types by their ancestors, or <code>null</code> to match exactly
+     */
+    public IndexedFeatureHolder(GFFSegment segment, FeatureHolder features, Feature[] byOrdinal,
+                                TypeHierarchy hierarchy) {
+        this.segment   = segment;
+        this.features  = features;
+        this.byOrdinal = byOrdinal;
+        this.hierarchy = hierarchy;
+        this.ordinals  = new IdentityHashMap(byOrdinal.length);
+        for (int i = 0; i < byOrdinal.length; i++) {
+            ordinals.put(byOrdinal[i], Integer.valueOf(i));
+        }
+    }
+
+    public GFFSegment getSegment()  {
+        return segment;
+    }
+
+    /**
+     * Returns position of feature's record in the segment, or -1 if feature is not in this holder
+     *
+     * @param   feature     feature
+     * @return  ordinal of record, or -1 if feature is not in this holder
+     * @see     GFFSegment#getRecord(int)
+     */
+    public int getOrdinal(Feature feature)  {
+        Integer ordinal = (Integer) ordinals.get(feature);
+        return (ordinal == null ? -1 : ordinal.intValue());
+    }
+
+    /**
+     * Returns feature created from record at <code>ordinal</code>
+     *
+     * @param   ordinal     position of record in segment (0 is first)
+     * @return  feature
+     */
+    public Feature getFeature(int ordinal)  {
+        return byOrdinal[ordinal];
+    }
+
+    /**
+     * Returns features that overlap <code>[start, stop]</code>, in file order.
+     *
+     * @param   start   start of range (inclusive)
+     * @param   stop    end of range (inclusive)
+     * @return  features that overlap range
+     */
+    public FeatureHolder getFeatures(int start, int stop)  {
+        return subset(segment.getOverlapping(start, stop));
+    }
+
+    public int countFeatures() {
+        return features.countFeatures();
+    }
+
+    public Iterator features() {
+        return features.features();
+    }
+
+    public boolean containsFeature(Feature feature) {
+        return features.containsFeature(feature);
+    }
+
+    public FeatureFilter getSchema() {
+        return features.getSchema();
+    }
+
+    public FeatureHolder filter(FeatureFilter filter) {
+        return filter(filter, false);
+    }
+
+    public FeatureHolder filter(FeatureFilter filter, boolean descend) {
+        if (hierarchy != null)  {
+            filter = subsume(filter);
+        }
+        Location location = findLocation(filter);
+        int[] typed = findOrdinals(filter);
+        if (location == null && typed == null)   {
+            return features.filter(filter, descend);
+        }
+        int[] ordinals;
+        if (location == null)   {
+            ordinals = typed;
+        }
+        else    {
+            ordinals = segment.getOverlapping(location.getMin(), location.getMax());
+            if (typed != null)  {
+                ordinals = TypeIndex.intersect(typed, ordinals);
+            }
+        }
+        if (ordinals.length == 0)   {
+            return FeatureHolder.EMPTY_FEATURE_HOLDER;
+        }
+        // GFF features are flat so candidates only need to be checked against the full filter
+        return subset(ordinals).filter(filter, descend);
+    }
+
+    // Private methods
+
+    private FeatureHolder subset(int[] ordinals)   {
+        SimpleFeatureHolder holder = new SimpleFeatureHolder(getSchema());
+        try {
+            for (int i = 0; i < ordinals.length; i++) {
+                holder.addFeature(byOrdinal[ordinals[i]]);
+            }
+        }
+        catch (ChangeVetoException e)   {
+            throw new BioError("Could not add feature to new holder", e);
+        }
+        return holder;
+    }
+
+    // Returns ordinals of records that can match filter according to the type and method indexes,
+    // or null if the filter does not restrict type or method
+    private int[] findOrdinals(FeatureFilter filter)  {
+        if (filter instanceof FeatureFilter.ByType)    {
+            return segment.getByType(((FeatureFilter.ByType) filter).getType());
+        }
+        if (filter instanceof ByTypeHierarchy)    {
+            return segment.getByTypes(((ByTypeHierarchy) filter).getTypes());
+        }
+        if (filter instanceof FeatureFilter.BySource)    {
+            return segment.getBySource(((FeatureFilter.BySource) filter).getSource());
+        }
+        if (filter instanceof FeatureFilter.And)    {
+            FeatureFilter.And and = (FeatureFilter.And) filter;
+            int[] ordinals1 = findOrdinals(and.getChild1());
+            int[] ordinals2 = findOrdinals(and.getChild2());
+            if (ordinals1 == null || ordinals2 == null)    {
+                return (ordinals1 == null ? ordinals2 : ordinals1);
+            }
+            return TypeIndex.intersect(ordinals1, ordinals2);
+        }
+        if (filter instanceof FeatureFilter.Or)    {
+            // Dazzle joins one ByType per requested type into a chain of Ors, which can be
+            // thousands deep (eg. the types command), so walk it without recursing
+            List lists = new ArrayList();
+            LinkedList pending = new LinkedList();
+            pending.add(filter);
+            while (!pending.isEmpty())  {
+                FeatureFilter f = (FeatureFilter) pending.removeLast();
+                if (f instanceof FeatureFilter.Or)  {
+                    pending.add(((FeatureFilter.Or) f).getChild1());
+                    pending.add(((FeatureFilter.Or) f).getChild2());
+                }
+                else    {
+                    int[] ordinals = findOrdinals(f);
+                    if (ordinals == null)   {
+                        return null;    // One branch can match anything
+                    }
+                    lists.add(ordinals);
+                }
+            }
+            return TypeIndex.union((int[][]) lists.toArray(new int[lists.size()][]), byOrdinal.length);
+        }
+        return null;
+    }
+
+    // Returns filter with each ByType replaced by a ByTypeHierarchy
+    private FeatureFilter subsume(FeatureFilter filter)  {
+        if (filter instanceof FeatureFilter.ByType)    {
+            return new ByTypeHierarchy(((FeatureFilter.ByType) filter).getType(), hierarchy);
+        }
+        if (filter instanceof FeatureFilter.And)    {
+            FeatureFilter.And and = (FeatureFilter.And) filter;
+            FeatureFilter child1 = subsume(and.getChild1());
+            FeatureFilter child2 = subsume(and.getChild2());
+            if (child1 == and.getChild1() && child2 == and.getChild2())    {
+                return filter;
+            }
+            return new FeatureFilter.And(child1, child2);
+        }
+        if (filter instanceof FeatureFilter.Not)    {
+            FeatureFilter child = ((FeatureFilter.Not) filter).getChild();
+            FeatureFilter subsumed = subsume(child);
+            return (subsumed == child ? filter : new FeatureFilter.Not(subsumed));
+        }
+        if (filter instanceof FeatureFilter.Or)    {
+            // Flatten Dazzle's deep chains (see findOrdinals) and rebuild them balanced
+            List leaves = new ArrayList();
+            LinkedList pending = new LinkedList();
+            pending.add(filter);
+            boolean changed = false;
+            while (!pending.isEmpty())  {
+                FeatureFilter f = (FeatureFilter) pending.removeLast();
+                if (f instanceof FeatureFilter.Or)  {
+                    pending.add(((FeatureFilter.Or) f).getChild2());
+                    pending.add(((FeatureFilter.Or) f).getChild1());
+                }
+                else    {
+                    FeatureFilter subsumed = subsume(f);
+                    changed |= (subsumed != f);
+                    leaves.add(subsumed);
+                }
+            }
+            return (changed ? or(leaves, 0, leaves.size()) : filter);
+        }
+        return filter;
+    }
+
+    // Returns balanced chain of Ors over leaves [from, to)
+    private static FeatureFilter or(List leaves, int from, int to)  {
+        if (to - from == 1) {
+            return (FeatureFilter) leaves.get(from);
+        }
+        int mid = (from + to) >>> 1;
+        return new FeatureFilter.Or(or(leaves, from, mid), or(leaves, mid, to));
+    }
+
+    // Returns location of OverlapsLocation filter if filter is, or is a conjunction containing, one
+    private Location findLocation(FeatureFilter filter)  {
+        if (filter instanceof FeatureFilter.OverlapsLocation)    {
+            return ((FeatureFilter.OverlapsLocation) filter).getLocation();
+        }
+        if (filter instanceof FeatureFilter.And)    {
+            FeatureFilter.And and = (FeatureFilter.And) filter;
+            Location location = findLocation(and.getChild1());
+            if (location == null)   {
+                location = findLocation(and.getChild2());
+            }
+            return location;
+        }
+        return null;
+    }
+
+}
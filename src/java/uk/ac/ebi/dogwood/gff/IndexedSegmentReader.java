@@ -0,0 +1,96 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.program.gff.GFFDocumentHandler;
+import org.biojava.bio.program.gff.GFFRecord;
+import org.biojava.bio.BioException;
+import org.biojava.utils.ParserException;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the records of one segment from a <code>bgzip</code>-compressed GFF file,
+ * decompressing only the blocks that the tabix index says hold them.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class IndexedSegmentReader {
+
+    private final BlockCompressedFile file;
+    private final TabixIndex index;
+    private final AttributeNames attributeNames;
+
+    IndexedSegmentReader(BlockCompressedFile file, TabixIndex index, AttributeNames attributeNames)  {
+        this.file           = file;
+        this.index          = index;
+        this.attributeNames = attributeNames;
+    }
+
+    /**
+     * Reads segment.
+     *
+     * @param   name    segment name as it appears in the GFF file
+     * @return  segment, or <code>null</code> if it has no records
+     * @throws  IOException     if file could not be read
+     * @throws  BioException    if records could not be parsed
+     * @throws  ParserException if records could not be parsed
+     */
+    GFFSegment read(final String name) throws IOException, BioException, ParserException {
+        long[] span = index.getSpan(name);
+        if (span == null)   {
+            return null;
+        }
+        byte[] bytes = file.read(span[0], span[1]);
+        final List records = new ArrayList();
+        GFFDocumentHandler handler = new GFFDocumentHandler()  {
+            public void startDocument(String locator) {
+            }
+            public void commentLine(String comment) {
+            }
+            public void recordLine(GFFRecord record) {
+                // Span should only hold this segment's records, but make sure
+                if (name.equals(record.getSeqName()))   {
+                    records.add(record);
+                }
+            }
+            public void endDocument() {
+            }
+        };
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        // Share values within the segment (the table is only needed while parsing)
+        new SymbolTable().newParser().parse(reader, handler, file.toString());
+        return (records.isEmpty() ? null : new GFFSegment(name, records, attributeNames));
+    }
+
+    TabixIndex getIndex()  {
+        return index;
+    }
+
+    public String toString()    {
+        return file + " (" + index + ")";
+    }
+
+}
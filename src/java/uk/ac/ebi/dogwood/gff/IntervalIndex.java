@@ -0,0 +1,150 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.util.Arrays;
+
+/**
+ * Static augmented interval tree over closed integer intervals.
+ * Intervals are sorted by start position and stored in plain arrays; the tree is implicit
+ * (the root of <code>[lo, hi)</code> is the middle element) and each node stores the maximum
+ * end position of its subtree, so overlap queries run in O(log n + k).
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class IntervalIndex {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final int[] starts;     // Sorted by start
+    private final int[] ends;
+    private final int[] ordinals;   // Position of interval in the original arrays
+    private final int[] maxEnds;    // Maximum end in subtree rooted at each node
+
+    /**
+     * Builds index.
+     *
+     * @param   starts  start positions (inclusive)
+     * @param   ends    end positions (inclusive)
+     * @throws  IllegalArgumentException if arrays are not the same length
+     */
+    public IntervalIndex(int[] starts, int[] ends) {
+        if (starts.length != ends.length) {
+            throw new IllegalArgumentException("Start and end arrays differ in length: " +
+                                               starts.length + " != " + ends.length);
+        }
+        int n = starts.length;
+        // Sort by start then by ordinal (keeps file order for equal starts)
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            keys[i] = ((long) starts[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        this.starts   = new int[n];
+        this.ends     = new int[n];
+        this.ordinals = new int[n];
+        this.maxEnds  = new int[n];
+        for (int i = 0; i < n; i++) {
+            int ordinal = (int) keys[i];
+            this.ordinals[i] = ordinal;
+            this.starts[i]   = starts[ordinal];
+            this.ends[i]     = ends[ordinal];
+        }
+        buildMaxEnds(0, n);
+    }
+
+    /**
+     * Returns number of intervals in index
+     *
+     * @return  number of intervals in index
+     */
+    public int size()   {
+        return starts.length;
+    }
+
+    /**
+     * Returns ordinals of intervals that overlap <code>[start, stop]</code>, in ascending order.
+     *
+     * @param   start   start of query range (inclusive)
+     * @param   stop    end of query range (inclusive)
+     * @return  ordinals of overlapping intervals, in ascending order
+     */
+    public int[] getOverlapping(int start, int stop)  {
+        if (start > stop || starts.length == 0)    {
+            return EMPTY;
+        }
+        Hits hits = new Hits();
+        search(0, starts.length, start, stop, hits);
+        return hits.toSortedArray();
+    }
+
+    // Private methods
+
+    private int buildMaxEnds(int lo, int hi)   {
+        if (lo >= hi)   {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        int max = ends[mid];
+        max = Math.max(max, buildMaxEnds(lo, mid));
+        max = Math.max(max, buildMaxEnds(mid + 1, hi));
+        maxEnds[mid] = max;
+        return max;
+    }
+
+    private void search(int lo, int hi, int start, int stop, Hits hits)   {
+        if (lo >= hi)   {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] < start)   {
+            // Nothing in this subtree reaches the query
+            return;
+        }
+        search(lo, mid, start, stop, hits);
+        if (starts[mid] <= stop)    {
+            if (ends[mid] >= start) {
+                hits.add(ordinals[mid]);
+            }
+            search(mid + 1, hi, start, stop, hits);
+        }
+    }
+
+    // Growable int array
+    private static final class Hits {
+        private int[] values = new int[16];
+        private int size = 0;
+        void add(int value) {
+            if (size == values.length)  {
+                int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+        int[] toSortedArray()   {
+            int[] result = new int[size];
+            System.arraycopy(values, 0, result, 0, size);
+            Arrays.sort(result);
+            return result;
+        }
+    }
+
+}
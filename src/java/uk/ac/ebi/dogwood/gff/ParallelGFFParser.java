@@ -0,0 +1,240 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import org.biojava.bio.program.gff.GFFDocumentHandler;
+import org.biojava.bio.program.gff.GFFParser;
+import org.biojava.bio.program.gff.GFFRecord;
+import org.biojava.bio.BioException;
+import org.biojava.utils.ParserException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a GFF file into chunks at line boundaries and parses the chunks with
+ * <code>GFFParser</code> on a thread pool. Parsed records and comments are passed to the
+ * document handler in file order, on the calling thread, so the handler sees exactly
+ * what it would see if the file had been parsed by a single <code>GFFParser</code>.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class ParallelGFFParser {
+
+    /** Approximate number of characters in each chunk */
+    static final int CHUNK_SIZE = 1 << 20;
+
+    private final ExecutorService executor;
+    private final int maxPending;       // Chunks parsed ahead of the handler
+    private final SymbolTable symbols;  // Null if values are not shared
+    private final int chunkSize;
+
+    /**
+     * Creates parser.
+     *
+     * @param   executor    runs chunk parsers
+     * @param   threads     number of threads in executor
+     */
+    ParallelGFFParser(ExecutorService executor, int threads)  {
+        this(executor, threads, null);
+    }
+
+    /**
+     * Creates parser that shares repeated values between chunks.
+     *
+     * @param   executor    runs chunk parsers
+     * @param   threads     number of threads in executor
+     * @param   symbols     shared values (<code>null</code> if values are not shared)
+     */
+    ParallelGFFParser(ExecutorService executor, int threads, SymbolTable symbols)  {
+        this(executor, threads, symbols, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates parser with chunks of the given size (small chunks are for testing).
+     *
+     * @param   executor    runs chunk parsers
+     * @param   threads     number of threads in executor
+     * @param   symbols     shared values (<code>null</code> if values are not shared)
+     * @param   chunkSize   approximate number of characters in each chunk
+     */
+    ParallelGFFParser(ExecutorService executor, int threads, SymbolTable symbols, int chunkSize)  {
+        this.executor   = executor;
+        this.maxPending = threads * 2;
+        this.symbols    = symbols;
+        this.chunkSize  = chunkSize;
+    }
+
+    /**
+     * Parses GFF file.
+     *
+     * @param   reader      GFF file
+     * @param   handler     receives records and comments in file order
+     * @param   locator     name of file (used in error messages)
+     * @throws  IOException     if file could not be read
+     * @throws  BioException    if file could not be parsed
+     * @throws  ParserException if file could not be parsed (line number is from start of file)
+     */
+    void parse(Reader reader, GFFDocumentHandler handler, String locator)
+            throws IOException, BioException, ParserException {
+        handler.startDocument(locator);
+        LinkedList pending = new LinkedList();  // Futures in file order
+        try {
+            StringBuffer text = new StringBuffer(chunkSize + chunkSize / 4);
+            char[] buffer = new char[8192];
+            int lines = 0;
+            int n;
+            while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+                text.append(buffer, 0, n);
+                if (text.length() >= chunkSize)  {
+                    int end = text.lastIndexOf("\n") + 1;
+                    if (end > 0)    {
+                        String chunk = text.substring(0, end);
+                        text.delete(0, end);
+                        pending.add(executor.submit(new Chunk(chunk, locator, lines, symbols)));
+                        lines += countLines(chunk);
+                        while (pending.size() > maxPending) {
+                            replay((Future) pending.removeFirst(), handler);
+                        }
+                    }
+                }
+            }
+            if (text.length() > 0)  {
+                pending.add(executor.submit(new Chunk(text.toString(), locator, lines, symbols)));
+            }
+            while (!pending.isEmpty())  {
+                replay((Future) pending.removeFirst(), handler);
+            }
+        }
+        finally {
+            for (Iterator i = pending.iterator(); i.hasNext(); ) {
+                ((Future) i.next()).cancel(true);
+            }
+        }
+        handler.endDocument();
+    }
+
+    // Private methods
+
+    // Waits for chunk to be parsed then passes its records and comments to handler
+    private void replay(Future future, GFFDocumentHandler handler)
+            throws IOException, BioException, ParserException {
+        List items;
+        try {
+            items = (List) future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing GFF");
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ParserException)   {
+                throw (ParserException) cause;
+            }
+            if (cause instanceof BioException)   {
+                throw (BioException) cause;
+            }
+            if (cause instanceof IOException)   {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException)   {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)   {
+                throw (Error) cause;
+            }
+            throw new BioException("Could not parse GFF", cause);
+        }
+        for (Iterator i = items.iterator(); i.hasNext(); ) {
+            Object item = i.next();
+            if (item instanceof GFFRecord)  {
+                handler.recordLine((GFFRecord) item);
+            }
+            else    {
+                handler.commentLine((String) item);
+            }
+        }
+    }
+
+    private static int countLines(String chunk)    {
+        int count = 0;
+        for (int i = 0; i < chunk.length(); i++) {
+            if (chunk.charAt(i) == '\n')    {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Parses one chunk, returning its records and comments in order
+    private static final class Chunk implements Callable, GFFDocumentHandler {
+
+        private final String text;
+        private final String locator;
+        private final int firstLine;    // Number of lines before chunk
+        private final SymbolTable symbols;
+        private final List items = new ArrayList();
+
+        Chunk(String text, String locator, int firstLine, SymbolTable symbols)    {
+            this.text      = text;
+            this.locator   = locator;
+            this.firstLine = firstLine;
+            this.symbols   = symbols;
+        }
+
+        public Object call() throws IOException, BioException, ParserException {
+            try {
+                GFFParser parser = (symbols == null ? new GFFParser() : symbols.newParser());
+                parser.parse(new BufferedReader(new StringReader(text)), this, locator);
+            }
+            catch (ParserException e) {
+                throw new ParserException(e, e.getMessage(), e.getLocator(),
+                                          firstLine + e.getLineNumber(), e.getLine());
+            }
+            return items;
+        }
+
+        public void startDocument(String locator) {
+        }
+
+        public void endDocument() {
+        }
+
+        public void commentLine(String comment) {
+            items.add(comment);
+        }
+
+        public void recordLine(GFFRecord record) {
+            items.add(record);
+        }
+    }
+
+}
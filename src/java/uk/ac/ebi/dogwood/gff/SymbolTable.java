@@ -0,0 +1,181 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import uk.ac.ebi.dogwood.metrics.StripedCounter;
+
+import org.biojava.bio.program.gff.GFFDocumentHandler;
+import org.biojava.bio.program.gff.GFFParser;
+import org.biojava.bio.program.gff.GFFRecord;
+import org.biojava.bio.program.gff.IgnoreRecordException;
+import org.biojava.bio.program.gff.SimpleGFFRecord;
+import org.biojava.bio.BioException;
+import org.biojava.utils.ParserException;
+import org.biojava.utils.SmallMap;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shares one instance of each distinct value in a GFF file. Every line of a GFF file
+ * repeats its segment name, method and type, and most repeat the same attribute names
+ * (and often values), but <code>GFFParser</code> creates new strings for each of them.
+ * Parsers from {@link #newParser()} replace those strings with the first equal string seen,
+ * so the copies can be garbage collected as soon as the line has been parsed.
+ * <p>
+ * A table is only needed while a file is being loaded, and can be used by several parser
+ * threads at once.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+final class SymbolTable {
+
+    private final ConcurrentHashMap symbols = new ConcurrentHashMap();    // String -> same String
+
+    private final StripedCounter values     = new StripedCounter();
+    private final StripedCounter shared     = new StripedCounter();
+    private final StripedCounter savedBytes = new StripedCounter();
+
+    /**
+     * Returns shared instance of <code>value</code>
+     *
+     * @param   value   string (may be <code>null</code>)
+     * @return  first string equal to <code>value</code> passed to this table
+     */
+    String get(String value)  {
+        if (value == null)  {
+            return null;
+        }
+        values.increment();
+        String symbol = (String) symbols.get(value);
+        if (symbol == null) {
+            symbol = (String) symbols.putIfAbsent(value, value);
+            if (symbol == null) {
+                return value;
+            }
+        }
+        if (symbol != value)    {
+            shared.increment();
+            savedBytes.add(getSize(value));
+        }
+        return symbol;
+    }
+
+    /**
+     * Returns GFF parser that shares values through this table
+     *
+     * @return  GFF parser
+     */
+    GFFParser newParser()  {
+        return new Parser();
+    }
+
+    /**
+     * Returns number of distinct values
+     *
+     * @return  number of distinct values
+     */
+    int size()  {
+        return symbols.size();
+    }
+
+    /**
+     * Returns number of values looked up
+     *
+     * @return  number of values looked up
+     */
+    long getValueCount()  {
+        return values.get();
+    }
+
+    /**
+     * Returns number of values replaced by an existing instance
+     *
+     * @return  number of values replaced by an existing instance
+     */
+    long getSharedCount()  {
+        return shared.get();
+    }
+
+    /**
+     * Returns estimated heap freed by sharing values
+     *
+     * @return  estimated size in bytes of the strings that were replaced
+     */
+    long getSavedBytes()  {
+        return savedBytes.get();
+    }
+
+    public String toString()    {
+        return getSharedCount() + " of " + getValueCount() + " values shared (" + size() + " distinct, " +
+               (getSavedBytes() / 1024) + " KB saved)";
+    }
+
+    // Private methods
+
+    // Approximate size of string: object header and fields (24 bytes) plus byte array
+    // (16-byte header, one byte per Latin-1 character, padded to 8 bytes)
+    private static long getSize(String value)  {
+        return 24 + ((16 + value.length() + 7) & ~7);
+    }
+
+    /**
+     * Replaces the columns and attributes of each record with shared instances
+     */
+    private final class Parser extends GFFParser {
+
+        protected GFFRecord createRecord(GFFDocumentHandler handler, List aList, String rest, String comment)
+                throws BioException, ParserException, IgnoreRecordException {
+            GFFRecord record = super.createRecord(handler, aList, rest, comment);
+            if (record instanceof SimpleGFFRecord)  {
+                SimpleGFFRecord r = (SimpleGFFRecord) record;
+                r.setSeqName(get(r.getSeqName()));
+                r.setSource(get(r.getSource()));
+                r.setFeature(get(r.getFeature()));
+                r.setComment(get(r.getComment()));
+            }
+            return record;
+        }
+
+        protected Map parseAttribute(String attValList) {
+            Map attributes = super.parseAttribute(attValList);
+            Map result = new SmallMap(attributes.size());
+            for (Iterator i = attributes.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) i.next();
+                Object value = entry.getValue();
+                if (value instanceof List)  {
+                    List list = (List) value;
+                    for (int j = 0; j < list.size(); j++) {
+                        Object item = list.get(j);
+                        if (item instanceof String) {
+                            list.set(j, get((String) item));
+                        }
+                    }
+                }
+                result.put(get((String) entry.getKey()), value);
+            }
+            return result;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Index of a <code>bgzip</code>-compressed GFF file created by <code>tabix -p gff</code>
+ * (the <code>.tbi</code> file). Only the span of each sequence is kept: the virtual offsets of
+ * its first and last records, which are all that is needed to read one segment.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ * @see     BlockCompressedFile
+ */
+public final class TabixIndex {
+
+    private static final int MAGIC          = 0x01494254;   // "TBI\1"
+    private static final int META_BIN       = 37450;        // Pseudo-bin with record counts (not a chunk)
+    private static final int GFF_SEQ_COLUMN = 1;
+    private static final int GFF_BEG_COLUMN = 4;
+
+    private final List names;       // Sequence names in file order
+    private final Map spans;        // Sequence name -> long[]{first virtual offset, end virtual offset}
+
+    private TabixIndex(List names, Map spans)  {
+        this.names = Collections.unmodifiableList(names);
+        this.spans = spans;
+    }
+
+    /**
+     * Reads index.
+     *
+     * @param   in  index file (<code>.tbi</code>)
+     * @return  index
+     * @throws  IOException if file could not be read or is not a tabix index of a GFF file
+     */
+    public static TabixIndex read(InputStream in) throws IOException  {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+        try {
+            if (readInt(data) != MAGIC)  {
+                throw new IOException("Not a tabix index");
+            }
+            int count       = readInt(data);
+            readInt(data);              // Format
+            int seqColumn   = readInt(data);
+            int begColumn   = readInt(data);
+            readInt(data);              // End column
+            readInt(data);              // Meta character
+            readInt(data);              // Lines to skip
+            if (seqColumn != GFF_SEQ_COLUMN || begColumn != GFF_BEG_COLUMN)    {
+                throw new IOException("Not a tabix index of a GFF file (create with tabix -p gff)");
+            }
+            byte[] buffer = new byte[readInt(data)];
+            data.readFully(buffer);
+            List names = new ArrayList(count);
+            for (int i = 0, start = 0; i < buffer.length && names.size() < count; i++) {
+                if (buffer[i] == 0) {
+                    names.add(new String(buffer, start, i - start, "UTF-8"));
+                    start = i + 1;
+                }
+            }
+            if (names.size() != count)  {
+                throw new IOException("Tabix index has " + names.size() + " names but " + count + " sequences");
+            }
+            Map spans = new HashMap(count * 2);
+            for (int i = 0; i < count; i++) {
+                long first = Long.MAX_VALUE;
+                long last  = Long.MIN_VALUE;
+                int bins = readInt(data);
+                for (int j = 0; j < bins; j++) {
+                    int bin    = readInt(data);
+                    int chunks = readInt(data);
+                    for (int k = 0; k < chunks; k++) {
+                        long begin = readLong(data);
+                        long end   = readLong(data);
+                        if (bin != META_BIN)    {
+                            first = Math.min(first, begin);
+                            last  = Math.max(last, end);
+                        }
+                    }
+                }
+                int intervals = readInt(data);
+                for (int j = 0; j < intervals; j++) {
+                    readLong(data);     // Linear index (only needed for range queries)
+                }
+                if (first < last)   {
+                    spans.put(names.get(i), new long[]{first, last});
+                }
+            }
+            return new TabixIndex(names, spans);
+        }
+        finally {
+            data.close();
+        }
+    }
+
+    /**
+     * Returns names of sequences in index, in file order
+     *
+     * @return  sequence names
+     */
+    public List getNames()  {
+        return names;
+    }
+
+    /**
+     * Returns virtual offsets of all records of a sequence
+     *
+     * @param   name    sequence name as it appears in the GFF file
+     * @return  virtual offset of first record and virtual offset after last record,
+     *          or <code>null</code> if sequence has no records
+     */
+    public long[] getSpan(String name)  {
+        long[] span = (long[]) spans.get(name);
+        return (span == null ? null : (long[]) span.clone());
+    }
+
+    public String toString()    {
+        return names.size() + " sequences";
+    }
+
+    // Private methods
+
+    // Tabix indexes are little-endian
+    private static int readInt(DataInputStream in) throws IOException  {
+        return Integer.reverseBytes(in.readInt());
+    }
+
+    private static long readLong(DataInputStream in) throws IOException  {
+        return Long.reverseBytes(in.readLong());
+    }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.util.Set;
+
+/**
+ * Subsumption between type IDs, for example the is_a and part_of links of an ontology.
+ * Used to match features whose type is a descendant of the type asked for.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public interface TypeHierarchy {
+
+    /**
+     * Returns <code>ancestor</code> and those of its descendants that are types of features.
+     * Called once per query, so may be slow the first time for each ancestor but should then be fast.
+     *
+     * @param   ancestor    type ID, for example GO:0008150
+     * @return  type IDs (read-only), always including <code>ancestor</code>
+     */
+    public Set getSubsumedTypes(String ancestor);
+
+}
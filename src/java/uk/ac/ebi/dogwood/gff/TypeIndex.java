@@ -0,0 +1,197 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from the values of one GFF column (type or method) to the ordinals of the
+ * records that have them. Each posting list is in ascending (file) order, so lists can be
+ * intersected and merged without sorting.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class TypeIndex {
+
+    static final int[] EMPTY = new int[0];
+
+    private final Map postings;     // Value -> int[] ordinals
+
+    /**
+     * Builds index.
+     *
+     * @param   values  column value of each record, in file order
+     */
+    public TypeIndex(String[] values) {
+        // Count first so each posting list is allocated once at its final size
+        Map counts = new HashMap();
+        for (int i = 0; i < values.length; i++) {
+            int[] count = (int[]) counts.get(values[i]);
+            if (count == null)  {
+                counts.put(values[i], new int[]{1});
+            }
+            else    {
+                count[0]++;
+            }
+        }
+        Map map = new HashMap(counts.size() * 2);
+        for (Iterator i = counts.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            map.put(entry.getKey(), new int[((int[]) entry.getValue())[0]]);
+            ((int[]) entry.getValue())[0] = 0;
+        }
+        for (int i = 0; i < values.length; i++) {
+            int[] count = (int[]) counts.get(values[i]);
+            ((int[]) map.get(values[i]))[count[0]++] = i;
+        }
+        this.postings = map;
+    }
+
+    /**
+     * Returns ordinals of records with <code>value</code>, in ascending order
+     *
+     * @param   value   type or method ID
+     * @return  ordinals of records (empty if none)
+     */
+    public int[] get(String value)  {
+        int[] ordinals = (int[]) postings.get(value);
+        return (ordinals == null ? EMPTY : ordinals);
+    }
+
+    /**
+     * Returns number of records with <code>value</code>
+     *
+     * @param   value   type or method ID
+     * @return  number of records
+     */
+    public int count(String value)  {
+        int[] ordinals = (int[]) postings.get(value);
+        return (ordinals == null ? 0 : ordinals.length);
+    }
+
+    /**
+     * Returns values in index
+     *
+     * @return  values in index
+     */
+    public Set getValues()  {
+        return Collections.unmodifiableSet(postings.keySet());
+    }
+
+    /**
+     * Returns ordinals in both <code>a</code> and <code>b</code>
+     *
+     * @param   a   ordinals in ascending order
+     * @param   b   ordinals in ascending order
+     * @return  ordinals in both, in ascending order
+     */
+    public static int[] intersect(int[] a, int[] b)  {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j])    {
+                i++;
+            }
+            else if (a[i] > b[j])   {
+                j++;
+            }
+            else    {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trim(result, n);
+    }
+
+    /**
+     * Returns number of ordinals in both <code>a</code> and <code>b</code>
+     *
+     * @param   a   ordinals in ascending order
+     * @param   b   ordinals in ascending order
+     * @return  number of ordinals in both
+     */
+    public static int countIntersection(int[] a, int[] b)  {
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j])    {
+                i++;
+            }
+            else if (a[i] > b[j])   {
+                j++;
+            }
+            else    {
+                n++;
+                i++;
+                j++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns ordinals in any of <code>lists</code>
+     *
+     * @param   lists   ordinals in ascending order
+     * @param   size    number of records (ordinals are less than this)
+     * @return  ordinals in any list, in ascending order
+     */
+    public static int[] union(int[][] lists, int size)  {
+        if (lists.length == 0)  {
+            return EMPTY;
+        }
+        if (lists.length == 1)  {
+            return lists[0];
+        }
+        boolean[] marks = new boolean[size];
+        int n = 0;
+        for (int i = 0; i < lists.length; i++) {
+            for (int j = 0; j < lists[i].length; j++) {
+                if (!marks[lists[i][j]])    {
+                    marks[lists[i][j]] = true;
+                    n++;
+                }
+            }
+        }
+        int[] result = new int[n];
+        for (int i = 0, j = 0; j < n; i++) {
+            if (marks[i])   {
+                result[j++] = i;
+            }
+        }
+        return result;
+    }
+
+    // Private methods
+
+    private static int[] trim(int[] array, int length)  {
+        if (length == array.length) {
+            return array;
+        }
+        int[] trimmed = new int[length];
+        System.arraycopy(array, 0, trimmed, 0, length);
+        return trimmed;
+    }
+
+}
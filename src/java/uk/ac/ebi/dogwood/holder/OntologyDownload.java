@@ -0,0 +1,237 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import uk.ac.ebi.hawthorn.DagOntology;
+import uk.ac.ebi.hawthorn.InputStreamListener;
+import uk.ac.ebi.hawthorn.OboOntology;
+import uk.ac.ebi.hawthorn.Ontology;
+import uk.ac.ebi.hawthorn.TabOntology;
+import org.bdgp.apps.dagedit.dataadapter.DEDataAdapterI;
+import org.bdgp.apps.dagedit.dataadapter.GOBOAdapter;
+import org.bdgp.apps.dagedit.dataadapter.GOFlatFileAdapter;
+import org.bdgp.apps.dagedit.datamodel.Term;
+import org.bdgp.io.DataAdapterException;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Terms and is_a and part_of links of an ontology, read from one download of its URI.
+ * Hawthorn's <code>getTerms()</code> opens the URI itself, so reading terms with Hawthorn and
+ * links with {@link RelationshipReader} would download the ontology twice. Instead the file is
+ * downloaded once and both are read from that copy, the same way Hawthorn reads them:
+ * OBO and DAG-Edit files with the DAG-Edit adapters, tab-delimited files (<code>TabOntology</code>)
+ * as ID and name columns. Other ontologies are read by Hawthorn and have no links.
+ * <p>
+ * Each download is hashed, so a file that is the same as last time need not be parsed at all
+ * (see {@link #read(Ontology, InputStreamListener, byte[])}).
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class OntologyDownload {
+
+    private static final String DIGEST_ALGORITHM    = "MD5";
+    private static final String TAB_COMMENT         = "!";
+    private static final String TAB_SEPARATOR       = "\t";
+
+    private final Map terms;
+    private final TermClosure closure;
+    private final byte[] digest;
+
+    private OntologyDownload(Map terms, TermClosure closure, byte[] digest)  {
+        this.terms   = terms;
+        this.closure = closure;
+        this.digest  = digest;
+    }
+
+    /**
+     * Downloads ontology and reads its terms and links
+     *
+     * @param   ontology    ontology
+     * @param   listener    used to open the ontology's URI (may be <code>null</code>)
+     * @return  terms and links
+     * @throws  IOException if ontology could not be read
+     */
+    public static OntologyDownload read(Ontology ontology, InputStreamListener listener) throws IOException  {
+        return read(ontology, listener, null);
+    }
+
+    /**
+     * Downloads ontology and reads its terms and links, unless the file is the same as
+     * a previous download
+     *
+     * @param   ontology    ontology
+     * @param   listener    used to open the ontology's URI (may be <code>null</code>)
+     * @param   previous    {@link #getDigest() digest} of previous download (<code>null</code> if none)
+     * @return  terms and links, or <code>null</code> if the file has the same digest as <code>previous</code>
+     * @throws  IOException if ontology could not be read
+     */
+    public static OntologyDownload read(Ontology ontology, InputStreamListener listener, byte[] previous)
+            throws IOException  {
+        boolean obo = (ontology instanceof OboOntology);
+        boolean dag = (ontology instanceof DagOntology);
+        if (!obo && !dag && !(ontology instanceof TabOntology))  {
+            // Unknown format: let Hawthorn read it
+            return new OntologyDownload(ontology.getTerms(), TermClosure.EMPTY, null);
+        }
+        byte[] bytes = download(ontology, listener);
+        byte[] digest = createDigest().digest(bytes);
+        if (previous != null && Arrays.equals(digest, previous))  {
+            return null;
+        }
+        if (!obo && !dag)   {
+            return new OntologyDownload(readTab(bytes), TermClosure.EMPTY, digest);
+        }
+        TermClosure.Builder builder = new TermClosure.Builder();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        if (obo)    {
+            RelationshipReader.readObo(in, builder);
+        }
+        else    {
+            RelationshipReader.readDag(in, builder);
+        }
+        return new OntologyDownload(readTerms(ontology, bytes, obo), builder.build(), digest);
+    }
+
+    /**
+     * Returns terms
+     *
+     * @return  ID -> name
+     */
+    public Map getTerms()  {
+        return terms;
+    }
+
+    /**
+     * Returns closure of is_a and part_of links
+     *
+     * @return  closure ({@link TermClosure#EMPTY} if the ontology's format has no links)
+     */
+    public TermClosure getClosure()  {
+        return closure;
+    }
+
+    /**
+     * Returns hash of the downloaded file
+     *
+     * @return  digest, or <code>null</code> if the file was read by Hawthorn
+     */
+    public byte[] getDigest()  {
+        return (digest == null ? null : (byte[]) digest.clone());
+    }
+
+    // Private methods
+
+    private static byte[] download(Ontology ontology, InputStreamListener listener) throws IOException  {
+        InputStream in = RelationshipReader.open(ontology, listener);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // Same as TabOntology: ID and name in the first two columns, lines starting with ! ignored
+    private static Map readTab(byte[] bytes) throws IOException  {
+        Map map = new HashMap();
+        BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(bytes)));
+        String line;
+        while ((line = in.readLine()) != null)  {
+            if (line.startsWith(TAB_COMMENT))   {
+                continue;
+            }
+            String[] columns = line.split(TAB_SEPARATOR);
+            if (columns.length < 2) {
+                throw new IndexOutOfBoundsException("Too few columns for line " + line +
+                                                    " [expected=2 found=" + columns.length + "]");
+            }
+            map.put(columns[0], columns[1]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    // Same as OboOntology and DagOntology, but from a copy of the file (the adapters only read files)
+    private static Map readTerms(Ontology ontology, byte[] bytes, boolean obo) throws IOException  {
+        File file = File.createTempFile("dogwood", obo ? ".obo" : ".dag");
+        try {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes);
+            }
+            finally {
+                out.close();
+            }
+            DEDataAdapterI adapter;
+            if (obo)    {
+                GOBOAdapter oboAdapter = new GOBOAdapter();
+                GOBOAdapter.IOProfile profile = new GOBOAdapter.IOProfile("");
+                Vector files = new Vector();
+                files.add(file.getPath());
+                profile.setFiles(files);
+                oboAdapter.setIOProfile(profile);
+                adapter = oboAdapter;
+            }
+            else    {
+                GOFlatFileAdapter dagAdapter = new GOFlatFileAdapter();
+                dagAdapter.setPath(file.getPath());
+                adapter = dagAdapter;
+            }
+            Map map = new HashMap();
+            for (Iterator i = adapter.getRoot().getAllTermsHash().entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry entry = (Map.Entry) i.next();
+                map.put(entry.getKey(), ((Term) entry.getValue()).getTerm());
+            }
+            return Collections.unmodifiableMap(map);
+        }
+        catch (DataAdapterException e)  {
+            IOException ex = new IOException("Could not load terms from " + ontology.getUri() + ": " + e);
+            ex.initCause(e);
+            throw ex;
+        }
+        finally {
+            file.delete();
+        }
+    }
+
+    private static MessageDigest createDigest()  {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e)  {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " not available: " + e.getMessage());
+        }
+    }
+
+}
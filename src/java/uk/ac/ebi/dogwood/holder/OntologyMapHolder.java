@@ -70,6 +70,50 @@ public interface OntologyMapHolder {
                                       InputStreamListener inputStreamListener)
            throws ClassNotFoundException, FileNotFoundException, IOException;
 
+    /**
+     * Loads ontologies (once only) and returns the current snapshot of their terms.
+     * Snapshots are refreshed in the background at each ontology's refresh interval.
+     *
+     * @return  current ontology snapshot
+     * @since   1.0.5
+     */
+    public OntologySnapshot getOntologySnapshot(ServletContext context,
+                                                InputStreamListener inputStreamListener)
+           throws ClassNotFoundException, FileNotFoundException, IOException;
+
+    /**
+     * Returns the current snapshot without blocking
+     *
+     * @return  current ontology snapshot, or <code>null</code> if ontologies have not been loaded
+     * @since   1.0.5
+     */
+    public OntologySnapshot getOntologySnapshot();
+
+    /**
+     * Records that a data source is using this holder. One holder is shared by every data source
+     * with the same holder ID, so each calls this once when it is initialised.
+     *
+     * @since   1.0.5
+     */
+    public void acquire();
+
+    /**
+     * Records that a data source has finished with this holder. Called by data sources when
+     * they are destroyed; once the last one has released the holder it is {@link #destroy() destroyed}.
+     *
+     * @since   1.0.5
+     */
+    public void release();
+
+    /**
+     * Stops refreshing ontologies in the background, so that no threads are left running
+     * when the web application is shut down. Data sources call {@link #release()} instead,
+     * since other data sources may still be using the holder.
+     *
+     * @since   1.0.5
+     */
+    public void destroy();
+
     /**
      * Returns ontologyMap holder ID
      *
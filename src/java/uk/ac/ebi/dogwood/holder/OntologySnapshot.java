@@ -0,0 +1,436 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import uk.ac.ebi.hawthorn.InputStreamListener;
+import uk.ac.ebi.hawthorn.Ontology;
+import uk.ac.ebi.hawthorn.OntologyMap;
+
+import java.util.*;
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Immutable copy of the terms in an {@link OntologyMap}, held in a {@link TermDictionary}
+ * for each ontology, with the closure of each ontology's is_a and part_of links
+ * (see {@link TermClosure}) so that terms can be tested against their ancestors.
+ * Lookups never block, throw or refresh the underlying ontologies; refreshing is done by
+ * creating a new snapshot (see {@link #withTerms(String, Map)}).
+ * Snapshots can be saved to a file with {@link #write(File)} and read back with
+ * {@link #read(File)}, which is much faster than downloading and parsing the ontologies.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class OntologySnapshot {
+
+    private static final char PREFIX_SEP = ':';
+
+    // Snapshot file format
+    private static final int FILE_MAGIC         = 0x444f4753;   // "DOGS"
+    private static final int FILE_VERSION       = 2;       // Version 1 has no links
+    private static final String FILE_DIGEST     = "SHA-1";
+
+    private final String[] prefixes;    // Ontology prefixes, eg. GO
+    private final TermDictionary[] terms;   // Same order as prefixes
+    private final TermClosure[] closures;   // Same order as prefixes
+    private final long generation;
+    private final long timestamp;       // When terms were last read from source
+
+    private OntologySnapshot(String[] prefixes, TermDictionary[] terms, TermClosure[] closures,
+                             long generation, long timestamp)   {
+        this.prefixes   = prefixes;
+        this.terms      = terms;
+        this.closures   = closures;
+        this.generation = generation;
+        this.timestamp  = timestamp;
+    }
+
+    /**
+     * Creates snapshot by reading all terms and links in every ontology in <code>ontologyMap</code>.
+     *
+     * @param   ontologyMap     ontologies
+     * @return  snapshot
+     * @throws  IOException     if an ontology could not be read
+     */
+    public static OntologySnapshot create(OntologyMap ontologyMap) throws IOException  {
+        return create(ontologyMap, null);
+    }
+
+    /**
+     * Creates snapshot by reading all terms and links in every ontology in <code>ontologyMap</code>.
+     *
+     * @param   ontologyMap     ontologies
+     * @param   listener        used to open ontologies when reading their links (may be <code>null</code>)
+     * @return  snapshot
+     * @throws  IOException     if an ontology could not be read
+     * @see     OntologyDownload
+     */
+    public static OntologySnapshot create(OntologyMap ontologyMap, InputStreamListener listener)
+            throws IOException  {
+        Map map = ontologyMap.getMap();
+        String[] prefixes = new String[map.size()];
+        TermDictionary[] terms = new TermDictionary[map.size()];
+        TermClosure[] closures = new TermClosure[map.size()];
+        int n = 0;
+        for (Iterator i = map.values().iterator(); i.hasNext(); ) {
+            Ontology ontology = (Ontology) i.next();
+            OntologyDownload download = OntologyDownload.read(ontology, listener);
+            prefixes[n] = ontology.getPrefix();
+            terms[n]    = TermDictionary.create(ontology.getPrefix(), download.getTerms());
+            closures[n] = download.getClosure();
+            n++;
+        }
+        return new OntologySnapshot(prefixes, terms, closures, 0, System.currentTimeMillis());
+    }
+
+    /**
+     * Reads snapshot saved by {@link #write(File)}.
+     *
+     * @param   file    snapshot file
+     * @return  snapshot (generation 0, with the timestamp it was saved with)
+     * @throws  IOException     if file could not be read, is not a snapshot file,
+     *                          or its content hash does not match
+     */
+    public static OntologySnapshot read(File file) throws IOException  {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != FILE_MAGIC)    {
+                throw new IOException("Not an ontology snapshot file: " + file);
+            }
+            int version = in.readInt();
+            if (version < 1 || version > FILE_VERSION)  {
+                throw new IOException("Unsupported ontology snapshot file version " + version + ": " + file);
+            }
+            long timestamp = in.readLong();
+            MessageDigest digest = getDigest();
+            DataInputStream body = new DataInputStream(new DigestInputStream(in, digest));
+            int count = body.readInt();
+            String[] prefixes = new String[count];
+            TermDictionary[] terms = new TermDictionary[count];
+            TermClosure[] closures = new TermClosure[count];
+            for (int i = 0; i < count; i++) {
+                prefixes[i] = body.readUTF();
+                int size = body.readInt();
+                TermDictionary.Builder builder = new TermDictionary.Builder(prefixes[i], size);
+                for (int j = 0; j < size; j++) {
+                    builder.put(body.readUTF(), body.readUTF());
+                }
+                terms[i] = builder.build();
+                closures[i] = (version == 1 ? TermClosure.EMPTY : readClosure(body));
+            }
+            byte[] expected = new byte[in.readInt()];
+            in.readFully(expected);
+            if (in.read() != -1 || !MessageDigest.isEqual(expected, digest.digest())) {
+                throw new IOException("Content hash does not match: " + file);
+            }
+            return new OntologySnapshot(prefixes, terms, closures, 0, timestamp);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves snapshot to file. The file is written under a temporary name then renamed,
+     * so readers never see a partly-written file.
+     *
+     * @param   file    snapshot file
+     * @throws  IOException     if file could not be written
+     */
+    public void write(File file) throws IOException  {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(timestamp);
+            MessageDigest digest = getDigest();
+            DataOutputStream body = new DataOutputStream(new DigestOutputStream(out, digest));
+            body.writeInt(prefixes.length);
+            for (int i = 0; i < prefixes.length; i++) {
+                body.writeUTF(prefixes[i]);
+                body.writeInt(terms[i].size());
+                for (Iterator j = terms[i].entrySet().iterator(); j.hasNext(); ) {
+                    Map.Entry entry = (Map.Entry) j.next();
+                    body.writeUTF((String) entry.getKey());
+                    body.writeUTF((String) entry.getValue());
+                }
+                writeClosure(body, closures[i]);
+            }
+            body.flush();
+            byte[] hash = digest.digest();
+            out.writeInt(hash.length);
+            out.write(hash);
+        }
+        finally {
+            out.close();
+        }
+        // Rename fails on some platforms if the target exists
+        if (!tmp.renameTo(file))    {
+            file.delete();
+            if (!tmp.renameTo(file))    {
+                throw new IOException("Could not rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * Returns new snapshot with the terms for one ontology replaced (links are kept)
+     *
+     * @param   prefix  ontology prefix, eg. GO
+     * @param   map     new terms (ID -> term)
+     * @return  new snapshot (with generation incremented)
+     * @throws  NoSuchElementException if prefix is not in this snapshot
+     */
+    public OntologySnapshot withTerms(String prefix, Map map) throws NoSuchElementException {
+        return withTerms(prefix, map, closures[indexOf(prefix)]);
+    }
+
+    /**
+     * Returns new snapshot with the terms and links for one ontology replaced
+     *
+     * @param   prefix  ontology prefix, eg. GO
+     * @param   map     new terms (ID -> term)
+     * @param   closure new links
+     * @return  new snapshot (with generation incremented)
+     * @throws  NoSuchElementException if prefix is not in this snapshot
+     */
+    public OntologySnapshot withTerms(String prefix, Map map, TermClosure closure) throws NoSuchElementException {
+        int index = indexOf(prefix);
+        TermDictionary[] copy = (TermDictionary[]) terms.clone();
+        copy[index] = TermDictionary.create(prefix, map);
+        TermClosure[] closureCopy = (TermClosure[]) closures.clone();
+        closureCopy[index] = closure;
+        return new OntologySnapshot(prefixes, copy, closureCopy, generation + 1, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns terms for ontology
+     *
+     * @param   prefix  ontology prefix, eg. GO
+     * @return  terms (ID -> term, read-only)
+     * @throws  NoSuchElementException if prefix is not in this snapshot
+     */
+    public Map getTerms(String prefix) throws NoSuchElementException {
+        return terms[indexOf(prefix)];
+    }
+
+    /**
+     * Returns closure of links for ontology
+     *
+     * @param   prefix  ontology prefix, eg. GO
+     * @return  closure (empty if the ontology has no links)
+     * @throws  NoSuchElementException if prefix is not in this snapshot
+     */
+    public TermClosure getClosure(String prefix) throws NoSuchElementException {
+        return closures[indexOf(prefix)];
+    }
+
+    /**
+     * Returns number of terms in all ontologies
+     *
+     * @return  number of terms
+     */
+    public int countTerms() {
+        int n = 0;
+        for (int i = 0; i < terms.length; i++) {
+            n += terms[i].size();
+        }
+        return n;
+    }
+
+    /**
+     * Returns number of is_a and part_of links in all ontologies
+     *
+     * @return  number of links
+     */
+    public int countLinks() {
+        int n = 0;
+        for (int i = 0; i < closures.length; i++) {
+            n += closures[i].countLinks();
+        }
+        return n;
+    }
+
+    /**
+     * Returns number of times this snapshot has been refreshed
+     *
+     * @return  number of times this snapshot has been refreshed
+     */
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Returns time at which terms were last read from their source
+     *
+     * @return  time in milliseconds (see <code>System.currentTimeMillis()</code>)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns <code>true</code> if every ontology in this snapshot has the same terms and links
+     * as in <code>other</code>
+     *
+     * @param   other   snapshot to compare with
+     * @return  <code>true</code> if both snapshots have the same prefixes, terms and links
+     */
+    public boolean hasSameTerms(OntologySnapshot other) {
+        if (prefixes.length != other.prefixes.length)  {
+            return false;
+        }
+        for (int i = 0; i < prefixes.length; i++) {
+            int index = other.find(prefixes[i]);
+            if (index < 0 || !terms[i].equals(other.terms[index]) || !closures[i].equals(other.closures[index]))  {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if ID contains a prefix separator, for example GO:0005515
+     * (same as <code>OntologyMap.isValidID</code>)
+     *
+     * @param   id  ontology ID
+     * @return  <code>true</code> if ID contains a prefix separator
+     */
+    public boolean isValidID(String id) {
+        return (id != null && id.indexOf(PREFIX_SEP) > -1);
+    }
+
+    /**
+     * Returns term for ontology ID
+     *
+     * @param   id  ontology ID, for example GO:0005515
+     * @return  term, or <code>null</code> if prefix or ID not recognised
+     */
+    public String getTerm(String id) {
+        int index = findByID(id);
+        return (index < 0 ? null : (String) terms[index].get(id));
+    }
+
+    /**
+     * Returns <code>true</code> if <code>id</code> is <code>ancestor</code> or one of its
+     * descendants through is_a or part_of links, for example GO:0006915 (apoptosis) is
+     * subsumed by GO:0008150 (biological_process).
+     *
+     * @param   id          ontology ID
+     * @param   ancestor    ontology ID
+     * @return  <code>true</code> if <code>id</code> is the same as or is subsumed by <code>ancestor</code>
+     * @see     TermClosure#isA(String, String)
+     */
+    public boolean isA(String id, String ancestor) {
+        if (id.equals(ancestor))    {
+            return true;
+        }
+        int index = findByID(ancestor);
+        return (index >= 0 && closures[index].isA(id, ancestor));
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer("OntologySnapshot:\n");
+        buf.append("Generation:\t" + generation + "\n");
+        buf.append("Timestamp:\t" + new Date(timestamp) + "\n");
+        for (int i = 0; i < prefixes.length; i++) {
+            buf.append(terms[i] + " (" + closures[i] + ")\n");
+        }
+        return buf.toString();
+    }
+
+    // Private methods
+
+    private int indexOf(String prefix)  {
+        int index = find(prefix);
+        if (index < 0)  {
+            throw new NoSuchElementException("Unrecognised prefix: " + prefix);
+        }
+        return index;
+    }
+
+    private int find(String prefix)  {
+        for (int i = 0; i < prefixes.length; i++) {
+            if (prefixes[i].equals(prefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Returns index of ontology that ID belongs to, or -1 if none
+    private int findByID(String id)  {
+        for (int i = 0; i < prefixes.length; i++) {
+            String prefix = prefixes[i];
+            if (id.startsWith(prefix) && id.length() > prefix.length() && id.charAt(prefix.length()) == PREFIX_SEP)  {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Writes number of terms with parents, then each term's ID, number of parents and parent IDs
+    private static void writeClosure(DataOutputStream out, TermClosure closure) throws IOException  {
+        List children = new ArrayList();
+        for (Iterator i = closure.getIDs().iterator(); i.hasNext(); ) {
+            String id = (String) i.next();
+            if (closure.getParents(id).length > 0)  {
+                children.add(id);
+            }
+        }
+        out.writeInt(children.size());
+        for (Iterator i = children.iterator(); i.hasNext(); ) {
+            String id = (String) i.next();
+            String[] parents = closure.getParents(id);
+            out.writeUTF(id);
+            out.writeInt(parents.length);
+            for (int j = 0; j < parents.length; j++) {
+                out.writeUTF(parents[j]);
+            }
+        }
+    }
+
+    private static TermClosure readClosure(DataInputStream in) throws IOException  {
+        TermClosure.Builder builder = new TermClosure.Builder();
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String id = in.readUTF();
+            int parents = in.readInt();
+            for (int j = 0; j < parents; j++) {
+                builder.addParent(id, in.readUTF());
+            }
+        }
+        return builder.build();
+    }
+
+    private static MessageDigest getDigest() throws IOException  {
+        try {
+            return MessageDigest.getInstance(FILE_DIGEST);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IOException(FILE_DIGEST + " not available: " + e.getMessage());
+        }
+    }
+
+}
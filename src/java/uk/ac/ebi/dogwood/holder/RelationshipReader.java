@@ -0,0 +1,232 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import uk.ac.ebi.hawthorn.DagOntology;
+import uk.ac.ebi.hawthorn.InputStreamListener;
+import uk.ac.ebi.hawthorn.OboOntology;
+import uk.ac.ebi.hawthorn.Ontology;
+import org.biojava.utils.net.URLConnectionHelper;
+
+import java.io.*;
+import java.net.URL;
+
+/**
+ * Reads the is_a and part_of links of an ontology into a {@link TermClosure}.
+ * Hawthorn only reads terms, so links are read separately: from OBO files for {@link OboOntology}
+ * and DAG-Edit flat files for {@link DagOntology}. {@link OntologyDownload} reads the terms and
+ * links from one download of the file.
+ * Other ontologies, for example the tab-delimited GO terms file read by
+ * <code>TabOntology</code>, have no links (use the GO OBO file with <code>OboOntology</code>
+ * to query GO terms by their ancestors).
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class RelationshipReader {
+
+    private static final String OBO_TERM        = "[Term]";
+    private static final String OBO_ID          = "id:";
+    private static final String OBO_IS_A        = "is_a:";
+    private static final String OBO_RELATIONSHIP = "relationship:";
+    private static final String PART_OF         = "part_of";
+    private static final char DAG_COMMENT       = '!';
+    private static final char DAG_ROOT          = '$';
+    private static final char DAG_IS_A          = '%';
+    private static final char DAG_PART_OF       = '<';
+
+    private RelationshipReader()  {
+    }
+
+    /**
+     * Returns closure of the links in an ontology
+     *
+     * @param   ontology    ontology
+     * @param   listener    used to open the ontology's URI (may be <code>null</code>)
+     * @return  closure, or {@link TermClosure#EMPTY} if the ontology's format has no links
+     * @throws  IOException if ontology could not be read
+     */
+    public static TermClosure read(Ontology ontology, InputStreamListener listener) throws IOException  {
+        boolean obo = (ontology instanceof OboOntology);
+        if (!obo && !(ontology instanceof DagOntology))  {
+            return TermClosure.EMPTY;
+        }
+        BufferedReader in = new BufferedReader(new InputStreamReader(open(ontology, listener)));
+        try {
+            TermClosure.Builder builder = new TermClosure.Builder();
+            if (obo)    {
+                readObo(in, builder);
+            }
+            else    {
+                readDag(in, builder);
+            }
+            return builder.build();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads links from an OBO file: <code>is_a</code> and <code>relationship: part_of</code>
+     * lines in <code>[Term]</code> stanzas
+     *
+     * @param   in          OBO file
+     * @param   builder     receives links
+     * @throws  IOException if file could not be read
+     */
+    public static void readObo(BufferedReader in, TermClosure.Builder builder) throws IOException  {
+        String id = null;
+        boolean term = false;
+        String line;
+        while ((line = in.readLine()) != null)  {
+            line = line.trim();
+            if (line.startsWith("["))   {
+                term = line.equals(OBO_TERM);
+                id = null;
+            }
+            else if (!term) {
+                continue;
+            }
+            else if (line.startsWith(OBO_ID))   {
+                id = value(line.substring(OBO_ID.length()));
+            }
+            else if (id != null && line.startsWith(OBO_IS_A))   {
+                builder.addParent(id, value(line.substring(OBO_IS_A.length())));
+            }
+            else if (id != null && line.startsWith(OBO_RELATIONSHIP))   {
+                String value = line.substring(OBO_RELATIONSHIP.length()).trim();
+                if (value.startsWith(PART_OF + " "))   {
+                    builder.addParent(id, value(value.substring(PART_OF.length())));
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads links from a DAG-Edit flat file, where each term is indented one more than its parent
+     * and further parents follow on the same line, for example:
+     * <pre>
+     * $molecular_function ; GO:0003674
+     *  %binding ; GO:0005488
+     *   %protein binding ; GO:0005515 % other parent ; GO:0000001 &lt; whole ; GO:0000002
+     * </pre>
+     *
+     * @param   in          DAG-Edit flat file
+     * @param   builder     receives links
+     * @throws  IOException if file could not be read
+     */
+    public static void readDag(BufferedReader in, TermClosure.Builder builder) throws IOException  {
+        String[] stack = new String[64];        // ID of last term at each depth
+        String line;
+        while ((line = in.readLine()) != null)  {
+            int depth = 0;
+            while (depth < line.length() && line.charAt(depth) == ' ')  {
+                depth++;
+            }
+            if (depth == line.length() || line.charAt(depth) == DAG_COMMENT)  {
+                continue;
+            }
+            char relation = line.charAt(depth);
+            if (relation != DAG_ROOT && relation != DAG_IS_A && relation != DAG_PART_OF)  {
+                continue;
+            }
+            // Split into "relation name ; ID ; ..." parts at unescaped % and <
+            int start = depth;
+            String id = null;
+            for (int i = depth + 1; i <= line.length(); i++) {
+                char c = (i < line.length() ? line.charAt(i) : DAG_IS_A);
+                if (c == '\\')  {
+                    i++;
+                }
+                else if (c == DAG_IS_A || c == DAG_PART_OF)    {
+                    String partID = dagID(line.substring(start + 1, i));
+                    if (id == null) {
+                        id = partID;
+                    }
+                    else if (partID != null)    {
+                        builder.addParent(id, partID);
+                    }
+                    start = i;
+                }
+            }
+            if (id == null) {
+                continue;
+            }
+            if (depth >= stack.length)  {
+                String[] copy = new String[depth * 2];
+                System.arraycopy(stack, 0, copy, 0, stack.length);
+                stack = copy;
+            }
+            stack[depth] = id;
+            if (depth > 0 && relation != DAG_ROOT && stack[depth - 1] != null)  {
+                builder.addParent(id, stack[depth - 1]);
+            }
+        }
+    }
+
+    // Private methods
+
+    // Returns first word of OBO value, without trailing comment or modifiers
+    private static String value(String s)  {
+        s = s.trim();
+        int end = 0;
+        while (end < s.length() && !Character.isWhitespace(s.charAt(end)) && s.charAt(end) != '!' &&
+                s.charAt(end) != '{')   {
+            end++;
+        }
+        return s.substring(0, end);
+    }
+
+    // Returns ID from "name ; ID[, secondary ID] ; ...", or null if there is none
+    private static String dagID(String part)  {
+        int first = part.indexOf(';');
+        if (first < 0)  {
+            return null;
+        }
+        int second = part.indexOf(';', first + 1);
+        String id = part.substring(first + 1, second < 0 ? part.length() : second);
+        int comma = id.indexOf(',');
+        if (comma >= 0) {
+            id = id.substring(0, comma);
+        }
+        id = id.trim();
+        return (id.length() == 0 ? null : id);
+    }
+
+    // Opens ontology's URI in the same order as Hawthorn: listener, class path, file, then URL
+    static InputStream open(Ontology ontology, InputStreamListener listener) throws IOException  {
+        String uri = ontology.getUri();
+        InputStream in = null;
+        if (listener != null)   {
+            in = listener.getInputStream(uri);
+        }
+        if (in == null) {
+            in = RelationshipReader.class.getResourceAsStream(uri);
+        }
+        if (in == null && new File(uri).exists())   {
+            in = new FileInputStream(uri);
+        }
+        if (in == null) {
+            in = URLConnectionHelper.getInputStream(new URL(uri), ontology.getUserName(), ontology.getPassword());
+        }
+        return in;
+    }
+
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import java.util.*;
+
+/**
+ * Read-only transitive closure of the is_a and part_of relationships of one ontology.
+ * <p>
+ * Terms are numbered in post-order along a spanning tree of the DAG, so the descendants of a
+ * term through its tree children have consecutive numbers. Each term then keeps the ranges of
+ * numbers of all its descendants (tree and non-tree), merged, which for GO-like ontologies is
+ * one range for most terms and rarely more than a handful. Testing whether a term is a
+ * descendant of another is a search of these ranges, and listing the descendants of a term
+ * is a walk over them, so neither depends on the depth of the ontology.
+ * Cycles, which should not occur, are broken by ignoring the links that close them.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class TermClosure {
+
+    /** Closure with no terms */
+    public static final TermClosure EMPTY = new Builder().build();
+
+    private final String[] ids;         // By term number
+    private final Map numbers;          // ID -> Integer term number
+    private final int[][] parents;      // By term number: numbers of direct parents
+    private final int[] post;           // By term number: post-order number
+    private final int[] byPost;         // By post-order number: term number
+    private final int[] ranges;         // By term number: offset into bounds
+    private final int[] bounds;         // Descendant ranges (low, high) of post-order numbers
+    private final int links;
+
+    private TermClosure(String[] ids, Map numbers, int[][] parents, int links)   {
+        this.ids     = ids;
+        this.numbers = numbers;
+        this.parents = parents;
+        this.links   = links;
+        this.post    = new int[ids.length];
+        this.byPost  = new int[ids.length];
+        this.ranges  = new int[ids.length + 1];
+        this.bounds  = encode();
+    }
+
+    /**
+     * Returns <code>true</code> if <code>id</code> is <code>ancestor</code> or one of its
+     * descendants through is_a or part_of
+     *
+     * @param   id          ontology ID, for example GO:0006915
+     * @param   ancestor    ontology ID, for example GO:0008150
+     * @return  <code>true</code> if <code>id</code> is the same as or is subsumed by <code>ancestor</code>
+     */
+    public boolean isA(String id, String ancestor)  {
+        if (id.equals(ancestor))    {
+            return true;
+        }
+        Integer term  = (Integer) numbers.get(id);
+        Integer other = (Integer) numbers.get(ancestor);
+        if (term == null || other == null)  {
+            return false;
+        }
+        return contains(other.intValue(), post[term.intValue()]);
+    }
+
+    /**
+     * Returns <code>id</code> and all its descendants
+     *
+     * @param   id  ontology ID
+     * @return  IDs (just <code>id</code> if it is not in the ontology)
+     */
+    public Set getDescendants(String id)  {
+        Integer term = (Integer) numbers.get(id);
+        if (term == null)   {
+            return Collections.singleton(id);
+        }
+        Set set = new HashSet();
+        int n = term.intValue();
+        for (int i = ranges[n]; i < ranges[n + 1]; i += 2) {
+            for (int j = bounds[i]; j <= bounds[i + 1]; j++) {
+                set.add(ids[byPost[j]]);
+            }
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * Returns number of descendants of <code>id</code>, including <code>id</code>
+     *
+     * @param   id  ontology ID
+     * @return  number of descendants (1 if <code>id</code> is not in the ontology)
+     */
+    public int countDescendants(String id)  {
+        Integer term = (Integer) numbers.get(id);
+        if (term == null)   {
+            return 1;
+        }
+        int n = term.intValue();
+        int count = 0;
+        for (int i = ranges[n]; i < ranges[n + 1]; i += 2) {
+            count += bounds[i + 1] - bounds[i] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns direct parents of <code>id</code>
+     *
+     * @param   id  ontology ID
+     * @return  IDs of parents (empty if none or if <code>id</code> is not in the ontology)
+     */
+    public String[] getParents(String id)  {
+        Integer term = (Integer) numbers.get(id);
+        if (term == null)   {
+            return new String[0];
+        }
+        int[] p = parents[term.intValue()];
+        String[] result = new String[p.length];
+        for (int i = 0; i < p.length; i++) {
+            result[i] = ids[p[i]];
+        }
+        return result;
+    }
+
+    /**
+     * Returns IDs of terms that have parents or children
+     *
+     * @return  IDs
+     */
+    public Set getIDs()  {
+        return Collections.unmodifiableSet(numbers.keySet());
+    }
+
+    /**
+     * Returns number of terms that have parents or children
+     *
+     * @return  number of terms
+     */
+    public int size()   {
+        return ids.length;
+    }
+
+    /**
+     * Returns number of parent links
+     *
+     * @return  number of parent links
+     */
+    public int countLinks()   {
+        return links;
+    }
+
+    /**
+     * Returns number of descendant ranges held for all terms
+     *
+     * @return  number of ranges
+     */
+    public int countRanges()   {
+        return bounds.length / 2;
+    }
+
+    /**
+     * Returns <code>true</code> if <code>o</code> is a closure of the same parent links
+     *
+     * @param   o   object to compare with
+     * @return  <code>true</code> if both closures have the same terms and parents
+     */
+    public boolean equals(Object o) {
+        if (o == this)  {
+            return true;
+        }
+        if (!(o instanceof TermClosure))    {
+            return false;
+        }
+        TermClosure other = (TermClosure) o;
+        if (ids.length != other.ids.length || links != other.links)   {
+            return false;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (!new HashSet(Arrays.asList(getParents(ids[i]))).equals(
+                    new HashSet(Arrays.asList(other.getParents(ids[i])))))   {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hashCode()   {
+        return ids.length * 31 + links;
+    }
+
+    public String toString()    {
+        return size() + " terms, " + countLinks() + " links, " + countRanges() + " ranges";
+    }
+
+    // Private methods
+
+    // Returns true if post-order number p is in one of term's ranges
+    private boolean contains(int term, int p)  {
+        int base = ranges[term];
+        int low  = 0;
+        int high = (ranges[term + 1] - base) / 2 - 1;
+        // Ranges are sorted and do not overlap
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int i = base + mid * 2;
+            if (p < bounds[i])    {
+                high = mid - 1;
+            }
+            else if (p > bounds[i + 1])   {
+                low = mid + 1;
+            }
+            else    {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Numbers terms and works out their descendant ranges, returning the ranges
+    private int[] encode()  {
+        int count = ids.length;
+        int[][] children = invert(parents, count);
+        // Order terms so that parents come before children, ignoring links that close a cycle
+        int[] pending    = new int[count];      // Number of parents not yet ordered
+        boolean[] queued = new boolean[count];
+        int[] order      = new int[count];
+        int[] rank       = new int[count];      // Position in order
+        int ordered = 0;
+        for (int i = 0; i < count; i++) {
+            pending[i] = parents[i].length;
+            if (pending[i] == 0)    {
+                queued[i] = true;
+                order[ordered++] = i;
+            }
+        }
+        for (int next = 0, unqueued = 0; next < count; next++) {
+            if (next == ordered)    {
+                // Only cycles left: break one at the first term not yet ordered
+                while (queued[unqueued])    {
+                    unqueued++;
+                }
+                queued[unqueued] = true;
+                order[ordered++] = unqueued;
+            }
+            int term = order[next];
+            rank[term] = next;
+            for (int i = 0; i < children[term].length; i++) {
+                int child = children[term][i];
+                if (--pending[child] == 0 && !queued[child])  {
+                    queued[child] = true;
+                    order[ordered++] = child;
+                }
+            }
+        }
+        // Spanning tree: each term hangs from its first parent that comes before it
+        int[] treeParent = new int[count];
+        for (int i = 0; i < count; i++) {
+            treeParent[i] = -1;
+            for (int j = 0; j < parents[i].length; j++) {
+                if (rank[parents[i][j]] < rank[i])   {
+                    treeParent[i] = parents[i][j];
+                    break;
+                }
+            }
+        }
+        // Post-order numbers: a subtree of size s rooted at t covers [post[t] - s + 1, post[t]]
+        int[][] treeChildren = invert(treeParent, count);
+        int[] treeSize = new int[count];
+        int[] stack    = new int[count];
+        int[] visited  = new int[count];        // Number of tree children visited
+        int number = 0;
+        for (int root = 0; root < count; root++) {
+            if (treeParent[root] >= 0)  {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            while (depth >= 0)  {
+                int term = stack[depth];
+                if (visited[term] < treeChildren[term].length)  {
+                    stack[++depth] = treeChildren[term][visited[term]++];
+                }
+                else    {
+                    post[term]     = number;
+                    byPost[number] = term;
+                    number++;
+                    treeSize[term]++;
+                    if (depth > 0)  {
+                        treeSize[stack[depth - 1]] += treeSize[term];
+                    }
+                    depth--;
+                }
+            }
+        }
+        // Ranges, children before parents: a term's subtree plus the ranges of all its children
+        // (a tree child can have descendants outside the subtree through its other links)
+        int[][] termRanges = new int[count][];
+        int total = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            int term = order[i];
+            List list = new ArrayList();
+            list.add(new int[]{post[term] - treeSize[term] + 1, post[term]});
+            for (int j = 0; j < children[term].length; j++) {
+                int child = children[term][j];
+                if (rank[child] > rank[term])   {
+                    int[] r = termRanges[child];
+                    for (int k = 0; k < r.length; k += 2) {
+                        list.add(new int[]{r[k], r[k + 1]});
+                    }
+                }
+            }
+            termRanges[term] = merge(list);
+            total += termRanges[term].length;
+        }
+        int[] all = new int[total];
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            ranges[i] = offset;
+            System.arraycopy(termRanges[i], 0, all, offset, termRanges[i].length);
+            offset += termRanges[i].length;
+        }
+        ranges[count] = offset;
+        return all;
+    }
+
+    // Returns children of each term
+    private static int[][] invert(int[][] parents, int count)  {
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < parents[i].length; j++) {
+                sizes[parents[i][j]]++;
+            }
+        }
+        int[][] children = new int[count][];
+        for (int i = 0; i < count; i++) {
+            children[i] = new int[sizes[i]];
+            sizes[i] = 0;
+        }
+        for (int i = 0; i < count; i++) {
+            for (int j = 0; j < parents[i].length; j++) {
+                int parent = parents[i][j];
+                children[parent][sizes[parent]++] = i;
+            }
+        }
+        return children;
+    }
+
+    // Returns children of each term in the spanning tree
+    private static int[][] invert(int[] treeParent, int count)  {
+        int[][] parents = new int[count][];
+        for (int i = 0; i < count; i++) {
+            parents[i] = (treeParent[i] < 0 ? new int[0] : new int[]{treeParent[i]});
+        }
+        return invert(parents, count);
+    }
+
+    // Sorts ranges and joins those that overlap or touch
+    private static int[] merge(List list)  {
+        if (list.size() > 1)    {
+            Collections.sort(list, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    int a = ((int[]) o1)[0];
+                    int b = ((int[]) o2)[0];
+                    return (a < b ? -1 : (a == b ? 0 : 1));
+                }
+            });
+        }
+        int[] result = new int[list.size() * 2];
+        int n = 0;
+        for (Iterator i = list.iterator(); i.hasNext(); ) {
+            int[] r = (int[]) i.next();
+            if (n > 0 && r[0] <= result[n - 1] + 1)    {
+                result[n - 1] = Math.max(result[n - 1], r[1]);
+            }
+            else    {
+                result[n++] = r[0];
+                result[n++] = r[1];
+            }
+        }
+        if (n == result.length) {
+            return result;
+        }
+        int[] trimmed = new int[n];
+        System.arraycopy(result, 0, trimmed, 0, n);
+        return trimmed;
+    }
+
+    /**
+     * Builds a {@link TermClosure} one parent link at a time.
+     */
+    public static final class Builder {
+
+        private final Map numbers   = new HashMap();    // ID -> Integer
+        private final List ids      = new ArrayList();
+        private final List parents  = new ArrayList();  // By term number: Set of Integer
+        private int links           = 0;
+
+        /**
+         * Adds link from term to one of its parents (is_a or part_of).
+         * Adding the same link twice, or a link from a term to itself, has no effect.
+         *
+         * @param   id      ontology ID of child, for example GO:0006915
+         * @param   parent  ontology ID of parent, for example GO:0012501
+         */
+        public void addParent(String id, String parent)  {
+            if (id.equals(parent))  {
+                return;
+            }
+            Integer child = number(id);
+            if (((Set) parents.get(child.intValue())).add(number(parent)))  {
+                links++;
+            }
+        }
+
+        /**
+         * Returns closure of the links added so far
+         *
+         * @return  closure
+         */
+        public TermClosure build()  {
+            int[][] array = new int[ids.size()][];
+            for (int i = 0; i < array.length; i++) {
+                Set set = (Set) parents.get(i);
+                array[i] = new int[set.size()];
+                int j = 0;
+                for (Iterator k = set.iterator(); k.hasNext(); ) {
+                    array[i][j++] = ((Integer) k.next()).intValue();
+                }
+            }
+            return new TermClosure((String[]) ids.toArray(new String[ids.size()]),
+                                   new HashMap(numbers), array, links);
+        }
+
+        private Integer number(String id)  {
+            Integer n = (Integer) numbers.get(id);
+            if (n == null)  {
+                n = Integer.valueOf(ids.size());
+                numbers.put(id, n);
+                ids.add(id);
+                parents.add(new LinkedHashSet());
+            }
+            return n;
+        }
+    }
+
+}
@@ -0,0 +1,403 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Compact, read-only map of ontology IDs to terms for one ontology.
+ * IDs such as <code>GO:0005524</code> are stored as integers (<code>5524</code>) in an
+ * open-addressing hash table, and terms are stored as UTF-8 in a single buffer outside
+ * the Java heap. IDs that do not follow the ontology's numbering, for example
+ * <code>GO:obsolete</code>, are kept in an ordinary map.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class TermDictionary extends AbstractMap {
+
+    private static final char PREFIX_SEP    = ':';
+    private static final int MAX_DIGITS     = 9;    // So numbers fit in an int
+    private static final int EMPTY          = -1;
+    private static final String ENCODING    = "UTF-8";
+
+    private final String prefix;        // For example GO
+    private final int digits;           // Number of digits in encoded IDs (0 if none)
+    private final int[] keys;           // Hash table: number in ID, or EMPTY
+    private final int[] offsets;        // Same index as keys: position of term in blob
+    private final ByteBuffer blob;      // Off-heap: [int length][UTF-8 bytes] for each term
+    private final Map others;           // IDs that could not be encoded -> term
+    private final int size;
+    private Set entrySet = null;
+
+    private TermDictionary(String prefix, int digits, int[] keys, int[] offsets,
+                           ByteBuffer blob, Map others, int size)   {
+        this.prefix     = prefix;
+        this.digits     = digits;
+        this.keys       = keys;
+        this.offsets    = offsets;
+        this.blob       = blob;
+        this.others     = others;
+        this.size       = size;
+    }
+
+    /**
+     * Creates dictionary from terms
+     *
+     * @param   prefix  ontology prefix, for example GO
+     * @param   terms   ID -> term
+     * @return  dictionary
+     */
+    public static TermDictionary create(String prefix, Map terms)  {
+        Builder builder = new Builder(prefix, terms.size());
+        for (Iterator i = terms.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            builder.put((String) entry.getKey(), (String) entry.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns ontology prefix
+     *
+     * @return  ontology prefix, for example GO
+     */
+    public String getPrefix()   {
+        return prefix;
+    }
+
+    /**
+     * Returns number of bytes used to store terms outside the heap
+     *
+     * @return  number of bytes used to store terms outside the heap
+     */
+    public int getTermBytes()   {
+        return blob.capacity();
+    }
+
+    public Object get(Object key) {
+        if (!(key instanceof String))   {
+            return null;
+        }
+        String id = (String) key;
+        int number = encode(id, prefix, digits);
+        if (number == EMPTY)    {
+            return others.get(id);
+        }
+        int slot = find(number);
+        return (keys[slot] == EMPTY ? null : decode(offsets[slot]));
+    }
+
+    public boolean containsKey(Object key) {
+        return (get(key) != null);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Set entrySet() {
+        if (entrySet == null)   {
+            entrySet = new AbstractSet()  {
+                public Iterator iterator() {
+                    return new EntryIterator();
+                }
+                public int size() {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+
+    public String toString()    {
+        return prefix + ":\t" + size + " terms (" + getTermBytes() + " bytes off-heap)";
+    }
+
+    // Private methods
+
+    // Returns number in ID, or EMPTY if ID does not have the prefix and number of digits expected
+    private static int encode(String id, String prefix, int digits)   {
+        int start = prefix.length() + 1;
+        if (digits == 0 || id.length() != start + digits || !id.startsWith(prefix) ||
+                id.charAt(start - 1) != PREFIX_SEP)   {
+            return EMPTY;
+        }
+        int number = 0;
+        for (int i = start; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9')  {
+                return EMPTY;
+            }
+            number = number * 10 + (c - '0');
+        }
+        return number;
+    }
+
+    // Returns number of digits after prefix, or 0 if ID cannot be encoded
+    private static int countDigits(String id, String prefix)   {
+        int start = prefix.length() + 1;
+        int digits = id.length() - start;
+        if (digits < 1 || digits > MAX_DIGITS || !id.startsWith(prefix) || id.charAt(start - 1) != PREFIX_SEP)   {
+            return 0;
+        }
+        for (int i = start; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9')  {
+                return 0;
+            }
+        }
+        return digits;
+    }
+
+    // Returns slot holding number, or the empty slot where it would go
+    private int find(int number)    {
+        return find(keys, number);
+    }
+
+    private static int find(int[] keys, int number)    {
+        int mask = keys.length - 1;
+        int h = number * 0x9E3779B9;
+        int slot = (h ^ (h >>> 16)) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != number)   {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private String decode(int offset)    {
+        int length = blob.getInt(offset);
+        offset += 4;
+        // Most terms are ASCII, which can be copied straight into a string
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            byte b = blob.get(offset + i);
+            if (b < 0)  {
+                byte[] bytes = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    bytes[j] = blob.get(offset + j);
+                }
+                try {
+                    return new String(bytes, ENCODING);
+                }
+                catch (UnsupportedEncodingException e) {
+                    throw new IllegalStateException(ENCODING + " not supported");
+                }
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars);
+    }
+
+    private String formatID(int number)  {
+        StringBuffer buf = new StringBuffer(prefix.length() + 1 + digits);
+        buf.append(prefix).append(PREFIX_SEP);
+        String s = String.valueOf(number);
+        for (int i = s.length(); i < digits; i++) {
+            buf.append('0');
+        }
+        return buf.append(s).toString();
+    }
+
+    // Keeps table at most two thirds full
+    private static int tableSize(int count)  {
+        int n = 16;
+        while (n < count + count / 2)  {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    // Iterates over encoded IDs then the rest
+    private final class EntryIterator implements Iterator {
+
+        private int slot = -1;
+        private Iterator rest = null;
+
+        EntryIterator()  {
+            advance();
+        }
+
+        public boolean hasNext() {
+            return (slot < keys.length || rest.hasNext());
+        }
+
+        public Object next() {
+            if (slot < keys.length)  {
+                Entry entry = new Entry(formatID(keys[slot]), decode(offsets[slot]));
+                advance();
+                return entry;
+            }
+            return rest.next();
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void advance()  {
+            do {
+                slot++;
+            }
+            while (slot < keys.length && keys[slot] == EMPTY);
+            if (slot == keys.length)    {
+                rest = others.entrySet().iterator();
+            }
+        }
+    }
+
+    private static final class Entry implements Map.Entry {
+
+        private final Object key;
+        private final Object value;
+
+        Entry(Object key, Object value) {
+            this.key   = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Map.Entry))  {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            return (key.equals(e.getKey()) && value.equals(e.getValue()));
+        }
+
+        public int hashCode() {
+            return key.hashCode() ^ value.hashCode();
+        }
+
+        public String toString()    {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Builds a {@link TermDictionary} one term at a time.
+     * The numbering of the first ID with the ontology's prefix and a number decides which IDs
+     * are encoded, for example seven digits for <code>GO:0005524</code>.
+     */
+    public static final class Builder {
+
+        private final String prefix;
+        private int digits          = 0;
+        private int count           = 0;
+        private int[] numbers;
+        private int[] offsets;
+        private final ByteArrayOutputStream blob  = new ByteArrayOutputStream();
+        private final Map others    = new HashMap();
+
+        /**
+         * Creates builder
+         *
+         * @param   prefix          ontology prefix, for example GO
+         * @param   expectedSize    expected number of terms
+         */
+        public Builder(String prefix, int expectedSize)   {
+            this.prefix  = prefix;
+            this.numbers = new int[Math.max(16, expectedSize)];
+            this.offsets = new int[numbers.length];
+        }
+
+        /**
+         * Adds term. If an ID is added twice, the last term wins.
+         *
+         * @param   id      ontology ID, for example GO:0005524
+         * @param   term    term
+         */
+        public void put(String id, String term)   {
+            if (digits == 0)    {
+                digits = countDigits(id, prefix);
+            }
+            int number = encode(id, prefix, digits);
+            if (number == EMPTY || term == null)   {
+                others.put(id, term);
+                return;
+            }
+            if (count == numbers.length)    {
+                numbers = grow(numbers);
+                offsets = grow(offsets);
+            }
+            numbers[count] = number;
+            offsets[count] = blob.size();
+            count++;
+            byte[] bytes;
+            try {
+                bytes = term.getBytes(ENCODING);
+            }
+            catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(ENCODING + " not supported");
+            }
+            int length = bytes.length;
+            blob.write(length >>> 24);
+            blob.write(length >>> 16);
+            blob.write(length >>> 8);
+            blob.write(length);
+            blob.write(bytes, 0, length);
+        }
+
+        /**
+         * Returns dictionary containing the terms added so far
+         *
+         * @return  dictionary
+         */
+        public TermDictionary build()   {
+            int[] keys = new int[tableSize(count)];
+            int[] table = new int[keys.length];
+            Arrays.fill(keys, EMPTY);
+            int unique = 0;
+            for (int i = 0; i < count; i++) {
+                int slot = find(keys, numbers[i]);
+                if (keys[slot] == EMPTY)    {
+                    keys[slot] = numbers[i];
+                    unique++;
+                }
+                table[slot] = offsets[i];
+            }
+            byte[] bytes = blob.toByteArray();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes);
+            return new TermDictionary(prefix, digits, keys, table, buffer,
+                                      new HashMap(others), unique + others.size());
+        }
+
+        private static int[] grow(int[] array)  {
+            int[] copy = new int[array.length * 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            return copy;
+        }
+    }
+
+}
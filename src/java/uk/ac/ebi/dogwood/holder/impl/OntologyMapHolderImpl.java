@@ -19,16 +19,48 @@ package uk.ac.ebi.dogwood.holder.impl;
 
 import uk.ac.ebi.hawthorn.OntologyMap;
 import uk.ac.ebi.hawthorn.InputStreamListener;
+import uk.ac.ebi.hawthorn.Ontology;
 import uk.ac.ebi.dogwood.holder.OntologyMapHolder;
+import uk.ac.ebi.dogwood.holder.OntologySnapshot;
+import uk.ac.ebi.dogwood.holder.OntologyDownload;
+import uk.ac.ebi.dogwood.holder.TermClosure;
+import uk.ac.ebi.dogwood.metrics.Gauge;
+import uk.ac.ebi.dogwood.metrics.Metrics;
+import uk.ac.ebi.dogwood.metrics.MetricsRegistry;
 
 import javax.servlet.ServletContext;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.FileInputStream;
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Represents a shared ontology map.
+ * The map is loaded once, however many data sources ask for it at the same time.
+ * Terms are published as an immutable {@link OntologySnapshot} which is replaced
+ * by a background thread when an ontology changes, so readers never wait for a refresh.
+ * Each ontology's is_a and part_of links are read with its terms, from the same download
+ * (see {@link OntologyDownload}). A refresh that downloads the same file as last time does not parse it.
+ * <p>
+ * If <code>snapshotFile</code> is set, the terms are saved to that file whenever they change.
+ * On the next start the saved snapshot is served straight away and the ontologies
+ * are downloaded in the background; the snapshot is replaced only if the terms have changed.
+ * A relative path is taken to be in the servlet container's temporary directory.
+ * <p>
+ * Load and refresh times and counts are kept in the {@link Metrics} group named after the holder ID
+ * (or "Ontology map" if the ID is not set).
+ * <p>
+ * One holder is shared by all the data sources that name it. Each {@link #acquire() acquires} it
+ * when initialised and {@link #release() releases} it when destroyed; background refreshes stop
+ * once the last one has released it.
  *
  * @author  Antony Quinn
  * @version $Id: OntologyMapHolderImpl.java,v 1.1 2005/11/23 17:43:55 aquinn Exp $
@@ -37,8 +69,19 @@ import java.io.FileInputStream;
 public class OntologyMapHolderImpl implements OntologyMapHolder {
 
     private String ontologyMapHolderID  = "";
-    private OntologyMap ontologyMap     = null;
+    private volatile OntologyMap ontologyMap = null;
     private String propertiesFile       = "";
+    private String snapshotFile         = "";
+
+    private final Object loadLock               = new Object();
+    private final AtomicReference snapshot      = new AtomicReference();
+    private ScheduledExecutorService scheduler  = null;     // Guarded by this
+    private volatile boolean destroyed          = false;
+    private int users                           = 0;        // Data sources using this holder (guarded by this)
+    private ServletContext context              = null;
+    private File file                           = null;     // Resolved snapshot file
+    private volatile InputStreamListener inputStreamListener = null;    // Used to read links on refresh
+    private volatile Metrics metrics            = null;
 
     public String getOntologyMapHolderID() {
         return ontologyMapHolderID;
@@ -51,23 +94,106 @@ public class OntologyMapHolderImpl implements OntologyMapHolder {
     public OntologyMap getOntologyMap(ServletContext context,
                                       InputStreamListener inputStreamListener)
            throws ClassNotFoundException, FileNotFoundException, IOException  {
-        if (ontologyMap == null)    {
-            String file = getPropertiesFile();
-            if (file.length() == 0) {
-                ontologyMap = new OntologyMap(inputStreamListener);
-            }
-            else    {
-                InputStream inputStream = context.getResourceAsStream(file);
-                if (inputStream == null)    {
-                    inputStream = new FileInputStream(file);
+        OntologyMap map = ontologyMap;
+        if (map == null)    {
+            synchronized (loadLock) {
+                map = ontologyMap;
+                if (map == null)    {
+                    setContext(context);
+                    this.inputStreamListener = inputStreamListener;
+                    long start = System.nanoTime();
+                    map = loadOntologyMap(context, inputStreamListener);
+                    OntologySnapshot fresh = OntologySnapshot.create(map, inputStreamListener);
+                    getMetrics().record("loadOntologies", start);
+                    OntologySnapshot current = getOntologySnapshot();
+                    // Keep snapshot read from file if nothing has changed, so labels are not resolved again
+                    if (current == null || !current.hasSameTerms(fresh))   {
+                        snapshot.set(fresh);
+                        save(fresh);
+                    }
+                    // Publish map last so other threads see the snapshot as soon as they see the map
+                    ontologyMap = map;
+                    scheduleRefresh(map);
                 }
-                if (inputStream == null)    {
-                    throw new FileNotFoundException("Could not find properties file: " + file);
+            }
+        }
+        return map;
+    }
+
+    public OntologySnapshot getOntologySnapshot(ServletContext context,
+                                                InputStreamListener inputStreamListener)
+           throws ClassNotFoundException, FileNotFoundException, IOException  {
+        OntologySnapshot current = getOntologySnapshot();
+        if (current == null)    {
+            synchronized (loadLock) {
+                current = getOntologySnapshot();
+                if (current == null)    {
+                    setContext(context);
+                    current = readSnapshot();
+                    if (current != null)    {
+                        snapshot.set(current);
+                        getScheduler().execute(new LoadTask(context, inputStreamListener));
+                    }
                 }
-                ontologyMap = new OntologyMap(inputStream, inputStreamListener);
             }
         }
-        return ontologyMap;
+        if (current == null)    {
+            getOntologyMap(context, inputStreamListener);
+            current = getOntologySnapshot();
+        }
+        return current;
+    }
+
+    public OntologySnapshot getOntologySnapshot() {
+        return (OntologySnapshot) snapshot.get();
+    }
+
+    /**
+     * Records that a data source is using this holder. If the holder was destroyed when the last
+     * data source released it, background refreshes start again.
+     *
+     * @since   1.0.5
+     */
+    public synchronized void acquire()  {
+        users++;
+        if (destroyed)  {
+            destroyed = false;
+            scheduler = null;
+            metrics   = null;
+            getMetrics();
+            OntologyMap map = ontologyMap;
+            if (map != null)    {
+                scheduleRefresh(map);
+            }
+        }
+    }
+
+    /**
+     * Records that a data source has finished with this holder, and destroys it if no other
+     * data source is using it.
+     *
+     * @since   1.0.5
+     */
+    public synchronized void release()  {
+        if (users > 0 && --users == 0)  {
+            destroy();
+        }
+    }
+
+    /**
+     * Stops refresh, load and save tasks and unregisters metrics. Terms already loaded can still be read.
+     *
+     * @since   1.0.5
+     */
+    public synchronized void destroy()  {
+        destroyed = true;
+        if (scheduler != null)  {
+            scheduler.shutdownNow();
+        }
+        Metrics m = metrics;
+        if (m != null)  {
+            MetricsRegistry.getInstance().removeMetrics(m.getName());
+        }
     }
 
     public String getPropertiesFile() {
@@ -78,10 +204,265 @@ public class OntologyMapHolderImpl implements OntologyMapHolder {
         this.propertiesFile = path;
     }
 
+    /**
+     * Returns path of file that ontology terms are saved to
+     *
+     * @return  path of snapshot file (empty if terms are not saved)
+     * @since   1.0.5
+     */
+    public String getSnapshotFile() {
+        return snapshotFile;
+    }
+
+    /**
+     * Sets path of file that ontology terms are saved to
+     *
+     * @param path  path of snapshot file, relative to the servlet container's temporary
+     *              directory unless absolute (empty if terms should not be saved)
+     * @since   1.0.5
+     */
+    public void setSnapshotFile(String path) {
+        this.snapshotFile = path;
+    }
+
+    /**
+     * Returns load and refresh times and counts
+     *
+     * @return  metrics
+     * @since   1.0.5
+     */
+    public Metrics getMetrics()  {
+        Metrics m = metrics;
+        if (m == null)  {
+            String id = getOntologyMapHolderID();
+            m = MetricsRegistry.getInstance().getMetrics(id.length() > 0 ? id : "Ontology map");
+            m.setGauge("terms", new Gauge() {
+                public long getValue() {
+                    OntologySnapshot s = getOntologySnapshot();
+                    return (s == null ? 0 : s.countTerms());
+                }
+            });
+            m.setGauge("links", new Gauge() {
+                public long getValue() {
+                    OntologySnapshot s = getOntologySnapshot();
+                    return (s == null ? 0 : s.countLinks());
+                }
+            });
+            m.setGauge("snapshotGeneration", new Gauge() {
+                public long getValue() {
+                    OntologySnapshot s = getOntologySnapshot();
+                    return (s == null ? 0 : s.getGeneration());
+                }
+            });
+            m.setGauge("snapshotAgeSeconds", new Gauge() {
+                public long getValue() {
+                    OntologySnapshot s = getOntologySnapshot();
+                    return (s == null ? 0 : (System.currentTimeMillis() - s.getTimestamp()) / 1000);
+                }
+            });
+            metrics = m;
+        }
+        return m;
+    }
+
     public String toString()    {
         StringBuffer buf = new StringBuffer();
         buf.append("Holder ID:\t" + getOntologyMapHolderID());
+        if (file != null)   {
+            buf.append("\nSnapshot file:\t" + file);
+        }
         return (buf.toString());
     }
 
-}
\ No newline at end of file
+    // Private methods
+
+    private OntologyMap loadOntologyMap(ServletContext context,
+                                        InputStreamListener inputStreamListener)
+           throws ClassNotFoundException, FileNotFoundException, IOException  {
+        String file = getPropertiesFile();
+        if (file.length() == 0) {
+            return new OntologyMap(inputStreamListener);
+        }
+        else    {
+            InputStream inputStream = context.getResourceAsStream(file);
+            if (inputStream == null)    {
+                inputStream = new FileInputStream(file);
+            }
+            if (inputStream == null)    {
+                throw new FileNotFoundException("Could not find properties file: " + file);
+            }
+            return new OntologyMap(inputStream, inputStreamListener);
+        }
+    }
+
+    // Called with loadLock held
+    private void setContext(ServletContext context)   {
+        this.context = context;
+        if (snapshotFile.length() > 0)  {
+            file = new File(snapshotFile);
+            Object tempDir = context.getAttribute("javax.servlet.context.tempdir");
+            if (!file.isAbsolute() && tempDir instanceof File)    {
+                file = new File((File) tempDir, snapshotFile);
+            }
+        }
+    }
+
+    // Returns snapshot saved in file, or null if there is no file or it cannot be read
+    private OntologySnapshot readSnapshot()  {
+        if (file == null || !file.isFile())  {
+            return null;
+        }
+        try {
+            long start = System.nanoTime();
+            OntologySnapshot s = OntologySnapshot.read(file);
+            getMetrics().record("readSnapshot", start);
+            context.log("Read ontology snapshot from " + file);
+            return s;
+        }
+        catch (IOException e) {
+            log("Could not read ontology snapshot from " + file, e);
+            return null;
+        }
+    }
+
+    // Saves snapshot in the background (tasks run one at a time, so the latest snapshot is saved last)
+    private void save(OntologySnapshot s)  {
+        if (file != null && !destroyed)   {
+            getScheduler().execute(new SaveTask(s));
+        }
+    }
+
+    // Once destroyed, returns an executor that rejects tasks
+    private synchronized ScheduledExecutorService getScheduler()  {
+        if (scheduler == null)  {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory());
+            if (destroyed)  {
+                scheduler.shutdown();
+            }
+        }
+        return scheduler;
+    }
+
+    // Refreshes each ontology in the background at its own refresh interval
+    private void scheduleRefresh(OntologyMap map)  {
+        final long MIN_INTERVAL = 1;    // Seconds
+        ScheduledExecutorService scheduler = getScheduler();
+        for (Iterator i = map.getMap().values().iterator(); i.hasNext(); ) {
+            Ontology ontology = (Ontology) i.next();
+            long interval = Math.max(MIN_INTERVAL, ontology.getRefreshInterval());
+            scheduler.scheduleWithFixedDelay(new RefreshTask(ontology), interval, interval, TimeUnit.SECONDS);
+        }
+    }
+
+    private void log(String msg, Throwable t)   {
+        if (context != null)    {
+            context.log(msg, t);
+        }
+    }
+
+    // Re-reads an ontology and publishes a new snapshot if its terms or links have changed
+    private class RefreshTask implements Runnable    {
+
+        private final Ontology ontology;
+        private byte[] digest = null;       // Of last download read (tasks run one at a time)
+
+        RefreshTask(Ontology ontology)  {
+            this.ontology = ontology;
+        }
+
+        public void run()   {
+            String prefix = ontology.getPrefix();
+            long start = System.nanoTime();
+            try {
+                OntologyDownload download = OntologyDownload.read(ontology, inputStreamListener, digest);
+                if (download == null)   {
+                    // Same file as last time
+                    getMetrics().getCounter("ontologyUnchanged").increment();
+                    return;
+                }
+                digest = download.getDigest();
+                Map terms = download.getTerms();
+                TermClosure closure = download.getClosure();
+                while (true)    {
+                    OntologySnapshot current = (OntologySnapshot) snapshot.get();
+                    if (current.getTerms(prefix).equals(terms) && current.getClosure(prefix).equals(closure))  {
+                        return;
+                    }
+                    OntologySnapshot next = current.withTerms(prefix, terms, closure);
+                    if (snapshot.compareAndSet(current, next))  {
+                        getMetrics().getCounter("ontologyUpdates").increment();
+                        save(next);
+                        return;
+                    }
+                }
+            }
+            catch (Exception e)   {
+                // Keep serving the previous terms
+                getMetrics().getCounter("refreshFailures").increment();
+                log("Could not refresh ontology '" + prefix + "'", e);
+            }
+            finally {
+                getMetrics().record("refreshOntology", start);
+            }
+        }
+    }
+
+    // Downloads ontologies after a snapshot has been read from file, retrying until it succeeds
+    private class LoadTask implements Runnable    {
+
+        private static final long RETRY_INTERVAL = 60;     // Seconds
+
+        private final ServletContext context;
+        private final InputStreamListener inputStreamListener;
+
+        LoadTask(ServletContext context, InputStreamListener inputStreamListener)  {
+            this.context             = context;
+            this.inputStreamListener = inputStreamListener;
+        }
+
+        public void run()   {
+            try {
+                getOntologyMap(context, inputStreamListener);
+            }
+            catch (Exception e)   {
+                // Keep serving the saved snapshot
+                getMetrics().getCounter("loadFailures").increment();
+                if (!destroyed) {
+                    log("Could not load ontologies (will retry in " + RETRY_INTERVAL + "s)", e);
+                    getScheduler().schedule(this, RETRY_INTERVAL, TimeUnit.SECONDS);
+                }
+            }
+        }
+    }
+
+    // Writes snapshot to file
+    private class SaveTask implements Runnable    {
+
+        private final OntologySnapshot snapshot;
+
+        SaveTask(OntologySnapshot snapshot)  {
+            this.snapshot = snapshot;
+        }
+
+        public void run()   {
+            try {
+                long start = System.nanoTime();
+                snapshot.write(file);
+                getMetrics().record("writeSnapshot", start);
+            }
+            catch (IOException e)   {
+                getMetrics().getCounter("writeFailures").increment();
+                log("Could not write ontology snapshot to " + file, e);
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory  {
+        public Thread newThread(Runnable r)   {
+            Thread thread = new Thread(r, "Dogwood ontology refresh");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+}
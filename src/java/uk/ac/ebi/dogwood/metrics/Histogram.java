@@ -0,0 +1,161 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread-safe histogram of latencies in nanoseconds. Buckets are log-linear (as in HdrHistogram)
+ * so percentiles are accurate to about 3% from nanoseconds to hours in a fixed 15 KB:
+ * values below 64 have a bucket each and each power of two above that is split into 32 buckets.
+ * Recording a value costs one atomic add on its bucket plus two {@link StripedCounter} adds.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class Histogram {
+
+    private static final int LINEAR_BUCKETS  = 64;
+    private static final int SUB_BITS        = 5;
+    private static final int SUB_BUCKETS     = 1 << SUB_BITS;
+    private static final int BUCKETS         = LINEAR_BUCKETS + (64 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final StripedCounter count   = new StripedCounter();
+    private final StripedCounter total   = new StripedCounter();
+    private final AtomicLong max         = new AtomicLong();
+
+    /**
+     * Records value
+     *
+     * @param   nanos   latency in nanoseconds
+     */
+    public void record(long nanos)  {
+        if (nanos < 0)   {
+            nanos = 0;
+        }
+        counts.incrementAndGet(getIndex(nanos));
+        count.increment();
+        total.add(nanos);
+        long m;
+        while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos))   {
+            // Another thread raised the maximum: try again
+        }
+    }
+
+    /**
+     * Records time since <code>start</code>
+     *
+     * @param   start   value of <code>System.nanoTime()</code> when timing started
+     *                  (0 means timing was off, so nothing is recorded)
+     * @see     MetricsRegistry#start()
+     */
+    public void stop(long start)  {
+        if (start != 0)  {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    public long getCount()  {
+        return count.get();
+    }
+
+    public long getMax()  {
+        return max.get();
+    }
+
+    public double getMean()  {
+        long n = count.get();
+        return (n == 0 ? 0 : (double) total.get() / n);
+    }
+
+    /**
+     * Returns value at percentile. Values recorded while this method runs may or may not be included.
+     *
+     * @param   percentile  0 to 100, for example 99.9
+     * @return  latency in nanoseconds, or 0 if no values recorded
+     */
+    public long getPercentile(double percentile)  {
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)   {
+                return Math.min(getMax(), getValue(i));
+            }
+        }
+        return getMax();
+    }
+
+    public void reset()  {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+
+    /**
+     * Returns count, mean and percentiles in milliseconds
+     *
+     * @return  for example <code>count=10 mean=0.012 p50=0.010 p99=0.051 p999=0.051 max=0.052</code>
+     */
+    public String toString()    {
+        return "count=" + getCount() + " mean=" + toMillis(getMean()) +
+               " p50=" + toMillis(getPercentile(50)) + " p99=" + toMillis(getPercentile(99)) +
+               " p999=" + toMillis(getPercentile(99.9)) + " max=" + toMillis(getMax());
+    }
+
+    // Private methods
+
+    private static int getIndex(long value)  {
+        if (value < LINEAR_BUCKETS)    {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;     // >= 1
+        int sub   = (int) (value >>> shift) - SUB_BUCKETS;                  // 0 to SUB_BUCKETS - 1
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + sub;
+    }
+
+    // Returns middle of bucket
+    private static long getValue(int index)  {
+        if (index < LINEAR_BUCKETS)    {
+            return index;
+        }
+        int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        long sub  = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return (sub << shift) + (1L << (shift - 1));
+    }
+
+    private static String toMillis(double nanos)  {
+        return String.format("%.3f", new Object[] {Double.valueOf(nanos / 1e6)});
+    }
+
+}
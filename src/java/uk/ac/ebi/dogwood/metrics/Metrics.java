@@ -0,0 +1,282 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+import javax.management.*;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Named group of counters, histograms and gauges belonging to one component, for example a data source.
+ * Obtain groups from {@link MetricsRegistry#getMetrics(String)}; each group is also registered as an MBean.
+ * <p>
+ * Typical use:
+ * <pre>
+ * long start = metrics.start();
+ * try {
+ *     ...
+ * }
+ * finally {
+ *     metrics.stop("getFeatures", start);
+ * }
+ * </pre>
+ * When metrics are disabled <code>start</code> returns 0 and <code>stop</code> and {@link #increment}
+ * do nothing, so instrumented code costs one volatile read.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class Metrics implements DynamicMBean {
+
+    private static final String RESET = "reset";
+
+    private final MetricsRegistry registry;
+    private final String name;
+    private final ConcurrentMap counters    = new ConcurrentHashMap();  // Name -> StripedCounter
+    private final ConcurrentMap histograms  = new ConcurrentHashMap();  // Name -> Histogram
+    private final ConcurrentMap gauges      = new ConcurrentHashMap();  // Name -> Gauge
+
+    Metrics(MetricsRegistry registry, String name)  {
+        this.registry = registry;
+        this.name     = name;
+    }
+
+    public String getName()  {
+        return name;
+    }
+
+    /**
+     * Returns counter, creating it if necessary
+     *
+     * @param   name    counter name
+     * @return  counter
+     */
+    public StripedCounter getCounter(String name)  {
+        StripedCounter counter = (StripedCounter) counters.get(name);
+        if (counter == null)    {
+            counters.putIfAbsent(name, new StripedCounter());
+            counter = (StripedCounter) counters.get(name);
+        }
+        return counter;
+    }
+
+    /**
+     * Returns histogram, creating it if necessary
+     *
+     * @param   name    histogram name
+     * @return  histogram
+     */
+    public Histogram getHistogram(String name)  {
+        Histogram histogram = (Histogram) histograms.get(name);
+        if (histogram == null)    {
+            histograms.putIfAbsent(name, new Histogram());
+            histogram = (Histogram) histograms.get(name);
+        }
+        return histogram;
+    }
+
+    /**
+     * Sets gauge, replacing any previous gauge with the same name
+     *
+     * @param   name    gauge name
+     * @param   gauge   gauge
+     */
+    public void setGauge(String name, Gauge gauge)  {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Adds one to counter if metrics are enabled
+     *
+     * @param   name    counter name
+     */
+    public void increment(String name)  {
+        if (registry.isEnabled())   {
+            getCounter(name).increment();
+        }
+    }
+
+    /**
+     * Starts timing
+     *
+     * @return  start time to pass to {@link #stop}, or 0 if metrics are disabled
+     * @see     MetricsRegistry#start()
+     */
+    public long start()  {
+        return registry.start();
+    }
+
+    /**
+     * Records time since <code>start</code> in histogram (does nothing if <code>start</code> is 0)
+     *
+     * @param   name    histogram name
+     * @param   start   value returned by {@link #start}
+     */
+    public void stop(String name, long start)  {
+        if (start != 0) {
+            getHistogram(name).record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records time since <code>start</code> in histogram whether or not metrics are enabled.
+     * Used for rare operations such as loading a file.
+     *
+     * @param   name    histogram name
+     * @param   start   value of <code>System.nanoTime()</code> when operation started
+     */
+    public void record(String name, long start)  {
+        getHistogram(name).record(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns current values, sorted by name. Histograms give several values,
+     * for example <code>getFeatures.count</code> and <code>getFeatures.p99_ms</code>.
+     *
+     * @return  name -> value (<code>Long</code> or <code>Double</code>)
+     */
+    public Map getValues()  {
+        Map values = new TreeMap();
+        for (Iterator i = counters.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            values.put(entry.getKey(), Long.valueOf(((StripedCounter) entry.getValue()).get()));
+        }
+        for (Iterator i = gauges.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            values.put(entry.getKey(), Long.valueOf(((Gauge) entry.getValue()).getValue()));
+        }
+        for (Iterator i = histograms.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            String key = (String) entry.getKey();
+            Histogram h = (Histogram) entry.getValue();
+            values.put(key + ".count",    Long.valueOf(h.getCount()));
+            values.put(key + ".mean_ms",  toMillis(h.getMean()));
+            values.put(key + ".p50_ms",   toMillis(h.getPercentile(50)));
+            values.put(key + ".p99_ms",   toMillis(h.getPercentile(99)));
+            values.put(key + ".p999_ms",  toMillis(h.getPercentile(99.9)));
+            values.put(key + ".max_ms",   toMillis(h.getMax()));
+        }
+        return values;
+    }
+
+    /**
+     * Sets all counters and histograms to zero (gauges are not affected)
+     */
+    public void reset()  {
+        for (Iterator i = counters.values().iterator(); i.hasNext(); ) {
+            ((StripedCounter) i.next()).reset();
+        }
+        for (Iterator i = histograms.values().iterator(); i.hasNext(); ) {
+            ((Histogram) i.next()).reset();
+        }
+    }
+
+    /**
+     * Returns name then one line per counter, gauge and histogram, sorted by name
+     *
+     * @return  plain-text report
+     */
+    public String toString()    {
+        Map lines = new TreeMap();
+        for (Iterator i = counters.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            lines.put(entry.getKey(), entry.getValue().toString());
+        }
+        for (Iterator i = gauges.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            lines.put(entry.getKey(), String.valueOf(((Gauge) entry.getValue()).getValue()));
+        }
+        for (Iterator i = histograms.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            lines.put(entry.getKey(), entry.getValue().toString());
+        }
+        StringBuffer buf = new StringBuffer("[" + name + "]\n");
+        for (Iterator i = lines.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            buf.append(entry.getKey() + "\t" + entry.getValue() + "\n");
+        }
+        return buf.toString();
+    }
+
+    /* DynamicMBean implementation */
+
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Object value = getValues().get(attribute);
+        if (value == null)  {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    public AttributeList getAttributes(String[] attributes) {
+        Map values = getValues();
+        AttributeList list = new AttributeList();
+        for (int i = 0; i < attributes.length; i++) {
+            Object value = values.get(attributes[i]);
+            if (value != null)  {
+                list.add(new Attribute(attributes[i], value));
+            }
+        }
+        return list;
+    }
+
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (RESET.equals(actionName))   {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    // Attributes are the metrics that exist when this is called
+    public MBeanInfo getMBeanInfo() {
+        Map values = getValues();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int n = 0;
+        for (Iterator i = values.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            attributes[n++] = new MBeanAttributeInfo((String) entry.getKey(), entry.getValue().getClass().getName(),
+                                                     (String) entry.getKey(), true, false, false);
+        }
+        MBeanOperationInfo[] operations = new MBeanOperationInfo[] {
+            new MBeanOperationInfo(RESET, "Sets counters and histograms to zero", new MBeanParameterInfo[0],
+                                   "void", MBeanOperationInfo.ACTION)
+        };
+        return new MBeanInfo(getClass().getName(), "Dogwood metrics: " + name, attributes,
+                             new MBeanConstructorInfo[0], operations, new MBeanNotificationInfo[0]);
+    }
+
+    // Private methods
+
+    private static Double toMillis(double nanos)  {
+        return Double.valueOf(Math.round(nanos / 1e3) / 1e3);
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link Metrics} groups of every data source and ontology map holder in the JVM.
+ * The registry is registered with the platform MBean server as
+ * <code>uk.ac.ebi.dogwood:type=MetricsRegistry</code> and each group as
+ * <code>uk.ac.ebi.dogwood:type=Metrics,name=&lt;group name&gt;</code>.
+ * Groups are unregistered by {@link #removeMetrics(String)} when their owner is destroyed, and the
+ * registry itself when it has no groups left, so an undeployed web application leaves no MBeans behind.
+ * <p>
+ * Per-request metrics (accessor latencies, cache hits) are only recorded when enabled, either
+ * through JMX, by deploying {@link MetricsServlet} or by setting the system property
+ * <code>dogwood.metrics=true</code>. Timings of rare operations such as loading a GFF file
+ * and gauges such as the number of features are always available.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class MetricsRegistry implements MetricsRegistryMBean {
+
+    public static final String DOMAIN = "uk.ac.ebi.dogwood";
+
+    private static final String NAME = DOMAIN + ":type=MetricsRegistry";
+    private static final Log LOG = LogFactory.getLog(MetricsRegistry.class);
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    private volatile boolean enabled    = Boolean.getBoolean("dogwood.metrics");
+    private final ConcurrentMap groups  = new ConcurrentHashMap();     // Name -> Metrics
+    private boolean registered          = false;    // Registry MBean registered (guarded by this)
+
+    private MetricsRegistry()  {
+    }
+
+    public static MetricsRegistry getInstance()  {
+        return INSTANCE;
+    }
+
+    public boolean isEnabled()  {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled)  {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Starts timing
+     *
+     * @return  <code>System.nanoTime()</code>, or 0 if metrics are disabled
+     */
+    public long start()  {
+        if (!enabled)   {
+            return 0;
+        }
+        long now = System.nanoTime();
+        return (now == 0 ? 1 : now);
+    }
+
+    /**
+     * Returns metrics group, creating and registering it if necessary
+     *
+     * @param   name    group name, for example the name of a data source
+     * @return  metrics group
+     */
+    public Metrics getMetrics(String name)  {
+        Metrics metrics = (Metrics) groups.get(name);
+        if (metrics == null)    {
+            if (groups.putIfAbsent(name, new Metrics(this, name)) == null)  {
+                metrics = (Metrics) groups.get(name);
+                register(metrics, getObjectName(name));
+                synchronized (this) {
+                    if (!registered)    {
+                        register(this, NAME);
+                        registered = true;
+                    }
+                }
+            }
+            metrics = (Metrics) groups.get(name);
+        }
+        return metrics;
+    }
+
+    /**
+     * Removes metrics group and unregisters its MBean. The registry's own MBean is
+     * unregistered when the last group is removed.
+     *
+     * @param   name    group name
+     */
+    public void removeMetrics(String name)  {
+        if (groups.remove(name) == null)    {
+            return;
+        }
+        unregister(getObjectName(name));
+        synchronized (this) {
+            if (registered && groups.isEmpty()) {
+                unregister(NAME);
+                registered = false;
+            }
+        }
+    }
+
+    public String[] getNames()  {
+        String[] names = (String[]) groups.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        return names;
+    }
+
+    public String report()  {
+        StringBuffer buf = new StringBuffer();
+        buf.append("Enabled:\t" + enabled + "\n");
+        String[] names = getNames();
+        for (int i = 0; i < names.length; i++) {
+            buf.append("\n");
+            buf.append(groups.get(names[i]));
+        }
+        return buf.toString();
+    }
+
+    public void reset()  {
+        String[] names = getNames();
+        for (int i = 0; i < names.length; i++) {
+            ((Metrics) groups.get(names[i])).reset();
+        }
+    }
+
+    public String toString()    {
+        return report();
+    }
+
+    // Private methods
+
+    // Registers MBean, replacing any left over from a previous deployment of the web application
+    private static void register(Object mbean, String name)  {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName))    {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(mbean, objectName);
+        }
+        catch (Exception e) {
+            // Metrics are still available from MetricsServlet
+            LOG.warn("Could not register MBean " + name, e);
+        }
+        catch (Error e) {
+            // JMX not available (eg. restricted by security manager)
+            LOG.warn("Could not register MBean " + name, e);
+        }
+    }
+
+    private static void unregister(String name)  {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName))    {
+                server.unregisterMBean(objectName);
+            }
+        }
+        catch (Exception e) {
+            LOG.warn("Could not unregister MBean " + name, e);
+        }
+        catch (Error e) {
+            LOG.warn("Could not unregister MBean " + name, e);
+        }
+    }
+
+    private static String getObjectName(String group)  {
+        return DOMAIN + ":type=Metrics,name=" + ObjectName.quote(group);
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+/**
+ * Management interface for {@link MetricsRegistry}.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public interface MetricsRegistryMBean {
+
+    /**
+     * Returns <code>true</code> if per-request metrics are being recorded
+     *
+     * @return  <code>true</code> if per-request metrics are being recorded
+     */
+    public boolean isEnabled();
+
+    /**
+     * Turns recording of per-request metrics on or off
+     *
+     * @param   enabled <code>true</code> to record per-request metrics
+     */
+    public void setEnabled(boolean enabled);
+
+    /**
+     * Returns names of metrics groups
+     *
+     * @return  names of metrics groups
+     */
+    public String[] getNames();
+
+    /**
+     * Returns all metrics as plain text
+     *
+     * @return  all metrics as plain text
+     */
+    public String report();
+
+    /**
+     * Sets all counters and histograms to zero
+     */
+    public void reset();
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Returns all metrics as plain text (see {@link MetricsRegistry#report()}).
+ * Deploying the servlet turns per-request metrics on unless the init parameter
+ * <code>enabled</code> is <code>false</code>. Add <code>?reset=true</code> to the URL to set
+ * counters and histograms to zero after reporting them.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class MetricsServlet extends HttpServlet {
+
+    public void init() throws ServletException {
+        String enabled = getInitParameter("enabled");
+        if (enabled == null || Boolean.valueOf(enabled).booleanValue())  {
+            MetricsRegistry.getInstance().setEnabled(true);
+        }
+    }
+
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        String report = registry.report();
+        if (Boolean.valueOf(request.getParameter("reset")).booleanValue())  {
+            registry.reset();
+        }
+        response.setContentType("text/plain");
+        response.setHeader("Cache-Control", "no-cache");
+        PrintWriter writer = response.getWriter();
+        writer.print(report);
+        writer.flush();
+    }
+
+}
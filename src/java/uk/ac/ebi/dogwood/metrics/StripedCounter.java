@@ -0,0 +1,88 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter that many threads can update at once without contending for the same memory.
+ * Each thread adds to one of several cells (chosen by thread ID), and the cells are summed
+ * when the counter is read, so reads are slower than updates.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class StripedCounter {
+
+    // Cells are this many longs apart (64 bytes) so that they are on different cache lines
+    private static final int PAD = 8;
+
+    private static final int STRIPES = getStripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void increment()  {
+        add(1);
+    }
+
+    public void add(long n)  {
+        cells.addAndGet(getCell(), n);
+    }
+
+    /**
+     * Returns sum of all cells. Not atomic: updates made while summing may or may not be counted.
+     *
+     * @return  count
+     */
+    public long get()  {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    public void reset()  {
+        for (int i = 0; i < cells.length(); i += PAD) {
+            cells.set(i, 0);
+        }
+    }
+
+    public String toString()    {
+        return String.valueOf(get());
+    }
+
+    // Private methods
+
+    private static int getCell()  {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;     // Spread consecutive IDs
+        return ((hash >>> 16) & (STRIPES - 1)) * PAD;
+    }
+
+    // Power of two at least twice the number of processors
+    private static int getStripes()  {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() * 2)   {
+            n <<= 1;
+        }
+        return n;
+    }
+
+}
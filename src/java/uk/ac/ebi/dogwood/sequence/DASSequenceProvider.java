@@ -0,0 +1,58 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.sequence;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.db.SequenceDBLite;
+import org.biojava.bio.program.das.DASSequenceDB;
+import org.biojava.bio.BioException;
+
+import java.net.URL;
+import java.net.MalformedURLException;
+
+/**
+ * Fetches sequences from a DAS reference server (map master).
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class DASSequenceProvider implements SequenceProvider {
+
+    private SequenceDBLite referenceServer = null;
+
+    public void init(String mapMaster) throws BioException {
+        try {
+            referenceServer = new DASSequenceDB(new URL(mapMaster)).allEntryPointsDB();
+        }
+        catch (MalformedURLException e) {
+            throw new BioException("Malformed map master URL: " + mapMaster, e);
+        }
+    }
+
+    public Sequence getSequence(String id) throws BioException {
+        Sequence sequence = referenceServer.getSequence(id);
+        sequence.length();  // ensure fetching...
+        return sequence;
+    }
+
+    public String toString()    {
+        return "Reference server:\t" + referenceServer + "\n";
+    }
+
+}
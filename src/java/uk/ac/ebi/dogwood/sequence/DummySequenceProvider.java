@@ -0,0 +1,66 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.sequence;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.seq.ProteinTools;
+import org.biojava.bio.seq.impl.SimpleSequence;
+import org.biojava.bio.symbol.DummySymbolList;
+import org.biojava.bio.Annotation;
+
+/**
+ * Local stand-in for a DAS reference server, for testing without network access.
+ * Every ID is treated as a protein sequence of {@link #DEFAULT_LENGTH} residues.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class DummySequenceProvider implements SequenceProvider {
+
+    /** Length of every sequence */
+    public static final int DEFAULT_LENGTH = 1000;
+
+    private int length = DEFAULT_LENGTH;
+
+    public DummySequenceProvider() {
+    }
+
+    /**
+     * Creates provider that returns sequences of the given length
+     *
+     * @param   length  length of every sequence
+     */
+    public DummySequenceProvider(int length) {
+        this.length = length;
+    }
+
+    public void init(String mapMaster) {
+        // Nothing to do
+    }
+
+    public Sequence getSequence(String id) {
+        return new SimpleSequence(new DummySymbolList(ProteinTools.getAlphabet(), length),
+                                  id, id, Annotation.EMPTY_ANNOTATION);
+    }
+
+    public String toString()    {
+        return "Dummy sequence length:\t" + length + "\n";
+    }
+
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.sequence;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.BioException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size- and time-bounded cache of sequences fetched from a {@link SequenceProvider}.
+ * Concurrent requests for a sequence that is not cached share a single fetch.
+ * Failed fetches are not cached.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public final class SequenceCache {
+
+    private final SequenceProvider provider;
+    private final long timeToLive;      // Milliseconds (0 = never expire)
+    private final Map entries;          // ID -> Entry in access order (guarded by itself)
+    private final ConcurrentMap fetches = new ConcurrentHashMap();  // ID -> FutureTask
+
+    private final AtomicLong hits       = new AtomicLong();
+    private final AtomicLong misses     = new AtomicLong();
+    private final AtomicLong fetchCount = new AtomicLong();
+    private final AtomicLong failures   = new AtomicLong();
+    private final AtomicLong evictions  = new AtomicLong();
+
+    /**
+     * Creates cache.
+     *
+     * @param   provider        source of sequences
+     * @param   maxSize         maximum number of sequences to keep (least recently used are removed first)
+     * @param   timeToLive      number of seconds to keep a sequence (0 = until removed to make room)
+     */
+    public SequenceCache(SequenceProvider provider, final int maxSize, int timeToLive)  {
+        if (maxSize < 1)    {
+            throw new IllegalArgumentException("Maximum size must be at least 1: " + maxSize);
+        }
+        this.provider   = provider;
+        this.timeToLive = timeToLive * 1000L;
+        this.entries    = new LinkedHashMap(16, 0.75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                if (size() > maxSize)   {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns sequence, fetching it if not cached or expired
+     *
+     * @param   id  sequence ID
+     * @return  sequence
+     * @throws  BioException    if sequence could not be fetched
+     */
+    public Sequence getSequence(String id) throws BioException {
+        Entry entry;
+        synchronized (entries)  {
+            entry = (Entry) entries.get(id);
+        }
+        if (entry != null && !entry.isExpired(System.currentTimeMillis()))  {
+            hits.incrementAndGet();
+            return entry.sequence;
+        }
+        misses.incrementAndGet();
+        FutureTask task = new FutureTask(new Fetch(id));
+        FutureTask fetch = (FutureTask) fetches.putIfAbsent(id, task);
+        if (fetch == null)  {
+            // We own the fetch: others asking for the same ID wait for it
+            fetch = task;
+            try {
+                task.run();
+            }
+            finally {
+                fetches.remove(id, task);
+            }
+        }
+        try {
+            return (Sequence) fetch.get();
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof BioException)  {
+                throw (BioException) cause;
+            }
+            if (cause instanceof RuntimeException)  {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error)  {
+                throw (Error) cause;
+            }
+            throw new BioException("Could not fetch sequence " + id, cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BioException("Interrupted while waiting for sequence " + id, e);
+        }
+    }
+
+    /**
+     * Removes all sequences (statistics are kept)
+     */
+    public void clear()  {
+        synchronized (entries)  {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Returns number of sequences in cache (including any that have expired)
+     *
+     * @return  number of sequences in cache
+     */
+    public int size()  {
+        synchronized (entries)  {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Returns number of requests answered from the cache
+     *
+     * @return  number of requests answered from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns number of requests not answered from the cache, including those
+     * that waited for another request's fetch
+     *
+     * @return  number of requests not answered from the cache
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns number of times the provider was asked for a sequence
+     *
+     * @return  number of times the provider was asked for a sequence
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+
+    /**
+     * Returns number of fetches that failed
+     *
+     * @return  number of fetches that failed
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Returns number of sequences removed to make room for others
+     *
+     * @return  number of sequences removed to make room for others
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public String toString()    {
+        StringBuffer buf = new StringBuffer("SequenceCache:\n");
+        buf.append("Provider:\t" + provider.getClass().getName() + "\n");
+        buf.append("Time to live:\t" + (timeToLive / 1000) + "s\n");
+        buf.append("Sequences:\t" + size() + "\n");
+        buf.append("Hits:\t" + hits + "\n");
+        buf.append("Misses:\t" + misses + "\n");
+        buf.append("Fetches:\t" + fetchCount + "\n");
+        buf.append("Failures:\t" + failures + "\n");
+        buf.append("Evictions:\t" + evictions + "\n");
+        return buf.toString();
+    }
+
+    // Private methods
+
+    private final class Fetch implements Callable {
+
+        private final String id;
+
+        Fetch(String id) {
+            this.id = id;
+        }
+
+        public Object call() throws BioException {
+            fetchCount.incrementAndGet();
+            Sequence sequence;
+            try {
+                sequence = provider.getSequence(id);
+            }
+            catch (BioException e)  {
+                failures.incrementAndGet();
+                throw e;
+            }
+            catch (RuntimeException e)  {
+                failures.incrementAndGet();
+                throw e;
+            }
+            long expires = (timeToLive > 0 ? System.currentTimeMillis() + timeToLive : Long.MAX_VALUE);
+            synchronized (entries)  {
+                entries.put(id, new Entry(sequence, expires));
+            }
+            return sequence;
+        }
+
+    }
+
+    private static final class Entry {
+
+        final Sequence sequence;
+        final long expires;
+
+        Entry(Sequence sequence, long expires) {
+            this.sequence = sequence;
+            this.expires  = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+
+    }
+
+}
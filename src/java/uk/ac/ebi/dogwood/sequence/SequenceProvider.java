@@ -0,0 +1,52 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.sequence;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.BioException;
+
+/**
+ * Source of reference sequences, for example a DAS map master.
+ * Implementations are created with their no-argument constructor so they can be named in
+ * <code>dazzlecfg.xml</code>, then initialised with {@link #init(String)}.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public interface SequenceProvider {
+
+    /**
+     * Initialises provider
+     *
+     * @param   mapMaster       URL of DAS reference server (may be ignored)
+     * @throws  BioException    if provider could not be initialised
+     */
+    public void init(String mapMaster) throws BioException;
+
+    /**
+     * Returns fully-fetched sequence
+     *
+     * @param   id  sequence ID
+     * @return  sequence
+     * @throws  BioException    if sequence could not be found or fetched
+     *                          (<code>IllegalIDException</code> if ID is not known)
+     */
+    public Sequence getSequence(String id) throws BioException;
+
+}
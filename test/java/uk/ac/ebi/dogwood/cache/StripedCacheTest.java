@@ -0,0 +1,185 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.cache;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests {@link StripedCache} with one stripe, so admission and eviction order are predictable.
+ * The window of a cache this small holds one entry, so each put moves the previous new entry
+ * to the main part.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class StripedCacheTest extends TestCase {
+
+    // Weight is the value
+    private static final StripedCache.Weigher VALUES = new StripedCache.Weigher() {
+        public int weigh(Object key, Object value) {
+            return ((Integer) value).intValue();
+        }
+    };
+
+    public void testGetAndPut()  {
+        StripedCache cache = new StripedCache(10, StripedCache.ENTRIES, 1);
+        assertNull(cache.get("a"));
+        assertTrue(cache.put("a", "1"));
+        assertEquals("1", cache.get("a"));
+        assertTrue(cache.put("a", "2"));
+        assertEquals("2", cache.peek("a"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getWeight());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        cache.remove("a");
+        assertNull(cache.peek("a"));
+        assertEquals(0, cache.getWeight());
+    }
+
+    /**
+     * Candidate leaving the window has been looked up more often than the least recently used entry
+     */
+    public void testAdmission()  {
+        StripedCache cache = new StripedCache(3, StripedCache.ENTRIES, 1);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        lookup(cache, "c", 3);
+        cache.put("d", "d");    // c leaves window, replacing a
+        assertNull(cache.peek("a"));
+        assertPresent(cache, new String[]{"b", "c", "d"});
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(0, cache.getRejectionCount());
+        assertEquals(3, cache.getWeight());
+    }
+
+    /**
+     * Candidate leaving the window has been looked up less often than the least recently used entry
+     */
+    public void testRejection()  {
+        StripedCache cache = new StripedCache(3, StripedCache.ENTRIES, 1);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("c", "c");
+        lookup(cache, "a", 3);
+        lookup(cache, "b", 3);
+        cache.put("d", "d");    // c leaves window but a is used more often
+        assertNull(cache.peek("c"));
+        assertPresent(cache, new String[]{"a", "b", "d"});
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(3, cache.getWeight());
+    }
+
+    /**
+     * Candidate needs two victims: the first is used less often than the candidate but the second
+     * more often, so the candidate is rejected and both victims stay
+     */
+    public void testRejectionKeepsVictims()  {
+        StripedCache cache = new StripedCache(4, VALUES, 1);
+        cache.put("x", Integer.valueOf(1));
+        cache.put("y", Integer.valueOf(1));
+        cache.put("c", Integer.valueOf(2));
+        lookup(cache, "y", 5);
+        lookup(cache, "c", 1);
+        cache.put("d", Integer.valueOf(2));     // c leaves window: needs x and y removed
+        assertNull(cache.peek("c"));
+        assertPresent(cache, new String[]{"x", "y", "d"});
+        assertEquals(0, cache.getEvictionCount());
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(4, cache.getWeight());
+    }
+
+    /**
+     * Entries that are never looked up replace the least recently used ones
+     */
+    public void testEviction()  {
+        StripedCache cache = new StripedCache(10, StripedCache.ENTRIES, 1);
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(10, cache.getWeight());
+        assertEquals(90, cache.getEvictionCount());
+        assertEquals(0, cache.getRejectionCount());
+        for (int i = 90; i < 100; i++) {
+            assertEquals("v" + i, cache.peek("k" + i));
+        }
+    }
+
+    /**
+     * Entries in steady use survive a scan of keys that are looked up once. The hot entries are
+     * looked up several times, since the sketch can overestimate a scanned key that shares counters with others.
+     */
+    public void testScanResistance()  {
+        StripedCache cache = new StripedCache(10, StripedCache.ENTRIES, 1);
+        for (int i = 0; i < 9; i++) {
+            cache.put("hot" + i, "v");
+        }
+        for (int i = 0; i < 9; i++) {
+            lookup(cache, "hot" + i, 5);
+        }
+        for (int i = 0; i < 100; i++) {
+            String key = "scan" + i;
+            cache.get(key);
+            cache.put(key, "v");
+        }
+        for (int i = 0; i < 9; i++) {
+            assertNotNull("hot" + i, cache.peek("hot" + i));
+        }
+        assertTrue(cache.getWeight() <= cache.getCapacity());
+    }
+
+    public void testTooHeavy()  {
+        StripedCache cache = new StripedCache(4, VALUES, 1);
+        cache.put("a", Integer.valueOf(1));
+        assertFalse(cache.put("a", Integer.valueOf(5)));
+        assertNull(cache.peek("a"));
+        assertEquals(1, cache.getRejectionCount());
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testClear()  {
+        StripedCache cache = new StripedCache(10, StripedCache.ENTRIES, 2);
+        for (int i = 0; i < 5; i++) {
+            cache.put("k" + i, "v" + i);
+        }
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertTrue(cache.getKeys().isEmpty());
+    }
+
+    // Private methods
+
+    private static void lookup(StripedCache cache, String key, int times)  {
+        for (int i = 0; i < times; i++) {
+            assertNotNull(key, cache.get(key));
+        }
+    }
+
+    private static void assertPresent(StripedCache cache, String[] keys)  {
+        for (int i = 0; i < keys.length; i++) {
+            assertNotNull(keys[i], cache.peek(keys[i]));
+        }
+        assertEquals(keys.length, cache.size());
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Tests {@link BlockCompressedFile} with <code>indexed.gff.gz</code> in the test data directory:
+ * a small GFF file compressed in blocks of 229 bytes (so segments and records span several blocks),
+ * the second of which has another extra field before the <code>BC</code> field.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class BlockCompressedFileTest extends TestCase {
+
+    // Tests run in the test data directory
+    static final File FILE          = new File("indexed.gff.gz");
+    static final int BLOCK_SIZE     = 229;      // Uncompressed bytes in each block but the last
+
+    private BlockCompressedFile file;
+    private byte[] text;                // Uncompressed file
+    private long[] addresses;           // Address of each block in the compressed file
+
+    protected void setUp() throws Exception {
+        file      = new BlockCompressedFile(FILE);
+        text      = readText(FILE);
+        addresses = readAddresses(FILE);
+    }
+
+    public void testVirtualOffsets()  {
+        assertEquals(0, BlockCompressedFile.getBlockAddress(0));
+        assertEquals(0, BlockCompressedFile.getBlockOffset(0));
+        long offset = (5L << 16) | 7;
+        assertEquals(5, BlockCompressedFile.getBlockAddress(offset));
+        assertEquals(7, BlockCompressedFile.getBlockOffset(offset));
+        // Addresses use all 48 bits, and the top bit must not be taken as a sign
+        offset = (0x123456789AL << 16) | 0xBEEF;
+        assertEquals(0x123456789AL, BlockCompressedFile.getBlockAddress(offset));
+        assertEquals(0xBEEF, BlockCompressedFile.getBlockOffset(offset));
+        assertEquals(0xFFFFFFFFFFFFL, BlockCompressedFile.getBlockAddress(-1L));
+        assertEquals(0xFFFF, BlockCompressedFile.getBlockOffset(-1L));
+    }
+
+    public void testReadWholeFile() throws IOException {
+        assertTrue("Fixture should have several blocks", addresses.length > 3);
+        assertEquals(new String(text), new String(file.read(0, FILE.length() << 16)));
+    }
+
+    public void testReadWithinBlock() throws IOException {
+        assertEquals(substring(16, 100), new String(file.read(16, 100)));
+        assertEquals(substring(BLOCK_SIZE + 3, BLOCK_SIZE + 50),
+                     new String(file.read(getOffset(BLOCK_SIZE + 3), getOffset(BLOCK_SIZE + 50))));
+        assertEquals(0, file.read(getOffset(30), getOffset(30)).length);
+    }
+
+    public void testReadAcrossBlocks() throws IOException {
+        for (int begin = 0; begin < text.length; begin += 37) {
+            for (int end = begin; end <= text.length; end += 53) {
+                assertEquals(begin + "-" + end, substring(begin, end),
+                             new String(file.read(getOffset(begin), getOffset(end))));
+            }
+        }
+    }
+
+    /**
+     * The end of a block can be given as an offset equal to the block's length (as htslib does)
+     * or as offset 0 in the next block
+     */
+    public void testEndOfBlock() throws IOException {
+        for (int b = 1; b < addresses.length; b++) {
+            int end = b * BLOCK_SIZE;
+            long endOfBlock = (addresses[b - 1] << 16) | BLOCK_SIZE;
+            long nextBlock  = addresses[b] << 16;
+            assertEquals(substring(10, end), new String(file.read(10, endOfBlock)));
+            assertEquals(substring(10, end), new String(file.read(10, nextBlock)));
+        }
+    }
+
+    public void testExtraField() throws IOException {
+        // Fixture check: second block has 13 bytes of extra fields (XY with 3 bytes, then BC)
+        RandomAccessFile in = new RandomAccessFile(FILE, "r");
+        try {
+            in.seek(addresses[1] + 10);
+            assertEquals(13, in.read() | (in.read() << 8));
+        }
+        finally {
+            in.close();
+        }
+        assertEquals(substring(BLOCK_SIZE, 2 * BLOCK_SIZE),
+                     new String(file.read(addresses[1] << 16, addresses[2] << 16)));
+    }
+
+    public void testNotBlockCompressed() throws IOException {
+        File gzip = File.createTempFile("dogwood", ".gz");
+        try {
+            OutputStream out = new GZIPOutputStream(new FileOutputStream(gzip));
+            out.write(text);
+            out.close();
+            try {
+                new BlockCompressedFile(gzip).read(0, 100);
+                fail("Plain gzip file should not be read");
+            }
+            catch (IOException e)   {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Not a BGZF file"));
+            }
+        }
+        finally {
+            gzip.delete();
+        }
+    }
+
+    // Private methods
+
+    // Returns virtual offset of position in uncompressed file
+    private long getOffset(int position)  {
+        int block = position / BLOCK_SIZE;
+        if (block == addresses.length)  {
+            return (addresses[block - 1] << 16) | BLOCK_SIZE;
+        }
+        return (addresses[block] << 16) | (position % BLOCK_SIZE);
+    }
+
+    private String substring(int begin, int end)  {
+        return new String(text, begin, end - begin);
+    }
+
+    static byte[] readText(File file) throws IOException {
+        InputStream in = new GZIPInputStream(new FileInputStream(file));
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // Returns addresses of blocks with data, from the size in each block's BC field
+    private static long[] readAddresses(File file) throws IOException {
+        List list = new ArrayList();
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long address = 0;
+            while (address < in.length())   {
+                in.seek(address + 10);
+                int extraLength = in.read() | (in.read() << 8);
+                int size = -1;
+                for (int i = 0; i < extraLength; ) {
+                    int id1 = in.read();
+                    int id2 = in.read();
+                    int length = in.read() | (in.read() << 8);
+                    if (id1 == 'B' && id2 == 'C')   {
+                        size = (in.read() | (in.read() << 8)) + 1;
+                    }
+                    else    {
+                        in.skipBytes(length);
+                    }
+                    i += 4 + length;
+                }
+                in.seek(address + size - 4);
+                int uncompressed = in.read() | (in.read() << 8) | (in.read() << 16) | (in.read() << 24);
+                if (uncompressed > 0)   {
+                    list.add(Long.valueOf(address));
+                }
+                address += size;
+            }
+        }
+        finally {
+            in.close();
+        }
+        long[] addresses = new long[list.size()];
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = ((Long) list.get(i)).longValue();
+        }
+        return addresses;
+    }
+
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Tests the feature ID and Target indexes of {@link GFFStore} with <code>ids.gff.gz</code> in the
+ * test data directory, both parsed into memory and opened through its tabix index
+ * (<code>ids.gff.gz.tbi</code>). The file is compressed in blocks of 229 bytes, like
+ * <code>indexed.gff.gz</code> (see {@link BlockCompressedFileTest}); its records have several IDs
+ * and Targets, and some IDs appear in more than one segment.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class FeatureIDIndexTest extends TestCase {
+
+    // Tests run in the test data directory
+    private static final File FILE          = new File("ids.gff.gz");
+    private static final File INDEX_FILE    = new File("ids.gff.gz.tbi");
+
+    private GFFStore[] stores;
+
+    protected void setUp() throws Exception {
+        stores = new GFFStore[]{parse(1), parse(2), open(1), open(2)};
+    }
+
+    public void testSize()  {
+        for (int i = 0; i < stores.length; i++) {
+            assertTrue(stores[i].isIndexed() == (i >= 2));
+            // F1-F5, ALIAS1 and SHARED
+            assertEquals(7, stores[i].getIDIndex().size());
+            assertEquals(10, stores[i].getIDIndex().countEntries());
+            assertEquals(3, stores[i].getTargetIndex().size());
+            assertEquals(7, stores[i].getTargetIndex().countEntries());
+        }
+    }
+
+    /**
+     * Every value of an attribute is indexed, not just the first
+     */
+    public void testSeveralValues()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex index = stores[i].getIDIndex();
+            assertHits("P12345[1]:F2", index.get("F2"));
+            assertHits("P12345[1]:ALIAS1", index.get("ALIAS1"));
+            assertHits("O00151[0]:F5", index.get("F5"));
+        }
+    }
+
+    /**
+     * Records are returned in segment name order, then file order
+     */
+    public void testShared()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex index = stores[i].getIDIndex();
+            assertHits("O00151[0]:SHARED P12345[2]:SHARED Q9H0H5[0]:SHARED", index.get("SHARED"));
+            assertHits("O00151[0]:SHARED P12345[2]:SHARED Q9H0H5[0]:SHARED", index.getIgnoreCase("shared"));
+        }
+    }
+
+    public void testCase()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex index = stores[i].getIDIndex();
+            assertHits("Q9H0H5[1]:alias1", index.get("alias1"));
+            assertHits("", index.get("Alias1"));
+            assertHits("P12345[1]:ALIAS1 Q9H0H5[1]:alias1", index.getIgnoreCase("Alias1"));
+            // Lower case attribute name
+            assertHits("Q9H0H5[2]:F4", index.get("F4"));
+        }
+    }
+
+    public void testMissing()  {
+        for (int i = 0; i < stores.length; i++) {
+            assertHits("", stores[i].getIDIndex().get("F6"));
+            assertHits("", stores[i].getIDIndex().getIgnoreCase("F"));
+            assertHits("", stores[i].getIDIndex().getByPrefix("G", 10));
+            assertHits("", stores[i].getTargetIndex().get("F1"));
+        }
+    }
+
+    public void testPrefix()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex index = stores[i].getIDIndex();
+            assertHits("P12345[0]:F1 P12345[1]:F2 Q9H0H5[1]:F3 Q9H0H5[2]:F4 O00151[0]:F5",
+                       index.getByPrefix("f", 10));
+            assertHits("P12345[0]:F1 P12345[1]:F2", index.getByPrefix("F", 2));
+            assertHits("P12345[1]:ALIAS1 Q9H0H5[1]:alias1 P12345[0]:F1", index.getByPrefix("", 3));
+        }
+    }
+
+    public void testTargets()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex index = stores[i].getTargetIndex();
+            assertHits("P12345[0]:O00151 P12345[1]:O00151 Q9H0H5[1]:O00151", index.get("O00151"));
+            assertHits("Q9H0H5[0]:P12345 Q9H0H5[1]:P12345", index.get("P12345"));
+            assertHits("O00151[0]:Q9H0H5 P12345[0]:Q9H0H5", index.get("Q9H0H5"));
+        }
+    }
+
+    /**
+     * Hits point at the records that hold the value
+     */
+    public void testRecords()  {
+        for (int i = 0; i < stores.length; i++) {
+            FeatureIDIndex.Hit[] hits = stores[i].getIDIndex().get("SHARED");
+            int[] starts = {1, 40, 5};
+            for (int j = 0; j < hits.length; j++) {
+                GFFSegment segment = hits[j].getSegment();
+                assertSame(stores[i].getSegment(segment.getName()).getClass(), segment.getClass());
+                assertEquals(starts[j], segment.getRecord(hits[j].getOrdinal()).getStart());
+                assertTrue(segment.getAttribute(hits[j].getOrdinal(), AttributeNames.ID).contains("SHARED"));
+            }
+        }
+    }
+
+    // Private methods
+
+    private static GFFStore parse(int threads) throws Exception {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(FILE))));
+        try {
+            return GFFStore.parse(reader, false, AttributeNames.DEFAULT, threads);
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    private static GFFStore open(int threads) throws Exception {
+        return GFFStore.open(FILE, INDEX_FILE, false, AttributeNames.DEFAULT, threads);
+    }
+
+    private static void assertHits(String expected, FeatureIDIndex.Hit[] hits)  {
+        StringBuffer buf = new StringBuffer();
+        for (int i = 0; i < hits.length; i++) {
+            if (i > 0)  {
+                buf.append(" ");
+            }
+            buf.append(hits[i]);
+        }
+        assertEquals(expected, buf.toString());
+    }
+
+}
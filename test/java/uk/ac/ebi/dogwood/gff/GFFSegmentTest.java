@@ -0,0 +1,94 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.program.gff.GFFTools;
+import org.biojava.bio.program.gff.SimpleGFFRecord;
+import org.biojava.bio.seq.StrandedFeature;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the content hash of {@link GFFSegment} (see {@link GFFSegment#getVersion()})
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class GFFSegmentTest extends TestCase {
+
+    /**
+     * Hash does not depend on the order of the attribute map
+     */
+    public void testAttributeOrder()  {
+        Map attributes = new LinkedHashMap();
+        attributes.put("ID", Arrays.asList(new String[]{"F1"}));
+        attributes.put("Note", Arrays.asList(new String[]{"first", "second"}));
+        attributes.put("Target", Arrays.asList(new String[]{"Q9H0H5"}));
+        Map reversed = new LinkedHashMap();
+        reversed.put("Target", attributes.get("Target"));
+        reversed.put("Note", attributes.get("Note"));
+        reversed.put("ID", attributes.get("ID"));
+        assertEquals(createSegment(attributes).getVersion(), createSegment(reversed).getVersion());
+        assertEquals(32, createSegment(attributes).getVersion().length());
+    }
+
+    public void testChanges()  {
+        Map attributes = new LinkedHashMap();
+        attributes.put("ID", Arrays.asList(new String[]{"F1"}));
+        attributes.put("Note", Arrays.asList(new String[]{"first", "second"}));
+        String version = createSegment(attributes).getVersion();
+        // Order of values is kept
+        Map changed = new LinkedHashMap(attributes);
+        changed.put("Note", Arrays.asList(new String[]{"second", "first"}));
+        assertFalse(version.equals(createSegment(changed).getVersion()));
+        // New attribute
+        changed = new LinkedHashMap(attributes);
+        changed.put("Link", Arrays.asList(new String[]{"http://www.example.com/"}));
+        assertFalse(version.equals(createSegment(changed).getVersion()));
+        // Value moved to another attribute
+        changed = new LinkedHashMap();
+        changed.put("ID", Arrays.asList(new String[]{"F1", "first"}));
+        changed.put("Note", Arrays.asList(new String[]{"second"}));
+        assertFalse(version.equals(createSegment(changed).getVersion()));
+    }
+
+    // Private methods
+
+    private static GFFSegment createSegment(Map attributes)  {
+        SimpleGFFRecord record = new SimpleGFFRecord();
+        record.setSeqName("P12345");
+        record.setSource("dogwood");
+        record.setFeature("GO:0005515");
+        record.setStart(10);
+        record.setEnd(20);
+        record.setScore(GFFTools.NO_SCORE);
+        record.setStrand(StrandedFeature.UNKNOWN);
+        record.setFrame(GFFTools.NO_FRAME);
+        record.setGroupAttributes(attributes);
+        List records = Collections.singletonList(record);
+        return new GFFSegment("P12345", records, AttributeNames.DEFAULT);
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tests {@link IntervalIndex} against a brute-force scan of the same intervals.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class IntervalIndexTest extends TestCase {
+
+    public void testEmpty()    {
+        IntervalIndex index = new IntervalIndex(new int[0], new int[0]);
+        assertEquals(0, index.size());
+        assertEquals(0, index.getOverlapping(1, 100).length);
+        assertEquals(0, index.getOverlapping(Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+    }
+
+    public void testEmptyQuery()    {
+        IntervalIndex index = new IntervalIndex(new int[]{1, 5}, new int[]{10, 20});
+        assertEquals(0, index.getOverlapping(8, 7).length);
+    }
+
+    public void testPoints()    {
+        int[] starts = {5, 1, 5, 9};
+        int[] ends   = {5, 1, 5, 9};
+        assertQueries(starts, ends, 0, 11);
+        IntervalIndex index = new IntervalIndex(starts, ends);
+        assertArrayEquals(new int[]{0, 2}, index.getOverlapping(5, 5));
+        assertArrayEquals(new int[]{0, 2}, index.getOverlapping(2, 8));
+        assertArrayEquals(new int[0], index.getOverlapping(6, 8));
+    }
+
+    public void testNested()    {
+        int[] starts = {1, 2, 3, 4, 10};
+        int[] ends   = {100, 50, 20, 4, 11};
+        assertQueries(starts, ends, 0, 102);
+        IntervalIndex index = new IntervalIndex(starts, ends);
+        // Long outer interval must be found even though later intervals end earlier
+        assertArrayEquals(new int[]{0}, index.getOverlapping(60, 70));
+        assertArrayEquals(new int[]{0, 1, 2, 4}, index.getOverlapping(11, 11));
+    }
+
+    public void testAdjacent()    {
+        int[] starts = {1, 11, 21, 31};
+        int[] ends   = {10, 20, 30, 40};
+        assertQueries(starts, ends, 0, 42);
+        IntervalIndex index = new IntervalIndex(starts, ends);
+        // Intervals are closed, so boundaries belong to one interval only
+        assertArrayEquals(new int[]{0}, index.getOverlapping(10, 10));
+        assertArrayEquals(new int[]{1}, index.getOverlapping(11, 11));
+        assertArrayEquals(new int[]{0, 1}, index.getOverlapping(10, 11));
+    }
+
+    public void testSameStart()    {
+        int[] starts = {7, 7, 7, 3};
+        int[] ends   = {8, 20, 7, 6};
+        assertQueries(starts, ends, 0, 22);
+    }
+
+    public void testRandom()    {
+        Random random = new Random(42);
+        for (int n = 1; n <= 200; n += 13)   {
+            int[] starts = new int[n];
+            int[] ends   = new int[n];
+            for (int i = 0; i < n; i++) {
+                starts[i] = random.nextInt(500);
+                // Mostly short intervals with a few long ones
+                ends[i]   = starts[i] + (random.nextInt(10) == 0 ? random.nextInt(400) : random.nextInt(10));
+            }
+            assertQueries(starts, ends, -5, 1000);
+        }
+    }
+
+    public void testDifferentLengths()    {
+        try {
+            new IntervalIndex(new int[2], new int[3]);
+            fail("Expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException e)  {
+            // Expected
+        }
+    }
+
+    // Private methods
+
+    // Checks every query range with both ends in [min, max]
+    private static void assertQueries(int[] starts, int[] ends, int min, int max)   {
+        IntervalIndex index = new IntervalIndex(starts, ends);
+        assertEquals(starts.length, index.size());
+        for (int start = min; start <= max; start++)   {
+            for (int stop = start; stop <= max; stop += 1 + (stop - start) / 4)   {
+                int[] expected = scan(starts, ends, start, stop);
+                int[] actual   = index.getOverlapping(start, stop);
+                if (!Arrays.equals(expected, actual))   {
+                    fail("[" + start + ", " + stop + "]: expected " + toString(expected) +
+                         " but was " + toString(actual));
+                }
+            }
+        }
+    }
+
+    private static int[] scan(int[] starts, int[] ends, int start, int stop)  {
+        int count = 0;
+        int[] hits = new int[starts.length];
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] <= stop && ends[i] >= start)  {
+                hits[count++] = i;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(hits, 0, result, 0, count);
+        return result;
+    }
+
+    private static void assertArrayEquals(int[] expected, int[] actual)   {
+        assertEquals(toString(expected), toString(actual));
+    }
+
+    private static String toString(int[] values)   {
+        StringBuffer buf = new StringBuffer("[");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0)  {
+                buf.append(", ");
+            }
+            buf.append(values[i]);
+        }
+        return buf.append("]").toString();
+    }
+
+}
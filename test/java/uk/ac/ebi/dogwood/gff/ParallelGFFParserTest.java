@@ -0,0 +1,219 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.program.gff.GFFDocumentHandler;
+import org.biojava.bio.program.gff.GFFParser;
+import org.biojava.bio.program.gff.GFFRecord;
+import org.biojava.utils.ParserException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests that {@link ParallelGFFParser} passes the same records and comments, in the same order,
+ * as a single <code>GFFParser</code>. Chunks are made small and the file is read a few characters
+ * at a time, so chunk boundaries fall at many different places in the lines.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class ParallelGFFParserTest extends TestCase {
+
+    private static final int[] CHUNK_SIZES  = {1, 50, 333, 4096};
+    private static final int[] THREADS      = {1, 3};
+
+    private ExecutorService executor = null;
+
+    protected void setUp()  {
+        executor = Executors.newFixedThreadPool(3);
+    }
+
+    protected void tearDown()  {
+        executor.shutdownNow();
+    }
+
+    public void testSameAsGFFParser() throws Exception {
+        String gff = createGFF(500, true);
+        List expected = parse(gff);
+        assertEquals(500 + 49 + 2, expected.size()); // Records, comments and directives
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            for (int j = 0; j < THREADS.length; j++) {
+                String msg = "chunk size " + CHUNK_SIZES[i] + ", " + THREADS[j] + " threads";
+                assertEquals(msg, expected, parse(gff, CHUNK_SIZES[i], THREADS[j], null));
+            }
+        }
+    }
+
+    public void testNoFinalNewline() throws Exception {
+        String gff = createGFF(100, false);
+        List expected = parse(gff);
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            assertEquals(expected, parse(gff, CHUNK_SIZES[i], 3, null));
+        }
+    }
+
+    public void testSharedValues() throws Exception {
+        String gff = createGFF(500, true);
+        List expected = parse(gff);
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            SymbolTable symbols = new SymbolTable();
+            assertEquals(expected, parse(gff, CHUNK_SIZES[i], 3, symbols));
+            assertTrue(symbols.getSharedCount() > 0);
+        }
+    }
+
+    public void testEmpty() throws Exception {
+        assertEquals(new ArrayList(), parse("", 50, 3, null));
+    }
+
+    /**
+     * Line number of a bad record is counted from the start of the file, not of its chunk
+     */
+    public void testErrorLineNumber() throws Exception {
+        StringBuffer buf = new StringBuffer(createGFF(300, true));
+        buf.append("P1\tsrc\ttype\tnot-a-number\t10\t.\t+\t.\tID \"bad\"\n");
+        buf.append(createGFF(10, true));
+        String gff = buf.toString();
+        int expected = getErrorLine(gff, 0, 0);
+        assertTrue(expected > 300);
+        for (int i = 0; i < CHUNK_SIZES.length; i++) {
+            assertEquals("chunk size " + CHUNK_SIZES[i], expected, getErrorLine(gff, CHUNK_SIZES[i], 3));
+        }
+    }
+
+    // Private methods
+
+    // Records with varied lengths, strands, frames, scores and attributes, and a comment every 10 records
+    private static String createGFF(int records, boolean finalNewline)  {
+        StringBuffer buf = new StringBuffer("##gff-version 2\n##sequence-region P0 1 1000\n");
+        String[] strands = {"+", "-", "."};
+        String[] frames  = {"0", "1", "2", "."};
+        for (int i = 0; i < records; i++) {
+            if (i > 0 && i % 10 == 0) {
+                buf.append("# Comment before record " + i + "\n");
+            }
+            buf.append("P" + (i / 50) + "\tsource" + (i % 3) + "\tGO:000" + (i % 7) + "\t");
+            buf.append((i + 1) + "\t" + (i + 1 + i % 13) + "\t");
+            buf.append((i % 4 == 0 ? "." : String.valueOf(i / 10.0)) + "\t");
+            buf.append(strands[i % 3] + "\t" + frames[i % 4] + "\t");
+            buf.append("ID \"F" + i + "\"");
+            for (int j = 0; j < i % 5; j++) {
+                buf.append(" ; Note \"Note " + j + " of feature " + i + "\"");
+            }
+            if (i % 6 == 0) {
+                buf.append(" ; Target \"T" + (i % 17) + "\" " + i + " " + (i + 5));
+            }
+            if (i % 9 == 0) {
+                buf.append("\t# Trailing comment " + i);
+            }
+            if (finalNewline || i < records - 1)   {
+                buf.append("\n");
+            }
+        }
+        return buf.toString();
+    }
+
+    // Parses with a single GFFParser
+    private static List parse(String gff) throws Exception {
+        Collector collector = new Collector();
+        new GFFParser().parse(new BufferedReader(new StringReader(gff)), collector, "test");
+        return collector.items;
+    }
+
+    private List parse(String gff, int chunkSize, int threads, SymbolTable symbols) throws Exception {
+        Collector collector = new Collector();
+        new ParallelGFFParser(executor, threads, symbols, chunkSize).parse(new SlowReader(gff), collector, "test");
+        return collector.items;
+    }
+
+    // Returns line number of the first bad record (chunk size 0 means use GFFParser)
+    private int getErrorLine(String gff, int chunkSize, int threads) throws Exception {
+        try {
+            if (chunkSize == 0) {
+                parse(gff);
+            }
+            else    {
+                parse(gff, chunkSize, threads, null);
+            }
+        }
+        catch (ParserException e)   {
+            return e.getLineNumber();
+        }
+        fail("Expected ParserException");
+        return -1;
+    }
+
+    // Describes record (GFFRecord has no equals)
+    private static String describe(GFFRecord r)  {
+        return r.getSeqName() + "|" + r.getSource() + "|" + r.getFeature() + "|" + r.getStart() + "|" +
+               r.getEnd() + "|" + r.getScore() + "|" + r.getStrand() + "|" + r.getFrame() + "|" +
+               new TreeMap(r.getGroupAttributes()) + "|" + r.getComment();
+    }
+
+    // Collects records (as descriptions) and comments in order
+    private static final class Collector implements GFFDocumentHandler {
+
+        final List items = new ArrayList();
+
+        public void startDocument(String locator) {
+        }
+
+        public void endDocument() {
+        }
+
+        public void commentLine(String comment) {
+            items.add("#" + comment);
+        }
+
+        public void recordLine(GFFRecord record) {
+            items.add(describe(record));
+        }
+    }
+
+    // Returns at most a few characters from each read
+    private static final class SlowReader extends Reader {
+
+        private final Reader reader;
+        private int next = 0;
+
+        SlowReader(String text)  {
+            this.reader = new StringReader(text);
+        }
+
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            next = (next + 1) % 17;
+            return reader.read(buffer, offset, Math.min(length, 1 + next));
+        }
+
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+}
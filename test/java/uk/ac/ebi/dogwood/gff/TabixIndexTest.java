@@ -0,0 +1,131 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.gff;
+
+import junit.framework.TestCase;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Tests {@link TabixIndex} with the indexes of <code>indexed.gff.gz</code> in the test data directory
+ * (see {@link BlockCompressedFileTest}). <code>indexed.gff.gz.tbi</code> ends spans at the end of a
+ * block where a segment finishes on a block boundary, as tabix does;
+ * <code>indexed-next-block.gff.gz.tbi</code> ends them at the start of the next block.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class TabixIndexTest extends TestCase {
+
+    private static final String[] NAMES    = {"P12345", "Q9H0H5", "O00151"};
+    private static final int[] RECORDS     = {6, 9, 4};
+
+    private BlockCompressedFile file;
+    private TabixIndex index;
+    private TabixIndex nextBlockIndex;
+
+    protected void setUp() throws Exception {
+        file           = new BlockCompressedFile(BlockCompressedFileTest.FILE);
+        index          = read("indexed.gff.gz.tbi");
+        nextBlockIndex = read("indexed-next-block.gff.gz.tbi");
+    }
+
+    public void testNames()  {
+        assertEquals(Arrays.asList(NAMES), index.getNames());
+        assertEquals("3 sequences", index.toString());
+        assertNull(index.getSpan("NOPE"));
+    }
+
+    public void testSpans() throws IOException {
+        StringBuffer all = new StringBuffer();
+        for (int i = 0; i < NAMES.length; i++) {
+            String records = new String(read(index, NAMES[i]));
+            String[] lines = records.split("\n");
+            assertEquals(NAMES[i], RECORDS[i], lines.length);
+            for (int j = 0; j < lines.length; j++) {
+                assertTrue(lines[j], lines[j].startsWith(NAMES[i] + "\t"));
+            }
+            all.append(records);
+        }
+        // Spans cover every record and nothing else
+        String text = new String(BlockCompressedFileTest.readText(BlockCompressedFileTest.FILE));
+        assertEquals(text.substring(text.indexOf('\n') + 1), all.toString());
+    }
+
+    /**
+     * Each sequence's meta-bin holds its record counts, which would be taken as virtual offsets
+     * near the start of the file if the bin were read as a chunk
+     */
+    public void testMetaBinSkipped() throws IOException {
+        for (int i = 0; i < NAMES.length; i++) {
+            long[] span = index.getSpan(NAMES[i]);
+            assertTrue(NAMES[i], span[0] > RECORDS[i]);
+            assertTrue(NAMES[i], new String(read(index, NAMES[i])).startsWith(NAMES[i] + "\t"));
+        }
+        // The last sequence starts at a block boundary, past the first block
+        assertTrue(BlockCompressedFile.getBlockAddress(index.getSpan("O00151")[0]) > 0);
+        assertEquals(0, BlockCompressedFile.getBlockOffset(index.getSpan("O00151")[0]));
+    }
+
+    public void testEndOffsets() throws IOException {
+        // Q9H0H5 ends on a block boundary: at the end of its last block in one index,
+        // at the start of the next block in the other
+        long[] end  = index.getSpan("Q9H0H5");
+        long[] next = nextBlockIndex.getSpan("Q9H0H5");
+        assertEquals(BlockCompressedFileTest.BLOCK_SIZE, BlockCompressedFile.getBlockOffset(end[1]));
+        assertEquals(0, BlockCompressedFile.getBlockOffset(next[1]));
+        assertTrue(BlockCompressedFile.getBlockAddress(end[1]) < BlockCompressedFile.getBlockAddress(next[1]));
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(NAMES[i], new String(read(index, NAMES[i])), new String(read(nextBlockIndex, NAMES[i])));
+        }
+    }
+
+    public void testNotTabixIndex() throws IOException {
+        InputStream in = new FileInputStream(BlockCompressedFileTest.FILE);
+        try {
+            TabixIndex.read(in);
+            fail("GFF file should not be read as an index");
+        }
+        catch (IOException e)   {
+            assertEquals("Not a tabix index", e.getMessage());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    // Private methods
+
+    private byte[] read(TabixIndex index, String name) throws IOException {
+        long[] span = index.getSpan(name);
+        return file.read(span[0], span[1]);
+    }
+
+    private static TabixIndex read(String name) throws IOException {
+        InputStream in = new FileInputStream(name);
+        try {
+            return TabixIndex.read(in);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import junit.framework.TestCase;
+
+import uk.ac.ebi.dogwood.holder.impl.OntologyMapHolderImpl;
+import uk.ac.ebi.hawthorn.OntologyMap;
+
+import javax.servlet.ServletContext;
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests that an {@link OntologySnapshot} saved to a file reads back the same, that damaged
+ * files are rejected, and that {@link OntologyMapHolderImpl} loads the ontologies when its
+ * snapshot file cannot be read.
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class OntologySnapshotTest extends TestCase {
+
+    private static final int TERMS = 20;
+
+    private File dir;
+    private File propertiesFile;
+    private File snapshotFile;
+    private OntologySnapshot snapshot;
+    private OntologyMapHolderImpl holder = null;
+    private final List messages = new ArrayList();    // Logged by servlet context
+
+    protected void setUp() throws Exception {
+        dir = File.createTempFile("dogwood", "");
+        dir.delete();
+        dir.mkdir();
+        File obo = new File(dir, "go.obo");
+        writeObo(obo);
+        propertiesFile = new File(dir, "ontologies.properties");
+        PrintWriter out = new PrintWriter(new FileWriter(propertiesFile));
+        try {
+            // OboOntology opens its URI itself, so use a file path
+            out.print("GO.uri=" + obo.getAbsolutePath() + "\n");
+            out.print("GO.refresh-interval=86400\n");
+            out.print("GO.class=uk.ac.ebi.hawthorn.OboOntology\n");
+        }
+        finally {
+            out.close();
+        }
+        snapshotFile = new File(dir, "ontologies.ser");
+        snapshot = OntologySnapshot.create(new OntologyMap(new FileInputStream(propertiesFile), null));
+    }
+
+    protected void tearDown()  {
+        if (holder != null) {
+            holder.destroy();
+        }
+        File[] files = dir.listFiles();
+        for (int i = 0; i < files.length; i++) {
+            files[i].delete();
+        }
+        dir.delete();
+    }
+
+    public void testRoundTrip() throws IOException {
+        assertEquals(TERMS, snapshot.countTerms());
+        assertTrue(snapshot.countLinks() > TERMS);
+        snapshot.write(snapshotFile);
+        assertFalse(new File(dir, "ontologies.ser.tmp").exists());
+        OntologySnapshot read = OntologySnapshot.read(snapshotFile);
+        assertTrue(read.hasSameTerms(snapshot));
+        assertTrue(snapshot.hasSameTerms(read));
+        assertEquals(snapshot.getTimestamp(), read.getTimestamp());
+        assertEquals(0, read.getGeneration());
+        assertEquals(snapshot.countTerms(), read.countTerms());
+        assertEquals(snapshot.countLinks(), read.countLinks());
+        assertEquals(snapshot.getTerms("GO"), read.getTerms("GO"));
+        assertEquals(snapshot.getClosure("GO"), read.getClosure("GO"));
+        assertEquals("GO term 7", read.getTerm("GO:0000007"));
+        assertTrue(read.isA("GO:0000007", "GO:0000001"));
+        assertTrue(read.isA("GO:0000010", "GO:0000002"));      // part_of
+        assertFalse(read.isA("GO:0000001", "GO:0000007"));
+        // Replaced terms are saved too, and the file is overwritten
+        Map terms = new HashMap(snapshot.getTerms("GO"));
+        terms.put("GO:0000007", "GO term seven");
+        OntologySnapshot changed = snapshot.withTerms("GO", terms);
+        changed.write(snapshotFile);
+        read = OntologySnapshot.read(snapshotFile);
+        assertTrue(read.hasSameTerms(changed));
+        assertFalse(read.hasSameTerms(snapshot));
+        assertEquals("GO term seven", read.getTerm("GO:0000007"));
+    }
+
+    public void testTruncated() throws IOException {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        for (int length = 0; length < bytes.length; length++) {
+            assertNotRead("Truncated to " + length + " bytes", copyOf(bytes, length));
+        }
+    }
+
+    public void testBadMagic() throws IOException {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        bytes[0] = 'X';
+        assertNotRead("Bad magic", bytes);
+    }
+
+    public void testBadVersion() throws IOException {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        bytes[7] = 0;
+        assertNotRead("Version 0", bytes);
+        bytes[7] = 3;
+        assertNotRead("Version 3", bytes);
+    }
+
+    public void testHashMismatch() throws IOException {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        // Change a term without making the file unreadable
+        int i = indexOf(bytes, "GO term 13");
+        assertTrue(i > 0);
+        byte[] changed = copyOf(bytes, bytes.length);
+        changed[i + 9] = '4';
+        assertNotRead("Changed term", changed);
+        // Change last byte of hash
+        changed = copyOf(bytes, bytes.length);
+        changed[bytes.length - 1] ^= 1;
+        assertNotRead("Changed hash", changed);
+        // Extra byte after hash
+        changed = copyOf(bytes, bytes.length + 1);
+        assertNotRead("Extra byte", changed);
+    }
+
+    /**
+     * Holder serves a saved snapshot straight away, then replaces it with the ontologies it loads
+     */
+    public void testHolderReadsSnapshot() throws Exception {
+        Map terms = new HashMap(snapshot.getTerms("GO"));
+        terms.put("GO:0000007", "GO term seven");
+        snapshot.withTerms("GO", terms).write(snapshotFile);
+        holder = createHolder();
+        OntologySnapshot s = holder.getOntologySnapshot(createContext(), null);
+        assertEquals("GO term seven", s.getTerm("GO:0000007"));
+        assertTrue(waitFor("GO term 7"));
+    }
+
+    public void testHolderLoadsIfSnapshotTruncated() throws Exception {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        writeBytes(snapshotFile, copyOf(bytes, bytes.length / 2));
+        assertHolderLoads();
+    }
+
+    public void testHolderLoadsIfSnapshotHasBadMagic() throws Exception {
+        writeBytes(snapshotFile, "Not a snapshot".getBytes());
+        assertHolderLoads();
+    }
+
+    public void testHolderLoadsIfSnapshotHashMismatch() throws Exception {
+        snapshot.write(snapshotFile);
+        byte[] bytes = readBytes(snapshotFile);
+        bytes[indexOf(bytes, "GO term 13") + 9] = '4';
+        writeBytes(snapshotFile, bytes);
+        assertHolderLoads();
+    }
+
+    // Private methods
+
+    // Checks that holder loads the ontologies, and saves them over the damaged snapshot
+    private void assertHolderLoads() throws Exception {
+        holder = createHolder();
+        OntologySnapshot s = holder.getOntologySnapshot(createContext(), null);
+        assertNotNull(s);
+        assertTrue(s.hasSameTerms(snapshot));
+        assertNotNull(holder.getOntologyMap(null, null));
+        assertTrue(messages.toString(), messages.contains("Could not read ontology snapshot from " + snapshotFile));
+        for (int i = 0; i < 50; i++) {
+            try {
+                assertTrue(OntologySnapshot.read(snapshotFile).hasSameTerms(snapshot));
+                return;
+            }
+            catch (IOException e)   {
+                Thread.sleep(100);
+            }
+        }
+        fail("Snapshot not saved");
+    }
+
+    // Waits for holder to publish term for GO:0000007
+    private boolean waitFor(String term) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            if (term.equals(holder.getOntologySnapshot().getTerm("GO:0000007")))  {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+
+    private OntologyMapHolderImpl createHolder()  {
+        OntologyMapHolderImpl h = new OntologyMapHolderImpl();
+        h.setOntologyMapHolderID("OntologySnapshotTest");
+        h.setPropertiesFile(propertiesFile.getAbsolutePath());
+        h.setSnapshotFile(snapshotFile.getAbsolutePath());
+        return h;
+    }
+
+    // Servlet context that only records log messages (resources are read from files)
+    private ServletContext createContext()  {
+        return (ServletContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                                                       new Class[] {ServletContext.class},
+                                                       new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("log"))   {
+                    synchronized (messages) {
+                        messages.add(args[0]);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    // Terms GO:0000001 to GO:0000020, each is_a the one before and every fifth part_of GO:0000002
+    private static void writeObo(File file) throws IOException  {
+        PrintWriter out = new PrintWriter(new FileWriter(file));
+        try {
+            out.print("format-version: 1.0\n");
+            for (int i = 1; i <= TERMS; i++) {
+                out.print("\n[Term]\nid: " + formatID(i) + "\nname: GO term " + i + "\n");
+                if (i > 1)  {
+                    out.print("is_a: " + formatID(i - 1) + "\n");
+                }
+                if (i % 5 == 0) {
+                    out.print("relationship: part_of " + formatID(2) + "\n");
+                }
+            }
+            out.print("\n[Typedef]\nid: part_of\nname: part of\nis_transitive: true\n");
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    private static String formatID(int number)  {
+        String s = "000000" + number;
+        return "GO:" + s.substring(s.length() - 7);
+    }
+
+    private void assertNotRead(String msg, byte[] bytes) throws IOException {
+        writeBytes(snapshotFile, bytes);
+        try {
+            OntologySnapshot.read(snapshotFile);
+            fail(msg + ": expected IOException");
+        }
+        catch (IOException e)   {
+            // Expected
+        }
+    }
+
+    private static int indexOf(byte[] bytes, String s)  {
+        byte[] target = s.getBytes();
+        for (int i = 0; i + target.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < target.length && bytes[i + j] == target[j]) {
+                j++;
+            }
+            if (j == target.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] copyOf(byte[] bytes, int length)  {
+        byte[] copy = new byte[length];
+        System.arraycopy(bytes, 0, copy, 0, Math.min(length, bytes.length));
+        return copy;
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        }
+        finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static void writeBytes(File file, byte[] bytes) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(bytes);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+}
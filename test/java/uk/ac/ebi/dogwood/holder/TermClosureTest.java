@@ -0,0 +1,148 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import junit.framework.TestCase;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests {@link TermClosure}, with links read by {@link RelationshipReader}
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class TermClosureTest extends TestCase {
+
+    public void testSingleParent()  {
+        TermClosure.Builder builder = new TermClosure.Builder();
+        builder.addParent("GO:2", "GO:1");
+        builder.addParent("GO:3", "GO:2");
+        TermClosure closure = builder.build();
+        assertTrue(closure.isA("GO:3", "GO:1"));
+        assertTrue(closure.isA("GO:3", "GO:2"));
+        assertTrue(closure.isA("GO:2", "GO:2"));
+        assertFalse(closure.isA("GO:1", "GO:3"));
+        assertFalse(closure.isA("GO:3", "GO:4"));
+        assertFalse(closure.isA("GO:4", "GO:1"));
+        assertEquals(3, closure.size());
+        assertEquals(2, closure.countLinks());
+    }
+
+    /**
+     * Diamond plus a second root: GO:4 is_a GO:2 and GO:3, which are both is_a GO:1,
+     * and GO:4 is also is_a GO:5
+     */
+    public void testMultipleParents()  {
+        TermClosure.Builder builder = new TermClosure.Builder();
+        builder.addParent("GO:2", "GO:1");
+        builder.addParent("GO:3", "GO:1");
+        builder.addParent("GO:4", "GO:2");
+        builder.addParent("GO:4", "GO:3");
+        builder.addParent("GO:4", "GO:5");
+        builder.addParent("GO:6", "GO:4");
+        TermClosure closure = builder.build();
+        String[] ancestors = {"GO:1", "GO:2", "GO:3", "GO:4", "GO:5"};
+        for (int i = 0; i < ancestors.length; i++) {
+            assertTrue(ancestors[i], closure.isA("GO:6", ancestors[i]));
+        }
+        assertTrue(closure.isA("GO:4", "GO:5"));
+        assertFalse(closure.isA("GO:2", "GO:3"));
+        assertFalse(closure.isA("GO:3", "GO:2"));
+        assertFalse(closure.isA("GO:2", "GO:5"));
+        assertFalse(closure.isA("GO:5", "GO:1"));
+        assertEquals(set(new String[]{"GO:1", "GO:2", "GO:3", "GO:4", "GO:6"}), closure.getDescendants("GO:1"));
+        assertEquals(set(new String[]{"GO:4", "GO:5", "GO:6"}), closure.getDescendants("GO:5"));
+        assertEquals(3, closure.getParents("GO:4").length);
+    }
+
+    public void testPartOf() throws IOException {
+        String obo = "format-version: 1.2\n" +
+                     "\n" +
+                     "[Term]\n" +
+                     "id: GO:0005575\n" +
+                     "name: cellular_component\n" +
+                     "\n" +
+                     "[Term]\n" +
+                     "id: GO:0005634\n" +
+                     "name: nucleus\n" +
+                     "is_a: GO:0005575 ! cellular_component\n" +
+                     "\n" +
+                     "[Term]\n" +
+                     "id: GO:0005730\n" +
+                     "name: nucleolus\n" +
+                     "relationship: part_of GO:0005634 ! nucleus\n" +
+                     "relationship: regulates GO:0000001\n" +
+                     "\n" +
+                     "[Typedef]\n" +
+                     "id: part_of\n" +
+                     "is_a: GO:0009999\n";
+        TermClosure.Builder builder = new TermClosure.Builder();
+        RelationshipReader.readObo(new BufferedReader(new StringReader(obo)), builder);
+        TermClosure closure = builder.build();
+        assertTrue(closure.isA("GO:0005730", "GO:0005634"));
+        assertTrue(closure.isA("GO:0005730", "GO:0005575"));
+        assertFalse(closure.isA("GO:0005730", "GO:0000001"));   // Only part_of relationships
+        assertFalse(closure.isA("part_of", "GO:0009999"));      // Only [Term] stanzas
+        assertEquals(2, closure.countLinks());
+    }
+
+    /**
+     * GO:1 is_a GO:2 is_a GO:3 is_a GO:1: one link is ignored, leaving a chain of three terms
+     */
+    public void testCycle()  {
+        TermClosure.Builder builder = new TermClosure.Builder();
+        builder.addParent("GO:1", "GO:2");
+        builder.addParent("GO:2", "GO:3");
+        builder.addParent("GO:3", "GO:1");
+        builder.addParent("GO:4", "GO:1");
+        TermClosure closure = builder.build();
+        String[] cycle = {"GO:1", "GO:2", "GO:3"};
+        int pairs = 0;
+        for (int i = 0; i < cycle.length; i++) {
+            assertFalse(closure.isA(cycle[i], "GO:4"));
+            for (int j = 0; j < cycle.length; j++) {
+                if (i != j && closure.isA(cycle[i], cycle[j]))  {
+                    assertFalse(closure.isA(cycle[j], cycle[i]));
+                    pairs++;
+                }
+            }
+        }
+        assertEquals(3, pairs);
+        assertTrue(closure.isA("GO:4", "GO:1"));
+    }
+
+    public void testEmpty()  {
+        assertEquals(0, TermClosure.EMPTY.size());
+        assertFalse(TermClosure.EMPTY.isA("GO:1", "GO:2"));
+        assertTrue(TermClosure.EMPTY.isA("GO:1", "GO:1"));
+    }
+
+    // Private methods
+
+    private static Set set(String[] ids)  {
+        return new HashSet(Arrays.asList(ids));
+    }
+
+}
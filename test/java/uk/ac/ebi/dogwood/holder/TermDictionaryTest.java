@@ -0,0 +1,176 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.holder;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Tests {@link TermDictionary} against an ordinary map of the same terms
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class TermDictionaryTest extends TestCase {
+
+    public void testGet()  {
+        Map terms = new HashMap();
+        terms.put("GO:0005524", "ATP binding");
+        terms.put("GO:0000001", "mitochondrion inheritance");
+        terms.put("GO:0000000", "zero");
+        terms.put("GO:9999999", "largest");
+        TermDictionary dictionary = TermDictionary.create("GO", terms);
+        assertEquals("GO", dictionary.getPrefix());
+        assertEquals("ATP binding", dictionary.get("GO:0005524"));
+        assertEquals("zero", dictionary.get("GO:0000000"));
+        assertEquals("largest", dictionary.get("GO:9999999"));
+        assertEquals(terms, dictionary);
+        assertEquals(terms, new HashMap(dictionary));
+    }
+
+    public void testMissing()  {
+        Map terms = new HashMap();
+        terms.put("GO:0005524", "ATP binding");
+        terms.put("GO:obsolete", "obsolete");
+        TermDictionary dictionary = TermDictionary.create("GO", terms);
+        assertNull(dictionary.get("GO:0005525"));
+        assertNull(dictionary.get("GO:005524"));        // Too few digits
+        assertNull(dictionary.get("GO:00005524"));      // Too many digits
+        assertNull(dictionary.get("MI:0005524"));       // Other ontology
+        assertNull(dictionary.get("GO-0005524"));
+        assertNull(dictionary.get("GO:000552x"));
+        assertNull(dictionary.get("GO:unknown"));
+        assertNull(dictionary.get(""));
+        assertNull(dictionary.get(Integer.valueOf(5524)));
+        assertFalse(dictionary.containsKey("GO:0005525"));
+        assertTrue(dictionary.containsKey("GO:0005524"));
+        assertEquals("obsolete", dictionary.get("GO:obsolete"));
+        assertEquals(2, dictionary.size());
+    }
+
+    public void testEmpty()  {
+        TermDictionary dictionary = TermDictionary.create("GO", new HashMap());
+        assertEquals(0, dictionary.size());
+        assertTrue(dictionary.isEmpty());
+        assertNull(dictionary.get("GO:0005524"));
+        assertFalse(dictionary.entrySet().iterator().hasNext());
+    }
+
+    /**
+     * IDs that hash to the same slot are found by probing, including missing IDs whose
+     * probe passes through a run of occupied slots
+     */
+    public void testCollisions()  {
+        // Find numbers that start in the same slot of the smallest table (16 slots)
+        int[] colliding = new int[6];
+        int count = 0;
+        for (int number = 0; count < colliding.length; number++) {
+            if (slot(number, 16) == slot(0, 16))  {
+                colliding[count++] = number;
+            }
+        }
+        TermDictionary.Builder builder = new TermDictionary.Builder("GO", 4);
+        Map terms = new HashMap();
+        for (int i = 0; i < colliding.length - 1; i++) {
+            String id = formatID(colliding[i]);
+            builder.put(id, "term " + colliding[i]);
+            terms.put(id, "term " + colliding[i]);
+        }
+        TermDictionary dictionary = builder.build();
+        assertEquals(terms, dictionary);
+        assertNull(dictionary.get(formatID(colliding[colliding.length - 1])));
+        assertNull(dictionary.get(formatID(colliding[1] + 1)));
+    }
+
+    /**
+     * The builder grows beyond its expected size, and the table is sized for the number of terms
+     */
+    public void testResize()  {
+        TermDictionary.Builder builder = new TermDictionary.Builder("GO", 1);
+        Map terms = new HashMap();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String id = formatID(random.nextInt(10000000));
+            builder.put(id, "term " + i);
+            terms.put(id, "term " + i);     // Last term wins
+        }
+        TermDictionary dictionary = builder.build();
+        assertEquals(terms.size(), dictionary.size());
+        for (Iterator i = terms.entrySet().iterator(); i.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) i.next();
+            assertEquals(entry.getValue(), dictionary.get(entry.getKey()));
+        }
+        assertEquals(terms, dictionary);
+        for (int i = 0; i < 1000; i++) {
+            String id = formatID(random.nextInt(10000000));
+            assertEquals(terms.get(id), dictionary.get(id));
+        }
+    }
+
+    public void testNonAscii()  {
+        Map terms = new HashMap();
+        terms.put("GO:0000001", "\u03B1-helix binding");      // Greek
+        terms.put("GO:0000002", "Schr\u00F6dinger's cat");    // Latin-1
+        terms.put("GO:0000003", "\u65E5\u672C\u8A9E");        // CJK (3 bytes each)
+        terms.put("GO:0000004", "clef \uD834\uDD1E");         // Outside the BMP (4 bytes)
+        terms.put("GO:0000005", "caf\u00E9");                 // Ends in non-ASCII
+        terms.put("GO:0000006", "");
+        terms.put("GO:\u00E9t\u00E9", "\u00E9t\u00E9");       // Non-ASCII ID
+        TermDictionary dictionary = TermDictionary.create("GO", terms);
+        assertEquals(terms, dictionary);
+        assertEquals("\u65E5\u672C\u8A9E", dictionary.get("GO:0000003"));
+        assertEquals("clef \uD834\uDD1E", dictionary.get("GO:0000004"));
+        assertEquals("\u00E9t\u00E9", dictionary.get("GO:\u00E9t\u00E9"));
+        assertTrue(dictionary.getTermBytes() > 50);
+    }
+
+    /**
+     * Numbering is taken from the first ID, so IDs with a different number of digits are
+     * kept in the ordinary map
+     */
+    public void testOtherNumbering()  {
+        TermDictionary.Builder builder = new TermDictionary.Builder("MI", 4);
+        builder.put("MI:0018", "two hybrid");
+        builder.put("MI:00018", "five digits");
+        builder.put("MI:18", "two digits");
+        TermDictionary dictionary = builder.build();
+        assertEquals("two hybrid", dictionary.get("MI:0018"));
+        assertEquals("five digits", dictionary.get("MI:00018"));
+        assertEquals("two digits", dictionary.get("MI:18"));
+        assertEquals(3, dictionary.size());
+    }
+
+    // Private methods
+
+    private static String formatID(int number)  {
+        String s = "000000" + number;
+        return "GO:" + s.substring(s.length() - 7);
+    }
+
+    // Same hash as TermDictionary
+    private static int slot(int number, int tableSize)  {
+        int h = number * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (tableSize - 1);
+    }
+
+}
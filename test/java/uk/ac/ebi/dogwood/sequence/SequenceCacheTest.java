@@ -0,0 +1,188 @@
+/*
+ * Copyright 2006 European Bioinformatics Institute.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package uk.ac.ebi.dogwood.sequence;
+
+import junit.framework.TestCase;
+
+import org.biojava.bio.seq.Sequence;
+import org.biojava.bio.BioException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link SequenceCache}
+ *
+ * @author  Antony Quinn
+ * @version $Id$
+ * @since   1.0.5
+ */
+public class SequenceCacheTest extends TestCase {
+
+    private static final long WAIT = 5000;     // Milliseconds
+
+    public void testHitAndMiss() throws BioException {
+        SequenceCache cache = new SequenceCache(new DummySequenceProvider(10), 10, 0);
+        Sequence sequence = cache.getSequence("P12345");
+        assertEquals("P12345", sequence.getName());
+        assertSame(sequence, cache.getSequence("P12345"));
+        assertEquals(1, cache.getFetchCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Least recently used sequence is removed first
+     */
+    public void testEviction() throws BioException {
+        SequenceCache cache = new SequenceCache(new DummySequenceProvider(10), 2, 0);
+        Sequence a = cache.getSequence("A");
+        cache.getSequence("B");
+        cache.getSequence("A");     // B is now least recently used
+        cache.getSequence("C");
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertSame(a, cache.getSequence("A"));
+        assertEquals(3, cache.getFetchCount());
+        cache.getSequence("B");
+        assertEquals(4, cache.getFetchCount());
+    }
+
+    public void testExpiry() throws Exception {
+        SequenceCache cache = new SequenceCache(new DummySequenceProvider(10), 10, 1);
+        Sequence first = cache.getSequence("A");
+        Thread.sleep(1100);
+        assertNotSame(first, cache.getSequence("A"));
+        assertEquals(2, cache.getFetchCount());
+    }
+
+    /**
+     * Failed fetches are not cached, so the next request tries again
+     */
+    public void testFailure() throws BioException {
+        FailingProvider provider = new FailingProvider(1);
+        SequenceCache cache = new SequenceCache(provider, 10, 0);
+        try {
+            cache.getSequence("A");
+            fail("Expected BioException");
+        }
+        catch (BioException e)  {
+            // Expected
+        }
+        assertEquals(0, cache.size());
+        assertNotNull(cache.getSequence("A"));
+        assertEquals(2, cache.getFetchCount());
+        assertEquals(1, cache.getFailureCount());
+    }
+
+    /**
+     * Requests for a sequence that is being fetched wait for that fetch instead of starting their own
+     */
+    public void testSingleFetch() throws Exception {
+        final int THREADS = 8;
+        BlockingProvider provider = new BlockingProvider();
+        final SequenceCache cache = new SequenceCache(provider, 10, 0);
+        final List results = new ArrayList();
+        final CountDownLatch done = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(new Runnable() {
+                public void run()   {
+                    try {
+                        Sequence sequence = cache.getSequence("A");
+                        synchronized (results)  {
+                            results.add(sequence);
+                        }
+                    }
+                    catch (BioException e)  {
+                        // Counted as missing result
+                    }
+                    finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(provider.entered.await(WAIT, TimeUnit.MILLISECONDS));
+        // Wait for every thread to miss, then give them time to join the fetch
+        long deadline = System.currentTimeMillis() + WAIT;
+        while (cache.getMissCount() < THREADS && System.currentTimeMillis() < deadline)    {
+            Thread.sleep(10);
+        }
+        Thread.sleep(100);
+        provider.release.countDown();
+        assertTrue(done.await(WAIT, TimeUnit.MILLISECONDS));
+        assertEquals(THREADS, results.size());
+        for (int i = 1; i < THREADS; i++) {
+            assertSame(results.get(0), results.get(i));
+        }
+        assertEquals(1, cache.getFetchCount());
+        assertEquals(THREADS, cache.getMissCount());
+    }
+
+    // Private methods
+
+    // Fails the first n fetches
+    private static class FailingProvider implements SequenceProvider {
+
+        private final SequenceProvider provider = new DummySequenceProvider(10);
+        private int failures;
+
+        FailingProvider(int failures)  {
+            this.failures = failures;
+        }
+
+        public void init(String mapMaster)  {
+        }
+
+        public synchronized Sequence getSequence(String id) throws BioException {
+            if (failures > 0)   {
+                failures--;
+                throw new BioException("Fetch failed: " + id);
+            }
+            return provider.getSequence(id);
+        }
+
+    }
+
+    // Waits until released before returning a sequence
+    private static class BlockingProvider extends DummySequenceProvider {
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingProvider()  {
+            super(10);
+        }
+
+        public Sequence getSequence(String id)  {
+            entered.countDown();
+            try {
+                release.await();
+            }
+            catch (InterruptedException e)  {
+                Thread.currentThread().interrupt();
+            }
+            return super.getSequence(id);
+        }
+
+    }
+
+}